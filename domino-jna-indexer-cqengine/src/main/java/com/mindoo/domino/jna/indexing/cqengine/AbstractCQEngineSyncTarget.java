@@ -8,8 +8,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 
@@ -26,7 +29,9 @@ import com.mindoo.domino.jna.IItemTableData;
 import com.mindoo.domino.jna.NotesNote;
 import com.mindoo.domino.jna.NotesTimeDate;
 import com.mindoo.domino.jna.sync.ISyncTarget;
+import com.mindoo.domino.jna.sync.CompressedBitmap;
 import com.mindoo.domino.jna.sync.NotesOriginatorIdData;
+import com.mindoo.domino.jna.sync.ReaderVisibilityIndex;
 
 import edu.emory.mathcs.backport.java.util.Collections;
 
@@ -52,6 +57,7 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 	};
 	
 	private IndexedCollection<T> m_indexCollection;
+	private ReaderVisibilityIndex m_readerIndex;
 
 	//some data we need to the sync process
 	private String m_lastSyncDbReplicaId;
@@ -62,6 +68,8 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 	private ThreadLocal<List<T>> m_objectsToAdd = new ThreadLocal<List<T>>();
 	private ThreadLocal<List<T>> m_objectsToRemove = new ThreadLocal<List<T>>();
 	private ThreadLocal<Boolean> m_wiped = new ThreadLocal<Boolean>();
+	private ThreadLocal<Map<String,List<String>>> m_readersToUpdate = new ThreadLocal<Map<String,List<String>>>();
+	private ThreadLocal<Set<String>> m_readersToRemove = new ThreadLocal<Set<String>>();
 	
 	//use lock to prevent parallel indexing in multiple threads
 	private ReentrantLock m_indexLock = new ReentrantLock();
@@ -71,6 +79,7 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 		m_lastSyncEndDates = new HashMap<String, NotesTimeDate>();
 		
 		m_indexCollection = createCollection();
+		m_readerIndex = new ReaderVisibilityIndex();
 		
 		//make sure we have an index for the UNID
 		m_indexCollection.addIndex((Index<T>) HashIndex.onAttribute(OBJ_UNID));
@@ -153,6 +162,8 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 		m_objectsToAdd.set(new ArrayList<T>());
 		m_objectsToRemove.set(new ArrayList<T>());
 		m_wiped.set(null);
+		m_readersToUpdate.set(new LinkedHashMap<String,List<String>>());
+		m_readersToRemove.set(new HashSet<String>());
 		
 		//optional context object not used
 		return null;
@@ -162,6 +173,8 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 	public void clear(Object ctx) {
 		//remember to wipe the collection on sync end before adding data
 		m_wiped.set(Boolean.TRUE);
+		m_readersToUpdate.get().clear();
+		m_readersToRemove.get().clear();
 	}
 
 	@Override
@@ -221,9 +234,15 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 				m_objectsToAdd.get().add(newObj);
 				if (isLoggable(Level.FINE))
 					log(Level.FINE, "Adding entry: "+newObj);
+				
+				m_readersToRemove.get().remove(oid.getUNID());
+				m_readersToUpdate.get().put(oid.getUNID(), getReaders(oid, summaryBufferData, note));
 				return oldRemoved ? TargetResult.Updated : TargetResult.Added;
 			}
 			else {
+				if (oldRemoved) {
+					addReadersRemoval(oid.getUNID());
+				}
 				return oldRemoved ? TargetResult.Removed : TargetResult.None;
 			}
 		}
@@ -243,6 +262,38 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 	 */
 	protected abstract T toObject(NotesOriginatorIdData oid, IItemTableData summaryBufferData, NotesNote note);
 	
+	/**
+	 * Override this method to return the readers of a note for the {@link ReaderVisibilityIndex}.
+	 * The default implementation reads the item $C1$ which Domino fills with all readers and
+	 * authors of a note that has reader restrictions.
+	 * 
+	 * @param oid originator id of Domino data
+	 * @param summaryBufferData summary buffer if {@link #getWhichDataToRead()} returned {@link DataToRead#SummaryBufferAllItems} or {@link DataToRead#SummaryBufferSelectedItems}, null otherwise
+	 * @param note note if {@link #getWhichDataToRead()} returned {@link DataToRead#NoteWithAllItems} or {@link DataToRead#NoteWithSummaryItems}, null otherwise
+	 * @return readers or null if there are no reader restrictions
+	 */
+	protected List<String> getReaders(NotesOriginatorIdData oid, IItemTableData summaryBufferData, NotesNote note) {
+		if (summaryBufferData!=null) {
+			return summaryBufferData.getAsStringList("$C1$", null);
+		}
+		else if (note!=null) {
+			List<Object> readersObj = note.getItemValue("$C1$");
+			if (readersObj!=null && !readersObj.isEmpty()) {
+				List<String> readers = new ArrayList<String>(readersObj.size());
+				for (Object currReader : readersObj) {
+					readers.add(currReader.toString());
+				}
+				return readers;
+			}
+		}
+		return null;
+	}
+	
+	private void addReadersRemoval(String unid) {
+		m_readersToUpdate.get().remove(unid);
+		m_readersToRemove.get().add(unid);
+	}
+	
 	
 	@Override
 	public TargetResult noteChangedNotMatchingFormula(Object ctx, NotesOriginatorIdData oid) {
@@ -251,6 +302,7 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 		T obj = findObject(oid);
 		if (obj!=null) {
 			m_objectsToRemove.get().add(obj);
+			addReadersRemoval(oid.getUNID());
 			if (isLoggable(Level.FINE))
 				log(Level.FINE, "Removing entry: "+obj);
 			return TargetResult.Removed;
@@ -265,6 +317,7 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 		T obj = findObject(oid);
 		if (obj!=null) {
 			m_objectsToRemove.get().add(obj);
+			addReadersRemoval(oid.getUNID());
 			if (isLoggable(Level.FINE))
 				log(Level.FINE, "Removing entry: "+obj);
 			return TargetResult.Removed;
@@ -302,6 +355,8 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 		m_objectsToAdd.set(null);
 		m_objectsToRemove.set(null);
 		m_wiped.set(null);
+		m_readersToUpdate.set(null);
+		m_readersToRemove.set(null);
 		
 		log(Level.SEVERE, "Sync error occurred in CQEngine sync target.", t);
 		
@@ -330,9 +385,21 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 		}
 		m_indexCollection.update(m_objectsToRemove.get(), m_objectsToAdd.get());
 
+		if (Boolean.TRUE.equals(m_wiped.get())) {
+			m_readerIndex.clear();
+		}
+		for (String currUnid : m_readersToRemove.get()) {
+			m_readerIndex.remove(currUnid);
+		}
+		for (Map.Entry<String,List<String>> currEntry : m_readersToUpdate.get().entrySet()) {
+			m_readerIndex.setReaders(currEntry.getKey(), currEntry.getValue());
+		}
+		
 		m_objectsToAdd.set(null);
 		m_objectsToRemove.set(null);
 		m_wiped.set(null);
+		m_readersToUpdate.set(null);
+		m_readersToRemove.set(null);
 		m_initialSync = false;
 		
 		log(Level.FINE, "Sync done in CQEngine sync target");
@@ -363,6 +430,44 @@ public abstract class AbstractCQEngineSyncTarget<T extends BaseIndexObject, CTX>
 		return m_indexCollection.retrieve(query, queryOptions);
 	}
 
+	/**
+	 * Method to filter the internal CQEngine index collection and only return the objects
+	 * that a user is allowed to read. The readers of each object are taken from
+	 * {@link #getReaders(NotesOriginatorIdData, IItemTableData, NotesNote)} during the sync.
+	 * 
+	 * @param query CQEngine query
+	 * @param userNamesList user names list with name variants, wildcards, groups and optionally roles, e.g. from {@link com.mindoo.domino.jna.NotesNamesListCache#getUserNamesList(String, String)}
+	 * @return visible objects
+	 */
+	public List<T> retrieveVisible(Query<T> query, Collection<String> userNamesList) {
+		CompressedBitmap visibleDocIds = m_readerIndex.getVisibleDocIds(userNamesList);
+		
+		List<T> visibleObjects = new ArrayList<T>();
+		ResultSet<T> resultSet = m_indexCollection.retrieve(query);
+		try {
+			for (T currObj : resultSet) {
+				int docId = m_readerIndex.getDocId(currObj.getUNID());
+				if (docId!=-1 && visibleDocIds.contains(docId)) {
+					visibleObjects.add(currObj);
+				}
+			}
+		}
+		finally {
+			resultSet.close();
+		}
+		return visibleObjects;
+	}
+	
+	/**
+	 * Returns the index of document readers, which can be used to compute the UNIDs
+	 * visible for a user
+	 * 
+	 * @return index
+	 */
+	public ReaderVisibilityIndex getReaderVisibilityIndex() {
+		return m_readerIndex;
+	}
+	
 	/**
 	 * Returns the an unmodifiable version of the internal CQEngine index collection
 	 * 
@@ -10,11 +10,15 @@ import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 
 import javax.sql.DataSource;
@@ -28,6 +32,7 @@ import com.mindoo.domino.jna.NotesNote;
 import com.mindoo.domino.jna.NotesTimeDate;
 import com.mindoo.domino.jna.sync.ISyncTarget;
 import com.mindoo.domino.jna.sync.NotesOriginatorIdData;
+import com.mindoo.domino.jna.sync.ReaderVisibilityIndex;
 import com.mindoo.domino.jna.utils.NotesDateTimeUtils;
 
 /**
@@ -40,6 +45,7 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 	private static final String SQL_FLUSH_DOCS = "DELETE FROM docs;";
 	private String m_jdbcUrl;
 	private Connection m_conn;
+	private ReaderVisibilityIndex m_readerIndex;
 
 	private static final String SQL_REMOVE_DOC_BY_UNID = "DELETE from docs where __unid = ?";
 	private static final String SQL_INSERT_DOMINODOC = "INSERT INTO docs ("
@@ -104,6 +110,14 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 			+ "__seqtime_innard0, "
 			+ "__seqtime_innard1 "
 			+ "FROM docs;";
+	private static final String SQL_SCANNUMREADERS = "SELECT "
+			+ "__unid, "
+			+ "__numreaders "
+			+ "FROM docs;";
+	private static final String SQL_SCANDOCREADERS = "SELECT "
+			+ "__unid, "
+			+ "__reader "
+			+ "FROM docreaders;";
 	private static final String SQL_GETLASTSYNCDBREPLICAID = "SELECT dbid "
 			+ "FROM syncdatainfo LIMIT 1;";
 	private static final String SQL_GETLASTSYNCSELECTIONFORMULA = "SELECT selectionformula "
@@ -132,9 +146,54 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 		private PreparedStatement m_stmtInsertDominoDocReaders;
 		private PreparedStatement m_stmtUpdateDominoDoc;
 		private PreparedStatement m_stmtDeleteAllDominoDocReaders;
+		private boolean m_docsCleared;
+		private Map<String,List<String>> m_readerIndexUpdates = new LinkedHashMap<String,List<String>>();
+		private Set<String> m_readerIndexRemovals = new HashSet<String>();
 		
 		public SyncContext() {
 		}
+		
+		/**
+		 * Remembers that all documents have been removed in this sync run
+		 */
+		public void setDocsCleared() {
+			m_docsCleared = true;
+			m_readerIndexUpdates.clear();
+			m_readerIndexRemovals.clear();
+		}
+		
+		public boolean isDocsCleared() {
+			return m_docsCleared;
+		}
+		
+		/**
+		 * Remembers new readers of a document to update the {@link ReaderVisibilityIndex} after commit
+		 * 
+		 * @param unid document UNID
+		 * @param readers readers or null if there are no restrictions
+		 */
+		public void addReaderIndexUpdate(String unid, List<String> readers) {
+			m_readerIndexRemovals.remove(unid);
+			m_readerIndexUpdates.put(unid, readers);
+		}
+		
+		/**
+		 * Remembers a removed document to update the {@link ReaderVisibilityIndex} after commit
+		 * 
+		 * @param unid document UNID
+		 */
+		public void addReaderIndexRemoval(String unid) {
+			m_readerIndexUpdates.remove(unid);
+			m_readerIndexRemovals.add(unid);
+		}
+		
+		public Map<String,List<String>> getReaderIndexUpdates() {
+			return m_readerIndexUpdates;
+		}
+		
+		public Set<String> getReaderIndexRemovals() {
+			return m_readerIndexRemovals;
+		}
 
 		public String getDbId() {
 			return dbId;
@@ -538,6 +597,7 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 		try {
 			stmt = getConnection().createStatement();
 			stmt.executeUpdate(SQL_FLUSH_DOCS);
+			ctx.setDocsCleared();
 		} catch (SQLException e) {
 			throw new SqlSyncException("Error deleting content of table docs", e);
 		}
@@ -621,6 +681,7 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 			catch (SQLException e) {
 				throw new SqlSyncException("Error inserting note with UNID "+oid.getUNID(), e);
 			}
+			ctx.addReaderIndexUpdate(oid.getUNID(), readers);
 			return TargetResult.Added;
 		}
 		else {
@@ -631,6 +692,7 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 			catch (SQLException e) {
 				throw new SqlSyncException("Error updating note with UNID "+oid.getUNID(), e);
 			}
+			ctx.addReaderIndexUpdate(oid.getUNID(), readers);
 			return TargetResult.Updated;
 		}
 	}
@@ -659,9 +721,9 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 		stmt.setInt(2, seq);
 		stmt.setLong(3, seqTimeInnards[0]);
 		stmt.setLong(4, seqTimeInnards[1]);
-		Calendar seqTimeCal = NotesDateTimeUtils.innardsToCalendar(seqTimeInnards);
-		stmt.setLong(5, seqTimeCal.getTimeInMillis());
-		stmt.setLong(6, seqTimeCal.getTimeInMillis());
+		long seqTimeMillis = NotesDateTimeUtils.innardsToMillis(seqTimeInnards);
+		stmt.setLong(5, seqTimeMillis);
+		stmt.setLong(6, seqTimeMillis);
 
 		int numReaders;
 		if (readers==null) {
@@ -752,9 +814,9 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 		stmt.setInt(2, seq);
 		stmt.setLong(3, seqTimeInnards[0]);
 		stmt.setLong(4, seqTimeInnards[1]);
-		Calendar seqTimeCal = NotesDateTimeUtils.innardsToCalendar(seqTimeInnards);
-		stmt.setLong(5, seqTimeCal.getTimeInMillis());
-		stmt.setLong(6, seqTimeCal.getTimeInMillis());
+		long seqTimeMillis = NotesDateTimeUtils.innardsToMillis(seqTimeInnards);
+		stmt.setLong(5, seqTimeMillis);
+		stmt.setLong(6, seqTimeMillis);
 
 		int numReaders;
 		if (readers==null) {
@@ -902,6 +964,7 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 			if ((ctx.getRemoved() % getMaxBatchSize()) == 0) {
 				executeBatchedRemoves(ctx);
 			}
+			ctx.addReaderIndexRemoval(oid.getUNID());
 			return TargetResult.Removed;
 		} catch (SQLException e) {
 			throw new SqlSyncException("Error deleting document with UNID "+oid.getUNID(), e);
@@ -953,6 +1016,7 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 			if ((ctx.getRemoved() % getMaxBatchSize()) == 0) {
 				executeBatchedRemoves(ctx);
 			}
+			ctx.addReaderIndexRemoval(oid.getUNID());
 			return TargetResult.Removed;
 		} catch (SQLException e) {
 			throw new SqlSyncException("Error deleting document with UNID "+oid.getUNID(), e);
@@ -1062,6 +1126,8 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 			throw new SqlSyncException("Error committing current transaction", e);
 		}
 		
+		applyReaderIndexChanges(ctx);
+		
 		try {
 			ctx.getStatementFindDominoDocByUnid().close();
 		} catch (SQLException e1) {
@@ -1207,6 +1273,94 @@ public abstract class AbstractSQLSyncTarget implements ISyncTarget<AbstractSQLSy
 		
 	}
 
+	/**
+	 * Returns an in-memory index of the document readers to compute the documents
+	 * visible for a user without querying the docreaders table. The index is loaded
+	 * from the database on first access and updated after each successful sync run.
+	 * 
+	 * @return index
+	 */
+	public synchronized ReaderVisibilityIndex getReaderVisibilityIndex() {
+		if (m_readerIndex==null) {
+			m_readerIndex = loadReaderVisibilityIndex();
+		}
+		return m_readerIndex;
+	}
+	
+	/**
+	 * Reads the document readers from the database to create a new {@link ReaderVisibilityIndex}
+	 * 
+	 * @return index
+	 */
+	protected ReaderVisibilityIndex loadReaderVisibilityIndex() {
+		//readers of documents that have been removed might still exist in docreaders, so we start with the docs
+		Map<String,List<String>> readersByUnid = new HashMap<String,List<String>>();
+		
+		Statement stmt = null;
+		try {
+			stmt = getConnection().createStatement();
+			ResultSet rs = stmt.executeQuery(SQL_SCANNUMREADERS);
+			while (rs.next()) {
+				String currUnid = rs.getString("__unid");
+				int currNumReaders = rs.getInt("__numreaders");
+				readersByUnid.put(currUnid, currNumReaders==0 ? null : new ArrayList<String>(currNumReaders));
+			}
+			rs.close();
+			
+			rs = stmt.executeQuery(SQL_SCANDOCREADERS);
+			while (rs.next()) {
+				List<String> currReaders = readersByUnid.get(rs.getString("__unid"));
+				if (currReaders!=null) {
+					currReaders.add(rs.getString("__reader"));
+				}
+			}
+			rs.close();
+		} catch (SQLException e) {
+			throw new SqlSyncException("Error reading document readers of database "+m_jdbcUrl, e);
+		}
+		finally {
+			if (stmt!=null) {
+				try {
+					stmt.close();
+				} catch (SQLException e) {
+					log(Level.SEVERE, "Could not close statement", e);
+				}
+			}
+		}
+		
+		ReaderVisibilityIndex readerIndex = new ReaderVisibilityIndex();
+		for (Map.Entry<String,List<String>> currEntry : readersByUnid.entrySet()) {
+			readerIndex.setReaders(currEntry.getKey(), currEntry.getValue());
+		}
+		return readerIndex;
+	}
+	
+	/**
+	 * Applies the reader changes of a committed sync run to the {@link ReaderVisibilityIndex}
+	 * if it has already been loaded
+	 * 
+	 * @param ctx sync context
+	 */
+	private void applyReaderIndexChanges(SyncContext ctx) {
+		ReaderVisibilityIndex readerIndex;
+		synchronized (this) {
+			readerIndex = m_readerIndex;
+		}
+		if (readerIndex==null) {
+			return;
+		}
+		
+		if (ctx.isDocsCleared()) {
+			readerIndex.clear();
+		}
+		for (String currUnid : ctx.getReaderIndexRemovals()) {
+			readerIndex.remove(currUnid);
+		}
+		for (Map.Entry<String,List<String>> currEntry : ctx.getReaderIndexUpdates().entrySet()) {
+			readerIndex.setReaders(currEntry.getKey(), currEntry.getValue());
+		}
+	}
+	
 	public void closeConnection() {
 		try {
 			getConnection().close();
@@ -0,0 +1,134 @@
+package com.mindoo.domino.jna;
+
+import java.text.Collator;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import com.mindoo.domino.jna.NotesCollection.Direction;
+
+/**
+ * Comparator for lookup keys and column values that approximates the sort order of a view collation
+ * (type, direction and case/accent sensitivity of each sorted column)
+ *
+ * @author Karsten Lehmann
+ */
+class CollationKeyComparator implements Comparator<Object[]> {
+	private List<NotesCollateDescriptor> m_descriptors;
+	private Collator[] m_collators;
+
+	/**
+	 * Creates a new instance
+	 *
+	 * @param descriptors collate descriptors of the sorted columns
+	 */
+	public CollationKeyComparator(List<NotesCollateDescriptor> descriptors) {
+		m_descriptors = descriptors;
+		m_collators = new Collator[descriptors.size()];
+		for (int i=0; i<m_collators.length; i++) {
+			NotesCollateDescriptor currDesc = descriptors.get(i);
+			Collator collator = Collator.getInstance();
+			if (currDesc.isCaseSensitiveSort()) {
+				collator.setStrength(Collator.TERTIARY);
+			}
+			else if (currDesc.isAccentSensitiveSort()) {
+				collator.setStrength(Collator.SECONDARY);
+			}
+			else {
+				collator.setStrength(Collator.PRIMARY);
+			}
+			m_collators[i] = collator;
+		}
+	}
+
+	@Override
+	public int compare(Object[] keys1, Object[] keys2) {
+		int len = Math.min(keys1.length, keys2.length);
+		for (int i=0; i<len; i++) {
+			int result = compareColumn(i, keys1[i], keys2[i]);
+			if (result!=0) {
+				return result;
+			}
+		}
+		return keys1.length - keys2.length;
+	}
+
+	/**
+	 * Compares two values of a sorted column, taking the sort direction into account.
+	 * For multi-value entries, the first value is used.
+	 *
+	 * @param columnIdx index of the sorted column
+	 * @param value1 first value
+	 * @param value2 second value
+	 * @return comparison result
+	 */
+	public int compareColumn(int columnIdx, Object value1, Object value2) {
+		boolean descending = columnIdx<m_descriptors.size() && m_descriptors.get(columnIdx).getDirection()==Direction.Descending;
+		Collator collator = columnIdx<m_collators.length ? m_collators[columnIdx] : null;
+
+		int result = compareKey(toSingleValue(value1), toSingleValue(value2), collator);
+		return descending ? -result : result;
+	}
+
+	private Object toSingleValue(Object value) {
+		if (value instanceof List) {
+			List<?> valueList = (List<?>) value;
+			return valueList.isEmpty() ? null : valueList.get(0);
+		}
+		return value;
+	}
+
+	private int compareKey(Object key1, Object key2, Collator collator) {
+		int rank1 = getTypeRank(key1);
+		int rank2 = getTypeRank(key2);
+		if (rank1!=rank2) {
+			return rank1 - rank2;
+		}
+
+		if (key1 instanceof Number) {
+			return Double.compare(((Number) key1).doubleValue(), ((Number) key2).doubleValue());
+		}
+		else if (rank1==1) {
+			return toTimeDate(key1).compareTo(toTimeDate(key2));
+		}
+		else if (key1 instanceof String) {
+			if (collator==null) {
+				return ((String) key1).compareToIgnoreCase((String) key2);
+			}
+			return collator.compare((String) key1, (String) key2);
+		}
+		//ranges and empty values have no defined order, a stable sort keeps them in their original order
+		return 0;
+	}
+
+	private int getTypeRank(Object key) {
+		if (key==null) {
+			return -1;
+		}
+		else if (key instanceof Number) {
+			return 0;
+		}
+		else if (key instanceof Date || key instanceof Calendar || key instanceof NotesTimeDate) {
+			return 1;
+		}
+		else if (key instanceof String) {
+			return 2;
+		}
+		else {
+			return 3;
+		}
+	}
+
+	private NotesTimeDate toTimeDate(Object key) {
+		if (key instanceof NotesTimeDate) {
+			return (NotesTimeDate) key;
+		}
+		else if (key instanceof Calendar) {
+			return new NotesTimeDate((Calendar) key);
+		}
+		else {
+			return new NotesTimeDate((Date) key);
+		}
+	}
+}
@@ -1,12 +1,14 @@
 package com.mindoo.domino.jna;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.mindoo.domino.jna.NotesCollection.ViewLookupCallback;
@@ -32,6 +34,15 @@ public class CollectionDataCache implements Serializable {
 	private ReentrantReadWriteLock m_rwLock = new ReentrantReadWriteLock();
 	private EnumSet<ReadMask> m_readMask;
 	private static ThreadLocal<Long> m_cacheUseCounter = new ThreadLocal<Long>();
+	private Map<String,CollectionDataCacheIndex> m_indexes = new HashMap<String,CollectionDataCacheIndex>();
+	
+	/** Type of a secondary column index, see {@link CollectionDataCache#addIndex(String, IndexType)} */
+	public static enum IndexType {
+		/** index for exact value lookups */
+		HASH,
+		/** index for exact value lookups, range queries and sorting */
+		SORTED
+	}
 	
 	/**
 	 * Creates a new instance of an unbounded cache
@@ -56,6 +67,7 @@ public class CollectionDataCache implements Serializable {
 			@Override
 			protected boolean removeEldestEntry(java.util.Map.Entry<Integer, CacheableViewEntryData> eldest) {
 				if (size() > maxSize) {
+					removeFromIndexes(eldest.getKey());
 					return true;
 				}
 				else {
@@ -148,6 +160,7 @@ public class CollectionDataCache implements Serializable {
 			m_diffTime = null;
 			m_readMask = null;
 			m_cacheEntries.clear();
+			clearIndexes();
 		}
 		finally {
 			m_rwLock.writeLock().unlock();
@@ -157,10 +170,13 @@ public class CollectionDataCache implements Serializable {
 	/**
 	 * Method to fill the cache with data read from the collection
 	 * 
+	 * @param readMask read mask used to read the entries
 	 * @param diffTime diff time returned from the read operation
 	 * @param entries collection entries read
+	 * @param removedNoteIds note ids of cached entries that have been deleted or are no longer in the collection
 	 */
-	void addCacheValues(EnumSet<ReadMask> readMask, NotesTimeDate diffTime, List<NotesViewEntryData> entries) {
+	void addCacheValues(EnumSet<ReadMask> readMask, NotesTimeDate diffTime, List<NotesViewEntryData> entries,
+			Collection<Integer> removedNoteIds) {
 		m_rwLock.writeLock().lock();
 		try {
 			boolean flush = false;
@@ -173,8 +189,15 @@ public class CollectionDataCache implements Serializable {
 			}
 			if (flush) {
 				m_cacheEntries.clear();
+				clearIndexes();
 				cacheFlushed();
 			}
+			else {
+				for (Integer currNoteId : removedNoteIds) {
+					m_cacheEntries.remove(currNoteId);
+					removeFromIndexes(currNoteId.intValue());
+				}
+			}
 			
 			m_readMask = readMask;
 			m_diffTime = diffTime;
@@ -183,6 +206,10 @@ public class CollectionDataCache implements Serializable {
 				if (currEntry.hasAnyColumnValues()) {
 					CacheableViewEntryData cacheableData = currEntry.getCacheableData();
 					m_cacheEntries.put(currEntry.getNoteId(), cacheableData);
+					
+					for (CollectionDataCacheIndex currIndex : m_indexes.values()) {
+						currIndex.add(currEntry);
+					}
 				}
 			}
 		}
@@ -191,6 +218,140 @@ public class CollectionDataCache implements Serializable {
 		}
 	}
 	
+	/**
+	 * Adds a secondary index on a column to query the cached entries by column value
+	 * without reading the collection again. The index is updated with every data read from the collection.<br>
+	 * <br>
+	 * Since cached entries do not carry the column names, adding an index flushes the cache,
+	 * so that the next read operation fills the cache and the index.
+	 * 
+	 * @param columnName programmatic column name
+	 * @param type index type
+	 */
+	public void addIndex(String columnName, IndexType type) {
+		m_rwLock.writeLock().lock();
+		try {
+			String columnNameLC = columnName.toLowerCase();
+			CollectionDataCacheIndex existingIndex = m_indexes.get(columnNameLC);
+			if (existingIndex!=null && existingIndex.getType()==type) {
+				return;
+			}
+			m_indexes.put(columnNameLC, new CollectionDataCacheIndex(columnName, type));
+			
+			m_diffTime = null;
+			m_readMask = null;
+			m_cacheEntries.clear();
+			clearIndexes();
+		}
+		finally {
+			m_rwLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Removes a secondary index
+	 * 
+	 * @param columnName programmatic column name
+	 */
+	public void removeIndex(String columnName) {
+		m_rwLock.writeLock().lock();
+		try {
+			m_indexes.remove(columnName.toLowerCase());
+		}
+		finally {
+			m_rwLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Returns the note ids of all cached entries with the specified column value. For multi-value
+	 * columns, entries match if any value matches. Strings are compared case-insensitive.
+	 * 
+	 * @param columnName programmatic column name of an indexed column
+	 * @param value column value
+	 * @return note ids
+	 */
+	public Set<Integer> findNoteIds(String columnName, Object value) {
+		m_rwLock.readLock().lock();
+		try {
+			return getIndex(columnName).find(value);
+		}
+		finally {
+			m_rwLock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Returns the note ids of all cached entries with column values in the specified range,
+	 * sorted by column value. Requires an index of type {@link IndexType#SORTED}.
+	 * 
+	 * @param columnName programmatic column name of an indexed column
+	 * @param fromValue lower bound or null for no lower bound
+	 * @param fromInclusive true to include entries with lower bound value
+	 * @param toValue upper bound or null for no upper bound
+	 * @param toInclusive true to include entries with upper bound value
+	 * @param descending true to return entries in descending order
+	 * @return note ids
+	 */
+	public Set<Integer> findNoteIdsInRange(String columnName, Object fromValue, boolean fromInclusive,
+			Object toValue, boolean toInclusive, boolean descending) {
+		m_rwLock.readLock().lock();
+		try {
+			return getIndex(columnName).findRange(fromValue, fromInclusive, toValue, toInclusive, descending);
+		}
+		finally {
+			m_rwLock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Returns the note ids of all cached entries sorted by a column value. Requires an index
+	 * of type {@link IndexType#SORTED}. Entries without column value are not returned.
+	 * 
+	 * @param columnName programmatic column name of an indexed column
+	 * @param descending true to sort in descending order
+	 * @return note ids
+	 */
+	public Set<Integer> getNoteIdsSortedBy(String columnName, boolean descending) {
+		return findNoteIdsInRange(columnName, null, true, null, true, descending);
+	}
+	
+	/**
+	 * Returns the column value of a cached entry from an index
+	 * 
+	 * @param columnName programmatic column name of an indexed column
+	 * @param noteId note id of entry
+	 * @return value or null
+	 */
+	public Object getIndexedValue(String columnName, int noteId) {
+		m_rwLock.readLock().lock();
+		try {
+			return getIndex(columnName).getValue(noteId);
+		}
+		finally {
+			m_rwLock.readLock().unlock();
+		}
+	}
+	
+	private CollectionDataCacheIndex getIndex(String columnName) {
+		CollectionDataCacheIndex index = m_indexes.get(columnName.toLowerCase());
+		if (index==null)
+			throw new IllegalArgumentException("There is no index for column "+columnName);
+		return index;
+	}
+	
+	private void removeFromIndexes(int noteId) {
+		for (CollectionDataCacheIndex currIndex : m_indexes.values()) {
+			currIndex.remove(noteId);
+		}
+	}
+	
+	private void clearIndexes() {
+		for (CollectionDataCacheIndex currIndex : m_indexes.values()) {
+			currIndex.clear();
+		}
+	}
+	
 	/**
 	 * Called when the cache needed to be flushed because of view index changes.
 	 * Method is empty by default, can be overriden, e.g. to write a log entry.
@@ -0,0 +1,301 @@
+package com.mindoo.domino.jna;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.mindoo.domino.jna.CollectionDataCache.IndexType;
+
+/**
+ * Secondary index on one column of the entries in a {@link CollectionDataCache}.<br>
+ * <br>
+ * Multi-value column values are indexed with each value. Strings are compared case-insensitive,
+ * like lookups in Notes views. Instances are not thread-safe, access is synchronized by the
+ * read/write lock of the {@link CollectionDataCache}.
+ *
+ * @author Karsten Lehmann
+ */
+class CollectionDataCacheIndex implements Serializable {
+	private static final long serialVersionUID = 3062279016187364373L;
+
+	private String m_columnName;
+	private IndexType m_type;
+	private Map<Object,Set<Integer>> m_noteIdsByValue;
+	private Map<Integer,Object> m_valuesByNoteId;
+
+	/**
+	 * Creates a new index
+	 *
+	 * @param columnName programmatic column name
+	 * @param type index type
+	 */
+	public CollectionDataCacheIndex(String columnName, IndexType type) {
+		m_columnName = columnName;
+		m_type = type;
+		if (type==IndexType.SORTED) {
+			m_noteIdsByValue = new TreeMap<Object,Set<Integer>>(new IndexValueComparator());
+		}
+		else {
+			m_noteIdsByValue = new HashMap<Object,Set<Integer>>();
+		}
+		m_valuesByNoteId = new HashMap<Integer,Object>();
+	}
+
+	public String getColumnName() {
+		return m_columnName;
+	}
+
+	public IndexType getType() {
+		return m_type;
+	}
+
+	/**
+	 * Adds or updates the indexed value of a collection entry
+	 *
+	 * @param entry entry
+	 */
+	public void add(NotesViewEntryData entry) {
+		int noteId = entry.getNoteId();
+		remove(noteId);
+
+		Object value = entry.get(m_columnName);
+		if (value==null) {
+			return;
+		}
+		m_valuesByNoteId.put(noteId, value);
+
+		for (Object currKey : toIndexKeys(value, noteId)) {
+			Set<Integer> noteIds = m_noteIdsByValue.get(currKey);
+			if (noteIds==null) {
+				noteIds = new LinkedHashSet<Integer>();
+				m_noteIdsByValue.put(currKey, noteIds);
+			}
+			noteIds.add(noteId);
+		}
+	}
+
+	/**
+	 * Removes the indexed value of a collection entry
+	 *
+	 * @param noteId note id of entry
+	 */
+	public void remove(int noteId) {
+		Object oldValue = m_valuesByNoteId.remove(noteId);
+		if (oldValue==null) {
+			return;
+		}
+
+		for (Object currKey : toIndexKeys(oldValue, noteId)) {
+			Set<Integer> noteIds = m_noteIdsByValue.get(currKey);
+			if (noteIds!=null) {
+				noteIds.remove(noteId);
+				if (noteIds.isEmpty()) {
+					m_noteIdsByValue.remove(currKey);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all values from the index
+	 */
+	public void clear() {
+		m_noteIdsByValue.clear();
+		m_valuesByNoteId.clear();
+	}
+
+	/**
+	 * Returns the indexed column value of an entry
+	 *
+	 * @param noteId note id
+	 * @return value or null
+	 */
+	public Object getValue(int noteId) {
+		return m_valuesByNoteId.get(noteId);
+	}
+
+	/**
+	 * Returns the note ids of all entries with the specified value
+	 *
+	 * @param value value
+	 * @return note ids
+	 */
+	public Set<Integer> find(Object value) {
+		Set<Integer> noteIds = m_noteIdsByValue.get(toIndexKey(value, 0));
+		if (noteIds==null) {
+			return Collections.emptySet();
+		}
+		return new LinkedHashSet<Integer>(noteIds);
+	}
+
+	/**
+	 * Returns the note ids of all entries with values in the specified range, sorted by value.
+	 * Only supported by {@link IndexType#SORTED} indexes.
+	 *
+	 * @param fromValue lower bound or null for no lower bound
+	 * @param fromInclusive true to include entries with lower bound value
+	 * @param toValue upper bound or null for no upper bound
+	 * @param toInclusive true to include entries with upper bound value
+	 * @param descending true to return entries in descending order
+	 * @return note ids
+	 */
+	public Set<Integer> findRange(Object fromValue, boolean fromInclusive, Object toValue, boolean toInclusive, boolean descending) {
+		if (m_type!=IndexType.SORTED)
+			throw new IllegalStateException("Range queries require a sorted index on column "+m_columnName);
+
+		//bounds sort before or after all values that only differ from them in the note id
+		Object fromKey = fromValue==null ? null : toIndexKey(fromValue, fromInclusive ? Integer.MIN_VALUE : Integer.MAX_VALUE);
+		Object toKey = toValue==null ? null : toIndexKey(toValue, toInclusive ? Integer.MAX_VALUE : Integer.MIN_VALUE);
+
+		NavigableMap<Object,Set<Integer>> sortedMap = (NavigableMap<Object,Set<Integer>>) m_noteIdsByValue;
+		NavigableMap<Object,Set<Integer>> subMap;
+		if (fromKey!=null && toKey!=null) {
+			subMap = sortedMap.subMap(fromKey, fromInclusive, toKey, toInclusive);
+		}
+		else if (fromKey!=null) {
+			subMap = sortedMap.tailMap(fromKey, fromInclusive);
+		}
+		else if (toKey!=null) {
+			subMap = sortedMap.headMap(toKey, toInclusive);
+		}
+		else {
+			subMap = sortedMap;
+		}
+		if (descending) {
+			subMap = subMap.descendingMap();
+		}
+
+		Set<Integer> noteIds = new LinkedHashSet<Integer>();
+		for (Set<Integer> currNoteIds : subMap.values()) {
+			noteIds.addAll(currNoteIds);
+		}
+		return noteIds;
+	}
+
+	private List<Object> toIndexKeys(Object value, int noteId) {
+		if (value instanceof Collection) {
+			Collection<?> values = (Collection<?>) value;
+			List<Object> keys = new ArrayList<Object>(values.size());
+			for (Object currValue : values) {
+				if (currValue!=null) {
+					keys.add(toIndexKey(currValue, noteId));
+				}
+			}
+			return keys;
+		}
+		else {
+			return Collections.singletonList(toIndexKey(value, noteId));
+		}
+	}
+
+	/**
+	 * Converts values to a type with proper equals/hashCode implementation
+	 *
+	 * @param value value
+	 * @param noteId note id of the entry, used by sorted indexes to order different values without defined order
+	 * @return key
+	 */
+	private Object toIndexKey(Object value, int noteId) {
+		Object key;
+		if (value instanceof String) {
+			key = m_type==IndexType.HASH ? ((String) value).toLowerCase() : value;
+		}
+		else if (value instanceof Number) {
+			key = Double.valueOf(((Number) value).doubleValue());
+		}
+		else if (value instanceof Calendar) {
+			key = new NotesTimeDate((Calendar) value);
+		}
+		else if (value instanceof Date) {
+			key = new NotesTimeDate((Date) value);
+		}
+		else {
+			key = value;
+		}
+		return m_type==IndexType.SORTED ? new SortedIndexKey(key, noteId) : key;
+	}
+
+	/**
+	 * Key of the sorted index, the note id is only compared for values without any other distinction.
+	 * Equal values share one key, no matter which entry has added it.
+	 */
+	private static class SortedIndexKey implements Serializable {
+		private static final long serialVersionUID = -2409217366404622893L;
+		private Object m_value;
+		private int m_noteId;
+
+		public SortedIndexKey(Object value, int noteId) {
+			m_value = value;
+			m_noteId = noteId;
+		}
+	}
+
+	/**
+	 * Comparator for the sorted index, uses the view collation rules of {@link CollationKeyComparator}.
+	 * Values that the collation considers equal are ordered by type and value, so that only
+	 * equal values (strings: ignoring case) share a key. Otherwise, distinct values without a
+	 * defined collation order like date ranges would be merged into one key.<br>
+	 * Different values without any other distinction are ordered by note id, which, unlike
+	 * identity hash codes, is stable when the index gets serialized.
+	 */
+	private static class IndexValueComparator implements Comparator<Object>, Serializable {
+		private static final long serialVersionUID = 4485917331094282147L;
+		private transient CollationKeyComparator m_comparator;
+
+		@Override
+		public int compare(Object key1, Object key2) {
+			SortedIndexKey sortedKey1 = (SortedIndexKey) key1;
+			SortedIndexKey sortedKey2 = (SortedIndexKey) key2;
+			int result = compareValues(sortedKey1.m_value, sortedKey2.m_value);
+			if (result!=0) {
+				return result;
+			}
+			if (sortedKey1.m_value==sortedKey2.m_value || sortedKey1.m_value.equals(sortedKey2.m_value)) {
+				return 0;
+			}
+			//different values without any other distinction
+			int noteId1 = sortedKey1.m_noteId;
+			int noteId2 = sortedKey2.m_noteId;
+			return noteId1<noteId2 ? -1 : (noteId1==noteId2 ? 0 : 1);
+		}
+
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		private int compareValues(Object o1, Object o2) {
+			if (m_comparator==null) {
+				m_comparator = new CollationKeyComparator(Collections.<NotesCollateDescriptor>emptyList());
+			}
+			int result = m_comparator.compareColumn(0, o1, o2);
+			if (result!=0 || o1==o2 || o1.equals(o2)) {
+				return result;
+			}
+
+			if (o1 instanceof String && o2 instanceof String) {
+				//the collator ignores accents and some special characters
+				return ((String) o1).compareToIgnoreCase((String) o2);
+			}
+
+			result = o1.getClass().getName().compareTo(o2.getClass().getName());
+			if (result!=0) {
+				return result;
+			}
+			if (o1 instanceof Comparable) {
+				result = ((Comparable) o1).compareTo(o2);
+				if (result!=0) {
+					return result;
+				}
+			}
+			return o1.toString().compareTo(o2.toString());
+		}
+	}
+}
@@ -130,6 +130,15 @@ public interface IItemTableData extends IItemValueTableData {
 	 */
 	public List<NotesTimeDate> getAsTimeDateList(String itemName, List<NotesTimeDate> defaultValue);
 	
+	/**
+	 * Convenience function that returns the time values of a summary value as {@link NotesPackedTimeDateList}
+	 * 
+	 * @param itemName item name, case insensitive
+	 * @param defaultValue default value if column is empty or does not contain time values
+	 * @return packed time list or default value
+	 */
+	public NotesPackedTimeDateList getAsPackedTimeDateList(String itemName, NotesPackedTimeDateList defaultValue);
+	
 	/**
 	 * Convenience function that converts a summary value to a double
 	 * 
@@ -36,6 +36,16 @@ public interface IItemValueTableData {
 	 */
 	public Object getItemValue(int index);
 	
+	/**
+	 * Returns the value of a {@link NotesItem#TYPE_TIME} or {@link NotesItem#TYPE_TIME_RANGE} item
+	 * as {@link NotesPackedTimeDateList}. Values that have not been decoded yet are read directly
+	 * from the buffer without creating {@link NotesTimeDate} objects.
+	 * 
+	 * @param index item index between 0 and {@link #getItemsCount()}
+	 * @return value or null if the item does not contain time values
+	 */
+	public NotesPackedTimeDateList getItemValueAsPackedTimeDateList(int index);
+	
 	/**
 	 * Returns the data type of an item value by its index, e.g. {@link NotesItem#TYPE_TEXT},
 	 * {@link NotesItem#TYPE_TEXT_LIST}, {@link NotesItem#TYPE_NUMBER},
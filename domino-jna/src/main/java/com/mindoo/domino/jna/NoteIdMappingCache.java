@@ -0,0 +1,666 @@
+package com.mindoo.domino.jna;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mindoo.domino.jna.NotesDatabase.NoteInfo;
+import com.mindoo.domino.jna.NotesIDTable.IEnumerateCallback;
+import com.mindoo.domino.jna.constants.NoteClass;
+import com.mindoo.domino.jna.internal.NotesConstants;
+
+/**
+ * Cache for the mapping between UNIDs and note ids of one database.<br>
+ * <br>
+ * UNIDs are stored as two primitive longs and note ids as ints in open addressing hash tables,
+ * so a cache entry does not create any objects. Lookups that cannot be answered from the
+ * cache are resolved with one {@link NotesDatabase#getMultiNoteInfo(String[])} or
+ * {@link NotesDatabase#getMultiNoteInfo(int[])} call per batch.<br>
+ * <br>
+ * Deleted notes are removed incrementally via {@link NotesDatabase#getModifiedNoteTable(EnumSet, NotesTimeDate, NotesTimeDate)},
+ * either by calling {@link #update(NotesDatabase)} or automatically before lookups, see
+ * {@link #setAutoUpdateInterval(long)}. UNIDs or note ids that could not be found and deletion stubs are not cached,
+ * and lookup results are not cached if deletions have been processed while they were read from
+ * the database, so an older lookup cannot restore a mapping that has just been removed.<br>
+ * <br>
+ * Note ids are only valid for one database replica, so a cache instance can only be used for
+ * one database. The cache does not keep a reference to the {@link NotesDatabase}, so it can
+ * be shared between threads that open the database on their own, and can be assigned to
+ * all of them via {@link NotesDatabase#setNoteIdMappingCache(NoteIdMappingCache)}.
+ *
+ * @author Karsten Lehmann
+ */
+public class NoteIdMappingCache {
+	private static final int DEFAULT_MAX_ENTRIES = 100000;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final int m_maxEntries;
+	private final int m_maxCapacity;
+	private final MappingTable m_byUnid;
+	private final MappingTable m_byNoteId;
+
+	private String m_dbKey;
+	private NotesTimeDate m_since;
+	private long m_lastUpdate;
+	/** changed whenever deletions are processed or the cache is cleared, see {@link #update(NotesDatabase)} */
+	private long m_deletionStamp;
+	private volatile long m_autoUpdateIntervalMillis = 1000;
+
+	private final AtomicLong m_hits = new AtomicLong();
+	private final AtomicLong m_misses = new AtomicLong();
+	private final AtomicLong m_invalidations = new AtomicLong();
+	private final AtomicLong m_evictions = new AtomicLong();
+
+	/**
+	 * Creates a new cache with max 100.000 entries
+	 */
+	public NoteIdMappingCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Creates a new cache
+	 *
+	 * @param maxEntries max number of mappings, the cache is cleared when this number is reached
+	 */
+	public NoteIdMappingCache(int maxEntries) {
+		if (maxEntries<1)
+			throw new IllegalArgumentException("Max entries must be at least 1");
+
+		m_maxEntries = maxEntries;
+		m_maxCapacity = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.min(maxEntries, 1 << 28) * 2 - 1) << 1);
+		int initialCapacity = Math.min(INITIAL_CAPACITY, m_maxCapacity);
+		m_byUnid = new MappingTable(true, initialCapacity);
+		m_byNoteId = new MappingTable(false, initialCapacity);
+	}
+
+	/**
+	 * Sets the min time between two automatic calls to {@link #update(NotesDatabase)}
+	 * before lookups (defaults to 1000ms)
+	 *
+	 * @param millis interval in milliseconds, 0 to update before every lookup, -1 to disable automatic updates
+	 */
+	public void setAutoUpdateInterval(long millis) {
+		m_autoUpdateIntervalMillis = millis;
+	}
+
+	/**
+	 * Returns the note id for a UNID
+	 *
+	 * @param db database
+	 * @param unid UNID
+	 * @return note id or 0 if not found
+	 */
+	public int getNoteId(NotesDatabase db, String unid) {
+		long hi = parseUnidPart(unid, 0);
+		long lo = parseUnidPart(unid, 16);
+
+		prepareLookup(db);
+
+		long stamp;
+		synchronized (this) {
+			int slot = m_byUnid.indexOf(hi, lo);
+			if (slot!=-1) {
+				m_hits.incrementAndGet();
+				return m_byUnid.getNoteId(slot);
+			}
+			stamp = m_deletionStamp;
+		}
+		m_misses.incrementAndGet();
+
+		NoteInfo info = db.getMultiNoteInfo(new String[] {unid})[0];
+		if (!info.exists()) {
+			return 0;
+		}
+		synchronized (this) {
+			if (stamp==m_deletionStamp && !info.isDeleted()) {
+				putMapping(hi, lo, info.getNoteId());
+			}
+		}
+		return info.getNoteId();
+	}
+
+	/**
+	 * Returns the UNID for a note id
+	 *
+	 * @param db database
+	 * @param noteId note id
+	 * @return UNID or null if not found
+	 */
+	public String getUnid(NotesDatabase db, int noteId) {
+		prepareLookup(db);
+
+		long stamp;
+		synchronized (this) {
+			int slot = m_byNoteId.indexOf(noteId);
+			if (slot!=-1) {
+				m_hits.incrementAndGet();
+				return formatUnid(m_byNoteId.getHi(slot), m_byNoteId.getLo(slot));
+			}
+			stamp = m_deletionStamp;
+		}
+		m_misses.incrementAndGet();
+
+		NoteInfo info = db.getMultiNoteInfo(new int[] {noteId})[0];
+		if (!info.exists()) {
+			return null;
+		}
+		String unid = info.getUnid();
+		synchronized (this) {
+			if (stamp==m_deletionStamp && !info.isDeleted()) {
+				putMapping(parseUnidPart(unid, 0), parseUnidPart(unid, 16), noteId);
+			}
+		}
+		return unid;
+	}
+
+	/**
+	 * Converts note unids to note ids, with the same result as
+	 * {@link NotesDatabase#toNoteIds(String[], Map, Set)}
+	 *
+	 * @param db database
+	 * @param noteUnids note unids to look up
+	 * @param retNoteIdsByUnid map is populated with found note ids
+	 * @param retNoteUnidsNotFound set is populated with any note unid that could not be found; can be null
+	 */
+	public void toNoteIds(NotesDatabase db, String[] noteUnids, Map<String,Integer> retNoteIdsByUnid,
+			Set<String> retNoteUnidsNotFound) {
+		long[] his = new long[noteUnids.length];
+		long[] los = new long[noteUnids.length];
+		for (int i=0; i<noteUnids.length; i++) {
+			his[i] = parseUnidPart(noteUnids[i], 0);
+			los[i] = parseUnidPart(noteUnids[i], 16);
+		}
+
+		prepareLookup(db);
+
+		List<Integer> missIndexes = new ArrayList<Integer>();
+		long stamp;
+		synchronized (this) {
+			stamp = m_deletionStamp;
+			for (int i=0; i<noteUnids.length; i++) {
+				int slot = m_byUnid.indexOf(his[i], los[i]);
+				if (slot!=-1) {
+					retNoteIdsByUnid.put(noteUnids[i], m_byUnid.getNoteId(slot));
+				}
+				else {
+					missIndexes.add(i);
+				}
+			}
+		}
+		m_hits.addAndGet(noteUnids.length - missIndexes.size());
+		m_misses.addAndGet(missIndexes.size());
+
+		if (missIndexes.isEmpty()) {
+			return;
+		}
+
+		String[] missedUnids = new String[missIndexes.size()];
+		for (int i=0; i<missedUnids.length; i++) {
+			missedUnids[i] = noteUnids[missIndexes.get(i)];
+		}
+		NoteInfo[] infoArr = db.getMultiNoteInfo(missedUnids);
+
+		synchronized (this) {
+			for (int i=0; i<missedUnids.length && stamp==m_deletionStamp; i++) {
+				NoteInfo currInfo = infoArr[i];
+				if (currInfo.exists() && !currInfo.isDeleted()) {
+					int idx = missIndexes.get(i);
+					putMapping(his[idx], los[idx], currInfo.getNoteId());
+				}
+			}
+		}
+
+		for (int i=0; i<missedUnids.length; i++) {
+			NoteInfo currInfo = infoArr[i];
+			if (currInfo.exists()) {
+				retNoteIdsByUnid.put(missedUnids[i], currInfo.getNoteId());
+			}
+			else {
+				if (retNoteUnidsNotFound!=null)
+					retNoteUnidsNotFound.add(missedUnids[i]);
+			}
+		}
+	}
+
+	/**
+	 * Converts note ids to UNIDs, with the same result as
+	 * {@link NotesDatabase#toUnids(int[], Map, Set)}
+	 *
+	 * @param db database
+	 * @param noteIds note ids to look up
+	 * @param retUnidsByNoteId map is populated with found UNIDs
+	 * @param retNoteIdsNotFound set is populated with any note id that could not be found
+	 */
+	public void toUnids(NotesDatabase db, int[] noteIds, Map<Integer,String> retUnidsByNoteId,
+			Set<Integer> retNoteIdsNotFound) {
+		prepareLookup(db);
+
+		List<Integer> missIndexes = new ArrayList<Integer>();
+		long stamp;
+		synchronized (this) {
+			stamp = m_deletionStamp;
+			for (int i=0; i<noteIds.length; i++) {
+				int slot = m_byNoteId.indexOf(noteIds[i]);
+				if (slot!=-1) {
+					retUnidsByNoteId.put(noteIds[i], formatUnid(m_byNoteId.getHi(slot), m_byNoteId.getLo(slot)));
+				}
+				else {
+					missIndexes.add(i);
+				}
+			}
+		}
+		m_hits.addAndGet(noteIds.length - missIndexes.size());
+		m_misses.addAndGet(missIndexes.size());
+
+		if (missIndexes.isEmpty()) {
+			return;
+		}
+
+		int[] missedNoteIds = new int[missIndexes.size()];
+		for (int i=0; i<missedNoteIds.length; i++) {
+			missedNoteIds[i] = noteIds[missIndexes.get(i)];
+		}
+		NoteInfo[] infoArr = db.getMultiNoteInfo(missedNoteIds);
+
+		synchronized (this) {
+			for (int i=0; i<missedNoteIds.length && stamp==m_deletionStamp; i++) {
+				NoteInfo currInfo = infoArr[i];
+				if (currInfo.exists() && !currInfo.isDeleted()) {
+					String unid = currInfo.getUnid();
+					putMapping(parseUnidPart(unid, 0), parseUnidPart(unid, 16), missedNoteIds[i]);
+				}
+			}
+		}
+
+		for (int i=0; i<missedNoteIds.length; i++) {
+			NoteInfo currInfo = infoArr[i];
+			if (currInfo.exists()) {
+				retUnidsByNoteId.put(missedNoteIds[i], currInfo.getUnid());
+			}
+			else {
+				retNoteIdsNotFound.add(missedNoteIds[i]);
+			}
+		}
+	}
+
+	/**
+	 * Removes the mappings of all notes that have been deleted since the last update
+	 *
+	 * @param db database
+	 */
+	public void update(NotesDatabase db) {
+		NotesTimeDate since;
+		synchronized (this) {
+			checkDatabase(db);
+			since = m_since;
+			m_lastUpdate = System.currentTimeMillis();
+		}
+
+		NotesTimeDate retUntil = new NotesTimeDate();
+		NotesIDTable modifiedNotes = db.getModifiedNoteTable(EnumSet.of(NoteClass.ALL), since, retUntil);
+		try {
+			final int deletedFlag = (int) NotesConstants.RRV_DELETED;
+
+			synchronized (this) {
+				modifiedNotes.enumerate(new IEnumerateCallback() {
+
+					@Override
+					public Action noteVisited(int noteId) {
+						if ((noteId & deletedFlag) == deletedFlag) {
+							//lookups running in parallel may have read the note before it got deleted
+							m_deletionStamp++;
+							if (removeMapping(noteId & ~deletedFlag)) {
+								m_invalidations.incrementAndGet();
+							}
+						}
+						return Action.Continue;
+					}
+				});
+
+				if (since==m_since) {
+					m_since = retUntil;
+				}
+			}
+		}
+		finally {
+			modifiedNotes.recycle();
+		}
+	}
+
+	/**
+	 * Removes all mappings
+	 */
+	public synchronized void clear() {
+		m_byUnid.clear();
+		m_byNoteId.clear();
+		m_deletionStamp++;
+	}
+
+	/**
+	 * Returns the number of cached mappings
+	 *
+	 * @return size
+	 */
+	public synchronized int size() {
+		return m_byUnid.size();
+	}
+
+	/**
+	 * Returns the number of lookups that could be answered from the cache
+	 *
+	 * @return hits
+	 */
+	public long getHits() {
+		return m_hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups that required a database call
+	 *
+	 * @return misses
+	 */
+	public long getMisses() {
+		return m_misses.get();
+	}
+
+	/**
+	 * Returns the ratio of hits to all lookups
+	 *
+	 * @return hit rate between 0 and 1
+	 */
+	public double getHitRate() {
+		long hits = m_hits.get();
+		long total = hits + m_misses.get();
+		return total==0 ? 0 : ((double) hits) / total;
+	}
+
+	/**
+	 * Returns the number of mappings removed because their note has been deleted
+	 *
+	 * @return invalidations
+	 */
+	public long getInvalidations() {
+		return m_invalidations.get();
+	}
+
+	/**
+	 * Returns how often the cache has been cleared because it reached the max number of entries
+	 *
+	 * @return evictions
+	 */
+	public long getEvictions() {
+		return m_evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "NoteIdMappingCache [db="+m_dbKey+", size="+size()+", hits="+getHits()+", misses="+getMisses()+
+				", invalidations="+getInvalidations()+", evictions="+getEvictions()+"]";
+	}
+
+	/**
+	 * Checks the database and runs an automatic update if required
+	 *
+	 * @param db database
+	 */
+	private void prepareLookup(NotesDatabase db) {
+		boolean updateRequired;
+		synchronized (this) {
+			checkDatabase(db);
+			long interval = m_autoUpdateIntervalMillis;
+			updateRequired = interval>=0 && (System.currentTimeMillis() - m_lastUpdate) >= interval;
+		}
+		if (updateRequired) {
+			update(db);
+		}
+	}
+
+	/**
+	 * Makes sure that the cache is only used for one database and remembers the time
+	 * to start searching for deletions
+	 *
+	 * @param db database
+	 */
+	private void checkDatabase(NotesDatabase db) {
+		String dbKey = db.getServer().toLowerCase() + "!!" + db.getRelativeFilePath().toLowerCase();
+		if (m_dbKey==null) {
+			m_dbKey = dbKey;
+			//all deletions after the last data modification are relevant
+			m_since = db.getLastModifiedTimes()[0];
+			m_lastUpdate = System.currentTimeMillis();
+		}
+		else if (!m_dbKey.equals(dbKey)) {
+			throw new IllegalArgumentException("Cache has been created for database "+m_dbKey+", not for "+dbKey);
+		}
+	}
+
+	private void putMapping(long hi, long lo, int noteId) {
+		int unidSlot = m_byUnid.indexOf(hi, lo);
+		if (unidSlot!=-1 && m_byUnid.getNoteId(unidSlot)==noteId) {
+			return;
+		}
+
+		if (m_byUnid.size() >= m_maxEntries) {
+			m_byUnid.clear();
+			m_byNoteId.clear();
+			m_evictions.incrementAndGet();
+		}
+		else {
+			//remove outdated mappings in both directions
+			if (unidSlot!=-1) {
+				removeMapping(m_byUnid.getNoteId(unidSlot));
+			}
+			removeMapping(noteId);
+		}
+
+		m_byUnid.put(hi, lo, noteId, m_maxCapacity);
+		m_byNoteId.put(hi, lo, noteId, m_maxCapacity);
+	}
+
+	private boolean removeMapping(int noteId) {
+		int idSlot = m_byNoteId.indexOf(noteId);
+		if (idSlot==-1) {
+			return false;
+		}
+		long hi = m_byNoteId.getHi(idSlot);
+		long lo = m_byNoteId.getLo(idSlot);
+		m_byNoteId.removeAt(idSlot);
+
+		int unidSlot = m_byUnid.indexOf(hi, lo);
+		if (unidSlot!=-1 && m_byUnid.getNoteId(unidSlot)==noteId) {
+			m_byUnid.removeAt(unidSlot);
+		}
+		return true;
+	}
+
+	/**
+	 * Parses 16 hex characters of a UNID
+	 *
+	 * @param unid UNID
+	 * @param offset offset, 0 for the file part, 16 for the note part
+	 * @return value
+	 */
+	private static long parseUnidPart(String unid, int offset) {
+		if (unid==null || unid.length()!=32)
+			throw new IllegalArgumentException("Invalid UNID: "+unid);
+
+		long val = 0;
+		for (int i=offset; i<offset+16; i++) {
+			int digit = Character.digit(unid.charAt(i), 16);
+			if (digit==-1)
+				throw new IllegalArgumentException("Invalid UNID: "+unid);
+			val = (val << 4) | digit;
+		}
+		return val;
+	}
+
+	private static final char[] HEX_CHARS = "0123456789ABCDEF".toCharArray();
+
+	private static String formatUnid(long hi, long lo) {
+		char[] chars = new char[32];
+		for (int i=15; i>=0; i--) {
+			chars[i] = HEX_CHARS[(int) (hi & 0xf)];
+			hi >>>= 4;
+			chars[16+i] = HEX_CHARS[(int) (lo & 0xf)];
+			lo >>>= 4;
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Open addressing hash table with linear probing, storing UNID and note id of a mapping,
+	 * hashed either by UNID or by note id. Note id 0 marks an empty slot.
+	 */
+	private static class MappingTable {
+		private final boolean m_keyIsUnid;
+		private long[] m_his;
+		private long[] m_los;
+		private int[] m_noteIds;
+		private int m_mask;
+		private int m_size;
+
+		public MappingTable(boolean keyIsUnid, int capacity) {
+			m_keyIsUnid = keyIsUnid;
+			allocate(capacity);
+		}
+
+		private void allocate(int capacity) {
+			m_his = new long[capacity];
+			m_los = new long[capacity];
+			m_noteIds = new int[capacity];
+			m_mask = capacity-1;
+			m_size = 0;
+		}
+
+		private static int hash(long hi, long lo) {
+			long h = (hi * 31 + lo) * 0x9E3779B97F4A7C15L;
+			return (int) (h >>> 32);
+		}
+
+		private static int hash(int noteId) {
+			int h = noteId * 0x9E3779B9;
+			//note ids are multiples of 4 and the table index uses the low bits
+			return h ^ (h >>> 16);
+		}
+
+		private int homeSlot(int slot) {
+			int h = m_keyIsUnid ? hash(m_his[slot], m_los[slot]) : hash(m_noteIds[slot]);
+			return h & m_mask;
+		}
+
+		public int size() {
+			return m_size;
+		}
+
+		public long getHi(int slot) {
+			return m_his[slot];
+		}
+
+		public long getLo(int slot) {
+			return m_los[slot];
+		}
+
+		public int getNoteId(int slot) {
+			return m_noteIds[slot];
+		}
+
+		public int indexOf(long hi, long lo) {
+			int slot = hash(hi, lo) & m_mask;
+			while (m_noteIds[slot]!=0) {
+				if (m_his[slot]==hi && m_los[slot]==lo) {
+					return slot;
+				}
+				slot = (slot+1) & m_mask;
+			}
+			return -1;
+		}
+
+		public int indexOf(int noteId) {
+			if (noteId==0) {
+				return -1;
+			}
+			int slot = hash(noteId) & m_mask;
+			while (m_noteIds[slot]!=0) {
+				if (m_noteIds[slot]==noteId) {
+					return slot;
+				}
+				slot = (slot+1) & m_mask;
+			}
+			return -1;
+		}
+
+		/**
+		 * Adds a mapping, the key must not be in the table
+		 *
+		 * @param hi UNID file part
+		 * @param lo UNID note part
+		 * @param noteId note id
+		 * @param maxCapacity max number of slots
+		 */
+		public void put(long hi, long lo, int noteId, int maxCapacity) {
+			if ((m_size+1)*2 > m_noteIds.length && m_noteIds.length < maxCapacity) {
+				grow();
+			}
+
+			int slot = (m_keyIsUnid ? hash(hi, lo) : hash(noteId)) & m_mask;
+			while (m_noteIds[slot]!=0) {
+				slot = (slot+1) & m_mask;
+			}
+			m_his[slot] = hi;
+			m_los[slot] = lo;
+			m_noteIds[slot] = noteId;
+			m_size++;
+		}
+
+		private void grow() {
+			long[] oldHis = m_his;
+			long[] oldLos = m_los;
+			int[] oldNoteIds = m_noteIds;
+
+			allocate(oldNoteIds.length*2);
+			for (int i=0; i<oldNoteIds.length; i++) {
+				if (oldNoteIds[i]!=0) {
+					put(oldHis[i], oldLos[i], oldNoteIds[i], 0);
+				}
+			}
+		}
+
+		/**
+		 * Removes the entry at a slot and moves following entries of the same probe
+		 * sequence back, so that lookups do not stop at the empty slot
+		 *
+		 * @param slot slot
+		 */
+		public void removeAt(int slot) {
+			int gap = slot;
+			int curr = slot;
+			while (true) {
+				curr = (curr+1) & m_mask;
+				if (m_noteIds[curr]==0) {
+					break;
+				}
+				int home = homeSlot(curr);
+				//entry can be moved to the gap if its home slot is not between gap and current slot
+				boolean homeBetween = gap <= curr ? (gap < home && home <= curr) : (gap < home || home <= curr);
+				if (!homeBetween) {
+					m_his[gap] = m_his[curr];
+					m_los[gap] = m_los[curr];
+					m_noteIds[gap] = m_noteIds[curr];
+					gap = curr;
+				}
+			}
+			m_his[gap] = 0;
+			m_los[gap] = 0;
+			m_noteIds[gap] = 0;
+			m_size--;
+		}
+
+		public void clear() {
+			allocate(Math.min(INITIAL_CAPACITY, m_noteIds.length));
+		}
+	}
+}
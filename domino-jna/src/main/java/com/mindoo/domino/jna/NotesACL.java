@@ -128,6 +128,8 @@ public class NotesACL implements IAllocatedMemory {
 			result = NotesNativeAPI32.get().NSFDbStoreACL(m_parentDb.getHandle32(), m_hACL32, 0, (short) 0);
 		}
 		NotesErrorUtils.checkResult(result);
+		
+		NotesNamesListCache.invalidateAccess(m_parentDb);
 	}
 	
 	/**
@@ -302,7 +304,7 @@ public class NotesACL implements IAllocatedMemory {
 		private EnumSet<AclFlag> m_accessFlags;
 		private List<String> m_roles;
 		
-		private NotesACLAccess(AclLevel accessLevel, List<String> roles, EnumSet<AclFlag> accessFlags) {
+		NotesACLAccess(AclLevel accessLevel, List<String> roles, EnumSet<AclFlag> accessFlags) {
 			m_accessLevel = accessLevel;
 			m_roles = roles;
 			m_accessFlags = accessFlags;
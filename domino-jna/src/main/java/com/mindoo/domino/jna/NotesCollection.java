@@ -2,12 +2,15 @@ package com.mindoo.domino.jna;
 
 import java.text.Collator;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -22,6 +25,7 @@ import com.mindoo.domino.jna.CollectionDataCache.CacheState;
 import com.mindoo.domino.jna.NotesCollection.ViewLookupCallback.Action;
 import com.mindoo.domino.jna.NotesSearch.ISearchMatch;
 import com.mindoo.domino.jna.NotesViewEntryData.CacheableViewEntryData;
+import com.mindoo.domino.jna.constants.CollateType;
 import com.mindoo.domino.jna.constants.FTSearch;
 import com.mindoo.domino.jna.constants.Find;
 import com.mindoo.domino.jna.constants.Navigate;
@@ -864,6 +868,43 @@ public class NotesCollection implements IRecyclableNotesObject {
 		}
 	}
 	
+	/**
+	 * Performs a fulltext search in the collection without limiting the number of hits and
+	 * returns a cursor to read the hits page by page, so that huge search results can be
+	 * processed without reading all entries at once.<br>
+	 * <br>
+	 * {@link FTSearch#SCORES} is added to the search options and {@link ReadMask#SCORE} to the
+	 * return mask, so that entries are returned with their score, unless sorting
+	 * by date has been requested.<br>
+	 * The search result is stored in the collection until {@link NotesCollectionFTSearchCursor#close()}
+	 * or {@link #clearSearch()} is called.
+	 * 
+	 * @param query fulltext query
+	 * @param options FTSearch flags
+	 * @param returnMask values to be returned for each hit
+	 * @param pageSize max number of entries to read per page
+	 * @return cursor
+	 */
+	public NotesCollectionFTSearchCursor openFTSearchCursor(String query, EnumSet<FTSearch> options, EnumSet<ReadMask> returnMask, int pageSize) {
+		if (pageSize<1)
+			throw new IllegalArgumentException("Page size must be greater than 0: "+pageSize);
+		
+		EnumSet<FTSearch> optionsWithScores = options.clone();
+		EnumSet<ReadMask> returnMaskWithScore = returnMask.clone();
+		if (!optionsWithScores.contains(FTSearch.SORT_DATE)) {
+			optionsWithScores.add(FTSearch.SCORES);
+			returnMaskWithScore.add(ReadMask.SCORE);
+		}
+		
+		SearchResult searchResult = ftSearch(query, 0, optionsWithScores);
+		NotesIDTable matches = searchResult.getMatches();
+		if (matches!=null) {
+			//we read the hits from the collection
+			matches.recycle();
+		}
+		return new NotesCollectionFTSearchCursor(this, searchResult.getNumDocs(), returnMaskWithScore, pageSize);
+	}
+	
 	/**
 	 * Container for a FT search result
 	 * 
@@ -1694,6 +1735,8 @@ public class NotesCollection implements IRecyclableNotesObject {
 			
 			NotesTimeDate diffTime = null;
 			NotesIDTable diffIDTable = null;
+			//cached note ids to find removed entries, only set if the whole view gets read
+			Set<Integer> cachedNoteIds = null;
 			
 			if (dataCache!=null) {
 				CacheState cacheState = dataCache.getCacheState();
@@ -1707,6 +1750,10 @@ public class NotesCollection implements IRecyclableNotesObject {
 
 						diffIDTable = new NotesIDTable();
 						diffIDTable.addNotes(cacheEntries.keySet());
+						
+						if (!useReturnMask.contains(ReadMask.INIT_POS_NOTEID) && isFullTraversal(startPosStr, skipCount, returnNav)) {
+							cachedNoteIds = cacheEntries.keySet();
+						}
 					}
 				}
 			}
@@ -1794,8 +1841,11 @@ public class NotesCollection implements IRecyclableNotesObject {
 					result = callback.lookupDone(result);
 					
 					if (dataCache!=null && retDiffTime!=null) {
-						if (!entriesToUpdateCache.isEmpty()) {
-							dataCache.addCacheValues(useReturnMask, retDiffTime, entriesToUpdateCache);
+						//NIF does not report removed entries, but after reading the whole view,
+						//cached entries that have not been returned are deleted or no longer in the view
+						Set<Integer> removedNoteIds = getRemovedNoteIds(cachedNoteIds, entriesToUpdateCache);
+						if (!entriesToUpdateCache.isEmpty() || !removedNoteIds.isEmpty()) {
+							dataCache.addCacheValues(useReturnMask, retDiffTime, entriesToUpdateCache, removedNoteIds);
 						}
 						callback.setNewDiffTime(retDiffTime);
 					}
@@ -1821,7 +1871,7 @@ public class NotesCollection implements IRecyclableNotesObject {
 						
 						if (dataCache!=null && retDiffTime!=null) {
 							if (!entriesToUpdateCache.isEmpty()) {
-								dataCache.addCacheValues(useReturnMask, retDiffTime, entriesToUpdateCache);
+								dataCache.addCacheValues(useReturnMask, retDiffTime, entriesToUpdateCache, Collections.<Integer>emptySet());
 							}
 							callback.setNewDiffTime(retDiffTime);
 						}
@@ -1832,7 +1882,7 @@ public class NotesCollection implements IRecyclableNotesObject {
 
 			if (dataCache!=null && retDiffTime!=null) {
 				if (!entriesToUpdateCache.isEmpty()) {
-					dataCache.addCacheValues(useReturnMask, retDiffTime, entriesToUpdateCache);
+					dataCache.addCacheValues(useReturnMask, retDiffTime, entriesToUpdateCache, Collections.<Integer>emptySet());
 				}
 				callback.setNewDiffTime(retDiffTime);
 			}
@@ -1855,6 +1905,38 @@ public class NotesCollection implements IRecyclableNotesObject {
 		}
 	}
 	
+	/**
+	 * Checks whether a lookup reads all entries of the view from its beginning
+	 * 
+	 * @param startPosStr start position
+	 * @param skipCount number entries to skip before reading
+	 * @param returnNav navigator to specify how to move in the collection
+	 * @return true for a full traversal
+	 */
+	private static boolean isFullTraversal(String startPosStr, int skipCount, EnumSet<Navigate> returnNav) {
+		boolean startsAtBeginning = ("0".equals(startPosStr) && skipCount<=1) || ("1".equals(startPosStr) && skipCount==0);
+		return startsAtBeginning &&
+				(returnNav.equals(EnumSet.of(Navigate.NEXT)) || returnNav.equals(EnumSet.of(Navigate.NEXT_NONCATEGORY)));
+	}
+	
+	/**
+	 * Computes the note ids of cached entries that have not been returned by a lookup
+	 * 
+	 * @param cachedNoteIds note ids in the cache before the lookup or null if the lookup did not read the whole view
+	 * @param readEntries entries returned by the lookup, including the stubs of unchanged entries
+	 * @return note ids of removed entries
+	 */
+	private static Set<Integer> getRemovedNoteIds(Set<Integer> cachedNoteIds, List<NotesViewEntryData> readEntries) {
+		if (cachedNoteIds==null || cachedNoteIds.isEmpty()) {
+			return Collections.emptySet();
+		}
+		Set<Integer> removedNoteIds = new HashSet<Integer>(cachedNoteIds);
+		for (NotesViewEntryData currEntry : readEntries) {
+			removedNoteIds.remove(currEntry.getNoteId());
+		}
+		return removedNoteIds;
+	}
+	
 	/**
 	 * Returns all view entries matching the specified search key(s) in the collection.
 	 * It internally takes care of view index changes while reading view data and restarts
@@ -2028,6 +2110,139 @@ public class NotesCollection implements IRecyclableNotesObject {
 		}
 	}
 	
+	/**
+	 * Callback interface to receive the results of {@link NotesCollection#getAllEntriesByKeys(EnumSet, EnumSet, List, MultiKeyLookupCallback)}
+	 * 
+	 * @author Karsten Lehmann
+	 */
+	public static abstract class MultiKeyLookupCallback {
+		
+		/**
+		 * Method is called with the lookup result for one key tuple. Key tuples are processed in the
+		 * collation order of the view, not in the order they have been passed to the lookup method.
+		 * 
+		 * @param keyIndex index of the key tuple in the list passed to the lookup method
+		 * @param keys key tuple
+		 * @param entries matching entries, empty list if there are no matches; the list is shared between equal key tuples and should not be modified
+		 * @return action, whether to continue with the next key tuple
+		 */
+		public abstract Action keyLookupDone(int keyIndex, Object[] keys, List<NotesViewEntryData> entries);
+		
+		/**
+		 * This method gets called when a view index change has been detected
+		 * during the lookup of one key tuple, which causes the lookup of this tuple to be restarted.
+		 * 
+		 * @param nrOfRetries number of retries already made for the current key tuple
+		 * @param durationSinceStart number of milliseconds elapsed since starting the lookup of the key tuple
+		 * @return action, whether to continue (default) or stop the whole batch lookup
+		 */
+		public Action retryingReadBecauseViewIndexChanged(int nrOfRetries, long durationSinceStart) {
+			return Action.Continue;
+		}
+	}
+	
+	/**
+	 * Looks up the view entries for many key tuples in one call.<br>
+	 * <br>
+	 * The key tuples are sorted in the collation order of the currently active view sorting
+	 * before they are looked up, so that consecutive lookups hit neighbouring areas of the
+	 * view index. Equal key tuples are only looked up once.<br>
+	 * Each lookup runs like {@link #getAllEntriesByKey(EnumSet, EnumSet, ViewLookupCallback, Object...)},
+	 * including the restart on view index changes.
+	 * 
+	 * @param findFlags find flags, see {@link Find}
+	 * @param returnMask values to be returned
+	 * @param keyTuples list of lookup key tuples, each one passed as keys to {@link #getAllEntriesByKey(EnumSet, EnumSet, ViewLookupCallback, Object...)}
+	 * @param callback callback to receive the lookup result for each key tuple
+	 */
+	public void getAllEntriesByKeys(EnumSet<Find> findFlags, EnumSet<ReadMask> returnMask, List<Object[]> keyTuples,
+			final MultiKeyLookupCallback callback) {
+		
+		if (keyTuples.isEmpty()) {
+			return;
+		}
+		
+		final Object[][] keyTuplesArr = keyTuples.toArray(new Object[keyTuples.size()][]);
+		for (int i=0; i<keyTuplesArr.length; i++) {
+			if (keyTuplesArr[i]==null || keyTuplesArr[i].length==0)
+				throw new IllegalArgumentException("No search keys specified for key tuple at index "+i);
+		}
+		
+		Integer[] lookupOrder = new Integer[keyTuplesArr.length];
+		for (int i=0; i<lookupOrder.length; i++) {
+			lookupOrder[i] = Integer.valueOf(i);
+		}
+		
+		final CollationKeyComparator keyComparator = new CollationKeyComparator(getCurrentCollationDescriptors());
+		Arrays.sort(lookupOrder, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return keyComparator.compare(keyTuplesArr[o1.intValue()], keyTuplesArr[o2.intValue()]);
+			}
+		});
+		
+		EntriesAsListCallback lookupCallback = new EntriesAsListCallback(Integer.MAX_VALUE) {
+			@Override
+			public Action retryingReadBecauseViewIndexChanged(int nrOfRetries, long durationSinceStart) {
+				return callback.retryingReadBecauseViewIndexChanged(nrOfRetries, durationSinceStart);
+			}
+		};
+		
+		Object[] prevKeys = null;
+		List<NotesViewEntryData> prevEntries = null;
+		
+		for (int i=0; i<lookupOrder.length; i++) {
+			int currKeyIndex = lookupOrder[i].intValue();
+			Object[] currKeys = keyTuplesArr[currKeyIndex];
+			
+			List<NotesViewEntryData> currEntries;
+			if (prevKeys!=null && Arrays.deepEquals(prevKeys, currKeys)) {
+				//equal key tuples are sorted next to each other
+				currEntries = prevEntries;
+			}
+			else {
+				currEntries = getAllEntriesByKey(findFlags, returnMask, lookupCallback, currKeys);
+				if (currEntries==null) {
+					//retry has been stopped by the callback
+					return;
+				}
+				currEntries = Collections.unmodifiableList(currEntries);
+			}
+			
+			Action action = callback.keyLookupDone(currKeyIndex, currKeys, currEntries);
+			if (action==Action.Stop) {
+				return;
+			}
+			
+			prevKeys = currKeys;
+			prevEntries = currEntries;
+		}
+	}
+	
+	/**
+	 * Returns the collate descriptors of the currently active collation that sort
+	 * by column values
+	 * 
+	 * @return descriptors
+	 */
+	List<NotesCollateDescriptor> getCurrentCollationDescriptors() {
+		short collation = getCollation();
+		NotesCollationInfo colInfo = getCollationsInfo().getCollationInfo(collation);
+		if (colInfo==null) {
+			return Collections.emptyList();
+		}
+		
+		List<NotesCollateDescriptor> keyDescriptors = new ArrayList<NotesCollateDescriptor>();
+		for (NotesCollateDescriptor currDesc : colInfo.getDescriptors()) {
+			CollateType type = currDesc.getType();
+			if (type==CollateType.KEY || type==CollateType.CATEGORY) {
+				keyDescriptors.add(currDesc);
+			}
+		}
+		return keyDescriptors;
+	}
+	
 	/**
 	 * This method is in essense a combo NIFFindKey/NIFReadEntries API. It leverages
 	 * the C API method NIFFindByKeyExtended2 internally which was introduced in Domino R9<br>
@@ -2103,7 +2318,7 @@ public class NotesCollection implements IRecyclableNotesObject {
 		if (PlatformUtils.is64Bit()) {
 			Memory keyBuffer;
 			try {
-				keyBuffer = NotesSearchKeyEncoder.b64_encodeKeys(keys);
+				keyBuffer = NotesSearchKeyEncoder.encodeKeys(keys);
 			} catch (Throwable e) {
 				throw new NotesError(0, "Could not encode search keys", e);
 			}
@@ -2139,7 +2354,7 @@ public class NotesCollection implements IRecyclableNotesObject {
 		else {
 			Memory keyBuffer;
 			try {
-				keyBuffer = NotesSearchKeyEncoder.b32_encodeKeys(keys);
+				keyBuffer = NotesSearchKeyEncoder.encodeKeys(keys);
 			} catch (Throwable e) {
 				throw new NotesError(0, "Could not encode search keys", e);
 			}
@@ -2261,7 +2476,7 @@ public class NotesCollection implements IRecyclableNotesObject {
 		if (PlatformUtils.is64Bit()) {
 			Memory keyBuffer;
 			try {
-				keyBuffer = NotesSearchKeyEncoder.b64_encodeKeys(keys);
+				keyBuffer = NotesSearchKeyEncoder.encodeKeys(keys);
 			} catch (Throwable e) {
 				throw new NotesError(0, "Could not encode search keys", e);
 			}
@@ -2270,7 +2485,7 @@ public class NotesCollection implements IRecyclableNotesObject {
 		else {
 			Memory keyBuffer;
 			try {
-				keyBuffer = NotesSearchKeyEncoder.b32_encodeKeys(keys);
+				keyBuffer = NotesSearchKeyEncoder.encodeKeys(keys);
 			} catch (Throwable e) {
 				throw new NotesError(0, "Could not encode search keys", e);
 			}
@@ -2893,7 +3108,7 @@ public class NotesCollection implements IRecyclableNotesObject {
 					String currItemName = firstCollateDesc.getName();
 					Direction currDirection = firstCollateDesc.getDirection();
 					
-					collationInfo.addCollation((short) colNo, currItemName, currDirection);
+					collationInfo.addCollation((short) colNo, currItemName, currDirection, colInfo);
 				}
 			}
 			colNo++;
@@ -2971,6 +3186,7 @@ public class NotesCollection implements IRecyclableNotesObject {
 		private Map<String,Short> m_descendingLookup;
 		private Map<Short,String> m_collationSortItem;
 		private Map<Short,Direction> m_collationSorting;
+		private Map<Short,NotesCollationInfo> m_collationInfos;
 		private int m_nrOfCollations;
 		
 		/**
@@ -2981,6 +3197,7 @@ public class NotesCollection implements IRecyclableNotesObject {
 			m_descendingLookup = new HashMap<String,Short>();
 			m_collationSortItem = new HashMap<Short, String>();
 			m_collationSorting = new HashMap<Short, NotesCollection.Direction>();
+			m_collationInfos = new HashMap<Short, NotesCollationInfo>();
 		}
 		
 		/**
@@ -2989,8 +3206,9 @@ public class NotesCollection implements IRecyclableNotesObject {
 		 * @param collation collation index
 		 * @param itemName sort item name
 		 * @param direction sort direction
+		 * @param colInfo collation with all collate descriptors
 		 */
-		void addCollation(short collation, String itemName, Direction direction) {
+		void addCollation(short collation, String itemName, Direction direction, NotesCollationInfo colInfo) {
 			String itemNameLC = itemName.toLowerCase();
 			if (direction == Direction.Ascending) {
 				m_ascendingLookup.put(itemNameLC, Short.valueOf(collation));
@@ -3001,6 +3219,17 @@ public class NotesCollection implements IRecyclableNotesObject {
 			m_nrOfCollations = Math.max(m_nrOfCollations, collation);
 			m_collationSorting.put(collation, direction);
 			m_collationSortItem.put(collation, itemNameLC);
+			m_collationInfos.put(collation, colInfo);
+		}
+		
+		/**
+		 * Returns the collation with all collate descriptors
+		 * 
+		 * @param collation collation index
+		 * @return collation or null if not found
+		 */
+		public NotesCollationInfo getCollationInfo(int collation) {
+			return m_collationInfos.get(Short.valueOf((short) collation));
 		}
 		
 		/**
@@ -0,0 +1,125 @@
+package com.mindoo.domino.jna;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import com.mindoo.domino.jna.constants.Navigate;
+import com.mindoo.domino.jna.constants.ReadMask;
+import com.mindoo.domino.jna.errors.NotesError;
+
+/**
+ * Cursor to page through the fulltext search hits of a {@link NotesCollection}, created via
+ * {@link NotesCollection#openFTSearchCursor(String, java.util.EnumSet, java.util.EnumSet, int)}.<br>
+ * <br>
+ * The search result is stored in the collection and the hits are read page by page
+ * with {@link Navigate#NEXT_HIT}, so only one page of entries is kept in memory. Entries are
+ * returned in the order of the search result, including their score ({@link NotesViewEntryData#getFTScore()})
+ * when the search has been done with {@link com.mindoo.domino.jna.constants.FTSearch#SCORES}.
+ *
+ * @author Karsten Lehmann
+ */
+public class NotesCollectionFTSearchCursor {
+	private NotesCollection m_collection;
+	private int m_totalHits;
+	private EnumSet<ReadMask> m_returnMask;
+	private int m_pageSize;
+	private NotesCollectionPosition m_pos;
+	private int m_indexModifiedSequenceNo;
+	private int m_hitsRead;
+	private boolean m_hasMoreToRead;
+
+	NotesCollectionFTSearchCursor(NotesCollection collection, int totalHits, EnumSet<ReadMask> returnMask, int pageSize) {
+		m_collection = collection;
+		m_totalHits = totalHits;
+		m_returnMask = returnMask;
+		m_pageSize = pageSize;
+		m_pos = new NotesCollectionPosition("0");
+		m_indexModifiedSequenceNo = collection.getIndexModifiedSequenceNo();
+		m_hasMoreToRead = totalHits > 0;
+	}
+
+	/**
+	 * Returns the total number of search hits
+	 *
+	 * @return hits
+	 */
+	public int getTotalHits() {
+		return m_totalHits;
+	}
+
+	/**
+	 * Returns the number of hits that have been read so far
+	 *
+	 * @return hits read
+	 */
+	public int getHitsRead() {
+		return m_hitsRead;
+	}
+
+	/**
+	 * Returns the max number of entries returned by {@link #nextPage()}
+	 *
+	 * @return page size
+	 */
+	public int getPageSize() {
+		return m_pageSize;
+	}
+
+	/**
+	 * Changes the max number of entries returned by {@link #nextPage()}
+	 *
+	 * @param pageSize page size
+	 */
+	public void setPageSize(int pageSize) {
+		if (pageSize<1)
+			throw new IllegalArgumentException("Page size must be greater than 0: "+pageSize);
+		m_pageSize = pageSize;
+	}
+
+	/**
+	 * Checks if there may be more hits to read
+	 *
+	 * @return true if more hits
+	 */
+	public boolean hasNextPage() {
+		return m_hasMoreToRead;
+	}
+
+	/**
+	 * Reads the next page of search hits
+	 *
+	 * @return entries, empty list if there are no more hits
+	 */
+	public List<NotesViewEntryData> nextPage() {
+		if (!m_hasMoreToRead) {
+			return Collections.emptyList();
+		}
+		if (m_collection.isRecycled())
+			throw new NotesError(0, "Collection already recycled");
+
+		NotesViewLookupResultData data = m_collection.readEntries(m_pos, EnumSet.of(Navigate.NEXT_HIT), 1,
+				EnumSet.of(Navigate.NEXT_HIT), m_pageSize, m_returnMask);
+
+		if (m_collection.isAutoUpdate() && m_indexModifiedSequenceNo != m_collection.getIndexModifiedSequenceNo()) {
+			throw new NotesError(0, "View index of collection "+m_collection.getName()+" changed while reading search hits");
+		}
+
+		List<NotesViewEntryData> entries = data.getEntries();
+		m_hitsRead += entries.size();
+		if (entries.isEmpty() || !data.hasMoreToDo() || m_hitsRead >= m_totalHits) {
+			m_hasMoreToRead = false;
+		}
+		return entries;
+	}
+
+	/**
+	 * Removes the search result from the collection
+	 */
+	public void close() {
+		m_hasMoreToRead = false;
+		if (!m_collection.isRecycled()) {
+			m_collection.clearSearch();
+		}
+	}
+}
@@ -0,0 +1,288 @@
+package com.mindoo.domino.jna;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+
+import com.mindoo.domino.jna.NotesCollection.ViewLookupCallback.Action;
+import com.mindoo.domino.jna.constants.Navigate;
+import com.mindoo.domino.jna.constants.ReadMask;
+import com.mindoo.domino.jna.errors.NotesError;
+
+/**
+ * Streaming merge-join of two {@link NotesCollection} objects that are sorted by the join column.<br>
+ * <br>
+ * Both collections are read in chunks from top to bottom, so memory usage does not depend
+ * on the size of the collections. Only the entries of the right collection that share the key
+ * of the current left entry are kept in memory.<br>
+ * <br>
+ * Both collections need to be sorted by the join column in the same direction, with the same
+ * case and accent sensitivity, e.g. by calling {@link NotesCollection#resortView(String, NotesCollection.Direction)}.<br>
+ * <br>
+ * The join keys are compared in Java with a {@link java.text.Collator} based approximation of the view collation.
+ * While reading, each collection is checked to return its keys in ascending order under this comparison, and
+ * the join fails with a {@link NotesError} on the first key that is out of order, instead of silently
+ * skipping matches. Keys that the approximation considers equal but the view collation does not (e.g.
+ * text that only differs in characters the collator of the default locale ignores) are still
+ * joined as equal, and the check does not detect a different order of such keys in the two collections.
+ *
+ * @author Karsten Lehmann
+ */
+public class NotesCollectionMergeJoin {
+	private static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	/** Type of join */
+	public static enum JoinType {
+		/** returns left/right pairs for all matching entries */
+		INNER,
+		/** like {@link #INNER}, but also returns left entries without matches (with right entry null) */
+		LEFT,
+		/** only returns left entries without matches (with right entry null) */
+		ANTI
+	}
+
+	/**
+	 * Callback to receive the joined rows
+	 *
+	 * @author Karsten Lehmann
+	 */
+	public static abstract class JoinCallback {
+
+		/**
+		 * Method is called for each joined row
+		 *
+		 * @param left entry of the left collection
+		 * @param right matching entry of the right collection or null for {@link JoinType#LEFT} and {@link JoinType#ANTI} rows without match
+		 * @return action, whether to continue the join
+		 */
+		public abstract Action rowJoined(NotesViewEntryData left, NotesViewEntryData right);
+
+	}
+
+	private NotesCollection m_left;
+	private String m_leftColumn;
+	private NotesCollection m_right;
+	private String m_rightColumn;
+	private int m_chunkSize;
+
+	/**
+	 * Creates a new instance
+	 *
+	 * @param left left collection
+	 * @param leftColumn programmatic name of the join column in the left collection
+	 * @param right right collection
+	 * @param rightColumn programmatic name of the join column in the right collection
+	 */
+	public NotesCollectionMergeJoin(NotesCollection left, String leftColumn, NotesCollection right, String rightColumn) {
+		m_left = left;
+		m_leftColumn = leftColumn;
+		m_right = right;
+		m_rightColumn = rightColumn;
+		m_chunkSize = DEFAULT_CHUNK_SIZE;
+	}
+
+	/**
+	 * Changes the number of entries read from each collection in one call, default is 1000
+	 *
+	 * @param chunkSize chunk size
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize<1)
+			throw new IllegalArgumentException("Chunk size must be greater than 0: "+chunkSize);
+		m_chunkSize = chunkSize;
+	}
+
+	/**
+	 * Returns the number of entries read from each collection in one call
+	 *
+	 * @return chunk size
+	 */
+	public int getChunkSize() {
+		return m_chunkSize;
+	}
+
+	/**
+	 * Runs the join
+	 *
+	 * @param joinType type of join
+	 * @param returnMask values to read from both collections; {@link ReadMask#SUMMARYVALUES} gets added if no column values are read
+	 * @param callback callback to receive joined rows
+	 */
+	public void join(JoinType joinType, EnumSet<ReadMask> returnMask, JoinCallback callback) {
+		CollationKeyComparator keyComparator = createKeyComparator();
+
+		EnumSet<ReadMask> useReturnMask = returnMask.clone();
+		if (!useReturnMask.contains(ReadMask.SUMMARY) && !useReturnMask.contains(ReadMask.SUMMARYVALUES)) {
+			useReturnMask.add(ReadMask.SUMMARYVALUES);
+		}
+
+		EntryCursor leftCursor = new EntryCursor(m_left, m_leftColumn, keyComparator, useReturnMask, m_chunkSize);
+		EntryCursor rightCursor = new EntryCursor(m_right, m_rightColumn, keyComparator, useReturnMask, m_chunkSize);
+
+		NotesViewEntryData rightPeek = rightCursor.next();
+		List<NotesViewEntryData> rightGroup = new ArrayList<NotesViewEntryData>();
+		Object rightGroupKey = null;
+
+		NotesViewEntryData leftEntry;
+		while ((leftEntry = leftCursor.next()) != null) {
+			Object leftKey = leftEntry.get(m_leftColumn);
+
+			boolean hasMatches;
+			if (leftKey==null) {
+				hasMatches = false;
+			}
+			else if (rightGroupKey!=null && keyComparator.compareColumn(0, rightGroupKey, leftKey)==0) {
+				//same key as the previous left entry
+				hasMatches = true;
+			}
+			else {
+				rightGroup.clear();
+				rightGroupKey = null;
+
+				//skip right entries with smaller keys
+				while (rightPeek!=null && keyComparator.compareColumn(0, rightPeek.get(m_rightColumn), leftKey) < 0) {
+					rightPeek = rightCursor.next();
+				}
+
+				if (rightPeek!=null && keyComparator.compareColumn(0, rightPeek.get(m_rightColumn), leftKey)==0) {
+					rightGroupKey = rightPeek.get(m_rightColumn);
+					while (rightPeek!=null && keyComparator.compareColumn(0, rightPeek.get(m_rightColumn), rightGroupKey)==0) {
+						if (joinType!=JoinType.ANTI) {
+							rightGroup.add(rightPeek);
+						}
+						rightPeek = rightCursor.next();
+					}
+					hasMatches = true;
+				}
+				else {
+					hasMatches = false;
+				}
+			}
+
+			if (hasMatches) {
+				if (joinType!=JoinType.ANTI) {
+					for (NotesViewEntryData currRightEntry : rightGroup) {
+						if (callback.rowJoined(leftEntry, currRightEntry)==Action.Stop) {
+							return;
+						}
+					}
+				}
+			}
+			else if (joinType!=JoinType.INNER) {
+				if (callback.rowJoined(leftEntry, null)==Action.Stop) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks that both collections are sorted by the join column in a compatible way and
+	 * creates the comparator for the join keys
+	 *
+	 * @return comparator
+	 */
+	private CollationKeyComparator createKeyComparator() {
+		List<NotesCollateDescriptor> leftDescriptors = m_left.getCurrentCollationDescriptors();
+		List<NotesCollateDescriptor> rightDescriptors = m_right.getCurrentCollationDescriptors();
+
+		NotesCollateDescriptor leftDesc = getJoinColumnDescriptor(m_left, leftDescriptors, m_leftColumn);
+		NotesCollateDescriptor rightDesc = getJoinColumnDescriptor(m_right, rightDescriptors, m_rightColumn);
+
+		if (leftDesc.getDirection()!=rightDesc.getDirection()) {
+			throw new IllegalArgumentException("Collections "+m_left.getName()+" and "+m_right.getName()+
+					" are sorted in different directions: "+leftDesc.getDirection()+" / "+rightDesc.getDirection());
+		}
+		if (leftDesc.isCaseSensitiveSort()!=rightDesc.isCaseSensitiveSort() ||
+				leftDesc.isAccentSensitiveSort()!=rightDesc.isAccentSensitiveSort()) {
+			throw new IllegalArgumentException("Collections "+m_left.getName()+" and "+m_right.getName()+
+					" use different case or accent sensitivity for the join columns");
+		}
+
+		List<NotesCollateDescriptor> joinDescriptors = new ArrayList<NotesCollateDescriptor>(1);
+		joinDescriptors.add(leftDesc);
+		return new CollationKeyComparator(joinDescriptors);
+	}
+
+	private NotesCollateDescriptor getJoinColumnDescriptor(NotesCollection collection, List<NotesCollateDescriptor> descriptors,
+			String columnName) {
+		if (descriptors.isEmpty() || !columnName.equalsIgnoreCase(descriptors.get(0).getName())) {
+			throw new IllegalArgumentException("Collection "+collection.getName()+" is not sorted by column "+columnName+
+					" (current sort column: "+(descriptors.isEmpty() ? "none" : descriptors.get(0).getName())+")");
+		}
+		NotesCollateDescriptor desc = descriptors.get(0);
+		if (desc.isPermuted()) {
+			throw new IllegalArgumentException("Join column "+columnName+" of collection "+collection.getName()+" shows multiple values as separate entries");
+		}
+		return desc;
+	}
+
+	/**
+	 * Reads the documents of a collection in chunks and checks that the join keys are
+	 * sorted the way the merge join expects
+	 */
+	private static class EntryCursor {
+		private NotesCollection m_collection;
+		private String m_column;
+		private CollationKeyComparator m_keyComparator;
+		private NotesViewEntryData m_lastEntry;
+		private EnumSet<ReadMask> m_returnMask;
+		private int m_chunkSize;
+		private NotesCollectionPosition m_pos;
+		private int m_indexModifiedSequenceNo;
+		private Iterator<NotesViewEntryData> m_chunkIt;
+		private boolean m_hasMoreToRead;
+
+		public EntryCursor(NotesCollection collection, String column, CollationKeyComparator keyComparator,
+				EnumSet<ReadMask> returnMask, int chunkSize) {
+			m_collection = collection;
+			m_column = column;
+			m_keyComparator = keyComparator;
+			m_returnMask = returnMask;
+			m_chunkSize = chunkSize;
+			m_pos = new NotesCollectionPosition("0");
+			m_indexModifiedSequenceNo = collection.getIndexModifiedSequenceNo();
+			m_hasMoreToRead = true;
+		}
+
+		/**
+		 * Returns the next document entry
+		 *
+		 * @return entry or null if there are no more entries
+		 * @throws NotesError if the join key of the entry is smaller than the key of the previous entry
+		 */
+		public NotesViewEntryData next() {
+			while (m_chunkIt==null || !m_chunkIt.hasNext()) {
+				if (!m_hasMoreToRead) {
+					return null;
+				}
+
+				NotesViewLookupResultData data = m_collection.readEntries(m_pos, EnumSet.of(Navigate.NEXT_NONCATEGORY), 1,
+						EnumSet.of(Navigate.NEXT_NONCATEGORY), m_chunkSize, m_returnMask);
+
+				if (m_collection.isAutoUpdate() && m_indexModifiedSequenceNo != m_collection.getIndexModifiedSequenceNo()) {
+					throw new NotesError(0, "View index of collection "+m_collection.getName()+" changed during merge join");
+				}
+
+				List<NotesViewEntryData> entries = data.getEntries();
+				if (entries.isEmpty() || !data.hasMoreToDo()) {
+					m_hasMoreToRead = false;
+				}
+				m_chunkIt = entries.iterator();
+			}
+			NotesViewEntryData entry = m_chunkIt.next();
+
+			if (m_lastEntry!=null) {
+				Object lastKey = m_lastEntry.get(m_column);
+				Object key = entry.get(m_column);
+				if (m_keyComparator.compareColumn(0, lastKey, key) > 0) {
+					throw new NotesError(0, "Join keys of collection "+m_collection.getName()+" are not in the expected sort order: "+
+							"key "+key+" of note "+entry.getNoteId()+" follows key "+lastKey+" of note "+m_lastEntry.getNoteId());
+				}
+			}
+			m_lastEntry = entry;
+			return entry;
+		}
+	}
+}
@@ -102,6 +102,7 @@ public class NotesDatabase implements IRecyclableNotesObject {
 	boolean m_passNamesListToDbOpen;
 	private boolean m_passNamesListToViewOpen;
 	private DbMode m_dbMode;
+	private NoteIdMappingCache m_noteIdMappingCache;
 	
 	/**
 	 * Opens a database either as server or on behalf of a specified user
@@ -263,6 +264,9 @@ public class NotesDatabase implements IRecyclableNotesObject {
 		if (namesForNamesList!=null) {
 			m_namesList = NotesNamingUtils.writeNewNamesList(namesForNamesList);
 		}
+		else if (NotesNamesListCache.isEnabled()) {
+			m_namesList = NotesNamesListCache.buildNamesList(m_server, m_asUserCanonical);
+		}
 		else {
 			m_namesList = NotesNamingUtils.buildNamesList(m_server, m_asUserCanonical);
 		}
@@ -424,6 +428,10 @@ public class NotesDatabase implements IRecyclableNotesObject {
 	 * @return list of roles, not null
 	 */
 	public List<String> queryAccessRoles(String userName) {
+		if (NotesNamesListCache.isEnabled()) {
+			return NotesNamesListCache.lookupAccess(this, userName).getRoles();
+		}
+		
 		NotesNamesList namesList = NotesNamingUtils.buildNamesList(m_server, userName);
 		try {
 			List<String> roles = getACL().lookupAccess(namesList).getRoles();
@@ -443,6 +451,10 @@ public class NotesDatabase implements IRecyclableNotesObject {
 	 * @return access level
 	 */
 	public AclLevel queryAccess(String userName) {
+		if (NotesNamesListCache.isEnabled()) {
+			return NotesNamesListCache.lookupAccess(this, userName).getAclLevel();
+		}
+		
 		NotesNamesList namesList = NotesNamingUtils.buildNamesList(m_server, userName);
 		try {
 			AclLevel level = getACL().lookupAccess(namesList).getAclLevel();
@@ -462,6 +474,10 @@ public class NotesDatabase implements IRecyclableNotesObject {
 	 * @return flags
 	 */
 	public EnumSet<AclFlag> queryAccessFlags(String userName) {
+		if (NotesNamesListCache.isEnabled()) {
+			return NotesNamesListCache.lookupAccess(this, userName).getAclFlags();
+		}
+		
 		NotesNamesList namesList = NotesNamingUtils.buildNamesList(m_server, userName);
 		try {
 			EnumSet<AclFlag> flags = getACL().lookupAccess(namesList).getAclFlags();
@@ -1099,8 +1115,24 @@ public class NotesDatabase implements IRecyclableNotesObject {
 	 * @return search result
 	 */
 	public SearchResult ftSearch(String query, short limit, NotesIDTable filterIDTable) {
+		//the C API limit is an unsigned WORD
+		return ftSearch(query, limit & 0xffff, filterIDTable);
+	}
+	
+	/**
+	 * Performance a fulltext search in the database
+	 * 
+	 * @param query fulltext query
+	 * @param limit Maximum number of documents to return (max. 65535).  Use 0 to return the maximum number of results for the search
+	 * @param filterIDTable optional ID table to further refine the search.  Use null if this is not required.
+	 * @return search result
+	 */
+	public SearchResult ftSearch(String query, int limit, NotesIDTable filterIDTable) {
 		checkHandle();
 		
+		if (limit<0 || limit>65535)
+			throw new IllegalArgumentException("Limit must be between 0 and 65535 (WORD datatype in C API)");
+		
 		EnumSet<FTSearch> searchOptions = EnumSet.of(FTSearch.RET_IDTABLE);
 		int searchOptionsBitMask = FTSearch.toBitMask(searchOptions);
 		
@@ -1120,7 +1152,7 @@ public class NotesDatabase implements IRecyclableNotesObject {
 					0,
 					queryLMBCS,
 					searchOptionsBitMask,
-					limit,
+					(short) (limit & 0xffff),
 					filterIDTable==null ? 0 : filterIDTable.getHandle64(),
 					retNumDocs,
 					new Memory(Pointer.SIZE), // Reserved field
@@ -1153,7 +1185,7 @@ public class NotesDatabase implements IRecyclableNotesObject {
 					0,
 					queryLMBCS,
 					searchOptionsBitMask,
-					limit,
+					(short) (limit & 0xffff),
 					filterIDTable==null ? 0 : filterIDTable.getHandle32(),
 					retNumDocs,
 					new Memory(Pointer.SIZE), // Reserved field
@@ -1172,6 +1204,32 @@ public class NotesDatabase implements IRecyclableNotesObject {
 		}
 	}
 
+	/**
+	 * Performs a fulltext search in the database without limiting the number of hits and
+	 * returns a cursor to load the matching notes page by page
+	 * 
+	 * @param query fulltext query
+	 * @param filterIDTable optional ID table to further refine the search.  Use null if this is not required.
+	 * @param pageSize max number of notes to load per page
+	 * @return cursor
+	 */
+	public NotesDatabaseFTSearchCursor openFTSearchCursor(String query, NotesIDTable filterIDTable, int pageSize) {
+		if (pageSize<1)
+			throw new IllegalArgumentException("Page size must be greater than 0: "+pageSize);
+		
+		SearchResult searchResult = ftSearch(query, 0, filterIDTable);
+		NotesIDTable matches = searchResult.getMatches();
+		int[] noteIds;
+		if (matches==null) {
+			noteIds = new int[0];
+		}
+		else {
+			noteIds = matches.toArray();
+			matches.recycle();
+		}
+		return new NotesDatabaseFTSearchCursor(this, noteIds, pageSize);
+	}
+	
 	/**
 	 * This function deletes all the notes specified in the ID table.
 	 * 
@@ -2238,15 +2296,42 @@ public class NotesDatabase implements IRecyclableNotesObject {
 		}
 	}
 	
+	/**
+	 * Sets a cache for the mapping between UNIDs and note ids that is used by
+	 * {@link #toNoteIds(String[], Map, Set)} and {@link #toUnids(int[], Map, Set)}.
+	 * The cache can be shared between multiple {@link NotesDatabase} instances
+	 * for the same database, e.g. opened by different threads.
+	 * 
+	 * @param cache cache or null to disable caching
+	 */
+	public void setNoteIdMappingCache(NoteIdMappingCache cache) {
+		m_noteIdMappingCache = cache;
+	}
+	
+	/**
+	 * Returns the cache set via {@link #setNoteIdMappingCache(NoteIdMappingCache)}
+	 * 
+	 * @return cache or null
+	 */
+	public NoteIdMappingCache getNoteIdMappingCache() {
+		return m_noteIdMappingCache;
+	}
+	
 	/**
 	 * Convenience method to convert note unids to note ids.
-	 * The method internally calls {@link NotesDatabase#getMultiNoteInfo(String[])}.
+	 * The method internally calls {@link NotesDatabase#getMultiNoteInfo(String[])}
+	 * or uses the cache set via {@link #setNoteIdMappingCache(NoteIdMappingCache)}.
 	 * 
 	 * @param noteUnids note unids to look up
 	 * @param retNoteIdsByUnid map is populated with found note ids
 	 * @param retNoteUnidsNotFound set is populated with any note unid that could not be found; can be null
 	 */
 	public void toNoteIds(String[] noteUnids, Map<String,Integer> retNoteIdsByUnid, Set<String> retNoteUnidsNotFound) {
+		if (m_noteIdMappingCache!=null) {
+			m_noteIdMappingCache.toNoteIds(this, noteUnids, retNoteIdsByUnid, retNoteUnidsNotFound);
+			return;
+		}
+		
 		NoteInfo[] infoArr = getMultiNoteInfo(noteUnids);
 		for (int i=0; i<noteUnids.length; i++) {
 			NoteInfo currInfo = infoArr[i];
@@ -2262,13 +2347,19 @@ public class NotesDatabase implements IRecyclableNotesObject {
 	
 	/**
 	 * Convenience method to convert note ids to UNIDs.
-	 * The method internally calls {@link NotesDatabase#getMultiNoteInfo(int[])}.
+	 * The method internally calls {@link NotesDatabase#getMultiNoteInfo(int[])}
+	 * or uses the cache set via {@link #setNoteIdMappingCache(NoteIdMappingCache)}.
 	 * 
 	 * @param noteIds note ids to look up
 	 * @param retUnidsByNoteId map is populated with found UNIDs
 	 * @param retNoteIdsNotFound set is populated with any note id that could not be found
 	 */
 	public void toUnids(int[] noteIds, Map<Integer,String> retUnidsByNoteId, Set<Integer> retNoteIdsNotFound) {
+		if (m_noteIdMappingCache!=null) {
+			m_noteIdMappingCache.toUnids(this, noteIds, retUnidsByNoteId, retNoteIdsNotFound);
+			return;
+		}
+		
 		NoteInfo[] infoArr = getMultiNoteInfo(noteIds);
 		for (int i=0; i<noteIds.length; i++) {
 			NoteInfo currInfo = infoArr[i];
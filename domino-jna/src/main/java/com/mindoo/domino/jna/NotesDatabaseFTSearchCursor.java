@@ -0,0 +1,132 @@
+package com.mindoo.domino.jna;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import com.mindoo.domino.jna.NotesDatabase.INoteOpenCallback;
+import com.mindoo.domino.jna.constants.GetNotes;
+import com.mindoo.domino.jna.constants.OpenNote;
+import com.mindoo.domino.jna.errors.NotesError;
+
+/**
+ * Cursor to page through the fulltext search hits of a {@link NotesDatabase}, created via
+ * {@link NotesDatabase#openFTSearchCursor(String, NotesIDTable, int)}.<br>
+ * <br>
+ * The note ids of the search result are kept in memory. The notes are only loaded page by
+ * page when calling {@link #nextPageNotes(EnumSet)}, using a single {@link NotesDatabase#getNotes(int[], EnumSet[], int[], EnumSet, NotesDatabase, NotesDatabase.IGetNotesCallback, INoteOpenCallback, NotesDatabase.IObjectAllocCallback, NotesDatabase.IObjectWriteCallback, NotesTimeDate, NotesDatabase.IFolderAddCallback)}
+ * call per page.<br>
+ * <br>
+ * The search returns its hits as a {@link NotesIDTable}, so the cursor pages through the hits in
+ * ascending note id order, not ordered by relevance score.
+ *
+ * @author Karsten Lehmann
+ */
+public class NotesDatabaseFTSearchCursor {
+	private NotesDatabase m_db;
+	private int[] m_noteIds;
+	private int m_pageSize;
+	private int m_offset;
+
+	NotesDatabaseFTSearchCursor(NotesDatabase db, int[] noteIds, int pageSize) {
+		m_db = db;
+		m_noteIds = noteIds;
+		m_pageSize = pageSize;
+	}
+
+	/**
+	 * Returns the total number of search hits
+	 *
+	 * @return hits
+	 */
+	public int getTotalHits() {
+		return m_noteIds.length;
+	}
+
+	/**
+	 * Returns the number of hits that have been read so far
+	 *
+	 * @return hits read
+	 */
+	public int getHitsRead() {
+		return m_offset;
+	}
+
+	/**
+	 * Returns the max number of hits returned per page
+	 *
+	 * @return page size
+	 */
+	public int getPageSize() {
+		return m_pageSize;
+	}
+
+	/**
+	 * Changes the max number of hits returned per page
+	 *
+	 * @param pageSize page size
+	 */
+	public void setPageSize(int pageSize) {
+		if (pageSize<1)
+			throw new IllegalArgumentException("Page size must be greater than 0: "+pageSize);
+		m_pageSize = pageSize;
+	}
+
+	/**
+	 * Checks if there are more hits to read
+	 *
+	 * @return true if more hits
+	 */
+	public boolean hasNextPage() {
+		return m_offset < m_noteIds.length;
+	}
+
+	/**
+	 * Returns the note ids of the next page of search hits in ascending note id order
+	 *
+	 * @return note ids, empty array if there are no more hits
+	 */
+	public int[] nextPage() {
+		int end = Math.min(m_noteIds.length, m_offset + m_pageSize);
+		int[] pageNoteIds = Arrays.copyOfRange(m_noteIds, m_offset, end);
+		m_offset = end;
+		return pageNoteIds;
+	}
+
+	/**
+	 * Loads the notes of the next page of search hits. Notes that cannot be opened
+	 * (e.g. deleted since the search) are skipped.
+	 *
+	 * @param openFlags flags to open the notes
+	 * @return notes in ascending note id order
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public List<NotesNote> nextPageNotes(EnumSet<OpenNote> openFlags) {
+		if (m_db.isRecycled())
+			throw new NotesError(0, "Database already recycled");
+
+		int[] pageNoteIds = nextPage();
+		final List<NotesNote> notes = new ArrayList<NotesNote>(pageNoteIds.length);
+		if (pageNoteIds.length==0) {
+			return notes;
+		}
+
+		EnumSet<OpenNote>[] noteOpenFlags = new EnumSet[pageNoteIds.length];
+		Arrays.fill(noteOpenFlags, openFlags);
+		int[] sinceSeqNum = new int[pageNoteIds.length];
+
+		m_db.getNotes(pageNoteIds, noteOpenFlags, sinceSeqNum, EnumSet.noneOf(GetNotes.class), null, null,
+				new INoteOpenCallback() {
+
+			@Override
+			public void noteOpened(NotesNote note, int noteId, short status) {
+				if (status==0 && note!=null) {
+					notes.add(note);
+				}
+			}
+		}, null, null, null, null);
+
+		return notes;
+	}
+}
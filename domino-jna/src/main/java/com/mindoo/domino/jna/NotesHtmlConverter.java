@@ -0,0 +1,509 @@
+package com.mindoo.domino.jna;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mindoo.domino.jna.NotesNote.HtmlConvertOption;
+import com.mindoo.domino.jna.NotesNote.IHtmlItemImageConversionCallback;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.errors.NotesErrorUtils;
+import com.mindoo.domino.jna.gc.IRecyclableNotesObject;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.html.IHtmlConversionResult;
+import com.mindoo.domino.jna.html.ReferenceType;
+import com.mindoo.domino.jna.html.TargetType;
+import com.mindoo.domino.jna.internal.NotesNativeAPI32;
+import com.mindoo.domino.jna.internal.NotesNativeAPI64;
+import com.mindoo.domino.jna.utils.PlatformUtils;
+import com.sun.jna.Memory;
+import com.sun.jna.StringArray;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.LongByReference;
+
+/**
+ * Reusable HTML converter for notes and items.<br>
+ * <br>
+ * Creating the native converter and applying the conversion options is done once, so
+ * converting many notes with the same options only pays for the conversion itself.
+ * The converted text is read in large chunks into a reusable buffer and can be streamed
+ * to a {@link Writer} or {@link OutputStream} without building the whole HTML as String.<br>
+ * <br>
+ * Use {@link #getPooledConverter(EnumSet)} to get a shared converter for the current thread
+ * and option set; it gets recycled automatically at the end of the
+ * {@link NotesGC#runWithAutoGC(java.util.concurrent.Callable)} block. Code that may run
+ * nested in another conversion should use {@link #borrowConverter(EnumSet)} and
+ * {@link #returnConverter(NotesHtmlConverter)} instead, which take the converter out of the
+ * pool while it is in use.
+ *
+ * @author Karsten Lehmann
+ */
+public class NotesHtmlConverter implements IRecyclableNotesObject {
+	/** default size of the buffer used to read the converted text */
+	public static final int DEFAULT_TEXT_BUFFER_SIZE = 65536;
+
+	private static final String POOL_KEY = NotesHtmlConverter.class.getName()+".pool";
+
+	private long m_hHTML64;
+	private int m_hHTML32;
+	private boolean m_noRecycle;
+	private boolean m_isRecycled;
+	private boolean m_inUse;
+	private EnumSet<HtmlConvertOption> m_options;
+	private Memory m_textBuffer;
+
+	/**
+	 * Creates a new converter
+	 *
+	 * @param options conversion options
+	 */
+	public NotesHtmlConverter(EnumSet<HtmlConvertOption> options) {
+		this(options, DEFAULT_TEXT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a new converter
+	 *
+	 * @param options conversion options
+	 * @param textBufferSize size of the buffer used to read the converted text
+	 */
+	public NotesHtmlConverter(EnumSet<HtmlConvertOption> options, int textBufferSize) {
+		if (textBufferSize<1)
+			throw new IllegalArgumentException("Text buffer size must be greater than 0");
+
+		m_options = options==null ? EnumSet.noneOf(HtmlConvertOption.class) : EnumSet.copyOf(options);
+		m_textBuffer = new Memory(textBufferSize+1);
+
+		short result;
+		if (PlatformUtils.is64Bit()) {
+			LongByReference phHTML64 = new LongByReference();
+			result = NotesNativeAPI64.get().HTMLCreateConverter(phHTML64);
+			NotesErrorUtils.checkResult(result);
+			m_hHTML64 = phHTML64.getValue();
+		}
+		else {
+			IntByReference phHTML32 = new IntByReference();
+			result = NotesNativeAPI32.get().HTMLCreateConverter(phHTML32);
+			NotesErrorUtils.checkResult(result);
+			m_hHTML32 = phHTML32.getValue();
+		}
+
+		try {
+			if (!m_options.isEmpty()) {
+				StringArray optionsArr = new StringArray(HtmlConvertOption.toStringArray(m_options));
+				if (PlatformUtils.is64Bit()) {
+					result = NotesNativeAPI64.get().HTMLSetHTMLOptions(m_hHTML64, optionsArr);
+				}
+				else {
+					result = NotesNativeAPI32.get().HTMLSetHTMLOptions(m_hHTML32, optionsArr);
+				}
+				NotesErrorUtils.checkResult(result);
+			}
+		}
+		catch (RuntimeException e) {
+			destroyConverter();
+			throw e;
+		}
+
+		if (NotesGC.isAutoGCActive()) {
+			NotesGC.__objectCreated(NotesHtmlConverter.class, this);
+		}
+		else {
+			m_noRecycle = true;
+		}
+	}
+
+	/**
+	 * Returns a converter for the specified options that is shared within the current
+	 * {@link NotesGC#runWithAutoGC(java.util.concurrent.Callable)} block
+	 *
+	 * @param options conversion options
+	 * @return converter
+	 */
+	public static NotesHtmlConverter getPooledConverter(EnumSet<HtmlConvertOption> options) {
+		EnumSet<HtmlConvertOption> optionsKey = options==null ? EnumSet.noneOf(HtmlConvertOption.class) : EnumSet.copyOf(options);
+
+		Map<EnumSet<HtmlConvertOption>,NotesHtmlConverter> pool = getPool();
+		if (pool==null) {
+			pool = new HashMap<EnumSet<HtmlConvertOption>, NotesHtmlConverter>();
+			NotesGC.setCustomValue(POOL_KEY, pool);
+		}
+
+		NotesHtmlConverter converter = pool.get(optionsKey);
+		if (converter==null || converter.isRecycled()) {
+			converter = new NotesHtmlConverter(optionsKey);
+			pool.put(optionsKey, converter);
+		}
+		return converter;
+	}
+
+	/**
+	 * Takes a converter for the specified options out of the pool of the current
+	 * {@link NotesGC#runWithAutoGC(java.util.concurrent.Callable)} block, so that nested conversions
+	 * cannot use it at the same time. A new converter is created if the pool does not contain
+	 * an idle one or if auto GC is not active. The converter counts as in use (see {@link #isInUse()})
+	 * until it is returned, so its public conversion methods cannot be called in the meantime.<br>
+	 * <br>
+	 * Pass the converter to {@link #returnConverter(NotesHtmlConverter)} when the conversion is done.
+	 *
+	 * @param options conversion options
+	 * @return converter
+	 */
+	public static NotesHtmlConverter borrowConverter(EnumSet<HtmlConvertOption> options) {
+		EnumSet<HtmlConvertOption> optionsKey = options==null ? EnumSet.noneOf(HtmlConvertOption.class) : EnumSet.copyOf(options);
+		if (!NotesGC.isAutoGCActive()) {
+			NotesHtmlConverter converter = new NotesHtmlConverter(optionsKey);
+			converter.beginConversion();
+			return converter;
+		}
+
+		Map<EnumSet<HtmlConvertOption>,NotesHtmlConverter> pool = getPool();
+		if (pool!=null) {
+			NotesHtmlConverter converter = pool.get(optionsKey);
+			if (converter!=null && !converter.isRecycled() && !converter.isInUse()) {
+				pool.remove(optionsKey);
+				converter.beginConversion();
+				return converter;
+			}
+		}
+		NotesHtmlConverter converter = new NotesHtmlConverter(optionsKey);
+		converter.beginConversion();
+		return converter;
+	}
+
+	/**
+	 * Returns a converter taken with {@link #borrowConverter(EnumSet)}. It is put back into
+	 * the pool if the pool does not already contain a converter for its options, otherwise
+	 * it gets recycled. Converters created outside of auto GC blocks are always recycled.
+	 *
+	 * @param converter converter
+	 */
+	public static void returnConverter(NotesHtmlConverter converter) {
+		converter.endConversion();
+		if (converter.isRecycled()) {
+			return;
+		}
+		if (converter.isNoRecycle() || !NotesGC.isAutoGCActive()) {
+			converter.recycle();
+			return;
+		}
+
+		Map<EnumSet<HtmlConvertOption>,NotesHtmlConverter> pool = getPool();
+		if (pool==null) {
+			pool = new HashMap<EnumSet<HtmlConvertOption>, NotesHtmlConverter>();
+			NotesGC.setCustomValue(POOL_KEY, pool);
+		}
+		NotesHtmlConverter pooledConverter = pool.get(converter.m_options);
+		if (pooledConverter==null || pooledConverter.isRecycled()) {
+			pool.put(EnumSet.copyOf(converter.m_options), converter);
+		}
+		else if (pooledConverter!=converter) {
+			converter.recycle();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<EnumSet<HtmlConvertOption>,NotesHtmlConverter> getPool() {
+		return (Map<EnumSet<HtmlConvertOption>, NotesHtmlConverter>) NotesGC.getCustomValue(POOL_KEY);
+	}
+
+	/**
+	 * Returns true while this converter is running a conversion
+	 *
+	 * @return true if in use
+	 */
+	public boolean isInUse() {
+		return m_inUse;
+	}
+
+	private void beginConversion() {
+		if (m_inUse)
+			throw new IllegalStateException("HTML converter is already running a conversion");
+		m_inUse = true;
+	}
+
+	private void endConversion() {
+		m_inUse = false;
+	}
+
+	/**
+	 * Returns the conversion options
+	 *
+	 * @return options
+	 */
+	public EnumSet<HtmlConvertOption> getOptions() {
+		return EnumSet.copyOf(m_options);
+	}
+
+	/**
+	 * Returns the buffer used to read the converted text
+	 *
+	 * @return buffer, one byte larger than the chunk size for a terminating \0
+	 */
+	Memory getTextBuffer() {
+		return m_textBuffer;
+	}
+
+	/**
+	 * Returns the max number of bytes read with one HTMLGetText call
+	 *
+	 * @return chunk size
+	 */
+	int getTextChunkSize() {
+		return (int) (m_textBuffer.size() - 1);
+	}
+
+	void checkHandle() {
+		if (PlatformUtils.is64Bit()) {
+			if (m_hHTML64==0)
+				throw new NotesError(0, "HTML converter already recycled");
+			if (!m_noRecycle)
+				NotesGC.__b64_checkValidObjectHandle(NotesHtmlConverter.class, m_hHTML64);
+		}
+		else {
+			if (m_hHTML32==0)
+				throw new NotesError(0, "HTML converter already recycled");
+			if (!m_noRecycle)
+				NotesGC.__b32_checkValidObjectHandle(NotesHtmlConverter.class, m_hHTML32);
+		}
+	}
+
+	/**
+	 * Converts the whole note to HTML
+	 *
+	 * @param note note
+	 * @return conversion result
+	 */
+	public IHtmlConversionResult convertNote(NotesNote note) {
+		return convertNote(note, (EnumSet<ReferenceType>) null, (Map<ReferenceType,EnumSet<TargetType>>) null);
+	}
+
+	/**
+	 * Converts the whole note to HTML with additional filters for the data returned in the conversion result
+	 *
+	 * @param note note
+	 * @param refTypeFilter optional filter for ref types to be returned or null for no filter
+	 * @param targetTypeFilter optional filter for target types to be returned or null for no filter
+	 * @return conversion result
+	 */
+	public IHtmlConversionResult convertNote(NotesNote note, EnumSet<ReferenceType> refTypeFilter,
+			Map<ReferenceType,EnumSet<TargetType>> targetTypeFilter) {
+		beginConversion();
+		try {
+			return note.internalConvertItemToHtml(this, null, refTypeFilter, targetTypeFilter);
+		}
+		finally {
+			endConversion();
+		}
+	}
+
+	/**
+	 * Converts a single item of a note to HTML
+	 *
+	 * @param note note
+	 * @param itemName item name
+	 * @return conversion result
+	 */
+	public IHtmlConversionResult convertItem(NotesNote note, String itemName) {
+		return convertItem(note, itemName, (EnumSet<ReferenceType>) null, (Map<ReferenceType,EnumSet<TargetType>>) null);
+	}
+
+	/**
+	 * Converts a single item of a note to HTML with additional filters for the data returned in the conversion result
+	 *
+	 * @param note note
+	 * @param itemName item name
+	 * @param refTypeFilter optional filter for ref types to be returned or null for no filter
+	 * @param targetTypeFilter optional filter for target types to be returned or null for no filter
+	 * @return conversion result
+	 */
+	public IHtmlConversionResult convertItem(NotesNote note, String itemName, EnumSet<ReferenceType> refTypeFilter,
+			Map<ReferenceType,EnumSet<TargetType>> targetTypeFilter) {
+		if (itemName==null || itemName.length()==0)
+			throw new IllegalArgumentException("Item name cannot be empty");
+
+		beginConversion();
+		try {
+			return note.internalConvertItemToHtml(this, itemName, refTypeFilter, targetTypeFilter);
+		}
+		finally {
+			endConversion();
+		}
+	}
+
+	/**
+	 * Converts multiple notes to HTML, reusing this converter for all of them
+	 *
+	 * @param notes notes
+	 * @return conversion results in the order of the notes
+	 */
+	public List<IHtmlConversionResult> convertNotes(List<NotesNote> notes) {
+		List<IHtmlConversionResult> results = new ArrayList<IHtmlConversionResult>(notes.size());
+		for (NotesNote currNote : notes) {
+			results.add(convertNote(currNote));
+		}
+		return results;
+	}
+
+	/**
+	 * Converts multiple items of a note to HTML, reusing this converter for all of them
+	 *
+	 * @param note note
+	 * @param itemNames item names
+	 * @return conversion results in the order of the item names
+	 */
+	public List<IHtmlConversionResult> convertItems(NotesNote note, List<String> itemNames) {
+		List<IHtmlConversionResult> results = new ArrayList<IHtmlConversionResult>(itemNames.size());
+		for (String currItemName : itemNames) {
+			results.add(convertItem(note, currItemName));
+		}
+		return results;
+	}
+
+	/**
+	 * Converts the whole note to HTML and writes the HTML text to a {@link Writer} while it is read
+	 * from the converter
+	 *
+	 * @param note note
+	 * @param writer writer
+	 * @throws IOException in case of I/O errors
+	 */
+	public void writeNote(NotesNote note, Writer writer) throws IOException {
+		beginConversion();
+		try {
+			note.internalWriteItemHtml(this, null, writer);
+		}
+		finally {
+			endConversion();
+		}
+	}
+
+	/**
+	 * Converts a single item to HTML and writes the HTML text to a {@link Writer} while it is read
+	 * from the converter
+	 *
+	 * @param note note
+	 * @param itemName item name
+	 * @param writer writer
+	 * @throws IOException in case of I/O errors
+	 */
+	public void writeItem(NotesNote note, String itemName, Writer writer) throws IOException {
+		if (itemName==null || itemName.length()==0)
+			throw new IllegalArgumentException("Item name cannot be empty");
+
+		beginConversion();
+		try {
+			note.internalWriteItemHtml(this, itemName, writer);
+		}
+		finally {
+			endConversion();
+		}
+	}
+
+	/**
+	 * Converts the whole note to HTML and writes the HTML text UTF-8 encoded to an {@link OutputStream}
+	 *
+	 * @param note note
+	 * @param out stream, is flushed but not closed
+	 * @throws IOException in case of I/O errors
+	 */
+	public void writeNote(NotesNote note, OutputStream out) throws IOException {
+		Writer writer = new OutputStreamWriter(out, "UTF-8");
+		writeNote(note, writer);
+		writer.flush();
+	}
+
+	/**
+	 * Converts a single item to HTML and writes the HTML text UTF-8 encoded to an {@link OutputStream}
+	 *
+	 * @param note note
+	 * @param itemName item name
+	 * @param out stream, is flushed but not closed
+	 * @throws IOException in case of I/O errors
+	 */
+	public void writeItem(NotesNote note, String itemName, OutputStream out) throws IOException {
+		Writer writer = new OutputStreamWriter(out, "UTF-8");
+		writeItem(note, itemName, writer);
+		writer.flush();
+	}
+
+	/**
+	 * Reads the binary data of an element embedded in the HTML conversion result (e.g. an image)
+	 *
+	 * @param note note
+	 * @param itemName rich text field which is being converted
+	 * @param itemIndex the relative item index -- if there is more than one, Item with the same pszItemName, then this indicates which one (zero relative)
+	 * @param itemOffset byte offset in the Item where the element starts
+	 * @param callback callback to receive the data
+	 */
+	public void convertElement(NotesNote note, String itemName, int itemIndex, int itemOffset, IHtmlItemImageConversionCallback callback) {
+		beginConversion();
+		try {
+			note.internalConvertHtmlElement(this, itemName, itemIndex, itemOffset, callback);
+		}
+		finally {
+			endConversion();
+		}
+	}
+
+	private void destroyConverter() {
+		short result;
+		if (PlatformUtils.is64Bit()) {
+			result = NotesNativeAPI64.get().HTMLDestroyConverter(m_hHTML64);
+			m_hHTML64 = 0;
+		}
+		else {
+			result = NotesNativeAPI32.get().HTMLDestroyConverter(m_hHTML32);
+			m_hHTML32 = 0;
+		}
+		NotesErrorUtils.checkResult(result);
+	}
+
+	@Override
+	public void recycle() {
+		if (m_isRecycled)
+			return;
+
+		if (!m_noRecycle) {
+			NotesGC.__objectBeeingBeRecycled(NotesHtmlConverter.class, this);
+		}
+		m_isRecycled = true;
+		destroyConverter();
+	}
+
+	@Override
+	public boolean isRecycled() {
+		return m_isRecycled;
+	}
+
+	@Override
+	public boolean isNoRecycle() {
+		return m_noRecycle;
+	}
+
+	@Override
+	public int getHandle32() {
+		return m_hHTML32;
+	}
+
+	@Override
+	public long getHandle64() {
+		return m_hHTML64;
+	}
+
+	@Override
+	public String toString() {
+		if (isRecycled()) {
+			return "NotesHtmlConverter [recycled]";
+		}
+		else {
+			return "NotesHtmlConverter [handle="+(PlatformUtils.is64Bit() ? m_hHTML64 : m_hHTML32)+", options="+m_options+"]";
+		}
+	}
+}
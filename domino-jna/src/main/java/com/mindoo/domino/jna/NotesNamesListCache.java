@@ -0,0 +1,272 @@
+package com.mindoo.domino.jna;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.mindoo.domino.jna.NotesACL.NotesACLAccess;
+import com.mindoo.domino.jna.constants.AclFlag;
+import com.mindoo.domino.jna.utils.NotesNamingUtils;
+
+/**
+ * Cache for resolved user names lists and database access information.<br>
+ * <br>
+ * Computing a {@link NotesNamesList} with {@link NotesNamingUtils#buildNamesList(String, String)} resolves
+ * the group memberships of a user in the directory, which is expensive when done for every request.
+ * This cache stores the resolved names per server and user and recreates the native names list
+ * from them via {@link NotesNamingUtils#writeNewNamesList(List)}. In addition, it stores the result
+ * of {@link NotesACL#lookupAccess(NotesNamesList)} per database replica, server and user.<br>
+ * <br>
+ * Entries expire after a configurable time to live, so that group and ACL changes are
+ * picked up eventually; use the <code>invalidate</code> methods to apply them immediately.<br>
+ * <br>
+ * The cache is not used by {@link NotesDatabase} unless it gets enabled via {@link #setEnabled(boolean)}.
+ *
+ * @author Karsten Lehmann
+ */
+public class NotesNamesListCache {
+	private static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000;
+	private static final int DEFAULT_MAX_ENTRIES = 5000;
+
+	private static volatile boolean m_enabled;
+	private static volatile long m_ttlMillis = DEFAULT_TTL_MILLIS;
+
+	private static final ConcurrentLinkedHashMap<String,CacheEntry<List<String>>> m_namesCache =
+			new ConcurrentLinkedHashMap.Builder<String,CacheEntry<List<String>>>()
+			.maximumWeightedCapacity(DEFAULT_MAX_ENTRIES)
+			.build();
+
+	private static final ConcurrentLinkedHashMap<String,CacheEntry<NotesACLAccess>> m_accessCache =
+			new ConcurrentLinkedHashMap.Builder<String,CacheEntry<NotesACLAccess>>()
+			.maximumWeightedCapacity(DEFAULT_MAX_ENTRIES)
+			.build();
+
+	private static final AtomicLong m_hits = new AtomicLong();
+	private static final AtomicLong m_misses = new AtomicLong();
+
+	/**
+	 * Sets whether {@link NotesDatabase} should use this cache to compute the names list when
+	 * opening a database as a user and in methods like {@link NotesDatabase#queryAccess(String)}.
+	 * Disabled by default.
+	 *
+	 * @param enabled true to enable
+	 */
+	public static void setEnabled(boolean enabled) {
+		m_enabled = enabled;
+	}
+
+	/**
+	 * Returns whether {@link NotesDatabase} uses this cache
+	 *
+	 * @return true if enabled
+	 */
+	public static boolean isEnabled() {
+		return m_enabled;
+	}
+
+	/**
+	 * Changes the time after which cached names lists and access information expire (default: 5 minutes)
+	 *
+	 * @param ttlMillis time to live in milliseconds
+	 */
+	public static void setTimeToLive(long ttlMillis) {
+		if (ttlMillis<0)
+			throw new IllegalArgumentException("Time to live cannot be negative: "+ttlMillis);
+		m_ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Returns the time after which cached names lists and access information expire
+	 *
+	 * @return time to live in milliseconds
+	 */
+	public static long getTimeToLive() {
+		return m_ttlMillis;
+	}
+
+	/**
+	 * Changes the max number of entries in the names list cache and in the access cache (default: 5000 each).
+	 * The least recently used entries get removed when the caches are full.
+	 *
+	 * @param maxEntries max number of entries
+	 */
+	public static void setMaxEntries(int maxEntries) {
+		if (maxEntries<0)
+			throw new IllegalArgumentException("Max number of entries cannot be negative: "+maxEntries);
+		m_namesCache.setCapacity(maxEntries);
+		m_accessCache.setCapacity(maxEntries);
+	}
+
+	/**
+	 * Returns the user names list for a user, which is his name, name wildcards and all his groups
+	 * and nested groups. The list is computed with {@link NotesNamingUtils#getUserNamesList(String, String)}
+	 * on first access and then returned from the cache.
+	 *
+	 * @param server name of server, either abbreviated or canonical or null/empty string for local
+	 * @param userName username, either abbreviated or canonical
+	 * @return usernames list, not modifiable
+	 */
+	public static List<String> getUserNamesList(String server, String userName) {
+		if (userName==null)
+			throw new NullPointerException("Name cannot be null");
+
+		String cacheKey = getNamesCacheKey(server, userName);
+		CacheEntry<List<String>> entry = m_namesCache.get(cacheKey);
+		if (entry!=null && !entry.isExpired()) {
+			m_hits.incrementAndGet();
+			return entry.getValue();
+		}
+		m_misses.incrementAndGet();
+
+		List<String> names = Collections.unmodifiableList(NotesNamingUtils.getUserNamesList(server, userName));
+		m_namesCache.put(cacheKey, new CacheEntry<List<String>>(names));
+		return names;
+	}
+
+	/**
+	 * Creates a {@link NotesNamesList} for a user from the cached user names list, see
+	 * {@link #getUserNamesList(String, String)}. The returned names list needs to be freed
+	 * by the caller like the one returned by {@link NotesNamingUtils#buildNamesList(String, String)}.
+	 *
+	 * @param server name of server, either abbreviated or canonical or null/empty string for local
+	 * @param userName username, either abbreviated or canonical
+	 * @return names list
+	 */
+	public static NotesNamesList buildNamesList(String server, String userName) {
+		return NotesNamingUtils.writeNewNamesList(getUserNamesList(server, userName));
+	}
+
+	/**
+	 * Looks up the access level, flags and roles of a user in the ACL of a database. The result
+	 * is cached per database replica, server and user.
+	 *
+	 * @param db database
+	 * @param userName username, either abbreviated or canonical
+	 * @return access info
+	 */
+	public static NotesACLAccess lookupAccess(NotesDatabase db, String userName) {
+		if (userName==null)
+			throw new NullPointerException("Name cannot be null");
+
+		String cacheKey = getAccessCacheKey(db, userName);
+		CacheEntry<NotesACLAccess> entry = m_accessCache.get(cacheKey);
+		NotesACLAccess access;
+		if (entry!=null && !entry.isExpired()) {
+			m_hits.incrementAndGet();
+			access = entry.getValue();
+		}
+		else {
+			m_misses.incrementAndGet();
+
+			NotesNamesList namesList = buildNamesList(db.getServer(), userName);
+			try {
+				NotesACLAccess lookedUpAccess = db.getACL().lookupAccess(namesList);
+				access = new NotesACLAccess(lookedUpAccess.getAclLevel(),
+						Collections.unmodifiableList(new ArrayList<String>(lookedUpAccess.getRoles())),
+						lookedUpAccess.getAclFlags());
+			}
+			finally {
+				namesList.free();
+			}
+			m_accessCache.put(cacheKey, new CacheEntry<NotesACLAccess>(access));
+		}
+
+		//EnumSet is mutable, so we return a copy
+		EnumSet<AclFlag> flags = access.getAclFlags();
+		return new NotesACLAccess(access.getAclLevel(), access.getRoles(),
+				flags.isEmpty() ? EnumSet.noneOf(AclFlag.class) : EnumSet.copyOf(flags));
+	}
+
+	/**
+	 * Removes the cached names list and access information for a user
+	 *
+	 * @param server name of server, either abbreviated or canonical or null/empty string for local
+	 * @param userName username, either abbreviated or canonical
+	 */
+	public static void invalidate(String server, String userName) {
+		m_namesCache.remove(getNamesCacheKey(server, userName));
+
+		String keySuffix = "!!" + getNamesCacheKey(server, userName);
+		for (String currKey : m_accessCache.keySet()) {
+			if (currKey.endsWith(keySuffix)) {
+				m_accessCache.remove(currKey);
+			}
+		}
+	}
+
+	/**
+	 * Removes the cached access information for a database, e.g. after its ACL has been changed
+	 *
+	 * @param db database
+	 */
+	public static void invalidateAccess(NotesDatabase db) {
+		String keyPrefix = db.getReplicaID() + "!!";
+		for (String currKey : m_accessCache.keySet()) {
+			if (currKey.startsWith(keyPrefix)) {
+				m_accessCache.remove(currKey);
+			}
+		}
+	}
+
+	/**
+	 * Removes all cached names lists and access information
+	 */
+	public static void invalidateAll() {
+		m_namesCache.clear();
+		m_accessCache.clear();
+	}
+
+	/**
+	 * Returns the number of lookups that could be answered from the cache
+	 *
+	 * @return hits
+	 */
+	public static long getHits() {
+		return m_hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups that required a directory or ACL lookup
+	 *
+	 * @return misses
+	 */
+	public static long getMisses() {
+		return m_misses.get();
+	}
+
+	private static String getNamesCacheKey(String server, String userName) {
+		String serverCanonical = server==null ? "" : NotesNamingUtils.toCanonicalName(server);
+		return serverCanonical.toLowerCase(Locale.ENGLISH) + "!!" + NotesNamingUtils.toCanonicalName(userName).toLowerCase(Locale.ENGLISH);
+	}
+
+	private static String getAccessCacheKey(NotesDatabase db, String userName) {
+		return db.getReplicaID() + "!!" + getNamesCacheKey(db.getServer(), userName);
+	}
+
+	/**
+	 * Cache entry with creation time
+	 *
+	 * @param <T> value type
+	 */
+	private static class CacheEntry<T> {
+		private final T m_value;
+		private final long m_createdAt;
+
+		public CacheEntry(T value) {
+			m_value = value;
+			m_createdAt = System.currentTimeMillis();
+		}
+
+		public T getValue() {
+			return m_value;
+		}
+
+		public boolean isExpired() {
+			return (System.currentTimeMillis() - m_createdAt) > m_ttlMillis;
+		}
+	}
+}
@@ -5,6 +5,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
@@ -15,9 +20,14 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 
 import com.mindoo.domino.jna.NotesItem.ICompositeCallbackDirect;
@@ -36,9 +46,12 @@ import com.mindoo.domino.jna.errors.UnsupportedItemValueError;
 import com.mindoo.domino.jna.formula.FormulaExecution;
 import com.mindoo.domino.jna.gc.IRecyclableNotesObject;
 import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.html.CachedHtmlConversionResult;
 import com.mindoo.domino.jna.html.CommandId;
+import com.mindoo.domino.jna.html.HtmlConversionCacheKey;
 import com.mindoo.domino.jna.html.IHtmlApiReference;
 import com.mindoo.domino.jna.html.IHtmlApiUrlTargetComponent;
+import com.mindoo.domino.jna.html.IHtmlConversionCache;
 import com.mindoo.domino.jna.html.IHtmlConversionResult;
 import com.mindoo.domino.jna.html.IHtmlImageRef;
 import com.mindoo.domino.jna.html.ReferenceType;
@@ -79,6 +92,8 @@ import com.mindoo.domino.jna.richtext.IRichTextNavigator.RichTextNavPosition;
 import com.mindoo.domino.jna.richtext.RichTextBuilder;
 import com.mindoo.domino.jna.richtext.StandaloneRichText;
 import com.mindoo.domino.jna.richtext.conversion.IRichTextConversion;
+import com.mindoo.domino.jna.richtext.conversion.IStreamingRichTextConversion;
+import com.mindoo.domino.jna.richtext.conversion.RichTextConversionPipeline;
 import com.mindoo.domino.jna.utils.LegacyAPIUtils;
 import com.mindoo.domino.jna.utils.NotesDateTimeUtils;
 import com.mindoo.domino.jna.utils.NotesStringUtils;
@@ -1496,6 +1511,33 @@ public class NotesNote implements IRecyclableNotesObject {
 		return m_preferNotesTimeDates;
 	}
 	
+	/**
+	 * Checks whether {@link #getItemValue(String, NotesBlockIdStruct, Pointer, int)} can
+	 * decode values of the specified data type
+	 * 
+	 * @param dataTypeAsInt data type
+	 * @return true if supported
+	 */
+	private static boolean isSupportedItemValueType(int dataTypeAsInt) {
+		switch (dataTypeAsInt) {
+		case NotesItem.TYPE_TEXT:
+		case NotesItem.TYPE_TEXT_LIST:
+		case NotesItem.TYPE_NUMBER:
+		case NotesItem.TYPE_TIME:
+		case NotesItem.TYPE_NUMBER_RANGE:
+		case NotesItem.TYPE_TIME_RANGE:
+		case NotesItem.TYPE_OBJECT:
+		case NotesItem.TYPE_NOTEREF_LIST:
+		case NotesItem.TYPE_COLLATION:
+		case NotesItem.TYPE_VIEW_FORMAT:
+		case NotesItem.TYPE_FORMULA:
+		case NotesItem.TYPE_UNAVAILABLE:
+			return true;
+		default:
+			return false;
+		}
+	}
+	
 	/**
 	 * Decodes an item value
 	 * 
@@ -1510,45 +1552,7 @@ public class NotesNote implements IRecyclableNotesObject {
 		short dataType = valuePtr.getShort(0);
 		int dataTypeAsInt = (int) (dataType & 0xffff);
 		
-		boolean supportedType = false;
-		if (dataTypeAsInt == NotesItem.TYPE_TEXT) {
-			supportedType = true;
-		}
-		else if (dataTypeAsInt == NotesItem.TYPE_TEXT_LIST) {
-			supportedType = true;
-		}
-		else if (dataTypeAsInt == NotesItem.TYPE_NUMBER) {
-			supportedType = true;
-		}
-		else if (dataTypeAsInt == NotesItem.TYPE_TIME) {
-			supportedType = true;
-		}
-		else if (dataTypeAsInt == NotesItem.TYPE_NUMBER_RANGE) {
-			supportedType = true;
-		}
-		else if (dataTypeAsInt == NotesItem.TYPE_TIME_RANGE) {
-			supportedType = true;
-		}
-		else if (dataTypeAsInt == NotesItem.TYPE_OBJECT) {
-			supportedType = true;
-		}
-		else if (dataTypeAsInt == NotesItem.TYPE_NOTEREF_LIST) {
-			supportedType = true;
-		}
-		else if (dataTypeAsInt == NotesItem.TYPE_COLLATION) {
-			supportedType = true;
-		}
-		else if (dataTypeAsInt == NotesItem.TYPE_VIEW_FORMAT) {
-			supportedType = true;
-		}
-		else if (dataTypeAsInt == NotesItem.TYPE_FORMULA) {
-			supportedType = true;
-		}
-		else if (dataTypeAsInt == NotesItem.TYPE_UNAVAILABLE) {
-			supportedType = true;
-		}
-		
-		if (!supportedType) {
+		if (!isSupportedItemValueType(dataTypeAsInt)) {
 			throw new UnsupportedItemValueError("Data type for value of item "+itemName+" is currently unsupported: "+dataTypeAsInt);
 		}
 
@@ -1856,6 +1860,174 @@ public class NotesNote implements IRecyclableNotesObject {
 		}
 	}
 	
+	/**
+	 * Decodes the value(s) of the first {@link NotesItem#TYPE_TIME} or {@link NotesItem#TYPE_TIME_RANGE}
+	 * item with the specified item name into a {@link NotesPackedTimeDateList}.<br>
+	 * <br>
+	 * Compared to {@link #getItemValue(String)}, no {@link Calendar} or {@link NotesTimeDate} objects
+	 * get created for the values, which makes this method the better choice for large time lists.
+	 * 
+	 * @param itemName item name
+	 * @return values or null if the item does not exist
+	 * @throws UnsupportedItemValueError if the item is not a time item
+	 */
+	public NotesPackedTimeDateList getItemValueAsPackedTimeDateList(String itemName) {
+		checkHandle();
+
+		NotesItem item = getFirstItem(itemName);
+		if (item==null) {
+			return null;
+		}
+		
+		//lock and decode value
+		NotesBlockIdStruct valueBlockId = item.getValueBlockId();
+		
+		Pointer poolPtr;
+		if (PlatformUtils.is64Bit()) {
+			poolPtr = Mem64.OSLockObject((long) valueBlockId.pool);
+		}
+		else {
+			poolPtr = Mem32.OSLockObject(valueBlockId.pool);
+		}
+		
+		int block = (int) (valueBlockId.block & 0xffff);
+		Pointer valuePtr = new Pointer(Pointer.nativeValue(poolPtr) + block);
+		
+		try {
+			int dataTypeAsInt = valuePtr.getShort(0) & 0xffff;
+			Pointer valueDataPtr = valuePtr.share(2);
+			
+			if (dataTypeAsInt == NotesItem.TYPE_TIME) {
+				return ItemDecoder.decodeTimeDateAsPackedList(valueDataPtr);
+			}
+			else if (dataTypeAsInt == NotesItem.TYPE_TIME_RANGE) {
+				return ItemDecoder.decodeTimeDateListAsPackedList(valueDataPtr);
+			}
+			else {
+				throw new UnsupportedItemValueError("Item "+itemName+" is not a time item. Found data type: "+dataTypeAsInt);
+			}
+		}
+		finally {
+			if (PlatformUtils.is64Bit()) {
+				Mem64.OSUnlockObject((long) valueBlockId.pool);
+			}
+			else {
+				Mem32.OSUnlockObject(valueBlockId.pool);
+			}
+		}
+	}
+	
+	/**
+	 * Decodes the values of multiple items in a single pass over the note's items.<br>
+	 * <br>
+	 * In contrast to calling {@link #getItemValue(String)} for each item, this method
+	 * runs one NSFItemScan for the whole note and decodes the values directly from the
+	 * pointers passed to the scan callback. No {@link NotesItem} objects or item block id
+	 * structures get allocated and the value pool does not have to be locked for every item.<br>
+	 * <br>
+	 * If the note contains an item name multiple times, only the value of the first item is returned,
+	 * which is consistent with {@link #getItemValue(String)}. Items with data types not supported by
+	 * {@link NotesItem#getValues()} are skipped. Attachment items ({@link NotesItem#TYPE_OBJECT}) need
+	 * their item block id and are decoded via {@link #getItemValue(String)} after the scan.
+	 * 
+	 * @param itemNames names of the items to decode (case-insensitive) or null to decode all items
+	 * @return map with lowercase item names as keys and the decoded values, not null
+	 */
+	public Map<String,List<Object>> getItemValues(Set<String> itemNames) {
+		checkHandle();
+		
+		final Set<String> itemNamesLC;
+		if (itemNames==null) {
+			itemNamesLC = null;
+		}
+		else {
+			itemNamesLC = new HashSet<String>(itemNames.size());
+			for (String currItemName : itemNames) {
+				itemNamesLC.add(currItemName.toLowerCase(Locale.ENGLISH));
+			}
+			if (itemNamesLC.isEmpty()) {
+				return new LinkedHashMap<String, List<Object>>();
+			}
+		}
+		
+		final Map<String,List<Object>> values = new LinkedHashMap<String, List<Object>>();
+		final Set<String> objectItemNamesLC = new LinkedHashSet<String>();
+		final Throwable[] invocationEx = new Throwable[1];
+		
+		final NotesCallbacks.NSFItemScanProc scanProc = new NotesCallbacks.NSFItemScanProc() {
+
+			@Override
+			public short invoke(short spare, short itemFlags, Pointer name, short nameLength,
+					Pointer value, int valueLength, Pointer routineParameter) {
+				try {
+					String itemName = NotesStringUtils.fromLMBCS(name, (int) (nameLength & 0xffff));
+					String itemNameLC = itemName.toLowerCase(Locale.ENGLISH);
+					
+					if ((itemNamesLC==null || itemNamesLC.contains(itemNameLC)) &&
+							!values.containsKey(itemNameLC) && !objectItemNamesLC.contains(itemNameLC)) {
+						
+						int dataTypeAsInt = (int) (value.getShort(0) & 0xffff);
+						if (dataTypeAsInt == NotesItem.TYPE_OBJECT) {
+							objectItemNamesLC.add(itemNameLC);
+						}
+						else if (isSupportedItemValueType(dataTypeAsInt)) {
+							values.put(itemNameLC, getItemValue(itemName, null, value, valueLength));
+						}
+					}
+					
+					if (itemNamesLC!=null && (values.size() + objectItemNamesLC.size()) == itemNamesLC.size()) {
+						//found all requested items, no need to scan any further
+						return INotesErrorConstants.ERR_CANCEL;
+					}
+					return 0;
+				}
+				catch (Throwable t) {
+					invocationEx[0] = t;
+					return INotesErrorConstants.ERR_CANCEL;
+				}
+			}
+		};
+		
+		final NotesCallbacks.NSFItemScanProc apiCallback;
+		if (PlatformUtils.isWin32()) {
+			apiCallback = new Win32NotesCallbacks.NSFItemScanProcWin32() {
+
+				@Override
+				public short invoke(short spare, short itemFlags, Pointer name, short nameLength,
+						Pointer value, int valueLength, Pointer routineParameter) {
+					return scanProc.invoke(spare, itemFlags, name, nameLength, value, valueLength, routineParameter);
+				}
+			};
+		}
+		else {
+			apiCallback = scanProc;
+		}
+		
+		short result;
+		if (PlatformUtils.is64Bit()) {
+			result = NotesNativeAPI64.get().NSFItemScan(m_hNote64, apiCallback, null);
+		}
+		else {
+			result = NotesNativeAPI32.get().NSFItemScan(m_hNote32, apiCallback, null);
+		}
+		
+		if (invocationEx[0]!=null) {
+			if (invocationEx[0] instanceof RuntimeException) {
+				throw (RuntimeException) invocationEx[0];
+			}
+			throw new NotesError(0, "Error decoding item values", invocationEx[0]);
+		}
+		if (result!=INotesErrorConstants.ERR_CANCEL) {
+			NotesErrorUtils.checkResult(result);
+		}
+		
+		for (String currItemNameLC : objectItemNamesLC) {
+			values.put(currItemNameLC, getItemValue(currItemNameLC));
+		}
+		
+		return values;
+	}
+	
 	/**
 	 * Callback interface for {@link NotesNote#getItems(IItemCallback)}
 	 * 
@@ -4214,94 +4386,84 @@ public class NotesNote implements IRecyclableNotesObject {
 	public void convertHtmlElement(String itemName, EnumSet<HtmlConvertOption> options, int itemIndex, int itemOffset, IHtmlItemImageConversionCallback callback) {
 		checkHandle();
 		
-		LongByReference phHTML64 = new LongByReference();
-		IntByReference phHTML32 = new IntByReference();
+		NotesHtmlConverter converter = NotesHtmlConverter.borrowConverter(options);
+		try {
+			internalConvertHtmlElement(converter, itemName, itemIndex, itemOffset, callback);
+		}
+		finally {
+			NotesHtmlConverter.returnConverter(converter);
+		}
+	}
+
+	/**
+	 * Reads the binary data of an element embedded in the HTML conversion result
+	 * 
+	 * @param converter converter
+	 * @param itemName  rich text field which is being converted
+	 * @param itemIndex the relative item index
+	 * @param itemOffset byte offset in the Item where the element starts
+	 * @param callback callback to receive the data
+	 */
+	void internalConvertHtmlElement(NotesHtmlConverter converter, String itemName, int itemIndex, int itemOffset, IHtmlItemImageConversionCallback callback) {
+		checkHandle();
+		converter.checkHandle();
 		
+		long hHTML64 = converter.getHandle64();
+		int hHTML32 = converter.getHandle32();
+		
+		Memory itemNameMem = NotesStringUtils.toLMBCS(itemName, true);
+
+		int totalLen;
+		int skip;
 		short result;
+		
 		if (PlatformUtils.is64Bit()) {
-			result = NotesNativeAPI64.get().HTMLCreateConverter(phHTML64);
+			result = NotesNativeAPI64.get().HTMLConvertElement(hHTML64, getParent().getHandle64(), m_hNote64, itemNameMem, itemIndex, itemOffset);
+			NotesErrorUtils.checkResult(result);
+			
+			Memory tLenMem = new Memory(4);
+			result = NotesNativeAPI64.get().HTMLGetProperty(hHTML64, (long) NotesConstants.HTMLAPI_PROP_TEXTLENGTH, tLenMem);
+			NotesErrorUtils.checkResult(result);
+			totalLen = tLenMem.getInt(0);
+			skip = callback.setSize(totalLen);
 		}
 		else {
-			result = NotesNativeAPI32.get().HTMLCreateConverter(phHTML32);
+			result = NotesNativeAPI32.get().HTMLConvertElement(hHTML32, getParent().getHandle32(), m_hNote32, itemNameMem, itemIndex, itemOffset);
+			NotesErrorUtils.checkResult(result);
+			
+			Memory tLenMem = new Memory(4);
+			result = NotesNativeAPI32.get().HTMLGetProperty(hHTML32, (int) NotesConstants.HTMLAPI_PROP_TEXTLENGTH, tLenMem);
+			NotesErrorUtils.checkResult(result);
+			totalLen = tLenMem.getInt(0);
+			skip = callback.setSize(totalLen);
 		}
-		NotesErrorUtils.checkResult(result);
+
+		if (skip > totalLen)
+			throw new IllegalArgumentException("Skip value cannot be greater than size: "+skip+" > "+totalLen);
 		
-		long hHTML64 = phHTML64.getValue();
-		int hHTML32 = phHTML32.getValue();
+		int chunkSize = converter.getTextChunkSize();
+		IntByReference len = new IntByReference();
+		len.setValue(chunkSize);
+		int startOffset=skip;
+		Memory bufMem = converter.getTextBuffer();
 		
-		try {
-			if (!options.isEmpty()) {
-				if (PlatformUtils.is64Bit()) {
-					result = NotesNativeAPI64.get().HTMLSetHTMLOptions(hHTML64, new StringArray(HtmlConvertOption.toStringArray(options)));
-				}
-				else {
-					result = NotesNativeAPI32.get().HTMLSetHTMLOptions(hHTML32, new StringArray(HtmlConvertOption.toStringArray(options)));
-				}
-				NotesErrorUtils.checkResult(result);
-			}
-
-			Memory itemNameMem = NotesStringUtils.toLMBCS(itemName, true);
-
-			int totalLen;
-			
-			int skip;
+		while (result==0 && len.getValue()>0 && startOffset<totalLen) {
+			len.setValue(chunkSize);
 			
 			if (PlatformUtils.is64Bit()) {
-				result = NotesNativeAPI64.get().HTMLConvertElement(hHTML64, getParent().getHandle64(), m_hNote64, itemNameMem, itemIndex, itemOffset);
-				NotesErrorUtils.checkResult(result);
-				
-				Memory tLenMem = new Memory(4);
-				result = NotesNativeAPI64.get().HTMLGetProperty(hHTML64, (long) NotesConstants.HTMLAPI_PROP_TEXTLENGTH, tLenMem);
-				NotesErrorUtils.checkResult(result);
-				totalLen = tLenMem.getInt(0);
-				skip = callback.setSize(totalLen);
+				result = NotesNativeAPI64.get().HTMLGetText(hHTML64, startOffset, len, bufMem);
 			}
 			else {
-				result = NotesNativeAPI32.get().HTMLConvertElement(hHTML32, getParent().getHandle32(), m_hNote32, itemNameMem, itemIndex, itemOffset);
-				NotesErrorUtils.checkResult(result);
-				
-				Memory tLenMem = new Memory(4);
-				result = NotesNativeAPI32.get().HTMLGetProperty(hHTML32, (int) NotesConstants.HTMLAPI_PROP_TEXTLENGTH, tLenMem);
-				NotesErrorUtils.checkResult(result);
-				totalLen = tLenMem.getInt(0);
-				skip = callback.setSize(totalLen);
+				result = NotesNativeAPI32.get().HTMLGetText(hHTML32, startOffset, len, bufMem);
 			}
-
-			if (skip > totalLen)
-				throw new IllegalArgumentException("Skip value cannot be greater than size: "+skip+" > "+totalLen);
+			NotesErrorUtils.checkResult(result);
 			
-			IntByReference len = new IntByReference();
-			len.setValue(NotesConstants.MAXPATH);
-			int startOffset=skip;
-			Memory bufMem = new Memory(NotesConstants.MAXPATH+1);
+			byte[] data = bufMem.getByteArray(0, len.getValue());
+			IHtmlItemImageConversionCallback.Action action = callback.read(data);
+			if (action == IHtmlItemImageConversionCallback.Action.Stop)
+				break;
 			
-			while (result==0 && len.getValue()>0 && startOffset<totalLen) {
-				len.setValue(NotesConstants.MAXPATH);
-				
-				if (PlatformUtils.is64Bit()) {
-					result = NotesNativeAPI64.get().HTMLGetText(hHTML64, startOffset, len, bufMem);
-				}
-				else {
-					result = NotesNativeAPI32.get().HTMLGetText(hHTML32, startOffset, len, bufMem);
-				}
-				NotesErrorUtils.checkResult(result);
-				
-				byte[] data = bufMem.getByteArray(0, len.getValue());
-				IHtmlItemImageConversionCallback.Action action = callback.read(data);
-				if (action == IHtmlItemImageConversionCallback.Action.Stop)
-					break;
-				
-				startOffset += len.getValue();
-			}
-		}
-		finally {
-			if (PlatformUtils.is64Bit()) {
-				result = NotesNativeAPI64.get().HTMLDestroyConverter(hHTML64);
-			}
-			else {
-				result = NotesNativeAPI32.get().HTMLDestroyConverter(hHTML32);
-			}
-			NotesErrorUtils.checkResult(result);
+			startOffset += len.getValue();
 		}
 	}
 
@@ -4360,6 +4522,150 @@ public class NotesNote implements IRecyclableNotesObject {
 		return internalConvertItemToHtml(itemName, options, refTypeFilter, targetTypeFilter);
 	}
 
+	/**
+	 * Method to convert the whole note to HTML and write the HTML text to a {@link Writer}
+	 * while it is read from the converter, without building the whole HTML as String
+	 * 
+	 * @param options conversion options
+	 * @param writer writer
+	 * @throws IOException in case of I/O errors
+	 */
+	public void convertNoteToHtml(EnumSet<HtmlConvertOption> options, Writer writer) throws IOException {
+		checkHandle();
+		
+		NotesHtmlConverter converter = NotesHtmlConverter.borrowConverter(options);
+		try {
+			internalWriteItemHtml(converter, null, writer);
+		}
+		finally {
+			NotesHtmlConverter.returnConverter(converter);
+		}
+	}
+	
+	/**
+	 * Method to convert a single item of this note to HTML and write the HTML text to a {@link Writer}
+	 * while it is read from the converter, without building the whole HTML as String
+	 * 
+	 * @param itemName item name
+	 * @param options conversion options
+	 * @param writer writer
+	 * @throws IOException in case of I/O errors
+	 */
+	public void convertItemToHtml(String itemName, EnumSet<HtmlConvertOption> options, Writer writer) throws IOException {
+		if (StringUtil.isEmpty(itemName))
+			throw new NullPointerException("Item name cannot be null");
+		checkHandle();
+		
+		NotesHtmlConverter converter = NotesHtmlConverter.borrowConverter(options);
+		try {
+			internalWriteItemHtml(converter, itemName, writer);
+		}
+		finally {
+			NotesHtmlConverter.returnConverter(converter);
+		}
+	}
+
+	/**
+	 * Method to convert the whole note to HTML, using a cache to skip the conversion if the
+	 * note has not been changed since the last conversion.<br>
+	 * <br>
+	 * The cache key contains the sequence number and time of the note's originator id, so
+	 * unsaved changes of the note in memory are not detected.
+	 * 
+	 * @param options conversion options
+	 * @param cache cache for conversion results or null to not use a cache
+	 * @return conversion result
+	 */
+	public IHtmlConversionResult convertNoteToHtml(EnumSet<HtmlConvertOption> options, IHtmlConversionCache cache) {
+		return convertNoteToHtml(options, (EnumSet<ReferenceType>) null, (Map<ReferenceType,EnumSet<TargetType>>) null, cache);
+	}
+
+	/**
+	 * Method to convert the whole note to HTML with additional filters for the
+	 * data returned in the conversion result, using a cache to skip the conversion if the
+	 * note has not been changed since the last conversion
+	 * 
+	 * @param options conversion options
+	 * @param refTypeFilter optional filter for ref types to be returned or null for no filter
+	 * @param targetTypeFilter optional filter for target types to be returned or null for no filter
+	 * @param cache cache for conversion results or null to not use a cache
+	 * @return conversion result
+	 */
+	public IHtmlConversionResult convertNoteToHtml(EnumSet<HtmlConvertOption> options,
+			EnumSet<ReferenceType> refTypeFilter,
+			Map<ReferenceType,EnumSet<TargetType>> targetTypeFilter, IHtmlConversionCache cache) {
+		return internalConvertItemToHtmlCached(null, options, refTypeFilter, targetTypeFilter, cache);
+	}
+
+	/**
+	 * Method to convert a single item of this note to HTML, using a cache to skip the conversion if the
+	 * note has not been changed since the last conversion
+	 * 
+	 * @param itemName item name
+	 * @param options conversion options
+	 * @param cache cache for conversion results or null to not use a cache
+	 * @return conversion result
+	 */
+	public IHtmlConversionResult convertItemToHtml(String itemName, EnumSet<HtmlConvertOption> options, IHtmlConversionCache cache) {
+		return convertItemToHtml(itemName, options, (EnumSet<ReferenceType>) null, (Map<ReferenceType,EnumSet<TargetType>>) null, cache);
+	}
+
+	/**
+	 * Method to convert a single item of this note to HTML with additional filters for the
+	 * data returned in the conversion result, using a cache to skip the conversion if the
+	 * note has not been changed since the last conversion
+	 * 
+	 * @param itemName item name
+	 * @param options conversion options
+	 * @param refTypeFilter optional filter for ref types to be returned or null for no filter
+	 * @param targetTypeFilter optional filter for target types to be returned or null for no filter
+	 * @param cache cache for conversion results or null to not use a cache
+	 * @return conversion result
+	 */
+	public IHtmlConversionResult convertItemToHtml(String itemName, EnumSet<HtmlConvertOption> options,
+			EnumSet<ReferenceType> refTypeFilter,
+			Map<ReferenceType,EnumSet<TargetType>> targetTypeFilter, IHtmlConversionCache cache) {
+		if (StringUtil.isEmpty(itemName))
+			throw new NullPointerException("Item name cannot be null");
+		
+		return internalConvertItemToHtmlCached(itemName, options, refTypeFilter, targetTypeFilter, cache);
+	}
+
+	/**
+	 * Looks up the conversion result in the cache or converts the note/item and adds the
+	 * result including image data to the cache
+	 * 
+	 * @param itemName item name to be converted or null for whole note
+	 * @param options conversion options
+	 * @param refTypeFilter optional filter for ref types to be returned or null for no filter
+	 * @param targetTypeFilter optional filter for target types to be returned or null for no filter
+	 * @param cache cache or null
+	 * @return conversion result
+	 */
+	private IHtmlConversionResult internalConvertItemToHtmlCached(String itemName,
+			EnumSet<HtmlConvertOption> options, EnumSet<ReferenceType> refTypeFilter,
+			Map<ReferenceType,EnumSet<TargetType>> targetTypeFilter, IHtmlConversionCache cache) {
+		checkHandle();
+		
+		if (cache==null || isNewNote()) {
+			return internalConvertItemToHtml(itemName, options, refTypeFilter, targetTypeFilter);
+		}
+		
+		NotesOriginatorId oid = getOID();
+		HtmlConversionCacheKey key = new HtmlConversionCacheKey(getParent().getReplicaID(), oid.getUNIDAsString(),
+				oid.getSequence(), oid.getSequenceTime().getInnards(), itemName, options, refTypeFilter, targetTypeFilter);
+		
+		CachedHtmlConversionResult cachedResult = cache.get(key);
+		if (cachedResult!=null) {
+			return cachedResult;
+		}
+		
+		IHtmlConversionResult result = internalConvertItemToHtml(itemName, options, refTypeFilter, targetTypeFilter);
+		cachedResult = CachedHtmlConversionResult.create(result);
+		cache.put(key, cachedResult);
+		return cachedResult;
+	}
+
 	/**
 	 * Implementation of {@link IHtmlConversionResult} that contains the HTML conversion result
 	 * 
@@ -4641,263 +4947,322 @@ public class NotesNote implements IRecyclableNotesObject {
 			Map<ReferenceType,EnumSet<TargetType>> targetTypeFilter) {
 		checkHandle();
 		
-		LongByReference phHTML64 = new LongByReference();
-		phHTML64.setValue(0);
-		IntByReference phHTML32 = new IntByReference();
-		phHTML32.setValue(0);
-		
-		short result;
-		if (PlatformUtils.is64Bit()) {
-			result = NotesNativeAPI64.get().HTMLCreateConverter(phHTML64);
+		NotesHtmlConverter converter = NotesHtmlConverter.borrowConverter(options);
+		try {
+			return internalConvertItemToHtml(converter, itemName, refTypeFilter, targetTypeFilter);
 		}
-		else {
-			result = NotesNativeAPI32.get().HTMLCreateConverter(phHTML32);
+		finally {
+			NotesHtmlConverter.returnConverter(converter);
 		}
-		NotesErrorUtils.checkResult(result);
-		
-		long hHTML64 = phHTML64.getValue();
-		int hHTML32 = phHTML32.getValue();
+	}
+
+	/**
+	 * Converts the whole note or an item to HTML using an existing converter
+	 * 
+	 * @param converter converter
+	 * @param itemName item name to be converted or null for whole note
+	 * @param refTypeFilter optional filter for ref types to be returned or null for no filter
+	 * @param targetTypeFilter optional filter for target types to be returned or null for no filter
+	 * @return conversion result
+	 */
+	IHtmlConversionResult internalConvertItemToHtml(NotesHtmlConverter converter, String itemName,
+			EnumSet<ReferenceType> refTypeFilter, Map<ReferenceType,EnumSet<TargetType>> targetTypeFilter) {
 		
+		StringWriter htmlText = new StringWriter();
 		try {
-			if (!options.isEmpty()) {
-				if (PlatformUtils.is64Bit()) {
-					result = NotesNativeAPI64.get().HTMLSetHTMLOptions(hHTML64, new StringArray(HtmlConvertOption.toStringArray(options)));
-				}
-				else {
-					result = NotesNativeAPI32.get().HTMLSetHTMLOptions(hHTML32, new StringArray(HtmlConvertOption.toStringArray(options)));
-				}
+			internalWriteItemHtml(converter, itemName, htmlText);
+		} catch (IOException e) {
+			throw new NotesError(0, "Error reading the HTML conversion result", e);
+		}
+		List<IHtmlApiReference> references = readHtmlReferences(converter, refTypeFilter, targetTypeFilter);
+		
+		return new HtmlConversionResult(htmlText.toString(), references, converter.getOptions());
+	}
+	
+	/**
+	 * Converts the whole note or an item to HTML and streams the text to a writer in chunks
+	 * of {@link NotesHtmlConverter#getTextChunkSize()} bytes
+	 * 
+	 * @param converter converter
+	 * @param itemName item name to be converted or null for whole note
+	 * @param writer writer
+	 * @throws IOException in case of I/O errors
+	 */
+	void internalWriteItemHtml(NotesHtmlConverter converter, String itemName, Writer writer) throws IOException {
+		checkHandle();
+		converter.checkHandle();
+		
+		long hHTML64 = converter.getHandle64();
+		int hHTML32 = converter.getHandle32();
+		
+		Memory itemNameMem = NotesStringUtils.toLMBCS(itemName, true);
+		
+		int totalLen;
+		short result;
+		
+		if (PlatformUtils.is64Bit()) {
+			if (itemName==null) {
+				result = NotesNativeAPI64.get().HTMLConvertNote(hHTML64, getParent().getHandle64(), m_hNote64, 0, null);
+				NotesErrorUtils.checkResult(result);
+			}
+			else {
+				result = NotesNativeAPI64.get().HTMLConvertItem(hHTML64, getParent().getHandle64(), m_hNote64, itemNameMem);
 				NotesErrorUtils.checkResult(result);
 			}
-
-			Memory itemNameMem = NotesStringUtils.toLMBCS(itemName, true);
-			
-			int totalLen;
 			
-			if (PlatformUtils.is64Bit()) {
-				if (itemName==null) {
-					result = NotesNativeAPI64.get().HTMLConvertNote(hHTML64, getParent().getHandle64(), m_hNote64, 0, null);
-					NotesErrorUtils.checkResult(result);
-				}
-				else {
-					result = NotesNativeAPI64.get().HTMLConvertItem(hHTML64, getParent().getHandle64(), m_hNote64, itemNameMem);
-					NotesErrorUtils.checkResult(result);
-				}
-				
-				Memory tLenMem = new Memory(4);
-				result = NotesNativeAPI64.get().HTMLGetProperty(hHTML64, (long) NotesConstants.HTMLAPI_PROP_TEXTLENGTH, tLenMem);
+			Memory tLenMem = new Memory(4);
+			result = NotesNativeAPI64.get().HTMLGetProperty(hHTML64, (long) NotesConstants.HTMLAPI_PROP_TEXTLENGTH, tLenMem);
+			NotesErrorUtils.checkResult(result);
+			totalLen = tLenMem.getInt(0);
+		}
+		else {
+			if (itemName==null) {
+				result = NotesNativeAPI32.get().HTMLConvertNote(hHTML32, getParent().getHandle32(), m_hNote32, 0, null);
 				NotesErrorUtils.checkResult(result);
-				totalLen = tLenMem.getInt(0);
 			}
 			else {
-				if (itemName==null) {
-					result = NotesNativeAPI32.get().HTMLConvertNote(hHTML32, getParent().getHandle32(), m_hNote32, 0, null);
-					NotesErrorUtils.checkResult(result);
-				}
-				else {
-					result = NotesNativeAPI32.get().HTMLConvertItem(hHTML32, getParent().getHandle32(), m_hNote32, itemNameMem);
-					NotesErrorUtils.checkResult(result);
-					
-				}
-
-				Memory tLenMem = new Memory(4);
-				result = NotesNativeAPI32.get().HTMLGetProperty(hHTML32, NotesConstants.HTMLAPI_PROP_TEXTLENGTH, tLenMem);
+				result = NotesNativeAPI32.get().HTMLConvertItem(hHTML32, getParent().getHandle32(), m_hNote32, itemNameMem);
 				NotesErrorUtils.checkResult(result);
-				totalLen = tLenMem.getInt(0);
-
 			}
+
+			Memory tLenMem = new Memory(4);
+			result = NotesNativeAPI32.get().HTMLGetProperty(hHTML32, NotesConstants.HTMLAPI_PROP_TEXTLENGTH, tLenMem);
+			NotesErrorUtils.checkResult(result);
+			totalLen = tLenMem.getInt(0);
+		}
+		
+		int chunkSize = converter.getTextChunkSize();
+		IntByReference len = new IntByReference();
+		len.setValue(chunkSize);
+		int startOffset=0;
+		Memory textMem = converter.getTextBuffer();
+		
+		//the decoder keeps incomplete multi-byte LMBCS characters at the end of a chunk
+		//until the next chunk has been read
+		CharsetDecoder decoder = NotesStringUtils.newLMBCSDecoder();
+		CharBuffer charBuf = CharBuffer.allocate(chunkSize);
+		
+		while (result==0 && len.getValue()>0 && startOffset<totalLen) {
+			len.setValue(chunkSize);
 			
-			IntByReference len = new IntByReference();
-			len.setValue(NotesConstants.MAXPATH);
-			int startOffset=0;
-			Memory textMem = new Memory(NotesConstants.MAXPATH+1);
-			
-			StringBuilder htmlText = new StringBuilder();
+			if (PlatformUtils.is64Bit()) {
+				result = NotesNativeAPI64.get().HTMLGetText(hHTML64, startOffset, len, textMem);
+			}
+			else {
+				result = NotesNativeAPI32.get().HTMLGetText(hHTML32, startOffset, len, textMem);
+			}
+			NotesErrorUtils.checkResult(result);
 			
-			while (result==0 && len.getValue()>0 && startOffset<totalLen) {
-				len.setValue(NotesConstants.MAXPATH);
-				textMem.setByte(0, (byte) 0);
+			if (result == 0) {
+				ByteBuffer textBuf = textMem.getByteBuffer(0, len.getValue());
+				decodeToWriter(decoder, textBuf, charBuf, writer, false);
 				
-				if (PlatformUtils.is64Bit()) {
-					result = NotesNativeAPI64.get().HTMLGetText(hHTML64, startOffset, len, textMem);
-				}
-				else {
-					result = NotesNativeAPI32.get().HTMLGetText(hHTML32, startOffset, len, textMem);
-				}
-				NotesErrorUtils.checkResult(result);
-				
-				if (result == 0) {
-					textMem.setByte(len.getValue(), (byte) 0);
-					
-					String currText = NotesStringUtils.fromLMBCS(textMem, -1);
-					htmlText.append(currText);
-					
-					startOffset += len.getValue();
-				}
+				startOffset += len.getValue();
 			}
-			
-			Memory refCount = new Memory(4);
+		}
+		decodeToWriter(decoder, ByteBuffer.allocate(0), charBuf, writer, true);
+	}
+	
+	/**
+	 * Decodes LMBCS data and writes the characters to a writer
+	 * 
+	 * @param decoder decoder
+	 * @param in LMBCS data
+	 * @param charBuf reusable char buffer
+	 * @param writer writer
+	 * @param endOfInput true if there is no more data
+	 * @throws IOException in case of I/O errors
+	 */
+	private static void decodeToWriter(CharsetDecoder decoder, ByteBuffer in, CharBuffer charBuf, Writer writer,
+			boolean endOfInput) throws IOException {
+		while (true) {
+			CoderResult coderResult = decoder.decode(in, charBuf, endOfInput);
+			if (coderResult.isOverflow()) {
+				flushCharBuffer(charBuf, writer);
+				continue;
+			}
+			//underflow, malformed input is replaced by the decoder
+			break;
+		}
+		if (endOfInput) {
+			while (decoder.flush(charBuf).isOverflow()) {
+				flushCharBuffer(charBuf, writer);
+			}
+			decoder.reset();
+		}
+		flushCharBuffer(charBuf, writer);
+	}
+
+	private static void flushCharBuffer(CharBuffer charBuf, Writer writer) throws IOException {
+		charBuf.flip();
+		if (charBuf.hasRemaining()) {
+			writer.write(charBuf.array(), charBuf.arrayOffset()+charBuf.position(), charBuf.remaining());
+		}
+		charBuf.clear();
+	}
+
+	/**
+	 * Reads the references of the last conversion
+	 * 
+	 * @param converter converter
+	 * @param refTypeFilter optional filter for ref types to be returned or null for no filter
+	 * @param targetTypeFilter optional filter for target types to be returned or null for no filter
+	 * @return references
+	 */
+	private List<IHtmlApiReference> readHtmlReferences(NotesHtmlConverter converter, EnumSet<ReferenceType> refTypeFilter,
+			Map<ReferenceType,EnumSet<TargetType>> targetTypeFilter) {
+		long hHTML64 = converter.getHandle64();
+		int hHTML32 = converter.getHandle32();
+		short result;
+		
+		Memory refCount = new Memory(4);
+		
+		if (PlatformUtils.is64Bit()) {
+			result=NotesNativeAPI64.get().HTMLGetProperty(hHTML64, NotesConstants.HTMLAPI_PROP_NUMREFS, refCount);
+		}
+		else {
+			result=NotesNativeAPI32.get().HTMLGetProperty(hHTML32, NotesConstants.HTMLAPI_PROP_NUMREFS, refCount);
+		}
+		NotesErrorUtils.checkResult(result);
+		
+		int iRefCount = refCount.getInt(0);
+
+		List<IHtmlApiReference> references = new ArrayList<IHtmlApiReference>();
+		
+		for (int i=0; i<iRefCount; i++) {
+			LongByReference phRef64 = new LongByReference();
+			phRef64.setValue(0);
+			IntByReference phRef32 = new IntByReference();
+			phRef32.setValue(0);
 			
 			if (PlatformUtils.is64Bit()) {
-				result=NotesNativeAPI64.get().HTMLGetProperty(hHTML64, NotesConstants.HTMLAPI_PROP_NUMREFS, refCount);
+				result = NotesNativeAPI64.get().HTMLGetReference(hHTML64, i, phRef64);
 			}
 			else {
-				result=NotesNativeAPI32.get().HTMLGetProperty(hHTML32, NotesConstants.HTMLAPI_PROP_NUMREFS, refCount);
+				result = NotesNativeAPI32.get().HTMLGetReference(hHTML32, i, phRef32);
 			}
 			NotesErrorUtils.checkResult(result);
 			
-			int iRefCount = refCount.getInt(0);
-
-			List<IHtmlApiReference> references = new ArrayList<IHtmlApiReference>();
+			Memory ppRef = new Memory(Pointer.SIZE);
+			
+			long hRef64 = phRef64.getValue();
+			int hRef32 = phRef32.getValue();
 			
-			for (int i=0; i<iRefCount; i++) {
-				LongByReference phRef64 = new LongByReference();
-				phRef64.setValue(0);
-				IntByReference phRef32 = new IntByReference();
-				phRef32.setValue(0);
+			if (PlatformUtils.is64Bit()) {
+				result = NotesNativeAPI64.get().HTMLLockAndFixupReference(hRef64, ppRef);
+			}
+			else {
+				result = NotesNativeAPI32.get().HTMLLockAndFixupReference(hRef32, ppRef);
+			}
+			NotesErrorUtils.checkResult(result);
+			try {
+				int iRefType;
+				Pointer pRefText;
+				Pointer pFragment;
+				int iCmdId;
+				int nTargets;
+				Pointer pTargets;
 				
+				//use separate structs for 64/32, because RefType uses 8 bytes on 64 and 4 bytes on 32 bit
 				if (PlatformUtils.is64Bit()) {
-					result = NotesNativeAPI64.get().HTMLGetReference(hHTML64, i, phRef64);
+					HTMLAPIReference64Struct htmlApiRef = HTMLAPIReference64Struct.newInstance(ppRef.getPointer(0));
+					htmlApiRef.read();
+					iRefType = (int) htmlApiRef.RefType;
+					pRefText = htmlApiRef.pRefText;
+					pFragment = htmlApiRef.pFragment;
+					iCmdId = (int) htmlApiRef.CommandId;
+					nTargets = htmlApiRef.NumTargets;
+					pTargets = htmlApiRef.pTargets;
 				}
 				else {
-					result = NotesNativeAPI32.get().HTMLGetReference(hHTML32, i, phRef32);
+					HTMLAPIReference32Struct htmlApiRef = HTMLAPIReference32Struct.newInstance(ppRef.getPointer(0));
+					htmlApiRef.read();
+					iRefType = htmlApiRef.RefType;
+					pRefText = htmlApiRef.pRefText;
+					pFragment = htmlApiRef.pFragment;
+					iCmdId = htmlApiRef.CommandId;
+					nTargets = htmlApiRef.NumTargets;
+					pTargets = htmlApiRef.pTargets;
 				}
-				NotesErrorUtils.checkResult(result);
-				
-				Memory ppRef = new Memory(Pointer.SIZE);
-				
-				long hRef64 = phRef64.getValue();
-				int hRef32 = phRef32.getValue();
+
+				ReferenceType refType = ReferenceType.getType((int) iRefType);
 				
-				if (PlatformUtils.is64Bit()) {
-					result = NotesNativeAPI64.get().HTMLLockAndFixupReference(hRef64, ppRef);
-				}
-				else {
-					result = NotesNativeAPI32.get().HTMLLockAndFixupReference(hRef32, ppRef);
-				}
-				NotesErrorUtils.checkResult(result);
-				try {
-					int iRefType;
-					Pointer pRefText;
-					Pointer pFragment;
-					int iCmdId;
-					int nTargets;
-					Pointer pTargets;
+				if (refTypeFilter==null || refTypeFilter.contains(refType)) {
+					String refText = NotesStringUtils.fromLMBCS(pRefText, -1);
+					String fragment = NotesStringUtils.fromLMBCS(pFragment, -1);
 					
-					//use separate structs for 64/32, because RefType uses 8 bytes on 64 and 4 bytes on 32 bit
-					if (PlatformUtils.is64Bit()) {
-						HTMLAPIReference64Struct htmlApiRef = HTMLAPIReference64Struct.newInstance(ppRef.getPointer(0));
-						htmlApiRef.read();
-						iRefType = (int) htmlApiRef.RefType;
-						pRefText = htmlApiRef.pRefText;
-						pFragment = htmlApiRef.pFragment;
-						iCmdId = (int) htmlApiRef.CommandId;
-						nTargets = htmlApiRef.NumTargets;
-						pTargets = htmlApiRef.pTargets;
-					}
-					else {
-						HTMLAPIReference32Struct htmlApiRef = HTMLAPIReference32Struct.newInstance(ppRef.getPointer(0));
-						htmlApiRef.read();
-						iRefType = htmlApiRef.RefType;
-						pRefText = htmlApiRef.pRefText;
-						pFragment = htmlApiRef.pFragment;
-						iCmdId = htmlApiRef.CommandId;
-						nTargets = htmlApiRef.NumTargets;
-						pTargets = htmlApiRef.pTargets;
-					}
-
-					ReferenceType refType = ReferenceType.getType((int) iRefType);
+					CommandId cmdId = CommandId.getCommandId(iCmdId);
 					
-					if (refTypeFilter==null || refTypeFilter.contains(refType)) {
-						String refText = NotesStringUtils.fromLMBCS(pRefText, -1);
-						String fragment = NotesStringUtils.fromLMBCS(pFragment, -1);
+					List<IHtmlApiUrlTargetComponent<?>> targets = new ArrayList<IHtmlApiUrlTargetComponent<?>>(nTargets);
+					
+					for (int t=0; t<nTargets; t++) {
+						Pointer pCurrTarget = pTargets.share(t * NotesConstants.htmlApiUrlComponentSize);
+						HtmlApi_UrlTargetComponentStruct currTarget = HtmlApi_UrlTargetComponentStruct.newInstance(pCurrTarget);
+						currTarget.read();
 						
-						CommandId cmdId = CommandId.getCommandId(iCmdId);
+						int iTargetType = currTarget.AddressableType;
+						TargetType targetType = TargetType.getType(iTargetType);
 						
-						List<IHtmlApiUrlTargetComponent<?>> targets = new ArrayList<IHtmlApiUrlTargetComponent<?>>(nTargets);
+						EnumSet<TargetType> targetTypeFilterForRefType = targetTypeFilter==null ? null : targetTypeFilter.get(refType);
 						
-						for (int t=0; t<nTargets; t++) {
-							Pointer pCurrTarget = pTargets.share(t * NotesConstants.htmlApiUrlComponentSize);
-							HtmlApi_UrlTargetComponentStruct currTarget = HtmlApi_UrlTargetComponentStruct.newInstance(pCurrTarget);
-							currTarget.read();
-							
-							int iTargetType = currTarget.AddressableType;
-							TargetType targetType = TargetType.getType(iTargetType);
-							
-							EnumSet<TargetType> targetTypeFilterForRefType = targetTypeFilter==null ? null : targetTypeFilter.get(refType);
-							
-							if (targetTypeFilterForRefType==null || targetTypeFilterForRefType.contains(targetType)) {
-								switch (currTarget.ReferenceType) {
-								case NotesConstants.URT_Name:
-									currTarget.Value.setType(Pointer.class);
-									currTarget.Value.read();
-									String name = NotesStringUtils.fromLMBCS(currTarget.Value.name, -1);
-									targets.add(new HtmlApiUrlTargetComponent(targetType, String.class, name));
-									break;
-								case NotesConstants.URT_NoteId:
-									currTarget.Value.setType(NoteIdStruct.class);
-									currTarget.Value.read();
-									NoteIdStruct noteIdStruct = currTarget.Value.nid;
-									int iNoteId = noteIdStruct.nid;
-									targets.add(new HtmlApiUrlTargetComponent(targetType, Integer.class, iNoteId));
-									break;
-								case NotesConstants.URT_Unid:
-									currTarget.Value.setType(NotesUniversalNoteIdStruct.class);
-									currTarget.Value.read();
-									NotesUniversalNoteIdStruct unidStruct = currTarget.Value.unid;
-									unidStruct.read();
-									String unid = unidStruct.toString();
-									targets.add(new HtmlApiUrlTargetComponent(targetType, String.class, unid));
-									break;
-								case NotesConstants.URT_None:
-									targets.add(new HtmlApiUrlTargetComponent(targetType, Object.class, null));
-									break;
-								case NotesConstants.URT_RepId:
-									//TODO find out how to decode this one
-									break;
-								case NotesConstants.URT_Special:
-									//TODO find out how to decode this one
-									break;
-								}
+						if (targetTypeFilterForRefType==null || targetTypeFilterForRefType.contains(targetType)) {
+							switch (currTarget.ReferenceType) {
+							case NotesConstants.URT_Name:
+								currTarget.Value.setType(Pointer.class);
+								currTarget.Value.read();
+								String name = NotesStringUtils.fromLMBCS(currTarget.Value.name, -1);
+								targets.add(new HtmlApiUrlTargetComponent(targetType, String.class, name));
+								break;
+							case NotesConstants.URT_NoteId:
+								currTarget.Value.setType(NoteIdStruct.class);
+								currTarget.Value.read();
+								NoteIdStruct noteIdStruct = currTarget.Value.nid;
+								int iNoteId = noteIdStruct.nid;
+								targets.add(new HtmlApiUrlTargetComponent(targetType, Integer.class, iNoteId));
+								break;
+							case NotesConstants.URT_Unid:
+								currTarget.Value.setType(NotesUniversalNoteIdStruct.class);
+								currTarget.Value.read();
+								NotesUniversalNoteIdStruct unidStruct = currTarget.Value.unid;
+								unidStruct.read();
+								String unid = unidStruct.toString();
+								targets.add(new HtmlApiUrlTargetComponent(targetType, String.class, unid));
+								break;
+							case NotesConstants.URT_None:
+								targets.add(new HtmlApiUrlTargetComponent(targetType, Object.class, null));
+								break;
+							case NotesConstants.URT_RepId:
+								//TODO find out how to decode this one
+								break;
+							case NotesConstants.URT_Special:
+								//TODO find out how to decode this one
+								break;
 							}
 						}
-						
-						IHtmlApiReference newRef = new HTMLApiReference(refType, refText, fragment,
-								cmdId, targets);
-						references.add(newRef);
-					}
-				}
-				finally {
-					if (PlatformUtils.is64Bit()) {
-						if (hRef64!=0) {
-							Mem64.OSMemoryUnlock(hRef64);
-							Mem64.OSMemoryFree(hRef64);
-						}
-					}
-					else {
-						if (hRef32!=0) {
-							Mem32.OSMemoryUnlock(hRef32);
-							Mem32.OSMemoryFree(hRef32);
-						}
 					}
+					
+					IHtmlApiReference newRef = new HTMLApiReference(refType, refText, fragment,
+							cmdId, targets);
+					references.add(newRef);
 				}
 			}
-			
-			return new HtmlConversionResult(htmlText.toString(), references, options);
-		}
-		finally {
-			if (PlatformUtils.is64Bit()) {
-				if (hHTML64!=0) {
-					result = NotesNativeAPI64.get().HTMLDestroyConverter(hHTML64);
+			finally {
+				if (PlatformUtils.is64Bit()) {
+					if (hRef64!=0) {
+						Mem64.OSMemoryUnlock(hRef64);
+						Mem64.OSMemoryFree(hRef64);
+					}
 				}
-				
-			}
-			else {
-				if (hHTML32!=0) {
-					result = NotesNativeAPI32.get().HTMLDestroyConverter(hHTML32);
+				else {
+					if (hRef32!=0) {
+						Mem32.OSMemoryUnlock(hRef32);
+						Mem32.OSMemoryFree(hRef32);
+					}
 				}
 			}
-			NotesErrorUtils.checkResult(result);
 		}
+		
+		return references;
 	}
 
 	/**
@@ -4912,7 +5277,10 @@ public class NotesNote implements IRecyclableNotesObject {
 	}
 	
 	/**
-	 * Applies one of multiple conversions to a richtext item
+	 * Applies one of multiple conversions to a richtext item.<br>
+	 * <br>
+	 * If all conversions implement {@link IStreamingRichTextConversion}, they are applied in a
+	 * single pass with a {@link RichTextConversionPipeline}.
 	 * 
 	 * @param itemName richtext item name
 	 * @param targetNote note to copy to conversion result to
@@ -4927,6 +5295,34 @@ public class NotesNote implements IRecyclableNotesObject {
 			return false;
 		
 		IRichTextNavigator navFromNote = getRichtextNavigator(itemName);
+		
+		IStreamingRichTextConversion[] streamingConversions = new IStreamingRichTextConversion[conversions.length];
+		for (int i=0; i<conversions.length; i++) {
+			if (conversions[i] instanceof IStreamingRichTextConversion) {
+				streamingConversions[i] = (IStreamingRichTextConversion) conversions[i];
+			}
+			else {
+				streamingConversions = null;
+				break;
+			}
+		}
+		
+		if (streamingConversions!=null) {
+			//single pass through all conversions, writing only one temporary compound text
+			StandaloneRichText resultRichText = new StandaloneRichText();
+			boolean modified = false;
+			try {
+				modified = new RichTextConversionPipeline(streamingConversions).run(navFromNote, resultRichText);
+				if (modified) {
+					resultRichText.closeAndCopyToNote(targetNote, targetItemName);
+				}
+			}
+			finally {
+				resultRichText.recycle();
+			}
+			return modified;
+		}
+		
 		IRichTextNavigator currNav = navFromNote;
 		
 		StandaloneRichText tmpRichText = null;
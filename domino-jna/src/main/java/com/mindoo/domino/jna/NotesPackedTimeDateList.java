@@ -0,0 +1,459 @@
+package com.mindoo.domino.jna;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import com.mindoo.domino.jna.internal.InnardsConverter;
+import com.mindoo.domino.jna.utils.NotesDateTimeUtils;
+
+/**
+ * Compact representation of the values of a {@link NotesItem#TYPE_TIME} or {@link NotesItem#TYPE_TIME_RANGE}
+ * item.<br>
+ * <br>
+ * In contrast to the {@link List} of {@link NotesTimeDate} and {@link NotesDateRange} objects returned by
+ * {@link NotesNote#getItemValue(String)}, the innards of all values are stored in two <code>long</code>
+ * arrays (one for single values, one for lower/upper pairs of ranges). Values can be accessed by index
+ * without creating objects, time based queries use binary search on arrays that are computed on first use.<br>
+ * <br>
+ * Times are converted to milliseconds since 1/1/1970 via {@link InnardsConverter#decodeInnardsToMillis(int, int)};
+ * values without date part are never returned by the time based queries.<br>
+ * Instances are immutable, but not thread-safe during the computation of the query arrays.
+ *
+ * @author Karsten Lehmann
+ */
+public class NotesPackedTimeDateList {
+	private static final long[] EMPTY = new long[0];
+
+	/** innards of single values, innards[1] in the high and innards[0] in the low 32 bits */
+	private final long[] m_values;
+	/** innards of ranges, lower and upper value for each range */
+	private final long[] m_ranges;
+
+	private long[] m_sortedValueMillis;
+	private int[] m_rangeOrder;
+	private long[] m_sortedRangeStartMillis;
+	private long[] m_sortedRangeEndMillis;
+	private long[] m_sortedRangeMaxEndMillis;
+
+	/**
+	 * Creates a new instance
+	 *
+	 * @param values packed innards of single values, see {@link #pack(int, int)}
+	 * @param ranges packed innards of range values, lower and upper value for each range
+	 */
+	NotesPackedTimeDateList(long[] values, long[] ranges) {
+		if ((ranges.length % 2) != 0)
+			throw new IllegalArgumentException("Range array must contain lower/upper pairs: "+ranges.length);
+
+		m_values = values;
+		m_ranges = ranges;
+	}
+
+	/**
+	 * Creates a new instance from a list of values
+	 *
+	 * @param values list of {@link NotesTimeDate}, {@link Calendar}, {@link Date}, {@link NotesDateRange}, {@link NotesTimeDate}[] or {@link Calendar}[] values (ranges with two elements)
+	 * @return list
+	 */
+	public static NotesPackedTimeDateList fromList(List<?> values) {
+		int valueCount = 0;
+		int rangeCount = 0;
+		for (Object currValue : values) {
+			if (currValue instanceof NotesDateRange || currValue instanceof Object[]) {
+				rangeCount++;
+			}
+			else {
+				valueCount++;
+			}
+		}
+
+		long[] packedValues = valueCount==0 ? EMPTY : new long[valueCount];
+		long[] packedRanges = rangeCount==0 ? EMPTY : new long[2*rangeCount];
+		int valueIdx = 0;
+		int rangeIdx = 0;
+
+		for (Object currValue : values) {
+			if (currValue instanceof NotesDateRange) {
+				NotesDateRange range = (NotesDateRange) currValue;
+				packedRanges[rangeIdx++] = pack(toInnards(range.getStartDateTime()));
+				packedRanges[rangeIdx++] = pack(toInnards(range.getEndDateTime()));
+			}
+			else if (currValue instanceof Object[]) {
+				Object[] range = (Object[]) currValue;
+				if (range.length!=2)
+					throw new IllegalArgumentException("Range array must have exactly 2 elements. We found "+range.length);
+				packedRanges[rangeIdx++] = pack(toInnards(range[0]));
+				packedRanges[rangeIdx++] = pack(toInnards(range[1]));
+			}
+			else {
+				packedValues[valueIdx++] = pack(toInnards(currValue));
+			}
+		}
+		return new NotesPackedTimeDateList(packedValues, packedRanges);
+	}
+
+	/**
+	 * Creates a new instance from the raw innards of the values
+	 *
+	 * @param listInnards innards of single values, two ints per value
+	 * @param rangeInnards innards of ranges, four ints per range (lower and upper value)
+	 * @return list
+	 */
+	public static NotesPackedTimeDateList fromInnards(int[] listInnards, int[] rangeInnards) {
+		if ((listInnards.length % 2) != 0)
+			throw new IllegalArgumentException("Innards array of single values must have an even length: "+listInnards.length);
+		if ((rangeInnards.length % 4) != 0)
+			throw new IllegalArgumentException("Innards array of ranges must have a length divisible by 4: "+rangeInnards.length);
+
+		long[] packedValues = listInnards.length==0 ? EMPTY : new long[listInnards.length / 2];
+		for (int i=0; i<packedValues.length; i++) {
+			packedValues[i] = pack(listInnards[2*i], listInnards[2*i+1]);
+		}
+		long[] packedRanges = rangeInnards.length==0 ? EMPTY : new long[rangeInnards.length / 2];
+		for (int i=0; i<packedRanges.length; i++) {
+			packedRanges[i] = pack(rangeInnards[2*i], rangeInnards[2*i+1]);
+		}
+		return new NotesPackedTimeDateList(packedValues, packedRanges);
+	}
+
+	private static int[] toInnards(Object value) {
+		if (value instanceof NotesTimeDate) {
+			return ((NotesTimeDate) value).getInnardsNoClone();
+		}
+		else if (value instanceof Calendar) {
+			return NotesDateTimeUtils.calendarToInnards((Calendar) value);
+		}
+		else if (value instanceof Date) {
+			return NotesDateTimeUtils.dateToInnards((Date) value);
+		}
+		else
+			throw new IllegalArgumentException("Unsupported value type: "+(value==null ? "null" : value.getClass().getName()));
+	}
+
+	/**
+	 * Packs innards into a long value
+	 *
+	 * @param innard0 first innard (time part)
+	 * @param innard1 second innard (date part)
+	 * @return packed value
+	 */
+	static long pack(int innard0, int innard1) {
+		return (((long) innard1) << 32) | (innard0 & 0xffffffffL);
+	}
+
+	private static long pack(int[] innards) {
+		return pack(innards[0], innards[1]);
+	}
+
+	private static long toMillis(long packedValue) {
+		return InnardsConverter.decodeInnardsToMillis((int) packedValue, (int) (packedValue >>> 32));
+	}
+
+	/**
+	 * Returns the number of single values
+	 *
+	 * @return count
+	 */
+	public int getValueCount() {
+		return m_values.length;
+	}
+
+	/**
+	 * Returns the number of ranges
+	 *
+	 * @return count
+	 */
+	public int getRangeCount() {
+		return m_ranges.length / 2;
+	}
+
+	/**
+	 * Returns the first innard (time part) of a single value
+	 *
+	 * @param index value index
+	 * @return innard
+	 */
+	public int getValueInnard0(int index) {
+		return (int) m_values[index];
+	}
+
+	/**
+	 * Returns the second innard (date part) of a single value
+	 *
+	 * @param index value index
+	 * @return innard
+	 */
+	public int getValueInnard1(int index) {
+		return (int) (m_values[index] >>> 32);
+	}
+
+	/**
+	 * Returns a single value in milliseconds since 1/1/1970
+	 *
+	 * @param index value index
+	 * @return milliseconds or {@link InnardsConverter#NO_DATE} if the value has no date part
+	 */
+	public long getValueMillis(int index) {
+		return toMillis(m_values[index]);
+	}
+
+	/**
+	 * Returns a single value as {@link NotesTimeDate}
+	 *
+	 * @param index value index
+	 * @return timedate
+	 */
+	public NotesTimeDate getValue(int index) {
+		return new NotesTimeDate(new int[] {getValueInnard0(index), getValueInnard1(index)});
+	}
+
+	/**
+	 * Returns the start of a range in milliseconds since 1/1/1970
+	 *
+	 * @param index range index
+	 * @return milliseconds or {@link InnardsConverter#NO_DATE} if the value has no date part
+	 */
+	public long getRangeStartMillis(int index) {
+		return toMillis(m_ranges[2*index]);
+	}
+
+	/**
+	 * Returns the end of a range in milliseconds since 1/1/1970
+	 *
+	 * @param index range index
+	 * @return milliseconds or {@link InnardsConverter#NO_DATE} if the value has no date part
+	 */
+	public long getRangeEndMillis(int index) {
+		return toMillis(m_ranges[2*index+1]);
+	}
+
+	/**
+	 * Returns a range as {@link NotesDateRange}
+	 *
+	 * @param index range index
+	 * @return range
+	 */
+	public NotesDateRange getRange(int index) {
+		long lower = m_ranges[2*index];
+		long upper = m_ranges[2*index+1];
+		return new NotesDateRange(new NotesTimeDate(new int[] {(int) lower, (int) (lower >>> 32)}),
+				new NotesTimeDate(new int[] {(int) upper, (int) (upper >>> 32)}));
+	}
+
+	/**
+	 * Converts the values to the format returned by {@link NotesNote#getItemValue(String)}
+	 * when {@link NotesNote#setPreferNotesTimeDates(boolean)} is set
+	 *
+	 * @return list of {@link NotesTimeDate} and {@link NotesDateRange} values
+	 */
+	public List<Object> toList() {
+		List<Object> values = new ArrayList<Object>(getValueCount() + getRangeCount());
+		for (int i=0; i<getValueCount(); i++) {
+			values.add(getValue(i));
+		}
+		for (int i=0; i<getRangeCount(); i++) {
+			values.add(getRange(i));
+		}
+		return values;
+	}
+
+	/**
+	 * Checks if a single value with the specified time exists
+	 *
+	 * @param timeMillis milliseconds since 1/1/1970
+	 * @return true if found
+	 */
+	public boolean containsValue(long timeMillis) {
+		return Arrays.binarySearch(getSortedValueMillis(), timeMillis) >= 0;
+	}
+
+	/**
+	 * Returns the times of all single values between two times in ascending order
+	 *
+	 * @param startMillis start time in milliseconds since 1/1/1970 (inclusive)
+	 * @param endMillis end time in milliseconds since 1/1/1970 (inclusive)
+	 * @return times in milliseconds since 1/1/1970
+	 */
+	public long[] getValueMillisBetween(long startMillis, long endMillis) {
+		long[] sortedMillis = getSortedValueMillis();
+		int fromIdx = lowerBound(sortedMillis, startMillis);
+		int toIdx = upperBound(sortedMillis, endMillis);
+		if (fromIdx >= toIdx) {
+			return EMPTY;
+		}
+		return Arrays.copyOfRange(sortedMillis, fromIdx, toIdx);
+	}
+
+	/**
+	 * Returns the indices of all ranges that overlap the specified time span, sorted by range start
+	 *
+	 * @param startMillis start time in milliseconds since 1/1/1970 (inclusive)
+	 * @param endMillis end time in milliseconds since 1/1/1970 (inclusive)
+	 * @return range indices to be used for {@link #getRange(int)}
+	 */
+	public int[] findOverlappingRanges(long startMillis, long endMillis) {
+		computeRangeIndex();
+
+		//all ranges starting after endMillis cannot overlap
+		int lastIdx = upperBound(m_sortedRangeStartMillis, endMillis) - 1;
+
+		int[] result = new int[lastIdx+1];
+		int resultCount = 0;
+		for (int i=lastIdx; i>=0 && m_sortedRangeMaxEndMillis[i] >= startMillis; i--) {
+			if (m_sortedRangeEndMillis[i] >= startMillis && m_sortedRangeStartMillis[i]!=InnardsConverter.NO_DATE) {
+				result[resultCount++] = m_rangeOrder[i];
+			}
+		}
+
+		//we collected the matches in descending start order
+		int[] sortedResult = new int[resultCount];
+		for (int i=0; i<resultCount; i++) {
+			sortedResult[i] = result[resultCount-1-i];
+		}
+		return sortedResult;
+	}
+
+	/**
+	 * Checks if any single value or range lies within the specified time span
+	 *
+	 * @param startMillis start time in milliseconds since 1/1/1970 (inclusive)
+	 * @param endMillis end time in milliseconds since 1/1/1970 (inclusive)
+	 * @return true if overlapping
+	 */
+	public boolean overlaps(long startMillis, long endMillis) {
+		long[] sortedMillis = getSortedValueMillis();
+		if (lowerBound(sortedMillis, startMillis) < upperBound(sortedMillis, endMillis)) {
+			return true;
+		}
+		return findOverlappingRanges(startMillis, endMillis).length > 0;
+	}
+
+	private long[] getSortedValueMillis() {
+		if (m_sortedValueMillis==null) {
+			long[] sortedMillis = new long[m_values.length];
+			for (int i=0; i<m_values.length; i++) {
+				sortedMillis[i] = toMillis(m_values[i]);
+			}
+			Arrays.sort(sortedMillis);
+			m_sortedValueMillis = sortedMillis;
+		}
+		return m_sortedValueMillis;
+	}
+
+	private void computeRangeIndex() {
+		if (m_rangeOrder!=null) {
+			return;
+		}
+
+		int rangeCount = getRangeCount();
+		final long[] startMillis = new long[rangeCount];
+		long[] endMillis = new long[rangeCount];
+		for (int i=0; i<rangeCount; i++) {
+			startMillis[i] = getRangeStartMillis(i);
+			endMillis[i] = getRangeEndMillis(i);
+		}
+
+		int[] order = new int[rangeCount];
+		for (int i=0; i<rangeCount; i++) {
+			order[i] = i;
+		}
+		sortIndices(order, new int[rangeCount], startMillis, 0, rangeCount);
+
+		long[] sortedStartMillis = new long[rangeCount];
+		long[] sortedEndMillis = new long[rangeCount];
+		long[] sortedMaxEndMillis = new long[rangeCount];
+		long maxEnd = Long.MIN_VALUE;
+		for (int i=0; i<rangeCount; i++) {
+			sortedStartMillis[i] = startMillis[order[i]];
+			sortedEndMillis[i] = endMillis[order[i]];
+			maxEnd = Math.max(maxEnd, sortedEndMillis[i]);
+			sortedMaxEndMillis[i] = maxEnd;
+		}
+
+		m_sortedRangeStartMillis = sortedStartMillis;
+		m_sortedRangeEndMillis = sortedEndMillis;
+		m_sortedRangeMaxEndMillis = sortedMaxEndMillis;
+		m_rangeOrder = order;
+	}
+
+	/**
+	 * Stable merge sort of an index array by the values of a key array
+	 *
+	 * @param indices indices to sort
+	 * @param tmp temporary array with the same length
+	 * @param keys sort keys
+	 * @param from start index (inclusive)
+	 * @param to end index (exclusive)
+	 */
+	private static void sortIndices(int[] indices, int[] tmp, long[] keys, int from, int to) {
+		if (to - from < 2) {
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		sortIndices(indices, tmp, keys, from, mid);
+		sortIndices(indices, tmp, keys, mid, to);
+
+		int left = from;
+		int right = mid;
+		int pos = from;
+		while (left < mid && right < to) {
+			if (keys[indices[right]] < keys[indices[left]]) {
+				tmp[pos++] = indices[right++];
+			}
+			else {
+				tmp[pos++] = indices[left++];
+			}
+		}
+		while (left < mid) {
+			tmp[pos++] = indices[left++];
+		}
+		while (right < to) {
+			tmp[pos++] = indices[right++];
+		}
+		System.arraycopy(tmp, from, indices, from, to - from);
+	}
+
+	/**
+	 * Returns the index of the first array element greater or equal the key
+	 */
+	private static int lowerBound(long[] sortedArr, long key) {
+		int low = 0;
+		int high = sortedArr.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (sortedArr[mid] < key) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the index of the first array element greater than the key
+	 */
+	private static int upperBound(long[] sortedArr, long key) {
+		int low = 0;
+		int high = sortedArr.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (sortedArr[mid] <= key) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	@Override
+	public String toString() {
+		return "NotesPackedTimeDateList [values="+getValueCount()+", ranges="+getRangeCount()+"]";
+	}
+}
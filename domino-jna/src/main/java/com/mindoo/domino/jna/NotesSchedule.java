@@ -1,6 +1,7 @@
 package com.mindoo.domino.jna;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
 
@@ -324,6 +325,99 @@ public class NotesSchedule implements IRecyclableNotesObject {
 		return allRanges;
 	}
 	
+	/**
+	 * Retrieves a user's busy times stored in this schedule as epoch milliseconds, without
+	 * creating {@link Calendar} objects for the single ranges
+	 *  
+	 * @param unidIgnore UNID to ignore in busy time calculations or null
+	 * @param from specifies the start of the range over which the free time search should be performed
+	 * @param until specifies the end of the range over which the free time search should be performed
+	 * @return busy times as pairs of start and end in milliseconds (start0, end0, start1, end1, ...)
+	 */
+	public long[] extractBusyTimeRangeAsMillis(String unidIgnore, NotesTimeDate from, NotesTimeDate until) {
+		checkHandle();
+		
+		NotesUniversalNoteIdStruct unidStruct = unidIgnore==null ? null : NotesUniversalNoteIdStruct.fromString(unidIgnore);
+		if (from==null)
+			throw new IllegalArgumentException("from date cannot be null");
+		if (until==null)
+			throw new IllegalArgumentException("until date cannot be null");
+		
+		NotesTimeDatePairStruct intervalPair = NotesTimeDatePairStruct.newInstance();
+		intervalPair.Lower = NotesTimeDateStruct.newInstance(from.getInnards());
+		intervalPair.Upper = NotesTimeDateStruct.newInstance(until.getInnards());
+		intervalPair.write();
+
+		short result;
+		
+		long[] allRanges = new long[16];
+		int allRangesCount = 0;
+		
+		IntByReference retdwSize = new IntByReference();
+		IntByReference rethMoreCtx = new IntByReference();
+		boolean firstCall = true;
+		
+		do {
+			long hRange;
+			if (PlatformUtils.is64Bit()) {
+				LongByReference rethRange = new LongByReference();
+				if (firstCall) {
+					result = NotesNativeAPI64.get().Schedule_ExtractBusyTimeRange(m_parent.getHandle64(), (int) m_hSched64,
+							unidStruct, intervalPair, retdwSize, rethRange, rethMoreCtx);
+				}
+				else {
+					result = NotesNativeAPI64.get().Schedule_ExtractMoreBusyTimeRange(m_parent.getHandle64(), rethMoreCtx.getValue(),
+							unidStruct, intervalPair, retdwSize, rethRange, rethMoreCtx);
+				}
+				NotesErrorUtils.checkResult(result);
+				hRange = rethRange.getValue();
+			}
+			else {
+				IntByReference rethRange = new IntByReference();
+				if (firstCall) {
+					result = NotesNativeAPI32.get().Schedule_ExtractBusyTimeRange(m_parent.getHandle32(), (int) m_hSched32,
+							unidStruct, intervalPair, retdwSize, rethRange, rethMoreCtx);
+				}
+				else {
+					result = NotesNativeAPI32.get().Schedule_ExtractMoreBusyTimeRange(m_parent.getHandle32(), rethMoreCtx.getValue(),
+							unidStruct, intervalPair, retdwSize, rethRange, rethMoreCtx);
+				}
+				NotesErrorUtils.checkResult(result);
+				hRange = rethRange.getValue();
+			}
+			firstCall = false;
+			
+			if (hRange!=0) {
+				Pointer rangePtr = PlatformUtils.is64Bit() ? Mem64.OSLockObject(hRange) : Mem32.OSLockObject((int) hRange);
+				try {
+					NotesPackedTimeDateList currentRange = ItemDecoder.decodeTimeDateListAsPackedList(rangePtr);
+					int rangeCount = currentRange.getRangeCount();
+					if (allRangesCount + 2*rangeCount > allRanges.length) {
+						allRanges = Arrays.copyOf(allRanges, Math.max(allRanges.length*2, allRangesCount + 2*rangeCount));
+					}
+					for (int i=0; i<rangeCount; i++) {
+						allRanges[allRangesCount++] = currentRange.getRangeStartMillis(i);
+						allRanges[allRangesCount++] = currentRange.getRangeEndMillis(i);
+					}
+				}
+				finally {
+					if (PlatformUtils.is64Bit()) {
+						Mem64.OSUnlockObject(hRange);
+						result = Mem64.OSMemFree(hRange);
+					}
+					else {
+						Mem32.OSUnlockObject((int) hRange);
+						result = Mem32.OSMemFree((int) hRange);
+					}
+					NotesErrorUtils.checkResult(result);
+				}
+			}
+		}
+		while (rethMoreCtx.getValue()!=0);
+		
+		return Arrays.copyOf(allRanges, allRangesCount);
+	}
+	
 	/**
 	 * This routine retrieves one or more free time ranges from a schedule.<br>
 	 * It will only return 64k of free time ranges.<br>
@@ -1,5 +1,6 @@
 package com.mindoo.domino.jna;
 
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
@@ -22,9 +23,10 @@ import com.sun.jna.ptr.ShortByReference;
  * 
  * @author Karsten Lehmann
  */
-public class NotesTimeDate implements Comparable<NotesTimeDate> {
+public class NotesTimeDate implements Comparable<NotesTimeDate>, Serializable {
+	private static final long serialVersionUID = 8164517216380418213L;
 	private int[] m_innards = new int[2];
-	private NotesTimeDateStruct m_structReused;
+	private transient NotesTimeDateStruct m_structReused;
 	
 	/**
 	 * Creates a new date/time object and sets it to the current date/time
@@ -471,11 +473,18 @@ public class NotesTimeDate implements Comparable<NotesTimeDate> {
 	}
 
 	/**
-	 * Converts the time date to the number of milliseconds since 1/1/70.
+	 * Converts the time date to the number of milliseconds since 1/1/70.<br>
+	 * Values with date part are converted without creating a {@link Calendar}, date-only
+	 * values are returned as midnight UTC.
 	 * 
 	 * @return milliseconds since January 1, 1970, 00:00:00 GMT
 	 */
 	public long toDateInMillis() {
+		int[] innards = getInnardsNoClone();
+		long timeMillis = InnardsConverter.decodeInnardsToMillis(innards[0], innards[1]);
+		if (timeMillis!=InnardsConverter.NO_DATE) {
+			return timeMillis;
+		}
 		return toCalendar().getTimeInMillis();
 	}
 
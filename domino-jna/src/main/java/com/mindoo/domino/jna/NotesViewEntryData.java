@@ -5,12 +5,15 @@ import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import com.mindoo.domino.jna.constants.ReadMask;
+import com.mindoo.domino.jna.internal.CompactItemValueMap;
+import com.mindoo.domino.jna.internal.ItemNameDictionary;
 import com.mindoo.domino.jna.internal.NotesConstants;
 import com.mindoo.domino.jna.utils.EmptyIterator;
 import com.mindoo.domino.jna.utils.LMBCSString;
@@ -54,7 +57,7 @@ public class NotesViewEntryData {
 		m_parentCollection = parentCollection;
 	}
 	
-	class CacheableViewEntryData implements Serializable {
+	static class CacheableViewEntryData implements Serializable {
 		private static final long serialVersionUID = -6919729244434994355L;
 		
 		private int[] m_pos;
@@ -73,7 +76,7 @@ public class NotesViewEntryData {
 		private Object[] m_columnValues;
 		private int[] m_columnValueSizes;
 		private Map<String, Object> m_summaryData;
-		private SoftReference<Map<String, Object>> m_convertedDataRef;
+		private transient SoftReference<Map<String, Object>> m_convertedDataRef;
 		private String m_singleColumnLookupName;
 	}
 	
@@ -549,6 +552,34 @@ public class NotesViewEntryData {
 		return data;
 	}
 	
+	/**
+	 * Alternative to {@link #getColumnDataAsMap()} for callers that keep the column data of many
+	 * entries in memory: entries of the same collection share an interned column name dictionary
+	 * and each returned map only stores an array of values.<br>
+	 * <br>
+	 * The returned map is read-only and its key lookup is case insensitive.
+	 * 
+	 * @return map with programmatic column names as keys
+	 */
+	public Map<String,Object> getColumnDataAsCompactMap() {
+		List<String> colNamesList = new ArrayList<String>();
+		Iterator<String> colNames = getColumnNames();
+		while (colNames.hasNext()) {
+			colNamesList.add(colNames.next());
+		}
+		
+		ItemNameDictionary dictionary = ItemNameDictionary.get(colNamesList.toArray(new String[colNamesList.size()]));
+		if (!dictionary.isUnique()) {
+			return Collections.unmodifiableMap(getColumnDataAsMap());
+		}
+		
+		Object[] values = new Object[colNamesList.size()];
+		for (int i=0; i<values.length; i++) {
+			values[i] = get(colNamesList.get(i));
+		}
+		return new CompactItemValueMap(dictionary, values);
+	}
+	
 	/**
 	 * Returns a list of reader that are allowed to see this view entry.
 	 * This data is only retrieved when {@link ReadMask#SUMMARY} and
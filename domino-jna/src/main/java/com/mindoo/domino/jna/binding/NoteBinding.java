@@ -0,0 +1,635 @@
+package com.mindoo.domino.jna.binding;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.mindoo.domino.jna.IItemTableData;
+import com.mindoo.domino.jna.NotesNote;
+import com.mindoo.domino.jna.NotesSearch;
+import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.NotesViewEntryData;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.sync.ISyncTarget;
+import com.mindoo.domino.jna.utils.LMBCSString;
+
+/**
+ * Binding between a Java class with fields annotated with {@link NotesItemName} and
+ * note items / collection columns.<br>
+ * <br>
+ * The class gets analyzed once in {@link #forClass(Class)}: we compute the item names,
+ * a lookup map by lowercase item name and a value converter for each field type.
+ * Binding data to an object then just iterates over the available item names and skips
+ * unmapped items without decoding their values.<br>
+ * <br>
+ * Supported field types are {@link String}, {@link Double}/double, {@link Integer}/int,
+ * {@link Long}/long, {@link Calendar}, {@link Date}, {@link NotesTimeDate}, {@link Object}
+ * (raw value) and {@link List}s of these types.
+ *
+ * @author Karsten Lehmann
+ *
+ * @param <T> bound class
+ */
+public class NoteBinding<T> {
+	private static final Map<Class<?>,NoteBinding<?>> m_bindingsByClass = new ConcurrentHashMap<Class<?>, NoteBinding<?>>();
+
+	private final Class<T> m_clazz;
+	private final Constructor<T> m_constructor;
+	private final FieldBinding[] m_fieldBindings;
+	private final Map<String,FieldBinding> m_fieldBindingsByItemNameLC;
+	private final Set<String> m_itemNames;
+
+	/**
+	 * Returns the binding for a class. Bindings are computed once and cached.
+	 *
+	 * @param clazz class with fields annotated with {@link NotesItemName}
+	 * @return binding
+	 * @param <T> bound class
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> NoteBinding<T> forClass(Class<T> clazz) {
+		NoteBinding<T> binding = (NoteBinding<T>) m_bindingsByClass.get(clazz);
+		if (binding==null) {
+			binding = new NoteBinding<T>(clazz);
+			m_bindingsByClass.put(clazz, binding);
+		}
+		return binding;
+	}
+
+	private NoteBinding(final Class<T> clazz) {
+		m_clazz = clazz;
+
+		List<FieldBinding> fieldBindings = new ArrayList<FieldBinding>();
+		m_fieldBindingsByItemNameLC = new HashMap<String, FieldBinding>();
+		m_itemNames = new LinkedHashSet<String>();
+
+		Class<?> currClazz = clazz;
+		while (currClazz!=null && currClazz!=Object.class) {
+			for (final Field currField : currClazz.getDeclaredFields()) {
+				NotesItemName itemNameAnnotation = currField.getAnnotation(NotesItemName.class);
+				if (itemNameAnnotation==null) {
+					continue;
+				}
+				if (Modifier.isStatic(currField.getModifiers()) || Modifier.isFinal(currField.getModifiers())) {
+					throw new IllegalArgumentException("Field "+currField.getName()+" of class "+currClazz.getName()+" cannot be static or final");
+				}
+
+				String itemName = itemNameAnnotation.value();
+				String itemNameLC = itemName.toLowerCase(Locale.ENGLISH);
+				if (m_fieldBindingsByItemNameLC.containsKey(itemNameLC)) {
+					throw new IllegalArgumentException("Item "+itemName+" is mapped to more than one field of class "+clazz.getName());
+				}
+
+				AccessController.doPrivileged(new PrivilegedAction<Object>() {
+
+					@Override
+					public Object run() {
+						currField.setAccessible(true);
+						return null;
+					}
+				});
+
+				FieldBinding fieldBinding = new FieldBinding(currField, itemName, getConverter(currField));
+				fieldBindings.add(fieldBinding);
+				m_fieldBindingsByItemNameLC.put(itemNameLC, fieldBinding);
+				m_itemNames.add(itemName);
+			}
+			currClazz = currClazz.getSuperclass();
+		}
+		m_fieldBindings = fieldBindings.toArray(new FieldBinding[fieldBindings.size()]);
+
+		try {
+			m_constructor = AccessController.doPrivileged(new PrivilegedAction<Constructor<T>>() {
+
+				@Override
+				public Constructor<T> run() {
+					try {
+						Constructor<T> constructor = clazz.getDeclaredConstructor();
+						constructor.setAccessible(true);
+						return constructor;
+					} catch (NoSuchMethodException e) {
+						return null;
+					}
+				}
+			});
+		}
+		catch (SecurityException e) {
+			throw new NotesError(0, "Error accessing the default constructor of class "+clazz.getName(), e);
+		}
+	}
+
+	/**
+	 * Returns the bound class
+	 *
+	 * @return class
+	 */
+	public Class<T> getBoundClass() {
+		return m_clazz;
+	}
+
+	/**
+	 * Returns the names of all bound items, e.g. to specify the summary buffer
+	 * items to read in a {@link NotesSearch}
+	 *
+	 * @return item names in the order of field declaration
+	 */
+	public Set<String> getItemNames() {
+		return Collections.unmodifiableSet(m_itemNames);
+	}
+
+	/**
+	 * Returns the bound item names in the format expected by
+	 * {@link ISyncTarget#getSummaryBufferItemsAndFormulas()}, so that
+	 * only the bound items get computed for the summary buffer
+	 *
+	 * @return map of item name and empty formula
+	 */
+	public Map<String,String> getSummaryBufferItemsAndFormulas() {
+		Map<String,String> itemsAndFormulas = new LinkedHashMap<String, String>();
+		for (String currItemName : m_itemNames) {
+			itemsAndFormulas.put(currItemName, "");
+		}
+		return itemsAndFormulas;
+	}
+
+	/**
+	 * Creates a new instance of the bound class using its default constructor
+	 *
+	 * @return new instance
+	 */
+	public T newInstance() {
+		if (m_constructor==null) {
+			throw new IllegalStateException("Class "+m_clazz.getName()+" has no default constructor");
+		}
+		try {
+			return m_constructor.newInstance();
+		} catch (Exception e) {
+			throw new NotesError(0, "Error creating an instance of class "+m_clazz.getName(), e);
+		}
+	}
+
+	/**
+	 * Creates a new object and fills it with summary buffer data, e.g. read via
+	 * {@link NotesSearch} or passed to an {@link ISyncTarget}
+	 *
+	 * @param data summary buffer data
+	 * @return new object
+	 */
+	public T read(IItemTableData data) {
+		T obj = newInstance();
+		bind(data, obj);
+		return obj;
+	}
+
+	/**
+	 * Creates a new object and fills it with item values of a note
+	 *
+	 * @param note note
+	 * @return new object
+	 */
+	public T read(NotesNote note) {
+		T obj = newInstance();
+		bind(note, obj);
+		return obj;
+	}
+
+	/**
+	 * Creates a new object and fills it with column values of a collection entry
+	 *
+	 * @param entry collection entry read with {@link com.mindoo.domino.jna.constants.ReadMask#SUMMARY} or {@link com.mindoo.domino.jna.constants.ReadMask#SUMMARYVALUES}
+	 * @return new object
+	 */
+	public T read(NotesViewEntryData entry) {
+		T obj = newInstance();
+		bind(entry, obj);
+		return obj;
+	}
+
+	/**
+	 * Creates a new object from the data passed to
+	 * {@link ISyncTarget#noteChangedMatchingFormula(Object, com.mindoo.domino.jna.sync.NotesOriginatorIdData, IItemTableData, NotesNote)}.
+	 * Values are read from the summary buffer; only bound items that are missing in the
+	 * summary buffer (e.g. non-summary items) are read from the note.
+	 *
+	 * @param summaryBufferData summary buffer data or null
+	 * @param note note or null
+	 * @return new object
+	 */
+	public T read(IItemTableData summaryBufferData, NotesNote note) {
+		if (summaryBufferData==null && note==null) {
+			throw new IllegalArgumentException("Summary buffer and note are both null");
+		}
+		T obj = newInstance();
+		bind(summaryBufferData, note, obj);
+		return obj;
+	}
+
+	/**
+	 * Fills an object with summary buffer data. Only the values of bound items
+	 * get decoded, unbound items are skipped.
+	 *
+	 * @param data summary buffer data
+	 * @param obj object to fill
+	 */
+	public void bind(IItemTableData data, T obj) {
+		bindSummaryBufferData(data, obj);
+	}
+
+	/**
+	 * Fills an object with summary buffer data and reads the bound items that are
+	 * missing in the summary buffer from the note
+	 *
+	 * @param summaryBufferData summary buffer data or null to read all items from the note
+	 * @param note note or null to only use the summary buffer
+	 * @param obj object to fill
+	 */
+	public void bind(IItemTableData summaryBufferData, NotesNote note, T obj) {
+		Set<String> foundItemNamesLC = summaryBufferData==null ? Collections.<String>emptySet() : bindSummaryBufferData(summaryBufferData, obj);
+		if (note==null || foundItemNamesLC.size()==m_fieldBindings.length) {
+			return;
+		}
+
+		Set<String> missingItemNames = new LinkedHashSet<String>();
+		for (FieldBinding currFieldBinding : m_fieldBindings) {
+			if (!foundItemNamesLC.contains(currFieldBinding.m_itemNameLC)) {
+				missingItemNames.add(currFieldBinding.m_itemName);
+			}
+		}
+		bindNoteItems(note, obj, missingItemNames);
+	}
+
+	/**
+	 * Writes the bound summary buffer values to the object
+	 *
+	 * @param data summary buffer data
+	 * @param obj object to fill
+	 * @return lowercase names of the bound items found in the summary buffer
+	 */
+	private Set<String> bindSummaryBufferData(IItemTableData data, T obj) {
+		Set<String> foundItemNamesLC = new HashSet<String>();
+
+		boolean preferNotesTimeDates = data.isPreferNotesTimeDates();
+		//read NotesTimeDate values to skip the Calendar conversion if we do not need it
+		data.setPreferNotesTimeDates(true);
+		try {
+			String[] itemNames = data.getItemNames();
+			for (int i=0; i<itemNames.length; i++) {
+				FieldBinding fieldBinding = m_fieldBindingsByItemNameLC.get(itemNames[i].toLowerCase(Locale.ENGLISH));
+				if (fieldBinding!=null) {
+					fieldBinding.setValue(obj, data.getItemValue(i));
+					foundItemNamesLC.add(fieldBinding.m_itemNameLC);
+				}
+			}
+		}
+		finally {
+			data.setPreferNotesTimeDates(preferNotesTimeDates);
+		}
+		return foundItemNamesLC;
+	}
+
+	/**
+	 * Fills an object with item values of a note. All bound items are read in one
+	 * pass via {@link NotesNote#getItemValues(Set)}.
+	 *
+	 * @param note note
+	 * @param obj object to fill
+	 */
+	public void bind(NotesNote note, T obj) {
+		if (m_fieldBindings.length==0) {
+			return;
+		}
+		bindNoteItems(note, obj, m_itemNames);
+	}
+
+	private void bindNoteItems(NotesNote note, T obj, Set<String> itemNames) {
+		boolean preferNotesTimeDates = note.isPreferNotesTimeDates();
+		note.setPreferNotesTimeDates(true);
+		try {
+			Map<String,List<Object>> values = note.getItemValues(itemNames);
+			for (Map.Entry<String,List<Object>> currEntry : values.entrySet()) {
+				FieldBinding fieldBinding = m_fieldBindingsByItemNameLC.get(currEntry.getKey());
+				if (fieldBinding!=null) {
+					List<Object> currValues = currEntry.getValue();
+					Object value;
+					if (currValues==null || currValues.isEmpty()) {
+						value = null;
+					}
+					else if (currValues.size()==1) {
+						value = currValues.get(0);
+					}
+					else {
+						value = currValues;
+					}
+					fieldBinding.setValue(obj, value);
+				}
+			}
+		}
+		finally {
+			note.setPreferNotesTimeDates(preferNotesTimeDates);
+		}
+	}
+
+	/**
+	 * Fills an object with column values of a collection entry
+	 *
+	 * @param entry collection entry
+	 * @param obj object to fill
+	 */
+	public void bind(NotesViewEntryData entry, T obj) {
+		boolean preferNotesTimeDates = entry.isPreferNotesTimeDates();
+		entry.setPreferNotesTimeDates(true);
+		try {
+			for (FieldBinding currFieldBinding : m_fieldBindings) {
+				Object value = entry.get(currFieldBinding.m_itemName);
+				if (value!=null) {
+					currFieldBinding.setValue(obj, value);
+				}
+			}
+		}
+		finally {
+			entry.setPreferNotesTimeDates(preferNotesTimeDates);
+		}
+	}
+
+	/**
+	 * Precomputed data to write a single field
+	 */
+	private static class FieldBinding {
+		private final Field m_field;
+		private final String m_itemName;
+		private final String m_itemNameLC;
+		private final ValueConverter m_converter;
+		private final boolean m_isPrimitive;
+
+		public FieldBinding(Field field, String itemName, ValueConverter converter) {
+			m_field = field;
+			m_itemName = itemName;
+			m_itemNameLC = itemName.toLowerCase(Locale.ENGLISH);
+			m_converter = converter;
+			m_isPrimitive = field.getType().isPrimitive();
+		}
+
+		public void setValue(Object obj, Object value) {
+			Object convertedValue = m_converter.convert(value);
+			if (convertedValue==null && m_isPrimitive) {
+				//keep the default value
+				return;
+			}
+			try {
+				m_field.set(obj, convertedValue);
+			} catch (IllegalAccessException e) {
+				throw new NotesError(0, "Error writing field "+m_field.getName()+" for item "+m_itemName, e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the converter for the type of a field
+	 *
+	 * @param field field
+	 * @return converter
+	 */
+	private static ValueConverter getConverter(Field field) {
+		Class<?> fieldType = field.getType();
+		if (List.class.equals(fieldType) || Iterable.class.equals(fieldType) || Collection.class.equals(fieldType)) {
+			Type genericType = field.getGenericType();
+			ValueConverter elementConverter = ValueConverter.RAW;
+			if (genericType instanceof ParameterizedType) {
+				Type[] typeArgs = ((ParameterizedType) genericType).getActualTypeArguments();
+				if (typeArgs.length==1 && typeArgs[0] instanceof Class) {
+					elementConverter = getScalarConverter((Class<?>) typeArgs[0]);
+					if (elementConverter==null) {
+						throw new IllegalArgumentException("Unsupported list element type "+typeArgs[0]+" of field "+field.getName());
+					}
+				}
+			}
+			return new ListConverter(elementConverter);
+		}
+
+		ValueConverter converter = getScalarConverter(fieldType);
+		if (converter==null) {
+			throw new IllegalArgumentException("Unsupported type "+fieldType.getName()+" of field "+field.getName());
+		}
+		return converter;
+	}
+
+	private static ValueConverter getScalarConverter(Class<?> type) {
+		if (String.class.equals(type)) {
+			return ValueConverter.STRING;
+		}
+		else if (Double.class.equals(type) || Double.TYPE.equals(type)) {
+			return ValueConverter.DOUBLE;
+		}
+		else if (Integer.class.equals(type) || Integer.TYPE.equals(type)) {
+			return ValueConverter.INTEGER;
+		}
+		else if (Long.class.equals(type) || Long.TYPE.equals(type)) {
+			return ValueConverter.LONG;
+		}
+		else if (NotesTimeDate.class.equals(type)) {
+			return ValueConverter.TIMEDATE;
+		}
+		else if (Calendar.class.equals(type)) {
+			return ValueConverter.CALENDAR;
+		}
+		else if (Date.class.equals(type)) {
+			return ValueConverter.DATE;
+		}
+		else if (Object.class.equals(type)) {
+			return ValueConverter.RAW;
+		}
+		return null;
+	}
+
+	/**
+	 * Converts a decoded item value to the type of a field
+	 */
+	private static abstract class ValueConverter {
+
+		public abstract Object convert(Object value);
+
+		/**
+		 * Returns the first value if <code>value</code> is a list
+		 *
+		 * @param value value
+		 * @return first value or null for empty lists
+		 */
+		protected static Object firstValue(Object value) {
+			if (value instanceof List) {
+				List<?> valueAsList = (List<?>) value;
+				return valueAsList.isEmpty() ? null : valueAsList.get(0);
+			}
+			return value;
+		}
+
+		static final ValueConverter RAW = new ValueConverter() {
+			@Override
+			public Object convert(Object value) {
+				if (value instanceof List) {
+					//lazily decoded text lists contain LMBCSString elements
+					List<?> valueAsList = (List<?>) value;
+					List<Object> convertedList = new ArrayList<Object>(valueAsList.size());
+					for (Object currValue : valueAsList) {
+						convertedList.add(currValue instanceof LMBCSString ? ((LMBCSString) currValue).getValue() : currValue);
+					}
+					return convertedList;
+				}
+				else if (value instanceof LMBCSString) {
+					return ((LMBCSString) value).getValue();
+				}
+				return value;
+			}
+		};
+
+		static final ValueConverter STRING = new ValueConverter() {
+			@Override
+			public Object convert(Object value) {
+				value = firstValue(value);
+				if (value==null) {
+					return null;
+				}
+				else if (value instanceof LMBCSString) {
+					return ((LMBCSString) value).getValue();
+				}
+				else if (value instanceof String) {
+					return value;
+				}
+				else {
+					return value.toString();
+				}
+			}
+		};
+
+		static final ValueConverter DOUBLE = new ValueConverter() {
+			@Override
+			public Object convert(Object value) {
+				value = firstValue(value);
+				return value instanceof Number ? Double.valueOf(((Number) value).doubleValue()) : null;
+			}
+		};
+
+		static final ValueConverter INTEGER = new ValueConverter() {
+			@Override
+			public Object convert(Object value) {
+				value = firstValue(value);
+				return value instanceof Number ? Integer.valueOf(((Number) value).intValue()) : null;
+			}
+		};
+
+		static final ValueConverter LONG = new ValueConverter() {
+			@Override
+			public Object convert(Object value) {
+				value = firstValue(value);
+				return value instanceof Number ? Long.valueOf(((Number) value).longValue()) : null;
+			}
+		};
+
+		static final ValueConverter TIMEDATE = new ValueConverter() {
+			@Override
+			public Object convert(Object value) {
+				value = firstValue(value);
+				if (value instanceof NotesTimeDate) {
+					return value;
+				}
+				else if (value instanceof Calendar) {
+					return new NotesTimeDate((Calendar) value);
+				}
+				else if (value instanceof Date) {
+					return new NotesTimeDate((Date) value);
+				}
+				return null;
+			}
+		};
+
+		static final ValueConverter CALENDAR = new ValueConverter() {
+			@Override
+			public Object convert(Object value) {
+				value = firstValue(value);
+				if (value instanceof NotesTimeDate) {
+					return ((NotesTimeDate) value).toCalendar();
+				}
+				else if (value instanceof Calendar) {
+					return value;
+				}
+				else if (value instanceof Date) {
+					Calendar cal = Calendar.getInstance();
+					cal.setTime((Date) value);
+					return cal;
+				}
+				return null;
+			}
+		};
+
+		static final ValueConverter DATE = new ValueConverter() {
+			@Override
+			public Object convert(Object value) {
+				value = firstValue(value);
+				if (value instanceof NotesTimeDate) {
+					return ((NotesTimeDate) value).toDate();
+				}
+				else if (value instanceof Calendar) {
+					return ((Calendar) value).getTime();
+				}
+				else if (value instanceof Date) {
+					return value;
+				}
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * Converts single and multiple values to a list, converting each element
+	 */
+	private static class ListConverter extends ValueConverter {
+		private final ValueConverter m_elementConverter;
+
+		public ListConverter(ValueConverter elementConverter) {
+			m_elementConverter = elementConverter;
+		}
+
+		@Override
+		public Object convert(Object value) {
+			if (value==null) {
+				return null;
+			}
+			else if (value instanceof List) {
+				List<?> valueAsList = (List<?>) value;
+				List<Object> convertedList = new ArrayList<Object>(valueAsList.size());
+				for (Object currValue : valueAsList) {
+					Object convertedValue = m_elementConverter.convert(currValue);
+					if (convertedValue!=null) {
+						convertedList.add(convertedValue);
+					}
+				}
+				return convertedList;
+			}
+			else {
+				Object convertedValue = m_elementConverter.convert(value);
+				List<Object> convertedList = new ArrayList<Object>(1);
+				if (convertedValue!=null) {
+					convertedList.add(convertedValue);
+				}
+				return convertedList;
+			}
+		}
+	}
+}
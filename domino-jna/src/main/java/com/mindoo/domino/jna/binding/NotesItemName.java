@@ -0,0 +1,27 @@
+package com.mindoo.domino.jna.binding;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation to map a field of a Java class to a note item or collection column,
+ * used by {@link NoteBinding}
+ * 
+ * @author Karsten Lehmann
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface NotesItemName {
+
+	/**
+	 * Returns the item name or programmatic column name (case-insensitive)
+	 * 
+	 * @return name
+	 */
+	String value();
+	
+}
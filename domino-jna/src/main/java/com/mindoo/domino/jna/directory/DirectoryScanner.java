@@ -9,6 +9,7 @@ import java.util.Map;
 import com.mindoo.domino.jna.IItemTableData;
 import com.mindoo.domino.jna.NotesDatabase;
 import com.mindoo.domino.jna.NotesSearch.ISearchMatch;
+import com.mindoo.domino.jna.NotesTimeDate;
 import com.mindoo.domino.jna.constants.FileType;
 import com.mindoo.domino.jna.constants.Search;
 
@@ -26,6 +27,7 @@ public class DirectoryScanner {
 	private String m_serverName;
 	private String m_directory;
 	private EnumSet<FileType> m_fileTypes;
+	private NotesTimeDate m_lastScanEndDate;
 
 	/**
 	 * Creates a new scanner instance
@@ -58,11 +60,23 @@ public class DirectoryScanner {
 	 * @return search result; override {@link #isAccepted(SearchResultData)} to apply your own filtering or {@link #entryRead(SearchResultData)} to read results while scanning
 	 */
 	public List<SearchResultData> scan(String formula) {
+		return scan(formula, null);
+	}
+	
+	/**
+	 * Starts the directory scan. During the scan, we call {@link #entryRead(SearchResultData)} with
+	 * every entry we found
+	 * 
+	 * @param formula optional search formula to filter the returned entries, see {@link SearchResultData#getRawData()} for available fields, e.g. $path="mydb.nsf"
+	 * @param since optional date to only return entries modified since then, e.g. the value of {@link #getLastScanEndDate()} after a previous scan; null for all entries
+	 * @return search result; override {@link #isAccepted(SearchResultData)} to apply your own filtering or {@link #entryRead(SearchResultData)} to read results while scanning
+	 */
+	public List<SearchResultData> scan(String formula, NotesTimeDate since) {
 		final List<SearchResultData> lookupResult = new ArrayList<DirectoryScanner.SearchResultData>();
 		
 		NotesDatabase dir = new NotesDatabase(m_serverName, m_directory, "");
 		try {
-			dir.searchFiles(formula, null, EnumSet.of(Search.FILETYPE, Search.SUMMARY), m_fileTypes, null, new NotesDatabase.SearchCallback() {
+			m_lastScanEndDate = dir.searchFiles(formula, null, EnumSet.of(Search.FILETYPE, Search.SUMMARY), m_fileTypes, since, new NotesDatabase.SearchCallback() {
 
 				@Override
 				public Action noteFound(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
@@ -184,6 +198,16 @@ public class DirectoryScanner {
 		return lookupResult;
 	}
 
+	/**
+	 * Returns the end date of the last scan, which can be passed as "since" date to
+	 * {@link #scan(String, NotesTimeDate)} to only read changes
+	 * 
+	 * @return end date or null if not scanned yet
+	 */
+	public NotesTimeDate getLastScanEndDate() {
+		return m_lastScanEndDate;
+	}
+
 	/**
 	 * Override this method to filter the scan result. The default implementation always returns true.
 	 * 
@@ -0,0 +1,344 @@
+package com.mindoo.domino.jna.directory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.directory.DirectoryScanner.DatabaseData;
+
+/**
+ * Snapshot of the databases and folders of a Domino data directory, used by
+ * {@link IncrementalDirectoryScanner} to compute which databases have been added, changed
+ * or removed since the last scan.<br>
+ * <br>
+ * Databases are stored by their relative path (compared case-insensitive). The snapshot
+ * can be written to a stream with {@link #write(OutputStream)} and restored with
+ * {@link #read(InputStream)}, so that incremental scans continue after a restart.
+ *
+ * @author Karsten Lehmann
+ */
+public class DirectorySnapshot {
+	private static final int FORMAT_VERSION = 1;
+
+	private Map<String,DatabaseEntry> m_databases;
+	private Set<String> m_folders;
+	private Map<String,int[]> m_folderScanEndDates;
+	private int m_scanCount;
+
+	/**
+	 * Creates a new empty snapshot
+	 */
+	public DirectorySnapshot() {
+		m_databases = new HashMap<String,DatabaseEntry>();
+		m_folders = new LinkedHashSet<String>();
+		m_folderScanEndDates = new HashMap<String,int[]>();
+	}
+
+	/**
+	 * Converts a path to the key used in the snapshot
+	 *
+	 * @param path path
+	 * @return key
+	 */
+	static String toKey(String path) {
+		return path.replace('\\', '/').toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Returns the stored data of a database
+	 *
+	 * @param path relative path of the database in the data directory
+	 * @return data or null if not in the snapshot
+	 */
+	public synchronized DatabaseEntry getDatabase(String path) {
+		return m_databases.get(toKey(path));
+	}
+
+	/**
+	 * Returns the data of all databases in the snapshot
+	 *
+	 * @return databases
+	 */
+	public synchronized List<DatabaseEntry> getDatabases() {
+		return new ArrayList<DatabaseEntry>(m_databases.values());
+	}
+
+	/**
+	 * Returns the number of databases in the snapshot
+	 *
+	 * @return count
+	 */
+	public synchronized int getDatabaseCount() {
+		return m_databases.size();
+	}
+
+	synchronized void putDatabase(DatabaseEntry entry) {
+		m_databases.put(toKey(entry.getFilePath()), entry);
+	}
+
+	synchronized DatabaseEntry removeDatabase(String path) {
+		return m_databases.remove(toKey(path));
+	}
+
+	/**
+	 * Returns the relative paths of all folders found in previous scans
+	 *
+	 * @return folder paths
+	 */
+	public synchronized List<String> getFolders() {
+		return new ArrayList<String>(m_folders);
+	}
+
+	synchronized void setFolders(Collection<String> folders) {
+		m_folders.clear();
+		m_folders.addAll(folders);
+	}
+
+	synchronized void addFolder(String folderPath) {
+		m_folders.add(folderPath);
+	}
+
+	/**
+	 * Returns the end date of the last scan of a folder
+	 *
+	 * @param folderPath relative folder path, "" for the top level
+	 * @return end date or null if the folder has not been scanned yet
+	 */
+	public synchronized NotesTimeDate getFolderScanEndDate(String folderPath) {
+		int[] innards = m_folderScanEndDates.get(toKey(folderPath));
+		return innards==null ? null : new NotesTimeDate(innards.clone());
+	}
+
+	synchronized void setFolderScanEndDate(String folderPath, NotesTimeDate endDate) {
+		if (endDate==null) {
+			m_folderScanEndDates.remove(toKey(folderPath));
+		}
+		else {
+			m_folderScanEndDates.put(toKey(folderPath), endDate.getInnards().clone());
+		}
+	}
+
+	/**
+	 * Returns the number of scans that have been done with this snapshot
+	 *
+	 * @return count
+	 */
+	public synchronized int getScanCount() {
+		return m_scanCount;
+	}
+
+	synchronized void incrementScanCount() {
+		m_scanCount++;
+	}
+
+	/**
+	 * Removes all data from the snapshot so that the next scan is a full scan
+	 */
+	public synchronized void clear() {
+		m_databases.clear();
+		m_folders.clear();
+		m_folderScanEndDates.clear();
+		m_scanCount = 0;
+	}
+
+	/**
+	 * Writes the snapshot to a stream
+	 *
+	 * @param out stream, will not be closed
+	 * @throws IOException in case of I/O errors
+	 */
+	public synchronized void write(OutputStream out) throws IOException {
+		DataOutputStream dataOut = new DataOutputStream(out);
+		dataOut.writeInt(FORMAT_VERSION);
+		dataOut.writeInt(m_scanCount);
+
+		dataOut.writeInt(m_folders.size());
+		for (String currFolder : m_folders) {
+			dataOut.writeUTF(currFolder);
+		}
+
+		dataOut.writeInt(m_folderScanEndDates.size());
+		for (Map.Entry<String,int[]> currEntry : m_folderScanEndDates.entrySet()) {
+			dataOut.writeUTF(currEntry.getKey());
+			dataOut.writeInt(currEntry.getValue()[0]);
+			dataOut.writeInt(currEntry.getValue()[1]);
+		}
+
+		dataOut.writeInt(m_databases.size());
+		for (DatabaseEntry currEntry : m_databases.values()) {
+			dataOut.writeUTF(currEntry.getFilePath());
+			writeNullableString(dataOut, currEntry.getTitle());
+			dataOut.writeLong(currEntry.getCreated());
+			dataOut.writeLong(currEntry.getModified());
+			dataOut.writeLong(currEntry.getDesignModified());
+		}
+		dataOut.flush();
+	}
+
+	/**
+	 * Reads a snapshot that has been written with {@link #write(OutputStream)}
+	 *
+	 * @param in stream, will not be closed
+	 * @return snapshot
+	 * @throws IOException in case of I/O errors or an unsupported format
+	 */
+	public static DirectorySnapshot read(InputStream in) throws IOException {
+		DataInputStream dataIn = new DataInputStream(in);
+		int version = dataIn.readInt();
+		if (version!=FORMAT_VERSION)
+			throw new IOException("Unsupported snapshot format version: "+version);
+
+		DirectorySnapshot snapshot = new DirectorySnapshot();
+		snapshot.m_scanCount = dataIn.readInt();
+
+		int numFolders = dataIn.readInt();
+		for (int i=0; i<numFolders; i++) {
+			snapshot.m_folders.add(dataIn.readUTF());
+		}
+
+		int numEndDates = dataIn.readInt();
+		for (int i=0; i<numEndDates; i++) {
+			String folderKey = dataIn.readUTF();
+			int[] innards = new int[] {dataIn.readInt(), dataIn.readInt()};
+			snapshot.m_folderScanEndDates.put(folderKey, innards);
+		}
+
+		int numDatabases = dataIn.readInt();
+		for (int i=0; i<numDatabases; i++) {
+			String filePath = dataIn.readUTF();
+			String title = readNullableString(dataIn);
+			long created = dataIn.readLong();
+			long modified = dataIn.readLong();
+			long designModified = dataIn.readLong();
+			snapshot.putDatabase(new DatabaseEntry(filePath, title, created, modified, designModified));
+		}
+		return snapshot;
+	}
+
+	private static void writeNullableString(DataOutputStream dataOut, String str) throws IOException {
+		dataOut.writeBoolean(str!=null);
+		if (str!=null) {
+			dataOut.writeUTF(str);
+		}
+	}
+
+	private static String readNullableString(DataInputStream dataIn) throws IOException {
+		return dataIn.readBoolean() ? dataIn.readUTF() : null;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "DirectorySnapshot [databases="+m_databases.size()+", folders="+m_folders.size()+", scans="+m_scanCount+"]";
+	}
+
+	/**
+	 * Data of a database stored in the snapshot
+	 *
+	 * @author Karsten Lehmann
+	 */
+	public static class DatabaseEntry {
+		private String m_filePath;
+		private String m_title;
+		private long m_created;
+		private long m_modified;
+		private long m_designModified;
+
+		DatabaseEntry(String filePath, String title, long created, long modified, long designModified) {
+			m_filePath = filePath;
+			m_title = title;
+			m_created = created;
+			m_modified = modified;
+			m_designModified = designModified;
+		}
+
+		/**
+		 * Creates a snapshot entry from the data returned by {@link DirectoryScanner}
+		 *
+		 * @param dbData database data
+		 * @return entry
+		 */
+		static DatabaseEntry fromDatabaseData(DatabaseData dbData) {
+			return new DatabaseEntry(dbData.getFilePath(), dbData.getTitle(), toMillis(dbData.getCreated()),
+					toMillis(dbData.getModified()), toMillis(dbData.getDesignModifiedDate()));
+		}
+
+		private static long toMillis(Calendar cal) {
+			return cal==null ? 0 : cal.getTimeInMillis();
+		}
+
+		/**
+		 * Returns the complete relative path of the database in the data directory
+		 *
+		 * @return path
+		 */
+		public String getFilePath() {
+			return m_filePath;
+		}
+
+		/**
+		 * Returns the database title
+		 *
+		 * @return title
+		 */
+		public String getTitle() {
+			return m_title;
+		}
+
+		/**
+		 * Returns the database creation date
+		 *
+		 * @return creation date in milliseconds or 0 if unknown
+		 */
+		public long getCreated() {
+			return m_created;
+		}
+
+		/**
+		 * Returns the database modification date
+		 *
+		 * @return modification date in milliseconds or 0 if unknown
+		 */
+		public long getModified() {
+			return m_modified;
+		}
+
+		/**
+		 * Returns the date of the last design change
+		 *
+		 * @return design modified date in milliseconds or 0 if unknown
+		 */
+		public long getDesignModified() {
+			return m_designModified;
+		}
+
+		/**
+		 * Checks whether the database has been changed compared to an older snapshot entry
+		 *
+		 * @param oldEntry older entry
+		 * @return true if changed
+		 */
+		public boolean isChanged(DatabaseEntry oldEntry) {
+			if (m_created!=oldEntry.m_created || m_modified!=oldEntry.m_modified || m_designModified!=oldEntry.m_designModified)
+				return true;
+
+			return m_title==null ? oldEntry.m_title!=null : !m_title.equals(oldEntry.m_title);
+		}
+
+		@Override
+		public String toString() {
+			return "DatabaseEntry [path="+m_filePath+", title="+m_title+", modified="+m_modified+"]";
+		}
+	}
+}
@@ -0,0 +1,492 @@
+package com.mindoo.domino.jna.directory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.constants.FileType;
+import com.mindoo.domino.jna.directory.DirectoryScanner.DatabaseData;
+import com.mindoo.domino.jna.directory.DirectoryScanner.FolderData;
+import com.mindoo.domino.jna.directory.DirectoryScanner.SearchResultData;
+import com.mindoo.domino.jna.directory.DirectorySnapshot.DatabaseEntry;
+import com.mindoo.domino.jna.errors.INotesErrorConstants;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.internal.NotesConstants;
+import com.mindoo.domino.jna.utils.NotesInitUtils;
+
+/**
+ * Scanner for a Domino data directory that reports the databases that have been added,
+ * changed or removed since the last scan, based on a {@link DirectorySnapshot}.<br>
+ * <br>
+ * Each folder is scanned separately with a {@link DirectoryScanner}. Incremental scans pass
+ * the end date of the previous scan of the folder as "since" date, so that Domino only returns
+ * the databases modified since then. Removed databases are not reported by such a scan, so every
+ * n-th scan (see {@link #setFullScanInterval(int)}) reads all databases and compares them with
+ * the snapshot.<br>
+ * <br>
+ * When scanning recursively, the folders of one directory level are scanned concurrently in a
+ * thread pool of the size set via {@link #setThreadCount(int)}.
+ *
+ * @author Karsten Lehmann
+ */
+public class IncrementalDirectoryScanner {
+	private String m_serverName;
+	private String m_directory;
+	private EnumSet<FileType> m_folderFileTypes;
+	private boolean m_recurse;
+	private DirectorySnapshot m_snapshot;
+	private int m_threadCount = 1;
+	private int m_fullScanInterval = 12;
+
+	/**
+	 * Creates a new scanner instance
+	 *
+	 * @param serverName server name, either abbreviated, canonical or common name
+	 * @param directory directory to scan or "" for top level
+	 * @param fileTypes type of databases to return e,g, {@link FileType#DBANY}, add {@link FileType#RECURSE} to scan subdirectories
+	 * @param snapshot snapshot of the previous scan, gets updated with the scan result
+	 */
+	public IncrementalDirectoryScanner(String serverName, String directory, EnumSet<FileType> fileTypes, DirectorySnapshot snapshot) {
+		if (snapshot==null)
+			throw new IllegalArgumentException("Snapshot cannot be null");
+
+		m_serverName = serverName;
+		m_directory = directory==null ? "" : directory;
+		m_recurse = fileTypes.contains(FileType.RECURSE);
+		m_snapshot = snapshot;
+
+		//we scan each folder on its own and need the subfolders to continue
+		m_folderFileTypes = EnumSet.copyOf(fileTypes);
+		m_folderFileTypes.remove(FileType.RECURSE);
+		m_folderFileTypes.add(FileType.DIRS);
+		m_folderFileTypes.add(FileType.NOUPDIRS);
+	}
+
+	/**
+	 * Returns the snapshot used by this scanner
+	 *
+	 * @return snapshot
+	 */
+	public DirectorySnapshot getSnapshot() {
+		return m_snapshot;
+	}
+
+	/**
+	 * Sets the max number of folders scanned concurrently (default: 1)
+	 *
+	 * @param threadCount number of threads
+	 */
+	public void setThreadCount(int threadCount) {
+		if (threadCount<1)
+			throw new IllegalArgumentException("Thread count must be greater than 0: "+threadCount);
+		m_threadCount = threadCount;
+	}
+
+	/**
+	 * Returns the max number of folders scanned concurrently
+	 *
+	 * @return number of threads
+	 */
+	public int getThreadCount() {
+		return m_threadCount;
+	}
+
+	/**
+	 * Sets after how many scans a full scan is done to detect removed databases (default: 12).
+	 * The first scan with an empty snapshot is always a full scan.
+	 *
+	 * @param interval interval or 0 to only do incremental scans after the first one
+	 */
+	public void setFullScanInterval(int interval) {
+		if (interval<0)
+			throw new IllegalArgumentException("Interval cannot be negative: "+interval);
+		m_fullScanInterval = interval;
+	}
+
+	/**
+	 * Returns after how many scans a full scan is done
+	 *
+	 * @return interval
+	 */
+	public int getFullScanInterval() {
+		return m_fullScanInterval;
+	}
+
+	/**
+	 * Scans the directory. Depending on the snapshot and {@link #getFullScanInterval()}, this
+	 * is a full or incremental scan.
+	 *
+	 * @return changes since the last scan
+	 */
+	public synchronized ScanResult scan() {
+		int scanCount = m_snapshot.getScanCount();
+		boolean fullScan = scanCount==0 || (m_fullScanInterval>0 && (scanCount % m_fullScanInterval)==0);
+		return scan(fullScan);
+	}
+
+	/**
+	 * Scans the directory
+	 *
+	 * @param fullScan true to read all databases and detect removed ones, false to only read the changes since the last scan
+	 * @return changes since the last scan
+	 */
+	public synchronized ScanResult scan(boolean fullScan) {
+		ScanResult result = new ScanResult(fullScan);
+
+		Set<String> scheduledFolderKeys = new HashSet<String>();
+		Set<String> foundFolders = new LinkedHashSet<String>();
+		Set<String> foundDbKeys = new HashSet<String>();
+
+		List<String> currLevel = new ArrayList<String>();
+		currLevel.add(m_directory);
+		scheduledFolderKeys.add(DirectorySnapshot.toKey(m_directory));
+
+		if (!fullScan && m_recurse) {
+			//folders without changes are not returned by an incremental scan, so we scan all known folders
+			for (String currFolder : m_snapshot.getFolders()) {
+				if (scheduledFolderKeys.add(DirectorySnapshot.toKey(currFolder))) {
+					currLevel.add(currFolder);
+				}
+			}
+		}
+
+		//the snapshot is only updated when all levels have been scanned, so that an error
+		//does not leave it partially updated
+		List<FolderScanResult> folderResults = new ArrayList<FolderScanResult>();
+		ExecutorService executor = null;
+		try {
+			while (!currLevel.isEmpty()) {
+				List<FolderScanResult> levelResults;
+				if (m_threadCount<=1 || currLevel.size()==1) {
+					levelResults = new ArrayList<FolderScanResult>(currLevel.size());
+					for (String currFolder : currLevel) {
+						levelResults.add(scanFolder(currFolder, fullScan));
+					}
+				}
+				else {
+					if (executor==null) {
+						executor = createExecutor();
+					}
+					levelResults = scanFoldersConcurrently(executor, currLevel, fullScan);
+				}
+
+				folderResults.addAll(levelResults);
+
+				List<String> nextLevel = new ArrayList<String>();
+				for (FolderScanResult currFolderResult : levelResults) {
+					if (m_recurse && !currFolderResult.isMissing()) {
+						for (String currSubFolder : currFolderResult.getSubFolders()) {
+							foundFolders.add(currSubFolder);
+							if (scheduledFolderKeys.add(DirectorySnapshot.toKey(currSubFolder))) {
+								nextLevel.add(currSubFolder);
+							}
+						}
+					}
+				}
+				currLevel = nextLevel;
+			}
+		}
+		finally {
+			if (executor!=null) {
+				executor.shutdown();
+			}
+		}
+
+		for (FolderScanResult currFolderResult : folderResults) {
+			if (currFolderResult.isMissing()) {
+				removeFolder(currFolderResult.getFolderPath(), result);
+				continue;
+			}
+			m_snapshot.setFolderScanEndDate(currFolderResult.getFolderPath(), currFolderResult.getScanEndDate());
+
+			for (DatabaseData currDbData : currFolderResult.getDatabases()) {
+				applyDatabase(currDbData, result);
+				foundDbKeys.add(DirectorySnapshot.toKey(currDbData.getFilePath()));
+			}
+		}
+
+		if (fullScan) {
+			for (DatabaseEntry currEntry : m_snapshot.getDatabases()) {
+				if (!foundDbKeys.contains(DirectorySnapshot.toKey(currEntry.getFilePath()))) {
+					m_snapshot.removeDatabase(currEntry.getFilePath());
+					result.m_removed.add(currEntry);
+				}
+			}
+			m_snapshot.setFolders(foundFolders);
+		}
+		else {
+			for (String currFolder : foundFolders) {
+				m_snapshot.addFolder(currFolder);
+			}
+		}
+		m_snapshot.incrementScanCount();
+
+		return result;
+	}
+
+	/**
+	 * Compares a scanned database with the snapshot and updates the snapshot
+	 *
+	 * @param dbData database data
+	 * @param result scan result to add the changes
+	 */
+	private void applyDatabase(DatabaseData dbData, ScanResult result) {
+		DatabaseEntry newEntry = DatabaseEntry.fromDatabaseData(dbData);
+		DatabaseEntry oldEntry = m_snapshot.getDatabase(dbData.getFilePath());
+		if (oldEntry==null) {
+			result.m_added.add(dbData);
+		}
+		else if (newEntry.isChanged(oldEntry)) {
+			result.m_changed.add(dbData);
+		}
+		m_snapshot.putDatabase(newEntry);
+	}
+
+	/**
+	 * Removes a folder that does not exist anymore and all of its databases from the snapshot
+	 *
+	 * @param folderPath folder path
+	 * @param result scan result to add the removed databases
+	 */
+	private void removeFolder(String folderPath, ScanResult result) {
+		String folderKeyPrefix = DirectorySnapshot.toKey(folderPath) + "/";
+
+		List<String> remainingFolders = new ArrayList<String>();
+		for (String currFolder : m_snapshot.getFolders()) {
+			String currFolderKey = DirectorySnapshot.toKey(currFolder);
+			if (!(currFolderKey + "/").startsWith(folderKeyPrefix)) {
+				remainingFolders.add(currFolder);
+			}
+		}
+		m_snapshot.setFolders(remainingFolders);
+		m_snapshot.setFolderScanEndDate(folderPath, null);
+
+		for (DatabaseEntry currEntry : m_snapshot.getDatabases()) {
+			if (DirectorySnapshot.toKey(currEntry.getFilePath()).startsWith(folderKeyPrefix)) {
+				m_snapshot.removeDatabase(currEntry.getFilePath());
+				result.m_removed.add(currEntry);
+			}
+		}
+	}
+
+	/**
+	 * Checks if an error reports that a folder does not exist (anymore)
+	 *
+	 * @param e error
+	 * @return true if not found
+	 */
+	private static boolean isFolderNotFound(NotesError e) {
+		int errId = e.getId() & NotesConstants.ERR_MASK;
+		//ERR_NOT_DIRECTORY: the folder has been replaced by a file with the same name
+		return errId==INotesErrorConstants.ERR_NOEXIST || errId==INotesErrorConstants.ERR_NOT_DIRECTORY;
+	}
+
+	/**
+	 * Scans a single folder without subfolders
+	 *
+	 * @param folderPath folder path
+	 * @param fullScan true to read all databases
+	 * @return result
+	 */
+	private FolderScanResult scanFolder(String folderPath, boolean fullScan) {
+		NotesTimeDate since = fullScan ? null : m_snapshot.getFolderScanEndDate(folderPath);
+
+		DirectoryScanner scanner = new DirectoryScanner(m_serverName, folderPath, m_folderFileTypes);
+		List<SearchResultData> entries;
+		try {
+			entries = scanner.scan(null, since);
+		}
+		catch (NotesError e) {
+			if (!fullScan && isFolderNotFound(e) && folderPath.length()>0 &&
+					!DirectorySnapshot.toKey(folderPath).equals(DirectorySnapshot.toKey(m_directory))) {
+				//folder known from a previous scan has been removed
+				return FolderScanResult.missing(folderPath);
+			}
+			//other errors (e.g. network or access problems) must not remove the folder content from the snapshot
+			throw e;
+		}
+
+		FolderScanResult folderResult = new FolderScanResult(folderPath, scanner.getLastScanEndDate());
+		for (SearchResultData currEntry : entries) {
+			if (currEntry instanceof DatabaseData) {
+				if (((DatabaseData) currEntry).getFilePath()!=null) {
+					folderResult.m_databases.add((DatabaseData) currEntry);
+				}
+			}
+			else if (currEntry instanceof FolderData) {
+				String currSubFolderPath = ((FolderData) currEntry).getFolderPath();
+				if (currSubFolderPath!=null && currSubFolderPath.length()>0) {
+					folderResult.m_subFolders.add(currSubFolderPath);
+				}
+			}
+		}
+		return folderResult;
+	}
+
+	private List<FolderScanResult> scanFoldersConcurrently(ExecutorService executor, List<String> folders, final boolean fullScan) {
+		List<Future<FolderScanResult>> futures = new ArrayList<Future<FolderScanResult>>(folders.size());
+		for (final String currFolder : folders) {
+			futures.add(executor.submit(new Callable<FolderScanResult>() {
+
+				@Override
+				public FolderScanResult call() throws Exception {
+					return NotesGC.runWithAutoGC(new Callable<FolderScanResult>() {
+
+						@Override
+						public FolderScanResult call() throws Exception {
+							return scanFolder(currFolder, fullScan);
+						}
+					});
+				}
+			}));
+		}
+
+		List<FolderScanResult> results = new ArrayList<FolderScanResult>(folders.size());
+		try {
+			for (Future<FolderScanResult> currFuture : futures) {
+				results.add(currFuture.get());
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new NotesError(0, "Directory scan has been interrupted", e);
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new NotesError(0, "Error scanning directory", cause);
+		}
+		finally {
+			for (Future<FolderScanResult> currFuture : futures) {
+				currFuture.cancel(false);
+			}
+		}
+		return results;
+	}
+
+	private ExecutorService createExecutor() {
+		return Executors.newFixedThreadPool(m_threadCount, NotesInitUtils.createNotesThreadFactory("DirectoryScanner"));
+	}
+
+	/**
+	 * Databases and subfolders found in a single folder
+	 */
+	private static class FolderScanResult {
+		private String m_folderPath;
+		private NotesTimeDate m_scanEndDate;
+		private boolean m_missing;
+		private List<DatabaseData> m_databases = new ArrayList<DatabaseData>();
+		private List<String> m_subFolders = new ArrayList<String>();
+
+		public FolderScanResult(String folderPath, NotesTimeDate scanEndDate) {
+			m_folderPath = folderPath;
+			m_scanEndDate = scanEndDate;
+		}
+
+		public static FolderScanResult missing(String folderPath) {
+			FolderScanResult result = new FolderScanResult(folderPath, null);
+			result.m_missing = true;
+			return result;
+		}
+
+		public String getFolderPath() {
+			return m_folderPath;
+		}
+
+		public NotesTimeDate getScanEndDate() {
+			return m_scanEndDate;
+		}
+
+		public boolean isMissing() {
+			return m_missing;
+		}
+
+		public List<DatabaseData> getDatabases() {
+			return m_databases;
+		}
+
+		public List<String> getSubFolders() {
+			return m_subFolders;
+		}
+	}
+
+	/**
+	 * Changes found by {@link IncrementalDirectoryScanner#scan()}
+	 *
+	 * @author Karsten Lehmann
+	 */
+	public static class ScanResult {
+		private boolean m_fullScan;
+		private List<DatabaseData> m_added = new ArrayList<DatabaseData>();
+		private List<DatabaseData> m_changed = new ArrayList<DatabaseData>();
+		private List<DatabaseEntry> m_removed = new ArrayList<DatabaseEntry>();
+
+		private ScanResult(boolean fullScan) {
+			m_fullScan = fullScan;
+		}
+
+		/**
+		 * Returns whether this result is from a full scan, which also detects removed databases
+		 *
+		 * @return true if full scan
+		 */
+		public boolean isFullScan() {
+			return m_fullScan;
+		}
+
+		/**
+		 * Returns the databases that are not in the snapshot yet
+		 *
+		 * @return added databases
+		 */
+		public List<DatabaseData> getAdded() {
+			return Collections.unmodifiableList(m_added);
+		}
+
+		/**
+		 * Returns the databases with a different title, creation, modification or design modification date
+		 * than in the snapshot
+		 *
+		 * @return changed databases
+		 */
+		public List<DatabaseData> getChanged() {
+			return Collections.unmodifiableList(m_changed);
+		}
+
+		/**
+		 * Returns the snapshot data of the databases that have been removed
+		 *
+		 * @return removed databases
+		 */
+		public List<DatabaseEntry> getRemoved() {
+			return Collections.unmodifiableList(m_removed);
+		}
+
+		/**
+		 * Checks if there are any changes
+		 *
+		 * @return true if databases have been added, changed or removed
+		 */
+		public boolean hasChanges() {
+			return !m_added.isEmpty() || !m_changed.isEmpty() || !m_removed.isEmpty();
+		}
+
+		@Override
+		public String toString() {
+			return "ScanResult [fullScan="+m_fullScan+", added="+m_added.size()+", changed="+m_changed.size()+", removed="+m_removed.size()+"]";
+		}
+	}
+}
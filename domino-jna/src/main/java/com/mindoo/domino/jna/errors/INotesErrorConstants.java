@@ -2444,6 +2444,9 @@ public String ERR_MSG_SCOS_FILE_SIZE = "\nSCOS database specification out of ran
 	
 	public short PKG_OS = 0x0100;
 	
+	public short ERR_NOEXIST = PKG_OS+3;
+	public String ERR_MSG_NOEXIST = "File does not exist";
+
 	public short ERR_CANCEL = PKG_OS+157;
 	public String ERR_MSG_CANCEL = "Operation stopped at your request";
 
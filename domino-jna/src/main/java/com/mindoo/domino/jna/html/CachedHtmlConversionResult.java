@@ -0,0 +1,284 @@
+package com.mindoo.domino.jna.html;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import com.mindoo.domino.jna.NotesNote.HtmlConvertOption;
+import com.mindoo.domino.jna.NotesNote.IHtmlItemImageConversionCallback;
+import com.mindoo.domino.jna.errors.NotesError;
+
+/**
+ * Serializable copy of a {@link IHtmlConversionResult} that includes the binary data of
+ * all embedded images, so that it can be stored in a {@link IHtmlConversionCache} and
+ * returned later on without accessing the note.
+ *
+ * @author Karsten Lehmann
+ */
+public class CachedHtmlConversionResult implements IHtmlConversionResult, Serializable {
+	private static final long serialVersionUID = -6015036934402993000L;
+
+	private final String m_html;
+	private final List<IHtmlApiReference> m_references;
+	private final List<IHtmlImageRef> m_images;
+
+	private CachedHtmlConversionResult(String html, List<IHtmlApiReference> references, List<IHtmlImageRef> images) {
+		m_html = html;
+		m_references = references;
+		m_images = images;
+	}
+
+	/**
+	 * Creates a cacheable copy of a conversion result. Reads the data of all images from the
+	 * note, so the note of the conversion result needs to be open.
+	 *
+	 * @param result conversion result
+	 * @return cacheable copy
+	 */
+	public static CachedHtmlConversionResult create(IHtmlConversionResult result) {
+		if (result instanceof CachedHtmlConversionResult) {
+			return (CachedHtmlConversionResult) result;
+		}
+
+		List<IHtmlApiReference> references = new ArrayList<IHtmlApiReference>();
+		for (IHtmlApiReference currRef : result.getReferences()) {
+			List<IHtmlApiUrlTargetComponent<?>> targets = new ArrayList<IHtmlApiUrlTargetComponent<?>>();
+			for (IHtmlApiUrlTargetComponent<?> currTarget : currRef.getTargets()) {
+				Object val = currTarget.getValue();
+				if (val!=null && !(val instanceof Serializable)) {
+					continue;
+				}
+				targets.add(createCachedTarget(currTarget.getType(), currTarget.getValueClass(), (Serializable) val));
+			}
+			references.add(new CachedReference(currRef.getType(), currRef.getReferenceText(), currRef.getFragment(),
+					currRef.getCommandId(), targets));
+		}
+
+		List<IHtmlImageRef> images = new ArrayList<IHtmlImageRef>();
+		for (IHtmlImageRef currImg : result.getImages()) {
+			ByteArrayOutputStream imgOut = new ByteArrayOutputStream();
+			try {
+				currImg.writeImage(imgOut);
+			} catch (IOException e) {
+				throw new NotesError(0, "Error reading image data of "+currImg.getReferenceText(), e);
+			}
+			images.add(new CachedImageRef(currImg.getReferenceText(), currImg.getItemName(), currImg.getItemIndex(),
+					currImg.getItemOffset(), currImg.getOptions(), currImg.getFormat(), imgOut.toByteArray()));
+		}
+
+		return new CachedHtmlConversionResult(result.getText(), Collections.unmodifiableList(references),
+				Collections.unmodifiableList(images));
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static IHtmlApiUrlTargetComponent<?> createCachedTarget(TargetType type, Class valueClazz, Serializable value) {
+		return new CachedTarget(type, valueClazz, value);
+	}
+
+	@Override
+	public String getText() {
+		return m_html;
+	}
+
+	@Override
+	public List<IHtmlApiReference> getReferences() {
+		return m_references;
+	}
+
+	@Override
+	public List<IHtmlImageRef> getImages() {
+		return m_images;
+	}
+
+	/**
+	 * Returns an estimation of the memory used by this result
+	 *
+	 * @return size in bytes
+	 */
+	public long getSizeInBytes() {
+		long size = 2L * m_html.length();
+		for (IHtmlApiReference currRef : m_references) {
+			size += 64 + 2L * currRef.getReferenceText().length();
+		}
+		for (IHtmlImageRef currImg : m_images) {
+			size += 64 + ((CachedImageRef) currImg).m_data.length;
+		}
+		return size;
+	}
+
+	private static class CachedTarget<T extends Serializable> implements IHtmlApiUrlTargetComponent<T>, Serializable {
+		private static final long serialVersionUID = 6405102950939618227L;
+		private final TargetType m_type;
+		private final Class<T> m_valueClazz;
+		private final T m_value;
+
+		public CachedTarget(TargetType type, Class<T> valueClazz, T value) {
+			m_type = type;
+			m_valueClazz = valueClazz;
+			m_value = value;
+		}
+
+		@Override
+		public TargetType getType() {
+			return m_type;
+		}
+
+		@Override
+		public Class<T> getValueClass() {
+			return m_valueClazz;
+		}
+
+		@Override
+		public T getValue() {
+			return m_value;
+		}
+	}
+
+	private static class CachedReference implements IHtmlApiReference, Serializable {
+		private static final long serialVersionUID = -2389862906356612417L;
+		private final ReferenceType m_type;
+		private final String m_refText;
+		private final String m_fragment;
+		private final CommandId m_commandId;
+		private final List<IHtmlApiUrlTargetComponent<?>> m_targets;
+
+		public CachedReference(ReferenceType type, String refText, String fragment, CommandId commandId,
+				List<IHtmlApiUrlTargetComponent<?>> targets) {
+			m_type = type;
+			m_refText = refText;
+			m_fragment = fragment;
+			m_commandId = commandId;
+			m_targets = Collections.unmodifiableList(targets);
+		}
+
+		@Override
+		public ReferenceType getType() {
+			return m_type;
+		}
+
+		@Override
+		public String getReferenceText() {
+			return m_refText;
+		}
+
+		@Override
+		public String getFragment() {
+			return m_fragment;
+		}
+
+		@Override
+		public CommandId getCommandId() {
+			return m_commandId;
+		}
+
+		@Override
+		public List<IHtmlApiUrlTargetComponent<?>> getTargets() {
+			return m_targets;
+		}
+
+		@Override
+		public IHtmlApiUrlTargetComponent<?> getTargetByType(TargetType type) {
+			for (IHtmlApiUrlTargetComponent<?> currTarget : m_targets) {
+				if (currTarget.getType() == type) {
+					return currTarget;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static class CachedImageRef implements IHtmlImageRef, Serializable {
+		private static final long serialVersionUID = 1846316209040127398L;
+		private final String m_refText;
+		private final String m_itemName;
+		private final int m_itemIndex;
+		private final int m_itemOffset;
+		private final EnumSet<HtmlConvertOption> m_options;
+		private final String m_format;
+		private final byte[] m_data;
+
+		public CachedImageRef(String refText, String itemName, int itemIndex, int itemOffset,
+				EnumSet<HtmlConvertOption> options, String format, byte[] data) {
+			m_refText = refText;
+			m_itemName = itemName;
+			m_itemIndex = itemIndex;
+			m_itemOffset = itemOffset;
+			m_options = options==null ? EnumSet.noneOf(HtmlConvertOption.class) : EnumSet.copyOf(options);
+			m_format = format;
+			m_data = data;
+		}
+
+		@Override
+		public String getReferenceText() {
+			return m_refText;
+		}
+
+		@Override
+		public String getItemName() {
+			return m_itemName;
+		}
+
+		@Override
+		public int getItemIndex() {
+			return m_itemIndex;
+		}
+
+		@Override
+		public int getItemOffset() {
+			return m_itemOffset;
+		}
+
+		@Override
+		public EnumSet<HtmlConvertOption> getOptions() {
+			return EnumSet.copyOf(m_options);
+		}
+
+		@Override
+		public String getFormat() {
+			return m_format;
+		}
+
+		@Override
+		public void readImage(IHtmlItemImageConversionCallback callback) {
+			int skip = callback.setSize(m_data.length);
+			if (skip > m_data.length)
+				throw new IllegalArgumentException("Skip value cannot be greater than size: "+skip+" > "+m_data.length);
+
+			if (skip < m_data.length) {
+				byte[] data;
+				if (skip==0) {
+					data = m_data.clone();
+				}
+				else {
+					data = new byte[m_data.length - skip];
+					System.arraycopy(m_data, skip, data, 0, data.length);
+				}
+				callback.read(data);
+			}
+		}
+
+		@Override
+		public void writeImage(File f) throws IOException {
+			FileOutputStream fOut = new FileOutputStream(f);
+			try {
+				writeImage(fOut);
+			}
+			finally {
+				fOut.close();
+			}
+		}
+
+		@Override
+		public void writeImage(OutputStream out) throws IOException {
+			out.write(m_data);
+			out.flush();
+		}
+	}
+}
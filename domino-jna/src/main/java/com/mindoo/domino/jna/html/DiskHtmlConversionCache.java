@@ -0,0 +1,144 @@
+package com.mindoo.domino.jna.html;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.mindoo.domino.jna.errors.NotesError;
+
+/**
+ * {@link IHtmlConversionCache} that stores serialized conversion results as files in a
+ * directory. Can be used standalone or as second level cache of a
+ * {@link MemoryHtmlConversionCache}. Unreadable cache files are treated as cache misses.
+ * 
+ * @author Karsten Lehmann
+ */
+public class DiskHtmlConversionCache implements IHtmlConversionCache {
+	private static final String FILE_SUFFIX = ".htmlcache";
+	private final File m_directory;
+
+	/**
+	 * Creates a new cache
+	 * 
+	 * @param directory cache directory, gets created if it does not exist
+	 */
+	public DiskHtmlConversionCache(File directory) {
+		if (!directory.exists() && !directory.mkdirs() && !directory.isDirectory()) {
+			throw new IllegalArgumentException("Unable to create cache directory "+directory.getAbsolutePath());
+		}
+		m_directory = directory;
+	}
+
+	private File getCacheFile(HtmlConversionCacheKey key) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] hash = digest.digest(key.toString().getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder(hash.length*2 + FILE_SUFFIX.length());
+			for (byte currByte : hash) {
+				sb.append(Character.forDigit((currByte >> 4) & 0xf, 16));
+				sb.append(Character.forDigit(currByte & 0xf, 16));
+			}
+			sb.append(FILE_SUFFIX);
+			return new File(m_directory, sb.toString());
+		} catch (NoSuchAlgorithmException e) {
+			throw new NotesError(0, "Unable to compute cache file name", e);
+		} catch (UnsupportedEncodingException e) {
+			throw new NotesError(0, "Unable to compute cache file name", e);
+		}
+	}
+
+	@Override
+	public CachedHtmlConversionResult get(HtmlConversionCacheKey key) {
+		File cacheFile = getCacheFile(key);
+		if (!cacheFile.exists()) {
+			return null;
+		}
+
+		ObjectInputStream objIn = null;
+		try {
+			objIn = new ObjectInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+			Object storedKey = objIn.readObject();
+			if (!key.equals(storedKey)) {
+				//hash collision
+				return null;
+			}
+			return (CachedHtmlConversionResult) objIn.readObject();
+		}
+		catch (Exception e) {
+			//corrupt or incompatible cache file
+			cacheFile.delete();
+			return null;
+		}
+		finally {
+			if (objIn!=null) {
+				try {
+					objIn.close();
+				} catch (IOException e) {
+					//ignore
+				}
+			}
+		}
+	}
+
+	@Override
+	public void put(HtmlConversionCacheKey key, CachedHtmlConversionResult result) {
+		File cacheFile = getCacheFile(key);
+		File tmpFile = new File(m_directory, cacheFile.getName()+"."+Thread.currentThread().getId()+".tmp");
+
+		ObjectOutputStream objOut = null;
+		try {
+			objOut = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			objOut.writeObject(key);
+			objOut.writeObject(result);
+			objOut.close();
+			objOut = null;
+
+			//write to temp file first so that readers never see partially written files
+			if (!tmpFile.renameTo(cacheFile)) {
+				cacheFile.delete();
+				if (!tmpFile.renameTo(cacheFile)) {
+					tmpFile.delete();
+				}
+			}
+		}
+		catch (IOException e) {
+			tmpFile.delete();
+			throw new NotesError(0, "Error writing HTML conversion cache file "+cacheFile.getAbsolutePath(), e);
+		}
+		finally {
+			if (objOut!=null) {
+				try {
+					objOut.close();
+				} catch (IOException e) {
+					//ignore
+				}
+				tmpFile.delete();
+			}
+		}
+	}
+
+	@Override
+	public void remove(HtmlConversionCacheKey key) {
+		getCacheFile(key).delete();
+	}
+
+	@Override
+	public void clear() {
+		File[] files = m_directory.listFiles();
+		if (files!=null) {
+			for (File currFile : files) {
+				if (currFile.getName().endsWith(FILE_SUFFIX)) {
+					currFile.delete();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package com.mindoo.domino.jna.html;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.mindoo.domino.jna.NotesNote.HtmlConvertOption;
+
+/**
+ * Key for a cached richtext-HTML conversion result. The key contains the note's
+ * originator id sequence number and sequence time, so it changes whenever the note is
+ * saved and outdated results are no longer found in the cache.
+ * 
+ * @author Karsten Lehmann
+ */
+public class HtmlConversionCacheKey implements Serializable {
+	private static final long serialVersionUID = 4360390153124745961L;
+
+	private final String m_replicaId;
+	private final String m_unid;
+	private final int m_sequence;
+	private final int[] m_sequenceTimeInnards;
+	private final String m_itemNameLC;
+	private final EnumSet<HtmlConvertOption> m_options;
+	private final EnumSet<ReferenceType> m_refTypeFilter;
+	private final TreeMap<ReferenceType,EnumSet<TargetType>> m_targetTypeFilter;
+	private final int m_hashCode;
+
+	/**
+	 * Creates a new key
+	 * 
+	 * @param replicaId database replica id
+	 * @param unid note UNID
+	 * @param sequence OID sequence number
+	 * @param sequenceTimeInnards innards of the OID sequence time
+	 * @param itemName converted item or null for the whole note
+	 * @param options conversion options
+	 * @param refTypeFilter optional filter for ref types or null
+	 * @param targetTypeFilter optional filter for target types or null
+	 */
+	public HtmlConversionCacheKey(String replicaId, String unid, int sequence, int[] sequenceTimeInnards,
+			String itemName, EnumSet<HtmlConvertOption> options, EnumSet<ReferenceType> refTypeFilter,
+			Map<ReferenceType,EnumSet<TargetType>> targetTypeFilter) {
+		m_replicaId = replicaId.toUpperCase(Locale.ENGLISH);
+		m_unid = unid.toUpperCase(Locale.ENGLISH);
+		m_sequence = sequence;
+		m_sequenceTimeInnards = sequenceTimeInnards==null ? new int[0] : sequenceTimeInnards.clone();
+		m_itemNameLC = itemName==null ? null : itemName.toLowerCase(Locale.ENGLISH);
+		m_options = options==null ? EnumSet.noneOf(HtmlConvertOption.class) : EnumSet.copyOf(options);
+		m_refTypeFilter = refTypeFilter==null ? null : EnumSet.copyOf(refTypeFilter);
+		m_targetTypeFilter = targetTypeFilter==null ? null : new TreeMap<ReferenceType,EnumSet<TargetType>>(targetTypeFilter);
+		m_hashCode = computeHashCode();
+	}
+
+	private int computeHashCode() {
+		int result = 1;
+		result = 31 * result + m_replicaId.hashCode();
+		result = 31 * result + m_unid.hashCode();
+		result = 31 * result + m_sequence;
+		result = 31 * result + Arrays.hashCode(m_sequenceTimeInnards);
+		result = 31 * result + (m_itemNameLC==null ? 0 : m_itemNameLC.hashCode());
+		result = 31 * result + m_options.hashCode();
+		result = 31 * result + (m_refTypeFilter==null ? 0 : m_refTypeFilter.hashCode());
+		result = 31 * result + (m_targetTypeFilter==null ? 0 : m_targetTypeFilter.hashCode());
+		return result;
+	}
+
+	public String getReplicaId() {
+		return m_replicaId;
+	}
+
+	public String getUNID() {
+		return m_unid;
+	}
+
+	public int getSequence() {
+		return m_sequence;
+	}
+
+	/**
+	 * Returns the converted item name in lowercase
+	 * 
+	 * @return item name or null for the whole note
+	 */
+	public String getItemName() {
+		return m_itemNameLC;
+	}
+
+	public EnumSet<HtmlConvertOption> getOptions() {
+		return EnumSet.copyOf(m_options);
+	}
+
+	@Override
+	public int hashCode() {
+		return m_hashCode;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof HtmlConversionCacheKey))
+			return false;
+
+		HtmlConversionCacheKey other = (HtmlConversionCacheKey) obj;
+		if (m_hashCode!=other.m_hashCode || m_sequence!=other.m_sequence)
+			return false;
+		if (!m_unid.equals(other.m_unid) || !m_replicaId.equals(other.m_replicaId))
+			return false;
+		if (!Arrays.equals(m_sequenceTimeInnards, other.m_sequenceTimeInnards))
+			return false;
+		if (m_itemNameLC==null ? other.m_itemNameLC!=null : !m_itemNameLC.equals(other.m_itemNameLC))
+			return false;
+		if (!m_options.equals(other.m_options))
+			return false;
+		if (m_refTypeFilter==null ? other.m_refTypeFilter!=null : !m_refTypeFilter.equals(other.m_refTypeFilter))
+			return false;
+		if (m_targetTypeFilter==null ? other.m_targetTypeFilter!=null : !m_targetTypeFilter.equals(other.m_targetTypeFilter))
+			return false;
+		return true;
+	}
+
+	/**
+	 * Returns a string with all key components that is stable across JVM restarts,
+	 * e.g. to compute file names for a disk cache
+	 */
+	@Override
+	public String toString() {
+		return "HtmlConversionCacheKey [replicaId=" + m_replicaId + ", unid=" + m_unid + ", sequence=" + m_sequence
+				+ ", sequenceTime=" + Arrays.toString(m_sequenceTimeInnards) + ", item=" + m_itemNameLC
+				+ ", options=" + m_options + ", refTypeFilter=" + m_refTypeFilter
+				+ ", targetTypeFilter=" + m_targetTypeFilter + "]";
+	}
+}
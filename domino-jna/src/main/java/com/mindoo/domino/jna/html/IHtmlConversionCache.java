@@ -0,0 +1,40 @@
+package com.mindoo.domino.jna.html;
+
+/**
+ * Cache for richtext-HTML conversion results, see
+ * {@link com.mindoo.domino.jna.NotesNote#convertNoteToHtml(java.util.EnumSet, IHtmlConversionCache)}.<br>
+ * Implementations need to be thread-safe.
+ * 
+ * @author Karsten Lehmann
+ */
+public interface IHtmlConversionCache {
+
+	/**
+	 * Looks up a cached conversion result
+	 * 
+	 * @param key cache key
+	 * @return result or null if not cached
+	 */
+	public CachedHtmlConversionResult get(HtmlConversionCacheKey key);
+
+	/**
+	 * Stores a conversion result
+	 * 
+	 * @param key cache key
+	 * @param result conversion result
+	 */
+	public void put(HtmlConversionCacheKey key, CachedHtmlConversionResult result);
+
+	/**
+	 * Removes a conversion result
+	 * 
+	 * @param key cache key
+	 */
+	public void remove(HtmlConversionCacheKey key);
+
+	/**
+	 * Removes all cached conversion results
+	 */
+	public void clear();
+
+}
@@ -0,0 +1,94 @@
+package com.mindoo.domino.jna.html;
+
+import com.mindoo.domino.jna.internal.SizeLimitedLRUCache;
+
+/**
+ * In-memory {@link IHtmlConversionCache} with LRU eviction based on the size of the
+ * cached HTML and image data. Optionally backed by a second level cache (e.g. a
+ * {@link DiskHtmlConversionCache}) that is used on cache misses and receives all
+ * new entries.
+ * 
+ * @author Karsten Lehmann
+ */
+public class MemoryHtmlConversionCache implements IHtmlConversionCache {
+	private final HtmlResultLRUCache m_cache;
+	private final IHtmlConversionCache m_secondLevelCache;
+
+	/**
+	 * Creates a new cache
+	 * 
+	 * @param maxSizeKB max size of the cached data in kilobytes
+	 */
+	public MemoryHtmlConversionCache(int maxSizeKB) {
+		this(maxSizeKB, null);
+	}
+
+	/**
+	 * Creates a new cache
+	 * 
+	 * @param maxSizeKB max size of the cached data in kilobytes
+	 * @param secondLevelCache optional second level cache or null
+	 */
+	public MemoryHtmlConversionCache(int maxSizeKB, IHtmlConversionCache secondLevelCache) {
+		m_cache = new HtmlResultLRUCache(maxSizeKB);
+		m_secondLevelCache = secondLevelCache;
+	}
+
+	@Override
+	public CachedHtmlConversionResult get(HtmlConversionCacheKey key) {
+		CachedHtmlConversionResult result = m_cache.get(key);
+		if (result==null && m_secondLevelCache!=null) {
+			result = m_secondLevelCache.get(key);
+			if (result!=null) {
+				m_cache.put(key, result);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public void put(HtmlConversionCacheKey key, CachedHtmlConversionResult result) {
+		m_cache.put(key, result);
+		if (m_secondLevelCache!=null) {
+			m_secondLevelCache.put(key, result);
+		}
+	}
+
+	@Override
+	public void remove(HtmlConversionCacheKey key) {
+		m_cache.remove(key);
+		if (m_secondLevelCache!=null) {
+			m_secondLevelCache.remove(key);
+		}
+	}
+
+	@Override
+	public void clear() {
+		m_cache.clear();
+		if (m_secondLevelCache!=null) {
+			m_secondLevelCache.clear();
+		}
+	}
+
+	/**
+	 * Returns the size of the data currently stored in memory
+	 * 
+	 * @return size in kilobytes
+	 */
+	public long getCurrentSizeKB() {
+		return m_cache.getCurrentCacheSizeInUnits();
+	}
+
+	private static class HtmlResultLRUCache extends SizeLimitedLRUCache<HtmlConversionCacheKey,CachedHtmlConversionResult> {
+
+		public HtmlResultLRUCache(int maxSizeUnits) {
+			super(maxSizeUnits);
+		}
+
+		@Override
+		protected int computeSize(HtmlConversionCacheKey key, CachedHtmlConversionResult value) {
+			long sizeKB = (value.getSizeInBytes() + 1023) / 1024;
+			return (int) Math.min(Integer.MAX_VALUE, Math.max(1, sizeKB));
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.mindoo.domino.jna.internal;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only, case insensitive map of item values that stores its keys in a shared
+ * {@link ItemNameDictionary} and only keeps an array of values per instance.<br>
+ * <br>
+ * Used for view / search result rows where thousands of rows have the same item names,
+ * so we do not need a hash table with entry objects and key strings for every row.
+ * Keys returned by {@link #keySet()} are lowercase, like in a {@link org.apache.commons.collections4.map.CaseInsensitiveMap}.
+ *
+ * @author Karsten Lehmann
+ */
+public class CompactItemValueMap extends AbstractMap<String,Object> implements Serializable {
+	private static final long serialVersionUID = 2950853417939616587L;
+
+	private final ItemNameDictionary m_dictionary;
+	private final Object[] m_values;
+	private transient Set<Map.Entry<String,Object>> m_entrySet;
+
+	/**
+	 * Creates a new map
+	 *
+	 * @param dictionary shared dictionary, must not contain duplicate names
+	 * @param values values in the order of the dictionary names, array is not copied
+	 */
+	public CompactItemValueMap(ItemNameDictionary dictionary, Object[] values) {
+		if (dictionary.size() != values.length) {
+			throw new IllegalArgumentException("Number of values ("+values.length+") does not match the number of names ("+dictionary.size()+")");
+		}
+		if (!dictionary.isUnique()) {
+			throw new IllegalArgumentException("Dictionary contains duplicate names: "+dictionary);
+		}
+		m_dictionary = dictionary;
+		m_values = values;
+	}
+
+	/**
+	 * Returns the shared dictionary
+	 *
+	 * @return dictionary
+	 */
+	public ItemNameDictionary getDictionary() {
+		return m_dictionary;
+	}
+
+	@Override
+	public int size() {
+		return m_values.length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return m_values.length==0;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if (key instanceof String) {
+			return m_dictionary.indexOf((String) key) != -1;
+		}
+		return false;
+	}
+
+	@Override
+	public Object get(Object key) {
+		if (key instanceof String) {
+			int idx = m_dictionary.indexOf((String) key);
+			if (idx!=-1) {
+				return m_values[idx];
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		throw new UnsupportedOperationException("Map is read-only");
+	}
+
+	@Override
+	public Object remove(Object key) {
+		throw new UnsupportedOperationException("Map is read-only");
+	}
+
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException("Map is read-only");
+	}
+
+	@Override
+	public Set<Map.Entry<String,Object>> entrySet() {
+		if (m_entrySet==null) {
+			m_entrySet = new AbstractSet<Map.Entry<String,Object>>() {
+
+				@Override
+				public Iterator<Map.Entry<String,Object>> iterator() {
+					return new Iterator<Map.Entry<String,Object>>() {
+						private int m_idx = 0;
+
+						@Override
+						public boolean hasNext() {
+							return m_idx < m_values.length;
+						}
+
+						@Override
+						public Map.Entry<String,Object> next() {
+							if (m_idx >= m_values.length) {
+								throw new NoSuchElementException();
+							}
+							Map.Entry<String,Object> entry = new AbstractMap.SimpleImmutableEntry<String,Object>(
+									m_dictionary.getName(m_idx), m_values[m_idx]);
+							m_idx++;
+							return entry;
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException("Map is read-only");
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return m_values.length;
+				}
+			};
+		}
+		return m_entrySet;
+	}
+
+}
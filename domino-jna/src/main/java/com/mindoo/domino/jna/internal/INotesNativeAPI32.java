@@ -159,6 +159,11 @@ public interface INotesNativeAPI32 extends Library {
 			NotesBlockIdStruct retbhValue,
 			IntByReference retValueLength);
 	
+	public short NSFItemScan(
+			int  note_handle,
+			NotesCallbacks.NSFItemScanProc ActionRoutine,
+			Pointer RoutineParameter);
+
 	public short NSFItemInfoPrev(
 			int  note_handle,
 			NotesBlockIdStruct.ByValue  CurrItem,
@@ -161,6 +161,11 @@ public interface INotesNativeAPI64 extends Library {
 			NotesBlockIdStruct retbhValue,
 			IntByReference retValueLength);
 
+	public short NSFItemScan(
+			long  note_handle,
+			NotesCallbacks.NSFItemScanProc ActionRoutine,
+			Pointer RoutineParameter);
+
 	public short NSFItemInfoPrev(
 			long  note_handle,
 			NotesBlockIdStruct.ByValue  CurrItem,
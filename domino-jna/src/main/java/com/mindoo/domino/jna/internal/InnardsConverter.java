@@ -65,6 +65,13 @@ import com.mindoo.domino.jna.utils.NotesDateTimeUtils;
  * @author Karsten Lehmann
  */
 public class InnardsConverter {
+	/** Value returned by {@link #decodeInnardsToMillis(int, int)} for innards without a date part */
+	public static final long NO_DATE = Long.MIN_VALUE;
+	
+	private static final long MILLIS_PER_DAY = 24L*60*60*1000;
+	/** Julian Day of 1/1/1970, see {@link #toJulianDay(Date)} */
+	private static final long JULIAN_DAY_1970 = 2440588;
+	
 
 	/**
 	 * Converts a given date to Julian date in days
@@ -73,15 +80,44 @@ public class InnardsConverter {
 	 * @return days since 1/1/4713 BC
 	 */
 	private static long toJulianDay(Date dt) {
-		// convert milliseconds since 1/1/1970 to days, add the timezone offset
-		// in days
-		// and add 2440587.5, which are the days between 1/1/4713 BC and
-		// 1/1/1970
-		return Math.round((dt.getTime() / 86400000) - (dt.getTimezoneOffset() / 1440) + 2440587.5);
+		// convert milliseconds since 1/1/1970 to days (rounded down, so that times
+		// before 1970 get the right day), add the timezone offset in days
+		// and add 2440588, the Julian Day of 1/1/1970
+		return floorDiv(dt.getTime(), MILLIS_PER_DAY) - (dt.getTimezoneOffset() / 1440) + JULIAN_DAY_1970;
 	}
 
 	private static long fromJulianDay(long julianDay, int timezoneOffset) {
-		return (long) ((double) julianDay + (timezoneOffset / 1440) - 2440587.5d) * 86400000;
+		return (julianDay + (timezoneOffset / 1440) - JULIAN_DAY_1970) * MILLIS_PER_DAY;
+	}
+
+	/**
+	 * Integer division rounding towards negative infinity (like Math.floorDiv of Java 8)
+	 * 
+	 * @param x dividend
+	 * @param y divisor, must be positive
+	 * @return quotient
+	 */
+	private static long floorDiv(long x, long y) {
+		long q = x / y;
+		if (x % y < 0) {
+			q--;
+		}
+		return q;
+	}
+
+	/**
+	 * Modulus with the sign of the divisor (like Math.floorMod of Java 8)
+	 * 
+	 * @param x dividend
+	 * @param y divisor, must be positive
+	 * @return remainder between 0 and y-1
+	 */
+	private static long floorMod(long x, long y) {
+		long m = x % y;
+		if (m < 0) {
+			m += y;
+		}
+		return m;
 	}
 
 	private static String toBinary(long l) {
@@ -271,10 +307,24 @@ public class InnardsConverter {
 		Date dtTime = cal.getTime();
 		long julianDay = toJulianDay(dtTime);
 
+		long zoneMask = getZoneMask(cal.getTimeZone());
+
+		long resultLong = julianDay | zoneMask;
+		
+		innards[1] = (int) (resultLong & 0xffffffff);
+		
+		return innards;
+	}
+	
+	/**
+	 * Computes the time zone and Daylight Savings Time bits of Innards[1]
+	 * 
+	 * @param tz timezone
+	 * @return bits 31-24 of Innards[1]
+	 */
+	private static long getZoneMask(TimeZone tz) {
 		long zoneMask = 0;
 		
-		TimeZone tz = cal.getTimeZone();
-
 		//The high-order bit, bit 31 (0x80000000), is set if Daylight Savings Time is observed
 		if (tz.useDaylightTime()) {
 			zoneMask |= 1l << 31;
@@ -300,11 +350,57 @@ public class InnardsConverter {
 		int tzOffsetFraction15MinuteIntervalls = tzOffsetFractionMinutes / 15;
 		zoneMask |= ((long)tzOffsetFraction15MinuteIntervalls) << 28;
 
-		long resultLong = julianDay | zoneMask;
+		return zoneMask;
+	}
+	
+	/**
+	 * Method to convert a time in milliseconds since 1/1/1970 to innards with date and time
+	 * part without creating a {@link Calendar}. Produces the same innards as
+	 * {@link #encodeInnards(Calendar, boolean, boolean)} for a calendar with this time and timezone.
+	 * 
+	 * @param timeMillis milliseconds since January 1, 1970, 00:00:00 GMT
+	 * @param tz timezone to write into the innards
+	 * @param retInnards array of length 2 to write the innards
+	 */
+	public static void encodeInnards(long timeMillis, TimeZone tz, int[] retInnards) {
+		//round down for times before 1970, the time part is always counted from midnight
+		long daysSince1970 = floorDiv(timeMillis, MILLIS_PER_DAY);
 		
-		innards[1] = (int) (resultLong & 0xffffffff);
+		//The first DWORD, Innards[0], contains the number of hundredths of seconds since midnight,
+		retInnards[0] = (int) ((floorMod(timeMillis, MILLIS_PER_DAY) / 10) & 0xffffffff);
 		
-		return innards;
+		//The 24 low-order bits contain the Julian Day, the number of days since January 1, 4713 BC
+		long julianDay = daysSince1970 + JULIAN_DAY_1970;
+		retInnards[1] = (int) ((julianDay | getZoneMask(tz)) & 0xffffffff);
+	}
+	
+	/**
+	 * Converts C API innard values to the number of milliseconds since 1/1/1970
+	 * with pure arithmetic, without creating a {@link Calendar}. Returns the same
+	 * value as <code>decodeInnards(innards).getTimeInMillis()</code> for innards with
+	 * date part, date-only values are returned as midnight UTC.
+	 * 
+	 * @param innard0 first innard value (time part)
+	 * @param innard1 second innard value (date part)
+	 * @return milliseconds since January 1, 1970, 00:00:00 GMT or {@link #NO_DATE} for invalid innards and innards without date part
+	 */
+	public static long decodeInnardsToMillis(int innard0, int innard1) {
+		if (innard0==0 && innard1==0) {
+			return NO_DATE;
+		}
+		if (innard1==NotesConstants.ANYDAY) {
+			return NO_DATE;
+		}
+		
+		long julianDay = innard1 & 16777215;
+		long baseTime = (julianDay - JULIAN_DAY_1970) * MILLIS_PER_DAY;
+		
+		if (innard0==NotesConstants.ALLDAY) {
+			return baseTime;
+		}
+		else {
+			return baseTime + ((long) innard0) * 10;
+		}
 	}
 
 	/**
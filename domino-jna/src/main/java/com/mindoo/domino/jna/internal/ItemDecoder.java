@@ -6,6 +6,8 @@ import java.util.List;
 import java.util.TimeZone;
 
 import com.mindoo.domino.jna.NotesDateRange;
+import com.mindoo.domino.jna.NotesItem;
+import com.mindoo.domino.jna.NotesPackedTimeDateList;
 import com.mindoo.domino.jna.NotesTimeDate;
 import com.mindoo.domino.jna.errors.NotesErrorUtils;
 import com.mindoo.domino.jna.internal.structs.NotesNumberPairStruct;
@@ -139,9 +141,10 @@ public class ItemDecoder {
 		
 		List<Object> calendarValues = new ArrayList<Object>(listEntriesAsInt + rangeEntriesAsInt);
 		
+		//read the innards of all list entries at once
+		int[] listInnards = listEntriesAsInt==0 ? null : ptrAfterRange.getIntArray(0, 2 * listEntriesAsInt);
 		for (int t=0; t<listEntriesAsInt; t++) {
-			Pointer ptrListEntry = ptrAfterRange.share(t * NotesConstants.timeDateSize);
-			int[] innards = ptrListEntry.getIntArray(0, 2);
+			int[] innards = new int[] {listInnards[2*t], listInnards[2*t+1]};
 			calendarValues.add(new NotesTimeDate(innards));
 		}
 		
@@ -169,6 +172,42 @@ public class ItemDecoder {
 	
 	}
 	
+	/**
+	 * Decodes a {@link NotesItem#TYPE_TIME} value into a {@link NotesPackedTimeDateList}
+	 * 
+	 * @param ptr pointer to the value
+	 * @return list with one value
+	 */
+	public static NotesPackedTimeDateList decodeTimeDateAsPackedList(final Pointer ptr) {
+		return NotesPackedTimeDateList.fromInnards(ptr.getIntArray(0, 2), new int[0]);
+	}
+	
+	/**
+	 * Decodes a {@link NotesItem#TYPE_TIME_RANGE} value into a {@link NotesPackedTimeDateList}
+	 * without creating objects for the single values
+	 * 
+	 * @param ptr pointer to the value
+	 * @return list
+	 */
+	public static NotesPackedTimeDateList decodeTimeDateListAsPackedList(Pointer ptr) {
+		NotesRangeStruct range = NotesRangeStruct.newInstance(ptr);
+		range.read();
+		
+		//read number of list and range entries in range
+		int listEntriesAsInt = range.ListEntries & 0xffff;
+		int rangeEntriesAsInt = range.RangeEntries & 0xffff;
+		
+		//skip range header
+		Pointer ptrAfterRange = ptr.share(NotesConstants.rangeSize);
+		int[] listInnards = listEntriesAsInt==0 ? new int[0] : ptrAfterRange.getIntArray(0, 2 * listEntriesAsInt);
+		
+		//the range data consists of lower/upper TIMEDATE pairs, so we can read them as ints as well
+		Pointer ptrAfterListEntries = ptrAfterRange.share(listEntriesAsInt * NotesConstants.timeDateSize);
+		int[] rangeInnards = rangeEntriesAsInt==0 ? new int[0] : ptrAfterListEntries.getIntArray(0, 4 * rangeEntriesAsInt);
+		
+		return NotesPackedTimeDateList.fromInnards(listInnards, rangeInnards);
+	}
+	
 	public static List<Object> decodeTimeDateList(Pointer ptr) {
 		NotesRangeStruct range = NotesRangeStruct.newInstance(ptr);
 		range.read();
@@ -182,9 +221,10 @@ public class ItemDecoder {
 		
 		List<Object> calendarValues = new ArrayList<Object>(listEntriesAsInt + rangeEntriesAsInt);
 		
+		//read the innards of all list entries at once
+		int[] listInnards = listEntriesAsInt==0 ? null : ptrAfterRange.getIntArray(0, 2 * listEntriesAsInt);
 		for (int t=0; t<listEntriesAsInt; t++) {
-			Pointer ptrListEntry = ptrAfterRange.share(t * NotesConstants.timeDateSize);
-			int[] innards = ptrListEntry.getIntArray(0, 2);
+			int[] innards = new int[] {listInnards[2*t], listInnards[2*t+1]};
 			Calendar calDate = NotesDateTimeUtils.innardsToCalendar(innards);
 			if (calDate!=null) {
 				calendarValues.add(calDate);
@@ -0,0 +1,174 @@
+package com.mindoo.domino.jna.internal;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+
+/**
+ * Immutable list of lowercase item / column names with a name to index lookup.<br>
+ * <br>
+ * Rows of a view or search result share the same item names, so instead of storing
+ * a key set per row, all rows reference one interned dictionary and only keep their
+ * values in an array (see {@link CompactItemValueMap}).
+ *
+ * @author Karsten Lehmann
+ */
+public class ItemNameDictionary implements Serializable {
+	private static final long serialVersionUID = -3393011213306622410L;
+
+	/** max number of different dictionaries we keep interned */
+	private static final int MAX_INTERNED_DICTIONARIES = 500;
+
+	private static final ConcurrentLinkedHashMap<ItemNameDictionary,ItemNameDictionary> m_internedDictionaries =
+			new ConcurrentLinkedHashMap.Builder<ItemNameDictionary,ItemNameDictionary>()
+			.maximumWeightedCapacity(MAX_INTERNED_DICTIONARIES)
+			.build();
+
+	private final String[] m_namesLC;
+	private final int m_hashCode;
+	private transient Map<String,Integer> m_indexByNameLC;
+
+	private ItemNameDictionary(String[] namesLC) {
+		m_namesLC = namesLC;
+		m_hashCode = Arrays.hashCode(namesLC);
+	}
+
+	private static Map<String,Integer> createIndex(String[] namesLC) {
+		Map<String,Integer> index = new HashMap<String,Integer>((int) (namesLC.length / 0.75f) + 1);
+		for (int i=0; i<namesLC.length; i++) {
+			//like in a map, the last value wins for duplicate names
+			index.put(namesLC[i], Integer.valueOf(i));
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the interned dictionary for the specified item names
+	 *
+	 * @param names item names in any case
+	 * @return dictionary
+	 */
+	public static ItemNameDictionary get(String[] names) {
+		String[] namesLC = new String[names.length];
+		for (int i=0; i<names.length; i++) {
+			namesLC[i] = names[i].toLowerCase(Locale.ENGLISH);
+		}
+		return intern(new ItemNameDictionary(namesLC));
+	}
+
+	/**
+	 * Returns the interned dictionary equal to <code>dict</code>. The name to index map
+	 * is only built if <code>dict</code> is new, so lookups of already known name
+	 * lists just cost one hash / equals check.
+	 *
+	 * @param dict dictionary without index
+	 * @return interned dictionary
+	 */
+	private static ItemNameDictionary intern(ItemNameDictionary dict) {
+		ItemNameDictionary existingDict = m_internedDictionaries.get(dict);
+		if (existingDict!=null) {
+			return existingDict;
+		}
+		dict.m_indexByNameLC = createIndex(dict.m_namesLC);
+		existingDict = m_internedDictionaries.putIfAbsent(dict, dict);
+		return existingDict!=null ? existingDict : dict;
+	}
+
+	/**
+	 * Returns the number of names
+	 *
+	 * @return size
+	 */
+	public int size() {
+		return m_namesLC.length;
+	}
+
+	/**
+	 * Returns the lowercase name at the specified position
+	 *
+	 * @param index index
+	 * @return name
+	 */
+	public String getName(int index) {
+		return m_namesLC[index];
+	}
+
+	/**
+	 * Returns true if the dictionary does not contain the same name twice
+	 *
+	 * @return true if unique
+	 */
+	public boolean isUnique() {
+		return m_indexByNameLC.size() == m_namesLC.length;
+	}
+
+	/**
+	 * Returns the position of a name
+	 *
+	 * @param name name in any case
+	 * @return index or -1 if not found
+	 */
+	public int indexOf(String name) {
+		Integer idx = m_indexByNameLC.get(name);
+		if (idx==null) {
+			//most lookups already use lowercase names, so we only convert when required
+			String nameLC = name.toLowerCase(Locale.ENGLISH);
+			if (!nameLC.equals(name)) {
+				idx = m_indexByNameLC.get(nameLC);
+			}
+		}
+		return idx==null ? -1 : idx.intValue();
+	}
+
+	/**
+	 * Checks whether the dictionary contains exactly the specified names in the same order
+	 * (case insensitive compare, used to reuse the dictionary of the previous row without
+	 * lowercasing / hashing the names again)
+	 *
+	 * @param names names
+	 * @return true if equal
+	 */
+	public boolean matches(String[] names) {
+		if (names.length != m_namesLC.length) {
+			return false;
+		}
+		for (int i=0; i<names.length; i++) {
+			String currName = names[i];
+			if (currName!=m_namesLC[i] && !currName.equalsIgnoreCase(m_namesLC[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Object readResolve() throws ObjectStreamException {
+		return intern(this);
+	}
+
+	@Override
+	public int hashCode() {
+		return m_hashCode;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof ItemNameDictionary)) {
+			return false;
+		}
+		ItemNameDictionary other = (ItemNameDictionary) obj;
+		return m_hashCode == other.m_hashCode && Arrays.equals(m_namesLC, other.m_namesLC);
+	}
+
+	@Override
+	public String toString() {
+		return "ItemNameDictionary [names=" + Arrays.toString(m_namesLC) + "]";
+	}
+}
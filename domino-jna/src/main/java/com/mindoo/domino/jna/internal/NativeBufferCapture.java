@@ -0,0 +1,373 @@
+package com.mindoo.domino.jna.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteOrder;
+
+import com.mindoo.domino.jna.NotesItem;
+import com.mindoo.domino.jna.internal.structs.NotesBlockIdStruct;
+import com.mindoo.domino.jna.internal.structs.NotesSearchMatch64Struct;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.LongByReference;
+import com.sun.jna.ptr.ShortByReference;
+
+import net.sf.cglib.proxy.MethodInterceptor;
+import net.sf.cglib.proxy.MethodProxy;
+
+/**
+ * Records native result buffers to a compact binary file, so that decoding them can be
+ * measured and verified offline with {@link NativeBufferReplay} on machines without Notes/Domino.<br>
+ * <br>
+ * While a capture is active, {@link NotesNativeAPI64#get()} returns an API wrapper that copies
+ * the following data after each successful call:
+ * <ul>
+ * <li>NIFReadEntries/NIFReadEntriesExt result buffers with read mask, entry counts and signal flags</li>
+ * <li>SEARCH_MATCH structures and summary buffers passed to NSFSearch/NSFSearchExtended3 callbacks with the search flags</li>
+ * <li>item values of types text, number and time (lists) returned by NSFItemInfo/NSFItemInfoNext/NSFItemInfoPrev/NSFItemQueryEx</li>
+ * </ul>
+ * The capture is started with {@link #start(File)} or the system property <code>dominojna.capturefile</code>
+ * and is only available on 64 bit. It slows down all API calls and writes document data
+ * to disk, so it should only be used to reproduce performance or decoding issues.<br>
+ * <br>
+ * File format (big endian, buffer contents in the byte order of the capturing platform):<br>
+ * header: int magic, short version, byte littleEndian<br>
+ * readentries record: byte type, int readMask, int numEntriesSkipped, int numEntriesReturned, short signalFlags, int length, buffer<br>
+ * searchmatch record: byte type, int searchFlags, int length, SEARCH_MATCH, int summaryLength (-1 for none), summary buffer<br>
+ * itemvalue record: byte type, short dataType, int length, value including the data type WORD
+ *
+ * @author Karsten Lehmann
+ */
+public class NativeBufferCapture {
+	static final int FILE_MAGIC = 0x444A4E43;
+	static final short FILE_VERSION = 1;
+
+	static final byte RECORD_READENTRIES = 1;
+	static final byte RECORD_SEARCHMATCH = 2;
+	static final byte RECORD_ITEMVALUE = 3;
+
+	private static volatile NativeBufferCapture m_activeCapture;
+	private static Thread m_shutdownHook;
+
+	private final File m_file;
+	private final DataOutputStream m_out;
+	private int m_recordCount;
+	private boolean m_closed;
+
+	private NativeBufferCapture(File file) throws IOException {
+		m_file = file;
+		m_out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+		m_out.writeInt(FILE_MAGIC);
+		m_out.writeShort(FILE_VERSION);
+		m_out.writeByte(ByteOrder.nativeOrder()==ByteOrder.LITTLE_ENDIAN ? 1 : 0);
+	}
+
+	/**
+	 * Starts recording native result buffers. A running capture is stopped first.
+	 *
+	 * @param file capture file, gets overwritten
+	 * @throws IOException if the file cannot be created
+	 */
+	public static synchronized void start(File file) throws IOException {
+		stop();
+
+		m_activeCapture = new NativeBufferCapture(file);
+
+		if (m_shutdownHook==null) {
+			//make sure buffered records get written if the capture is not stopped explicitly
+			m_shutdownHook = new Thread() {
+				@Override
+				public void run() {
+					NativeBufferCapture.stop();
+				}
+			};
+			Runtime.getRuntime().addShutdownHook(m_shutdownHook);
+		}
+	}
+
+	/**
+	 * Stops recording and closes the capture file
+	 *
+	 * @return capture file or null if no capture was active
+	 */
+	public static synchronized File stop() {
+		NativeBufferCapture capture = m_activeCapture;
+		if (capture==null) {
+			return null;
+		}
+		m_activeCapture = null;
+		capture.close();
+		return capture.m_file;
+	}
+
+	/**
+	 * Checks whether native result buffers are currently recorded
+	 *
+	 * @return true if active
+	 */
+	public static boolean isActive() {
+		return m_activeCapture!=null;
+	}
+
+	/**
+	 * Returns the number of records written by the active capture
+	 *
+	 * @return count or 0 if no capture is active
+	 */
+	public static int getRecordCount() {
+		NativeBufferCapture capture = m_activeCapture;
+		if (capture==null) {
+			return 0;
+		}
+		synchronized (capture) {
+			return capture.m_recordCount;
+		}
+	}
+
+	private synchronized void close() {
+		if (m_closed) {
+			return;
+		}
+		m_closed = true;
+		try {
+			m_out.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writing errors stop the capture, the API calls themselves must never fail because of it
+	 *
+	 * @param e write error
+	 */
+	private void handleWriteError(IOException e) {
+		e.printStackTrace();
+		synchronized (NativeBufferCapture.class) {
+			if (m_activeCapture==this) {
+				m_activeCapture = null;
+			}
+		}
+		close();
+	}
+
+	private void recordReadEntries(int readMask, int numEntriesSkipped, int numEntriesReturned, short signalFlags,
+			Pointer buffer, int bufferLength) {
+		byte[] data = buffer.getByteArray(0, bufferLength);
+		synchronized (this) {
+			if (m_closed) {
+				return;
+			}
+			try {
+				m_out.writeByte(RECORD_READENTRIES);
+				m_out.writeInt(readMask);
+				m_out.writeInt(numEntriesSkipped);
+				m_out.writeInt(numEntriesReturned);
+				m_out.writeShort(signalFlags);
+				m_out.writeInt(data.length);
+				m_out.write(data);
+				m_recordCount++;
+			} catch (IOException e) {
+				handleWriteError(e);
+			}
+		}
+	}
+
+	private void recordSearchMatch(int searchFlags, Pointer searchMatch, int searchMatchSize, Pointer summaryBuffer) {
+		byte[] matchData = searchMatch.getByteArray(0, searchMatchSize);
+		byte[] summaryData = null;
+		if (summaryBuffer!=null && Pointer.nativeValue(summaryBuffer)!=0 && (searchFlags & NotesConstants.SEARCH_SUMMARY)!=0) {
+			//ITEM_TABLE and ITEM_VALUE_TABLE both start with the total buffer length
+			int summaryLength = summaryBuffer.getShort(0) & 0xffff;
+			summaryData = summaryBuffer.getByteArray(0, summaryLength);
+		}
+
+		synchronized (this) {
+			if (m_closed) {
+				return;
+			}
+			try {
+				m_out.writeByte(RECORD_SEARCHMATCH);
+				m_out.writeInt(searchFlags);
+				m_out.writeInt(matchData.length);
+				m_out.write(matchData);
+				if (summaryData==null) {
+					m_out.writeInt(-1);
+				}
+				else {
+					m_out.writeInt(summaryData.length);
+					m_out.write(summaryData);
+				}
+				m_recordCount++;
+			} catch (IOException e) {
+				handleWriteError(e);
+			}
+		}
+	}
+
+	private void recordItemValue(short dataType, Pointer valuePtr, int valueLength) {
+		byte[] data = valuePtr.getByteArray(0, valueLength);
+		synchronized (this) {
+			if (m_closed) {
+				return;
+			}
+			try {
+				m_out.writeByte(RECORD_ITEMVALUE);
+				m_out.writeShort(dataType);
+				m_out.writeInt(data.length);
+				m_out.write(data);
+				m_recordCount++;
+			} catch (IOException e) {
+				handleWriteError(e);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether {@link NativeBufferReplay} can decode item values of the specified data type
+	 *
+	 * @param dataType data type
+	 * @return true to record values of this type
+	 */
+	static boolean isReplayableItemType(int dataType) {
+		switch (dataType) {
+		case NotesItem.TYPE_TEXT:
+		case NotesItem.TYPE_TEXT_LIST:
+		case NotesItem.TYPE_NUMBER:
+		case NotesItem.TYPE_NUMBER_RANGE:
+		case NotesItem.TYPE_TIME:
+		case NotesItem.TYPE_TIME_RANGE:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * {@link MethodInterceptor} that invokes the wrapped API and records the native
+	 * result buffers of selected C functions with the active capture.
+	 *
+	 * @author Karsten Lehmann
+	 */
+	static class MethodInterceptorWithBufferCapture implements MethodInterceptor {
+		private static final int SEARCHMATCH_SIZE = NotesSearchMatch64Struct.newInstance().size();
+
+		private final INotesNativeAPI64 original;
+
+		public MethodInterceptorWithBufferCapture(INotesNativeAPI64 original) {
+			this.original = original;
+		}
+
+		public Object intercept(Object o, Method method, Object[] args, MethodProxy methodProxy) throws Throwable {
+			NativeBufferCapture capture = m_activeCapture;
+			if (capture==null) {
+				return method.invoke(original, args);
+			}
+
+			String methodName = method.getName();
+			if ("NSFSearch".equals(methodName)) {
+				int searchFlags = ((Short) args[3]).shortValue() & 0xffff;
+				args[6] = wrapSearchProc(capture, searchFlags, (NotesCallbacks.NsfSearchProc) args[6]);
+				return method.invoke(original, args);
+			}
+			else if ("NSFSearchExtended3".equals(methodName)) {
+				int searchFlags = ((Integer) args[5]).intValue();
+				args[12] = wrapSearchProc(capture, searchFlags, (NotesCallbacks.NsfSearchProc) args[12]);
+				return method.invoke(original, args);
+			}
+
+			Object result = method.invoke(original, args);
+			if (result instanceof Short && ((Short) result).shortValue()!=0) {
+				//nothing to record for failed calls
+				return result;
+			}
+
+			if ("NIFReadEntries".equals(methodName)) {
+				captureReadEntries(capture, (Integer) args[6], (LongByReference) args[7], (ShortByReference) args[8],
+						(IntByReference) args[9], (IntByReference) args[10], (ShortByReference) args[11]);
+			}
+			else if ("NIFReadEntriesExt".equals(methodName)) {
+				captureReadEntries(capture, (Integer) args[6], (LongByReference) args[11], (ShortByReference) args[12],
+						(IntByReference) args[13], (IntByReference) args[14], (ShortByReference) args[15]);
+			}
+			else if ("NSFItemInfo".equals(methodName)) {
+				captureItemValue(capture, (NotesBlockIdStruct) args[5], (IntByReference) args[6]);
+			}
+			else if ("NSFItemInfoNext".equals(methodName) || "NSFItemInfoPrev".equals(methodName)) {
+				captureItemValue(capture, (NotesBlockIdStruct) args[6], (IntByReference) args[7]);
+			}
+			else if ("NSFItemQueryEx".equals(methodName)) {
+				captureItemValue(capture, (NotesBlockIdStruct) args[7], (IntByReference) args[8]);
+			}
+			return result;
+		}
+
+		private NotesCallbacks.NsfSearchProc wrapSearchProc(final NativeBufferCapture capture, final int searchFlags,
+				final NotesCallbacks.NsfSearchProc callback) {
+			if (callback==null) {
+				return null;
+			}
+			return new NotesCallbacks.NsfSearchProc() {
+
+				@Override
+				public short invoke(Pointer enumRoutineParameter, Pointer searchMatch, Pointer summaryBuffer) {
+					capture.recordSearchMatch(searchFlags, searchMatch, SEARCHMATCH_SIZE, summaryBuffer);
+					return callback.invoke(enumRoutineParameter, searchMatch, summaryBuffer);
+				}
+			};
+		}
+
+		//locks the buffer via the wrapped API, because Mem64 would call NotesNativeAPI64.get(),
+		//which returns the capture wrapper and would route the call through this interceptor again
+		@SuppressWarnings("deprecation")
+		private void captureReadEntries(NativeBufferCapture capture, int readMask, LongByReference rethBuffer,
+				ShortByReference retBufferLength, IntByReference retNumEntriesSkipped, IntByReference retNumEntriesReturned,
+				ShortByReference retSignalFlags) {
+			long hBuffer = rethBuffer==null ? 0 : rethBuffer.getValue();
+			if (hBuffer==0 || retBufferLength==null) {
+				return;
+			}
+			int bufferLength = retBufferLength.getValue() & 0xffff;
+			Pointer bufferPtr = original.OSLockObject(hBuffer);
+			try {
+				capture.recordReadEntries(readMask,
+						retNumEntriesSkipped==null ? 0 : retNumEntriesSkipped.getValue(),
+						retNumEntriesReturned==null ? 0 : retNumEntriesReturned.getValue(),
+						retSignalFlags==null ? 0 : retSignalFlags.getValue(),
+						bufferPtr, bufferLength);
+			}
+			finally {
+				original.OSUnlockObject(hBuffer);
+			}
+		}
+
+		//uses the wrapped API for the same reason as captureReadEntries
+		@SuppressWarnings("deprecation")
+		private void captureItemValue(NativeBufferCapture capture, NotesBlockIdStruct valueBlockId, IntByReference retValueLength) {
+			if (valueBlockId==null || retValueLength==null || valueBlockId.pool==0) {
+				return;
+			}
+			int valueLength = retValueLength.getValue();
+			if (valueLength<2) {
+				return;
+			}
+
+			long hPool = valueBlockId.pool;
+			Pointer poolPtr = original.OSLockObject(hPool);
+			try {
+				Pointer valuePtr = poolPtr.share(valueBlockId.block & 0xffff);
+				short dataType = valuePtr.getShort(0);
+				if (isReplayableItemType(dataType & 0xffff)) {
+					capture.recordItemValue(dataType, valuePtr, valueLength);
+				}
+			}
+			finally {
+				original.OSUnlockObject(hPool);
+			}
+		}
+	}
+}
@@ -0,0 +1,483 @@
+package com.mindoo.domino.jna.internal;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import com.mindoo.domino.jna.IItemTableData;
+import com.mindoo.domino.jna.IItemValueTableData;
+import com.mindoo.domino.jna.NotesItem;
+import com.mindoo.domino.jna.NotesSearch.ISearchMatch;
+import com.mindoo.domino.jna.NotesViewEntryData;
+import com.mindoo.domino.jna.NotesViewLookupResultData;
+import com.mindoo.domino.jna.constants.NoteClass;
+import com.mindoo.domino.jna.constants.ReadMask;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+/**
+ * Replays a file written by {@link NativeBufferCapture}: the recorded buffers are copied to
+ * native memory and decoded with {@link NotesLookupResultBufferDecoder}, {@link SearchMatchDecoder}
+ * and {@link ItemDecoder}. No Notes Client or Domino server is required, so decoding performance
+ * can be measured on any machine with the byte order of the capturing platform.<br>
+ * <br>
+ * For each record type, the replay reports the decode time, the number of decoding errors and a
+ * checksum of the decoded data. Comparing checksums before and after a decoder change shows whether
+ * the change produces the same results.<br>
+ * <br>
+ * Some decoders call C functions like ListGetText, so {@link #main(String[])} initializes the API
+ * in {@link NotesNativeAPI.Mode#Simulated} mode, which implements them in Java.<br>
+ * <br>
+ * Usage: <code>java com.mindoo.domino.jna.internal.NativeBufferReplay &lt;capturefile&gt; [iterations]</code>
+ *
+ * @author Karsten Lehmann
+ */
+public class NativeBufferReplay {
+	private final List<CapturedRecord> m_records;
+
+	/**
+	 * Reads a capture file
+	 *
+	 * @param captureFile file written by {@link NativeBufferCapture}
+	 * @throws IOException if the file cannot be read, has an unknown format or was captured with a different byte order
+	 */
+	public NativeBufferReplay(File captureFile) throws IOException {
+		m_records = new ArrayList<CapturedRecord>();
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(captureFile), 65536));
+		try {
+			if (in.readInt()!=NativeBufferCapture.FILE_MAGIC)
+				throw new IOException("File is not a native buffer capture: "+captureFile);
+			short version = in.readShort();
+			if (version!=NativeBufferCapture.FILE_VERSION)
+				throw new IOException("Unsupported capture file version: "+version);
+			boolean littleEndian = in.readByte()==1;
+			if (littleEndian != (ByteOrder.nativeOrder()==ByteOrder.LITTLE_ENDIAN))
+				throw new IOException("Capture file has been written on a platform with different byte order");
+
+			while (true) {
+				int recordType = in.read();
+				if (recordType==-1) {
+					break;
+				}
+				try {
+					m_records.add(readRecord(in, recordType));
+				}
+				catch (EOFException e) {
+					//capture has not been stopped properly; ignore the incomplete last record
+					break;
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static CapturedRecord readRecord(DataInputStream in, int recordType) throws IOException {
+		if (recordType==NativeBufferCapture.RECORD_READENTRIES) {
+			int readMask = in.readInt();
+			int numEntriesSkipped = in.readInt();
+			int numEntriesReturned = in.readInt();
+			short signalFlags = in.readShort();
+			Memory buffer = readBuffer(in, in.readInt());
+			return new ReadEntriesRecord(toReadMaskSet(readMask), numEntriesSkipped, numEntriesReturned, signalFlags, buffer);
+		}
+		else if (recordType==NativeBufferCapture.RECORD_SEARCHMATCH) {
+			int searchFlags = in.readInt();
+			Memory searchMatch = readBuffer(in, in.readInt());
+			int summaryLength = in.readInt();
+			Memory summaryBuffer = summaryLength==-1 ? null : readBuffer(in, summaryLength);
+			return new SearchMatchRecord(searchFlags, searchMatch, summaryBuffer);
+		}
+		else if (recordType==NativeBufferCapture.RECORD_ITEMVALUE) {
+			short dataType = in.readShort();
+			int valueLength = in.readInt();
+			return new ItemValueRecord(dataType, readBuffer(in, valueLength), valueLength);
+		}
+		else
+			throw new IOException("Unknown record type: "+recordType);
+	}
+
+	private static Memory readBuffer(DataInputStream in, int length) throws IOException {
+		byte[] data = new byte[length];
+		in.readFully(data);
+		Memory mem = new Memory(Math.max(1, length));
+		mem.write(0, data, 0, length);
+		return mem;
+	}
+
+	private static EnumSet<ReadMask> toReadMaskSet(int readMask) {
+		EnumSet<ReadMask> readMaskSet = EnumSet.noneOf(ReadMask.class);
+		for (ReadMask currMask : ReadMask.values()) {
+			int currVal = currMask.getValue();
+			if (currVal!=0 && (readMask & currVal)==currVal) {
+				readMaskSet.add(currMask);
+			}
+		}
+		return readMaskSet;
+	}
+
+	/**
+	 * Returns the number of records in the capture file
+	 *
+	 * @return count
+	 */
+	public int getRecordCount() {
+		return m_records.size();
+	}
+
+	/**
+	 * Decodes all records. String conversion needs an auto GC block, so the records are decoded
+	 * within {@link NotesGC#runWithAutoGC(Callable)}. Without Notes/Domino, the API needs to be
+	 * initialized in {@link NotesNativeAPI.Mode#Simulated} mode first.
+	 *
+	 * @param iterations number of times to decode each record; checksums are computed in the first iteration
+	 * @return statistics by record type
+	 */
+	public Map<String,DecodeStats> replay(final int iterations) {
+		try {
+			return NotesGC.runWithAutoGC(new Callable<Map<String,DecodeStats>>() {
+
+				@Override
+				public Map<String,DecodeStats> call() throws Exception {
+					return replayInAutoGC(iterations);
+				}
+			});
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new NotesError(0, "Error replaying native buffers", e);
+		}
+	}
+
+	private Map<String,DecodeStats> replayInAutoGC(int iterations) {
+		Map<String,DecodeStats> statsByType = new LinkedHashMap<String,DecodeStats>();
+
+		for (int i=0; i<iterations; i++) {
+			boolean computeChecksum = i==0;
+
+			for (CapturedRecord currRecord : m_records) {
+				DecodeStats stats = statsByType.get(currRecord.getTypeName());
+				if (stats==null) {
+					stats = new DecodeStats(currRecord.getTypeName());
+					statsByType.put(currRecord.getTypeName(), stats);
+				}
+
+				long t0=System.nanoTime();
+				try {
+					long checksum = currRecord.decode(computeChecksum);
+					stats.m_decodeNanos += System.nanoTime() - t0;
+					if (computeChecksum) {
+						stats.m_records++;
+						stats.m_checksum = 31 * stats.m_checksum + checksum;
+					}
+				}
+				catch (RuntimeException e) {
+					stats.m_decodeNanos += System.nanoTime() - t0;
+					if (computeChecksum) {
+						stats.m_records++;
+						stats.m_failures++;
+						if (stats.m_firstFailure==null) {
+							stats.m_firstFailure = e;
+						}
+					}
+				}
+			}
+		}
+		return statsByType;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length==0) {
+			System.out.println("Usage: NativeBufferReplay <capturefile> [iterations]");
+			return;
+		}
+		int iterations = args.length>1 ? Integer.parseInt(args[1]) : 1;
+
+		NotesNativeAPI.initialize(NotesNativeAPI.Mode.Simulated);
+
+		NativeBufferReplay replay = new NativeBufferReplay(new File(args[0]));
+		System.out.println("Read "+replay.getRecordCount()+" records from "+args[0]);
+
+		//run once to warm up the JIT before measuring
+		replay.replay(1);
+		for (DecodeStats currStats : replay.replay(iterations).values()) {
+			System.out.println(currStats.toString(iterations));
+			if (currStats.getFirstFailure()!=null) {
+				currStats.getFirstFailure().printStackTrace(System.out);
+			}
+		}
+	}
+
+	/**
+	 * Decode statistics for one record type
+	 */
+	public static class DecodeStats {
+		private final String m_typeName;
+		private int m_records;
+		private long m_decodeNanos;
+		private int m_failures;
+		private RuntimeException m_firstFailure;
+		private long m_checksum;
+
+		private DecodeStats(String typeName) {
+			m_typeName = typeName;
+		}
+
+		public String getTypeName() {
+			return m_typeName;
+		}
+
+		/**
+		 * Returns the number of records of this type
+		 *
+		 * @return count
+		 */
+		public int getRecordCount() {
+			return m_records;
+		}
+
+		/**
+		 * Returns the total decode time for all iterations
+		 *
+		 * @return nanoseconds
+		 */
+		public long getDecodeNanos() {
+			return m_decodeNanos;
+		}
+
+		/**
+		 * Returns the number of records that could not be decoded
+		 *
+		 * @return count
+		 */
+		public int getFailureCount() {
+			return m_failures;
+		}
+
+		/**
+		 * Returns the first decoding error
+		 *
+		 * @return error or null
+		 */
+		public RuntimeException getFirstFailure() {
+			return m_firstFailure;
+		}
+
+		/**
+		 * Returns a checksum of the decoded data; records that could not be decoded are not included
+		 *
+		 * @return checksum
+		 */
+		public long getChecksum() {
+			return m_checksum;
+		}
+
+		public String toString(int iterations) {
+			long decodes = (long) m_records * iterations;
+			return m_typeName+": records="+m_records+", failures="+m_failures+", checksum="+Long.toHexString(m_checksum)+
+					", total="+(m_decodeNanos/1000000)+"ms"+
+					", perRecord="+(decodes==0 ? 0 : m_decodeNanos/decodes)+"ns";
+		}
+
+		@Override
+		public String toString() {
+			return toString(1);
+		}
+	}
+
+	private static long hash(Object value) {
+		if (value==null) {
+			return 0;
+		}
+		else if (value instanceof int[]) {
+			return Arrays.hashCode((int[]) value);
+		}
+		else {
+			return value.hashCode();
+		}
+	}
+
+	private static abstract class CapturedRecord {
+
+		public abstract String getTypeName();
+
+		/**
+		 * Decodes the record
+		 *
+		 * @param computeChecksum true to compute a checksum of the decoded data
+		 * @return checksum or 0
+		 */
+		public abstract long decode(boolean computeChecksum);
+	}
+
+	private static class ReadEntriesRecord extends CapturedRecord {
+		private final EnumSet<ReadMask> m_readMask;
+		private final int m_numEntriesSkipped;
+		private final int m_numEntriesReturned;
+		private final short m_signalFlags;
+		private final Memory m_buffer;
+
+		public ReadEntriesRecord(EnumSet<ReadMask> readMask, int numEntriesSkipped, int numEntriesReturned,
+				short signalFlags, Memory buffer) {
+			m_readMask = readMask;
+			m_numEntriesSkipped = numEntriesSkipped;
+			m_numEntriesReturned = numEntriesReturned;
+			m_signalFlags = signalFlags;
+			m_buffer = buffer;
+		}
+
+		@Override
+		public String getTypeName() {
+			return "NIFReadEntries";
+		}
+
+		@Override
+		public long decode(boolean computeChecksum) {
+			NotesViewLookupResultData data = NotesLookupResultBufferDecoder.decodeCollectionLookupResultBuffer(null, m_buffer,
+					m_numEntriesSkipped, m_numEntriesReturned, m_readMask, m_signalFlags, null, 0, null, false, false, null);
+			if (!computeChecksum) {
+				return 0;
+			}
+
+			//the entries have no parent collection, so we only use values that can be read without it
+			long checksum = data.getReturnCount();
+			for (NotesViewEntryData currEntry : data.getEntries()) {
+				if (m_readMask.contains(ReadMask.NOTEID)) {
+					checksum = 31 * checksum + currEntry.getNoteId();
+				}
+				if (m_readMask.contains(ReadMask.NOTEUNID)) {
+					checksum = 31 * checksum + hash(currEntry.getUNID());
+				}
+				if (m_readMask.contains(ReadMask.NOTECLASS)) {
+					checksum = 31 * checksum + currEntry.getNoteClass();
+				}
+				if (m_readMask.contains(ReadMask.INDEXPOSITION)) {
+					checksum = 31 * checksum + hash(currEntry.getPosition());
+				}
+				if (m_readMask.contains(ReadMask.SUMMARYVALUES)) {
+					checksum = 31 * checksum + hash(currEntry.getColumnValueSizesInBytes());
+				}
+			}
+			return checksum;
+		}
+	}
+
+	private static class SearchMatchRecord extends CapturedRecord {
+		private final int m_searchFlags;
+		private final Memory m_searchMatch;
+		private final Memory m_summaryBuffer;
+
+		public SearchMatchRecord(int searchFlags, Memory searchMatch, Memory summaryBuffer) {
+			m_searchFlags = searchFlags;
+			m_searchMatch = searchMatch;
+			m_summaryBuffer = summaryBuffer;
+		}
+
+		@Override
+		public String getTypeName() {
+			return "NSFSearch";
+		}
+
+		@Override
+		public long decode(boolean computeChecksum) {
+			ISearchMatch searchMatch = SearchMatchDecoder.decodeSearchMatch(m_searchMatch);
+
+			IItemTableData itemTableData = null;
+			IItemValueTableData itemValueTableData = null;
+			if (m_summaryBuffer!=null) {
+				if ((m_searchFlags & NotesConstants.SEARCH_NOITEMNAMES)!=0) {
+					itemValueTableData = NotesLookupResultBufferDecoder.decodeItemValueTable(m_summaryBuffer, false, false, true);
+				}
+				else {
+					itemTableData = NotesLookupResultBufferDecoder.decodeItemTable(m_summaryBuffer, false, false, true);
+				}
+			}
+			if (!computeChecksum) {
+				return 0;
+			}
+
+			long checksum = searchMatch.getNoteId();
+			checksum = 31 * checksum + hash(searchMatch.getUNID());
+			checksum = 31 * checksum + searchMatch.getSeq();
+			for (NoteClass currClass : searchMatch.getNoteClass()) {
+				//enum hash codes differ between JVM runs
+				checksum = 31 * checksum + currClass.getValue();
+			}
+			if (itemTableData!=null) {
+				checksum = 31 * checksum + hash(itemTableData.asMap(true));
+			}
+			if (itemValueTableData!=null) {
+				for (int i=0; i<itemValueTableData.getItemsCount(); i++) {
+					checksum = 31 * checksum + hash(itemValueTableData.getItemValue(i));
+				}
+			}
+			return checksum;
+		}
+	}
+
+	private static class ItemValueRecord extends CapturedRecord {
+		private final short m_dataType;
+		private final Memory m_value;
+		private final int m_valueLength;
+
+		public ItemValueRecord(short dataType, Memory value, int valueLength) {
+			m_dataType = dataType;
+			m_value = value;
+			m_valueLength = valueLength;
+		}
+
+		@Override
+		public String getTypeName() {
+			return "ItemValue";
+		}
+
+		@Override
+		public long decode(boolean computeChecksum) {
+			//same decoding as NotesNote.getItemValue, values start after the data type WORD
+			Pointer valueDataPtr = m_value.share(2);
+			int valueDataLength = m_valueLength - 2;
+			int dataType = m_dataType & 0xffff;
+
+			Object value;
+			if (dataType == NotesItem.TYPE_TEXT) {
+				value = ItemDecoder.decodeTextValue(valueDataPtr, valueDataLength, false);
+			}
+			else if (dataType == NotesItem.TYPE_TEXT_LIST) {
+				value = valueDataLength==0 ? null : ItemDecoder.decodeTextListValue(valueDataPtr, false);
+			}
+			else if (dataType == NotesItem.TYPE_NUMBER) {
+				value = ItemDecoder.decodeNumber(valueDataPtr, valueDataLength);
+			}
+			else if (dataType == NotesItem.TYPE_NUMBER_RANGE) {
+				value = ItemDecoder.decodeNumberList(valueDataPtr, valueDataLength);
+			}
+			else if (dataType == NotesItem.TYPE_TIME) {
+				value = ItemDecoder.decodeTimeDateAsNotesTimeDate(valueDataPtr, valueDataLength);
+			}
+			else if (dataType == NotesItem.TYPE_TIME_RANGE) {
+				value = ItemDecoder.decodeTimeDateListAsNotesTimeDate(valueDataPtr);
+			}
+			else
+				throw new IllegalStateException("Unsupported item data type: "+dataType);
+
+			return computeChecksum ? 31 * dataType + hash(value) : 0;
+		}
+	}
+}
@@ -34,6 +34,13 @@ public interface NotesCallbacks {
 		short invoke(Pointer param, NotesUniversalNoteIdStruct noteUNID, int opBlock, int opBlockSize);
 	}
 
+	/**
+	 * Callback used by NSFItemScan
+	 */
+	interface NSFItemScanProc extends Callback {
+		short invoke(short spare, short itemFlags, Pointer name, short nameLength, Pointer value, int valueLength, Pointer routineParameter);
+	}
+
 	/**
 	 * Callback used by IDEnumerate
 	 */
@@ -19,6 +19,7 @@ import com.mindoo.domino.jna.NotesCollectionStats;
 import com.mindoo.domino.jna.NotesDateRange;
 import com.mindoo.domino.jna.NotesIDTable;
 import com.mindoo.domino.jna.NotesItem;
+import com.mindoo.domino.jna.NotesPackedTimeDateList;
 import com.mindoo.domino.jna.NotesTimeDate;
 import com.mindoo.domino.jna.NotesViewEntryData;
 import com.mindoo.domino.jna.NotesViewLookupResultData;
@@ -96,101 +97,143 @@ public class NotesLookupResultBufferDecoder {
 			bufferPtr = Mem32.OSLockObject((int) bufferHandle);
 		}
 		
+		try {
+			return decodeCollectionLookupResultBuffer(parentCollection, bufferPtr, numEntriesSkipped, numEntriesReturned,
+					returnMask, signalFlags, pos, indexModifiedSequenceNo, retDiffTime, convertStringsLazily,
+					convertNotesTimeDateToCalendar, singleColumnLookupName);
+		}
+		finally {
+			if (PlatformUtils.is64Bit()) {
+				Mem64.OSUnlockObject(bufferHandle);
+				short result = Mem64.OSMemFree(bufferHandle);
+				NotesErrorUtils.checkResult(result);
+			}
+			else {
+				Mem32.OSUnlockObject((int)bufferHandle);
+				short result = Mem32.OSMemFree((int)bufferHandle);
+				NotesErrorUtils.checkResult(result);
+			}
+		}
+	}
+
+	/**
+	 * Decodes the buffer content without locking or freeing it, e.g. to decode buffers
+	 * recorded with {@link NativeBufferCapture}
+	 * 
+	 * @param parentCollection parent collection or null if the decoded entries are not used to access the collection
+	 * @param bufferPtr pointer to the buffer content
+	 * @param numEntriesSkipped entries skipped during collection scan
+	 * @param numEntriesReturned entries read during collection scan
+	 * @param returnMask bitmask used to fill the buffer with data
+	 * @param signalFlags signal flags returned by NIFReadEntries, e.g. whether we have more data to read
+	 * @param pos position to add to NotesViewLookupResultData object
+	 * @param indexModifiedSequenceNo index modified sequence no
+	 * @param retDiffTime diff time or null
+	 * @param convertStringsLazily true to delay string conversion until the first use
+	 * @param convertNotesTimeDateToCalendar true to convert {@link NotesTimeDate} values to {@link Calendar}
+	 * @param singleColumnLookupName for single column lookups, programmatic name of lookup column
+	 * @return collection data
+	 */
+	public static NotesViewLookupResultData decodeCollectionLookupResultBuffer(NotesCollection parentCollection, Pointer bufferPtr,
+			int numEntriesSkipped, int numEntriesReturned, EnumSet<ReadMask> returnMask, short signalFlags, String pos,
+			int indexModifiedSequenceNo, NotesTimeDate retDiffTime, boolean convertStringsLazily,
+			boolean convertNotesTimeDateToCalendar, String singleColumnLookupName) {
+		
 		int bufferPos = 0;
 		
 		NotesCollectionStats collectionStats = null;
 		
 		//compute structure sizes
 		
-		try {
-			if (returnMask.contains(ReadMask.COLLECTIONSTATS)) {
-				NotesCollectionStatsStruct tmpStats = NotesCollectionStatsStruct.newInstance(bufferPtr);
-				tmpStats.read();
+		if (returnMask.contains(ReadMask.COLLECTIONSTATS)) {
+			NotesCollectionStatsStruct tmpStats = NotesCollectionStatsStruct.newInstance(bufferPtr);
+			tmpStats.read();
+			
+			collectionStats = new NotesCollectionStats(tmpStats.TopLevelEntries, tmpStats.LastModifiedTime);
+					
+			bufferPos += tmpStats.size();
+		}
+
+		List<NotesViewEntryData> viewEntries = new ArrayList<NotesViewEntryData>();
+		
+		final boolean decodeAllValues = true;
+		ItemNameDictionary summaryDictionary = null;
+
+		for (int i=0; i<numEntriesReturned; i++) {
+			NotesViewEntryData newData = new NotesViewEntryData(parentCollection);
+			viewEntries.add(newData);
+			
+			if (returnMask.contains(ReadMask.NOTEID)) {
+				int entryNoteId = bufferPtr.getInt(bufferPos);
+				newData.setNoteId(entryNoteId);
 				
-				collectionStats = new NotesCollectionStats(tmpStats.TopLevelEntries, tmpStats.LastModifiedTime);
-						
-				bufferPos += tmpStats.size();
+				bufferPos+=4;
 			}
-
-			List<NotesViewEntryData> viewEntries = new ArrayList<NotesViewEntryData>();
 			
-			final boolean decodeAllValues = true;
-
-			for (int i=0; i<numEntriesReturned; i++) {
-				NotesViewEntryData newData = new NotesViewEntryData(parentCollection);
-				viewEntries.add(newData);
+			if (returnMask.contains(ReadMask.NOTEUNID)) {
+				long[] unidLongs = bufferPtr.getLongArray(bufferPos, 2);
+				newData.setUNID(unidLongs);
 				
-				if (returnMask.contains(ReadMask.NOTEID)) {
-					int entryNoteId = bufferPtr.getInt(bufferPos);
-					newData.setNoteId(entryNoteId);
-					
-					bufferPos+=4;
-				}
+				bufferPos+=16;
+			}
+			if (returnMask.contains(ReadMask.NOTECLASS)) {
+				short noteClass = bufferPtr.getShort(bufferPos);
+				newData.setNoteClass(noteClass);
 				
-				if (returnMask.contains(ReadMask.NOTEUNID)) {
-					long[] unidLongs = bufferPtr.getLongArray(bufferPos, 2);
-					newData.setUNID(unidLongs);
-					
-					bufferPos+=16;
-				}
-				if (returnMask.contains(ReadMask.NOTECLASS)) {
-					short noteClass = bufferPtr.getShort(bufferPos);
-					newData.setNoteClass(noteClass);
-					
-					bufferPos+=2;
-				}
-				if (returnMask.contains(ReadMask.INDEXSIBLINGS)) {
-					int siblingCount = bufferPtr.getInt(bufferPos);
-					newData.setSiblingCount(siblingCount);
-					
-					bufferPos+=4;
-				}
-				if (returnMask.contains(ReadMask.INDEXCHILDREN)) {
-					int childCount = bufferPtr.getInt(bufferPos);
-					newData.setChildCount(childCount);
-					
-					bufferPos+=4;
-				}
-				if (returnMask.contains(ReadMask.INDEXDESCENDANTS)) {
-					int descendantCount = bufferPtr.getInt(bufferPos);
-					newData.setDescendantCount(descendantCount);
-					
-					bufferPos+=4;
-				}
-				if (returnMask.contains(ReadMask.INDEXANYUNREAD)) {
-					boolean isAnyUnread = bufferPtr.getShort(bufferPos) == 1;
-					newData.setAnyUnread(isAnyUnread);
-					
-					bufferPos+=2;
-				}
-				if (returnMask.contains(ReadMask.INDENTLEVELS)) {
-					short indentLevels = bufferPtr.getShort(bufferPos);
-					newData.setIndentLevels(indentLevels);
-					
-					bufferPos += 2;
-				}
-				if (returnMask.contains(ReadMask.SCORE)) {
-					short score = bufferPtr.getShort(bufferPos);
-					newData.setFTScore(score);
-					
-					bufferPos += 2;
-				}
-				if (returnMask.contains(ReadMask.INDEXUNREAD)) {
-					boolean isUnread = bufferPtr.getShort(bufferPos) == 1;
-					newData.setUnread(isUnread);
-					
-					bufferPos+=2;
-				}
-				if (returnMask.contains(ReadMask.INDEXPOSITION)) {
-					short level = bufferPtr.getShort(bufferPos);
-					int[] posArr = new int[level+1];
-					bufferPtr.read(bufferPos + 2 /* level */  + 2 /* MinLevel+MaxLevel */, posArr, 0, level+1);
-							
-					newData.setPosition(posArr);
-					
-					bufferPos += 4 * (level + 2);
-				}
-				if (returnMask.contains(ReadMask.SUMMARYVALUES)) {
+				bufferPos+=2;
+			}
+			if (returnMask.contains(ReadMask.INDEXSIBLINGS)) {
+				int siblingCount = bufferPtr.getInt(bufferPos);
+				newData.setSiblingCount(siblingCount);
+				
+				bufferPos+=4;
+			}
+			if (returnMask.contains(ReadMask.INDEXCHILDREN)) {
+				int childCount = bufferPtr.getInt(bufferPos);
+				newData.setChildCount(childCount);
+				
+				bufferPos+=4;
+			}
+			if (returnMask.contains(ReadMask.INDEXDESCENDANTS)) {
+				int descendantCount = bufferPtr.getInt(bufferPos);
+				newData.setDescendantCount(descendantCount);
+				
+				bufferPos+=4;
+			}
+			if (returnMask.contains(ReadMask.INDEXANYUNREAD)) {
+				boolean isAnyUnread = bufferPtr.getShort(bufferPos) == 1;
+				newData.setAnyUnread(isAnyUnread);
+				
+				bufferPos+=2;
+			}
+			if (returnMask.contains(ReadMask.INDENTLEVELS)) {
+				short indentLevels = bufferPtr.getShort(bufferPos);
+				newData.setIndentLevels(indentLevels);
+				
+				bufferPos += 2;
+			}
+			if (returnMask.contains(ReadMask.SCORE)) {
+				short score = bufferPtr.getShort(bufferPos);
+				newData.setFTScore(score);
+				
+				bufferPos += 2;
+			}
+			if (returnMask.contains(ReadMask.INDEXUNREAD)) {
+				boolean isUnread = bufferPtr.getShort(bufferPos) == 1;
+				newData.setUnread(isUnread);
+				
+				bufferPos+=2;
+			}
+			if (returnMask.contains(ReadMask.INDEXPOSITION)) {
+				short level = bufferPtr.getShort(bufferPos);
+				int[] posArr = new int[level+1];
+				bufferPtr.read(bufferPos + 2 /* level */  + 2 /* MinLevel+MaxLevel */, posArr, 0, level+1);
+						
+				newData.setPosition(posArr);
+				
+				bufferPos += 4 * (level + 2);
+			}
+			if (returnMask.contains(ReadMask.SUMMARYVALUES)) {
 //					The information in a view summary of values is as follows:
 //
 //						ITEM_VALUE_TABLE containing header information (total length of summary, number of items in summary)
@@ -205,57 +248,54 @@ public class NotesLookupResultBufferDecoder {
 //						USHORT containing the data type of item #3
 //						value of item #3
 //						....
-					
-					int startBufferPosOfSummaryValues = bufferPos;
+				
+				int startBufferPosOfSummaryValues = bufferPos;
 
-					Pointer itemValueTablePtr = bufferPtr.share(bufferPos);
-					ItemValueTableDataImpl itemTableData = (ItemValueTableDataImpl) decodeItemValueTable(itemValueTablePtr,
-							convertStringsLazily, convertNotesTimeDateToCalendar, decodeAllValues);
-					
-					//move to the end of the buffer
-					bufferPos = startBufferPosOfSummaryValues + itemTableData.getTotalBufferLength();
+				Pointer itemValueTablePtr = bufferPtr.share(bufferPos);
+				ItemValueTableDataImpl itemTableData = (ItemValueTableDataImpl) decodeItemValueTable(itemValueTablePtr,
+						convertStringsLazily, convertNotesTimeDateToCalendar, decodeAllValues);
+				
+				//move to the end of the buffer
+				bufferPos = startBufferPosOfSummaryValues + itemTableData.getTotalBufferLength();
 
-					Object[] decodedItemValues = new Object[itemTableData.getItemsCount()];
-					for (int c=0; c<itemTableData.getItemsCount(); c++) {
-						decodedItemValues[c] = itemTableData.getItemValue(c);
-					}
-					newData.setColumnValues(decodedItemValues);
-					//add some statistical information to the data object to be able to see which columns "pollute" the summary buffer
-					newData.setColumnValueSizesInBytes(itemTableData.getItemValueLengthsInBytes());
+				Object[] decodedItemValues = new Object[itemTableData.getItemsCount()];
+				for (int c=0; c<itemTableData.getItemsCount(); c++) {
+					decodedItemValues[c] = itemTableData.getItemValue(c);
 				}
-				if (returnMask.contains(ReadMask.SUMMARY)) {
-					int startBufferPosOfSummaryValues = bufferPos;
+				newData.setColumnValues(decodedItemValues);
+				//add some statistical information to the data object to be able to see which columns "pollute" the summary buffer
+				newData.setColumnValueSizesInBytes(itemTableData.getItemValueLengthsInBytes());
+			}
+			if (returnMask.contains(ReadMask.SUMMARY)) {
+				int startBufferPosOfSummaryValues = bufferPos;
 
-					Pointer itemTablePtr = bufferPtr.share(bufferPos);
-					ItemTableDataImpl itemTableData = (ItemTableDataImpl) decodeItemTable(itemTablePtr, convertStringsLazily,
-							convertNotesTimeDateToCalendar, decodeAllValues);
-					
-					//move to the end of the buffer
-					bufferPos = startBufferPosOfSummaryValues + itemTableData.getTotalBufferLength();
+				Pointer itemTablePtr = bufferPtr.share(bufferPos);
+				ItemTableDataImpl itemTableData = (ItemTableDataImpl) decodeItemTable(itemTablePtr, convertStringsLazily,
+						convertNotesTimeDateToCalendar, decodeAllValues);
+				
+				//move to the end of the buffer
+				bufferPos = startBufferPosOfSummaryValues + itemTableData.getTotalBufferLength();
 
-					Map<String,Object> itemValues = itemTableData.asMap(false);
-					newData.setSummaryData(itemValues);
+				//all rows usually have the same item names, so they share one dictionary
+				String[] itemNames = itemTableData.getItemNames();
+				if (summaryDictionary==null || !summaryDictionary.matches(itemNames)) {
+					summaryDictionary = ItemNameDictionary.get(itemNames);
 				}
-				if (singleColumnLookupName!=null) {
-					newData.setSingleColumnLookupName(singleColumnLookupName);
+				Map<String,Object> itemValues;
+				if (summaryDictionary.isUnique()) {
+					itemValues = itemTableData.asCompactMap(summaryDictionary, false);
+				}
+				else {
+					itemValues = itemTableData.asMap(false);
 				}
+				newData.setSummaryData(itemValues);
 			}
-			
-			return new NotesViewLookupResultData(collectionStats, viewEntries, numEntriesSkipped, numEntriesReturned, signalFlags, pos, indexModifiedSequenceNo, retDiffTime);
-		}
-		finally {
-			if (PlatformUtils.is64Bit()) {
-				Mem64.OSUnlockObject(bufferHandle);
-				short result = Mem64.OSMemFree(bufferHandle);
-				NotesErrorUtils.checkResult(result);
-			}
-			else {
-				Mem32.OSUnlockObject((int)bufferHandle);
-				short result = Mem32.OSMemFree((int)bufferHandle);
-				NotesErrorUtils.checkResult(result);
+			if (singleColumnLookupName!=null) {
+				newData.setSingleColumnLookupName(singleColumnLookupName);
 			}
 		}
 		
+		return new NotesViewLookupResultData(collectionStats, viewEntries, numEntriesSkipped, numEntriesReturned, signalFlags, pos, indexModifiedSequenceNo, retDiffTime);
 	}
 
 	/**
@@ -602,6 +642,30 @@ public class NotesLookupResultBufferDecoder {
 				return m_itemValues[index];
 		}
 		
+		@Override
+		public NotesPackedTimeDateList getItemValueAsPackedTimeDateList(int index) {
+			int type = getItemDataType(index);
+			if (type != NotesItem.TYPE_TIME && type != NotesItem.TYPE_TIME_RANGE) {
+				return null;
+			}
+			
+			Object val = m_itemValues[index];
+			if (val != null) {
+				//value has already been decoded
+				return NotesPackedTimeDateList.fromList(val instanceof List ? (List<?>) val : Collections.singletonList(val));
+			}
+			
+			if (isFreed())
+				throw new NotesError(0, "Buffer already freed");
+			
+			if (type == NotesItem.TYPE_TIME) {
+				return ItemDecoder.decodeTimeDateAsPackedList(m_itemValueBufferPointers[index]);
+			}
+			else {
+				return ItemDecoder.decodeTimeDateListAsPackedList(m_itemValueBufferPointers[index]);
+			}
+		}
+		
 		@Override
 		public int getItemDataType(int index) {
 			return m_itemDataTypes[index];
@@ -832,6 +896,21 @@ public class NotesLookupResultBufferDecoder {
 			return defaultValue;
 		}
 		
+		@Override
+		public NotesPackedTimeDateList getAsPackedTimeDateList(String itemName, NotesPackedTimeDateList defaultValue) {
+			if (m_wrappedValueTable!=null && m_wrappedValueTable.isFreed()) {
+				throw new NotesError(0, "Buffer already freed");
+			}
+			
+			for (int i=0; i<m_itemNames.length; i++) {
+				if (m_itemNames[i].equalsIgnoreCase(itemName)) {
+					NotesPackedTimeDateList val = getItemValueAsPackedTimeDateList(i);
+					return val==null ? defaultValue : val;
+				}
+			}
+			return defaultValue;
+		}
+		
 		@Override
 		public List<NotesTimeDate> getAsTimeDateList(String itemName, List<NotesTimeDate> defaultValue) {
 			boolean oldPrefTimeDate = isPreferNotesTimeDates();
@@ -1080,66 +1159,86 @@ public class NotesLookupResultBufferDecoder {
 			Map<String,Object> data = new CaseInsensitiveMap<String, Object>();
 			int itemCount = getItemsCount();
 			for (int i=0; i<itemCount; i++) {
-				Object val = getItemValue(i);
-				
-				if (val instanceof LMBCSString) {
-					if (decodeLMBCS) {
-						data.put(m_itemNames[i], ((LMBCSString)val).getValue());
-					}
-					else {
-						data.put(m_itemNames[i], val);
-					}
+				data.put(m_itemNames[i], convertMapValue(getItemValue(i), decodeLMBCS));
+			}
+			return data;
+		}
+		
+		/**
+		 * Returns a read-only map of the item values like {@link #asMap(boolean)}, but
+		 * without its own key set; the names are taken from a {@link ItemNameDictionary}
+		 * shared across all rows with the same item names
+		 * 
+		 * @param dictionary dictionary for {@link #getItemNames()}, must not contain duplicates
+		 * @param decodeLMBCS true to convert {@link LMBCSString} objects and lists to Java Strings
+		 * @return map
+		 */
+		public Map<String,Object> asCompactMap(ItemNameDictionary dictionary, boolean decodeLMBCS) {
+			int itemCount = getItemsCount();
+			Object[] values = new Object[itemCount];
+			for (int i=0; i<itemCount; i++) {
+				values[i] = convertMapValue(getItemValue(i), decodeLMBCS);
+			}
+			return new CompactItemValueMap(dictionary, values);
+		}
+		
+		private static Object convertMapValue(Object val, boolean decodeLMBCS) {
+			if (val instanceof LMBCSString) {
+				if (decodeLMBCS) {
+					return ((LMBCSString)val).getValue();
 				}
-				else if(val instanceof NotesTimeDate) {
-					data.put(m_itemNames[i], ((NotesTimeDate)val).toCalendar());
+				else {
+					return val;
 				}
-				else if (val instanceof List) {
-					if (decodeLMBCS) {
-						//check for LMBCS strings and NotesTimeDate
-						List valAsList = (List) val;
-						boolean hasLMBCS = false;
-						boolean hasTimeDate = false;
-						
+			}
+			else if(val instanceof NotesTimeDate) {
+				return ((NotesTimeDate)val).toCalendar();
+			}
+			else if (val instanceof List) {
+				if (decodeLMBCS) {
+					//check for LMBCS strings and NotesTimeDate
+					List valAsList = (List) val;
+					boolean hasLMBCS = false;
+					boolean hasTimeDate = false;
+					
+					for (int j=0; j<valAsList.size(); j++) {
+						if (valAsList.get(j) instanceof LMBCSString) {
+							hasLMBCS = true;
+							break;
+						}
+						else if (valAsList.get(j) instanceof NotesTimeDate) {
+							hasTimeDate = true;
+							break;
+						}
+					}
+					
+					if (hasLMBCS || hasTimeDate) {
+						List<Object> convList = new ArrayList<Object>(valAsList.size());
 						for (int j=0; j<valAsList.size(); j++) {
-							if (valAsList.get(j) instanceof LMBCSString) {
-								hasLMBCS = true;
-								break;
+							Object currObj = valAsList.get(j);
+							if (currObj instanceof LMBCSString) {
+								convList.add(((LMBCSString)currObj).getValue());
 							}
-							else if (valAsList.get(j) instanceof NotesTimeDate) {
-								hasTimeDate = true;
-								break;
+							else if (currObj instanceof NotesTimeDate) {
+								convList.add(((NotesTimeDate)currObj).toCalendar());
 							}
-						}
-						
-						if (hasLMBCS || hasTimeDate) {
-							List<Object> convList = new ArrayList<Object>(valAsList.size());
-							for (int j=0; j<valAsList.size(); j++) {
-								Object currObj = valAsList.get(j);
-								if (currObj instanceof LMBCSString) {
-									convList.add(((LMBCSString)currObj).getValue());
-								}
-								else if (currObj instanceof NotesTimeDate) {
-									convList.add(((NotesTimeDate)currObj).toCalendar());
-								}
-								else {
-									convList.add(currObj);
-								}
+							else {
+								convList.add(currObj);
 							}
-							data.put(m_itemNames[i], convList);
-						}
-						else {
-							data.put(m_itemNames[i], val);
 						}
+						return convList;
 					}
 					else {
-						data.put(m_itemNames[i], val);
+						return val;
 					}
 				}
 				else {
-					data.put(m_itemNames[i], val);
+					return val;
 				}
 			}
-			return data;
+			else {
+				return val;
+			}
 		}
 	}
 	
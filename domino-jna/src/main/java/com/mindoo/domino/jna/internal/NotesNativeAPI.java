@@ -27,6 +27,7 @@ import com.mindoo.domino.jna.internal.structs.NotesUniversalNoteIdStruct;
 import com.mindoo.domino.jna.internal.structs.ReplExtensionsStruct;
 import com.mindoo.domino.jna.internal.structs.ReplServStatsStruct;
 import com.mindoo.domino.jna.internal.structs.compoundtext.NotesCompoundStyleStruct;
+import com.mindoo.domino.jna.simulation.SimulatedNativeAPI;
 import com.mindoo.domino.jna.utils.PlatformUtils;
 import com.mindoo.domino.jna.utils.StringUtil;
 import com.sun.jna.Function;
@@ -57,7 +58,11 @@ public class NotesNativeAPI implements INotesNativeAPI {
 	private static int m_platformAlignment;
 	static Throwable m_initError;
 
-	public static enum Mode {Classic, Direct}
+	/**
+	 * JNA modes to call the Notes C API; {@link #Simulated} replaces the C API with the pure Java
+	 * backend in {@link com.mindoo.domino.jna.simulation.SimulatedNotesBackend} (64 bit only)
+	 */
+	public static enum Mode {Classic, Direct, Simulated}
 	private static Mode m_activeMode;
 
 	/**
@@ -81,6 +86,9 @@ public class NotesNativeAPI implements INotesNativeAPI {
 		else if ("classic".equalsIgnoreCase(modeStr)) {
 			mode = Mode.Classic;
 		}
+		else if ("simulated".equalsIgnoreCase(modeStr)) {
+			mode = Mode.Simulated;
+		}
 		
 		if (mode==null) {
 			mode = Mode.Direct;
@@ -91,7 +99,7 @@ public class NotesNativeAPI implements INotesNativeAPI {
 	/**
 	 * Initializes the Domino API
 	 * 
-	 * @param mode JNA mode, either {@link Mode#Direct} or {@link Mode#Classic}
+	 * @param mode JNA mode, either {@link Mode#Direct}, {@link Mode#Classic} or {@link Mode#Simulated}
 	 */
 	public static synchronized void initialize(final Mode mode) {
 		if (m_instanceWithoutCrashLogging==null && m_initError==null) {
@@ -149,7 +157,16 @@ public class NotesNativeAPI implements INotesNativeAPI {
 							libraryOptions.put(Library.OPTION_CALLING_CONVENTION, Function.ALT_CONVENTION); // set w32 stdcall convention
 						}
 						
-						if (mode==Mode.Direct) {
+						if (mode==Mode.Simulated) {
+							if (!PlatformUtils.is64Bit()) {
+								m_initError = new UnsupportedPlatformError("The simulated Domino backend requires a 64 bit JVM");
+								return null;
+							}
+							SimulatedNativeAPI simulatedApi = new SimulatedNativeAPI();
+							NotesNativeAPI64.set(simulatedApi.createProxy(INotesNativeAPI64.class));
+							return simulatedApi.createProxy(INotesNativeAPI.class);
+						}
+						else if (mode==Mode.Direct) {
 							NativeLibrary library;
 							if (PlatformUtils.isWindows()) {
 						        library = NativeLibrary.getInstance("nnotes", libraryOptions);
@@ -213,6 +230,18 @@ public class NotesNativeAPI implements INotesNativeAPI {
 					}
 				}
 			});
+
+			String captureFilePath = System.getProperty("dominojna.capturefile");
+			if (!StringUtil.isEmpty(captureFilePath) && !NativeBufferCapture.isActive()) {
+				try {
+					NativeBufferCapture.start(new File(captureFilePath));
+				} catch (IOException e) {
+					//the capture has been requested explicitly, so do not run without it
+					NotesError error = new NotesError(0, "Error starting the native buffer capture to "+captureFilePath, e);
+					m_initError = error;
+					throw error;
+				}
+			}
 		}
 	}
 
@@ -388,6 +417,31 @@ public class NotesNativeAPI implements INotesNativeAPI {
 		}
 	}
 	
+	/**
+	 * Wraps the specified API object to record native result buffers with the active
+	 * {@link NativeBufferCapture}
+	 * 
+	 * @param api API
+	 * @return wrapped API
+	 */
+	static INotesNativeAPI64 wrapWithBufferCapture(final INotesNativeAPI64 api) {
+
+		try {
+			return AccessController.doPrivileged(new PrivilegedExceptionAction<INotesNativeAPI64>() {
+
+				@Override
+				public INotesNativeAPI64 run() throws Exception {
+					MethodInterceptor handler = new NativeBufferCapture.MethodInterceptorWithBufferCapture(api);
+					INotesNativeAPI64 wrapperWithBufferCapture = (INotesNativeAPI64) Enhancer.create(INotesNativeAPI64.class, handler);
+					return wrapperWithBufferCapture;
+				}
+			});
+		} catch (PrivilegedActionException e) {
+			e.printStackTrace();
+			return api;
+		}
+	}
+	
 	public native short NotesInitExtended(int argc, Memory argvPtr);
 	public native void NotesTerm();
 
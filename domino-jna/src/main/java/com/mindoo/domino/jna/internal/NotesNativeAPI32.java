@@ -160,6 +160,11 @@ public class NotesNativeAPI32 implements INotesNativeAPI32 {
 			NotesBlockIdStruct retbhValue,
 			IntByReference retValueLength);
 	
+	public native short NSFItemScan(
+			int  note_handle,
+			NotesCallbacks.NSFItemScanProc ActionRoutine,
+			Pointer RoutineParameter);
+
 	public native short NSFItemInfoPrev(
 			int  note_handle,
 			NotesBlockIdStruct.ByValue  CurrItem,
@@ -35,6 +35,7 @@ import com.sun.jna.ptr.ShortByReference;
 public class NotesNativeAPI64 implements INotesNativeAPI64 {
 	private static volatile INotesNativeAPI64 m_instanceWithoutCrashLogging;
 	private static volatile INotesNativeAPI64 m_instanceWithCrashLogging;
+	private static volatile INotesNativeAPI64 m_instanceWithBufferCapture;
 
 	/**
 	 * Gets called from {@link NotesNativeAPI#initialize()}
@@ -63,7 +64,14 @@ public class NotesNativeAPI64 implements INotesNativeAPI64 {
 		if (m_instanceWithoutCrashLogging==null)
 			throw new NotesError(0, "API not initialized yet. Please call NotesNativeAPI.initialize() first. The easiest way to do this is by wrapping your code in a NotesGC.runWithAutoGC block");
 
-		if (NotesGC.isLogCrashingThreadStacktrace()) {
+		if (NativeBufferCapture.isActive()) {
+			//takes precedence over crash logging
+			if (m_instanceWithBufferCapture==null) {
+				m_instanceWithBufferCapture = NotesNativeAPI.wrapWithBufferCapture(m_instanceWithoutCrashLogging);
+			}
+			return m_instanceWithBufferCapture;
+		}
+		else if (NotesGC.isLogCrashingThreadStacktrace()) {
 			if (m_instanceWithCrashLogging==null) {
 				m_instanceWithCrashLogging = NotesNativeAPI.wrapWithCrashStackLogging(INotesNativeAPI64.class, m_instanceWithoutCrashLogging);
 			}
@@ -161,6 +169,11 @@ public class NotesNativeAPI64 implements INotesNativeAPI64 {
 			NotesBlockIdStruct retbhValue,
 			IntByReference retValueLength);
 
+	public native short NSFItemScan(
+			long  note_handle,
+			NotesCallbacks.NSFItemScanProc ActionRoutine,
+			Pointer RoutineParameter);
+
 	public native short NSFItemInfoPrev(
 			long  note_handle,
 			NotesBlockIdStruct.ByValue  CurrItem,
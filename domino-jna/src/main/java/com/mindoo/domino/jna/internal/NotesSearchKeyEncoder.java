@@ -1,31 +1,54 @@
 package com.mindoo.domino.jna.internal;
 
-import java.io.ByteArrayOutputStream;
-import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import com.mindoo.domino.jna.NotesDateRange;
 import com.mindoo.domino.jna.NotesItem;
 import com.mindoo.domino.jna.NotesTimeDate;
-import com.mindoo.domino.jna.internal.structs.NotesItemValueTableStruct;
-import com.mindoo.domino.jna.internal.structs.NotesNumberPairStruct;
-import com.mindoo.domino.jna.internal.structs.NotesRangeStruct;
-import com.mindoo.domino.jna.internal.structs.NotesTableItemStruct;
-import com.mindoo.domino.jna.internal.structs.NotesTimeDatePairStruct;
-import com.mindoo.domino.jna.internal.structs.NotesTimeDateStruct;
 import com.mindoo.domino.jna.utils.NotesDateTimeUtils;
 import com.mindoo.domino.jna.utils.NotesStringUtils;
 import com.sun.jna.Memory;
-import com.sun.jna.Pointer;
 
+/**
+ * Encodes search keys for NIFFindByKey in the ITEM_VALUE_TABLE format.<br>
+ * <br>
+ * The sizes of all key values are computed first, then the table is written directly into
+ * the target buffer. {@link #encodeKeys(Object[])} reuses a thread-local buffer and keeps encoded
+ * buffers of String / number keys that are looked up repeatedly, so typical lookups do not
+ * allocate native memory.
+ */
 public class NotesSearchKeyEncoder {
+	/** max number of different String / number keys we remember */
+	private static final int MAX_CACHED_KEYS = 1000;
+	/** max size of a buffer we keep in the cache */
+	private static final int MAX_CACHED_BUFFER_SIZE = 512;
+	/** the ITEM_VALUE_TABLE length is a WORD */
+	private static final int MAX_BUFFER_SIZE = 0xffff;
+
+	/**
+	 * Cache of constant keys. The first lookup of a key stores {@link Boolean#TRUE}, the
+	 * second lookup the encoded buffer, so that keys used only once do not allocate memory.
+	 */
+	private static final ConcurrentLinkedHashMap<List<Object>,Object> m_constantKeyCache =
+			new ConcurrentLinkedHashMap.Builder<List<Object>,Object>()
+			.maximumWeightedCapacity(MAX_CACHED_KEYS)
+			.build();
+
+	private static final ThreadLocal<Memory[]> m_threadBuffer = new ThreadLocal<Memory[]>() {
+		@Override
+		protected Memory[] initialValue() {
+			return new Memory[1];
+		}
+	};
 
 	/**
 	 * Produces the keybuffer for NIFFindByKey
-	 * 
+	 *
 	 * @param keys array of String, Double, Integer, Calendar, Date, Calendar[] (with two elements lower/upper), Date[] (with two elements lower/upper)
 	 * @return buffer with encoded keys
 	 * @throws Exception in case of errors
@@ -33,61 +56,138 @@ public class NotesSearchKeyEncoder {
 	public static Memory b32_encodeKeys(Object[] keys) throws Exception {
 		return b64_encodeKeys(keys);
 	}
-	
+
 	/**
 	 * Produces the keybuffer for NIFFindByKey
-	 * 
+	 *
 	 * @param keys array of String, Double, Integer, NotesTimeDate, Calendar, Date, NotesDateRange, Calendar[] (with two elements lower/upper), Date[] (with two elements lower/upper)
 	 * @return buffer with encoded keys
 	 * @throws Exception in case of errors
 	 */
 	public static Memory b64_encodeKeys(Object[] keys) throws Exception {
-		ByteArrayOutputStream metaDataByteOut = new ByteArrayOutputStream();
+		Object[] preparedValues = new Object[keys.length];
+		int totalSize = prepareKeys(keys, preparedValues);
+
+		Memory mem = new Memory(totalSize);
+		writeKeys(mem, keys, preparedValues, totalSize);
+		return mem;
+	}
+
+	/**
+	 * Produces the keybuffer for NIFFindByKey without allocating new memory for each call.<br>
+	 * <br>
+	 * The returned buffer is either a thread-local buffer that gets overwritten by the next call
+	 * in the same thread or a shared buffer for keys that have been used before. It must be passed to
+	 * the C API right away and must not be modified.
+	 *
+	 * @param keys array of String, Double, Integer, NotesTimeDate, Calendar, Date, NotesDateRange, Calendar[] (with two elements lower/upper), Date[] (with two elements lower/upper)
+	 * @return buffer with encoded keys
+	 */
+	public static Memory encodeKeys(Object[] keys) {
+		List<Object> cacheKey = null;
+		if (isConstantKeys(keys)) {
+			cacheKey = Arrays.asList(keys);
+			Object cachedValue = m_constantKeyCache.get(cacheKey);
+			if (cachedValue instanceof Memory) {
+				return (Memory) cachedValue;
+			}
+		}
+
+		Object[] preparedValues = new Object[keys.length];
+		int totalSize = prepareKeys(keys, preparedValues);
+
+		if (cacheKey!=null && totalSize<=MAX_CACHED_BUFFER_SIZE) {
+			//copy the key array, the caller might reuse it
+			List<Object> cacheKeyCopy = Arrays.asList(keys.clone());
+			if (m_constantKeyCache.putIfAbsent(cacheKeyCopy, Boolean.TRUE)!=null) {
+				//second lookup of these keys
+				ReadOnlyMemory mem = new ReadOnlyMemory(totalSize);
+				writeKeys(mem, keys, preparedValues, totalSize);
+				mem.seal();
+				m_constantKeyCache.put(cacheKeyCopy, mem);
+				return mem;
+			}
+		}
+
+		Memory[] bufferHolder = m_threadBuffer.get();
+		Memory mem = bufferHolder[0];
+		if (mem==null || mem.size() < totalSize) {
+			int newSize = 256;
+			while (newSize < totalSize) {
+				newSize *= 2;
+			}
+			mem = new Memory(newSize);
+			bufferHolder[0] = mem;
+		}
+		writeKeys(mem, keys, preparedValues, totalSize);
+		return mem;
+	}
 
-		ByteArrayOutputStream valueDataByteOut = new ByteArrayOutputStream();
-		
+	/**
+	 * Checks if all keys are immutable String / number values with a proper
+	 * equals implementation
+	 *
+	 * @param keys keys
+	 * @return true if cacheable
+	 */
+	private static boolean isConstantKeys(Object[] keys) {
+		for (int i=0; i<keys.length; i++) {
+			Object currKey = keys[i];
+			if (!(currKey instanceof String || currKey instanceof Double || currKey instanceof Integer ||
+					currKey instanceof Long || currKey instanceof Float)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Validates the keys, converts them to the values we write to the buffer and
+	 * computes the buffer size
+	 *
+	 * @param keys keys
+	 * @param preparedValues array to write LMBCS string / double / int[] innards / double[] values
+	 * @return total buffer size
+	 */
+	private static int prepareKeys(Object[] keys, Object[] preparedValues) {
 		for (int i=0; i<keys.length; i++) {
 			if (keys[i] == null) {
 				throw new NullPointerException("Keys cannot be null. keys="+new ArrayList<Object>(Arrays.asList(keys)));
 			}
 		}
-		
-		//write placeholder for the total buffer size and the number of items, will be filled later
-		metaDataByteOut.write(0);
-		metaDataByteOut.write(0);
-		
-		metaDataByteOut.write(0);
-		metaDataByteOut.write(0);
-		
+
+		//ITEM_VALUE_TABLE header and one ITEM per key
+		int totalSize = 4 + keys.length * NotesConstants.tableItemSize;
 
 		for (int i=0; i<keys.length; i++) {
 			Object currKey = keys[i];
-			
+
 			if (currKey instanceof String) {
-				addStringKey(metaDataByteOut, valueDataByteOut, (String) currKey);
+				Memory strValueMem = NotesStringUtils.toLMBCS((String) currKey, false);
+				preparedValues[i] = strValueMem;
 			}
 			else if (currKey instanceof Double) {
-				addNumberKey(metaDataByteOut, valueDataByteOut, ((Double) currKey).doubleValue());
+				preparedValues[i] = (Double) currKey;
 			}
 			else if (currKey instanceof Float) {
-				addNumberKey(metaDataByteOut, valueDataByteOut, ((Float) currKey).doubleValue());
+				preparedValues[i] = ((Float) currKey).doubleValue();
 			}
 			else if (currKey instanceof Integer) {
-				addNumberKey(metaDataByteOut, valueDataByteOut, ((Integer) currKey).doubleValue());
+				preparedValues[i] = ((Integer) currKey).doubleValue();
 			}
 			else if (currKey instanceof Long) {
-				addNumberKey(metaDataByteOut, valueDataByteOut, ((Long) currKey).doubleValue());
+				preparedValues[i] = ((Long) currKey).doubleValue();
 			}
 			else if (currKey instanceof Date) {
 				Calendar cal = Calendar.getInstance();
 				cal.setTime((Date) currKey);
-				addCalendarKey(metaDataByteOut, valueDataByteOut, cal);
+				preparedValues[i] = toInnards(cal);
 			}
 			else if (currKey instanceof Calendar) {
-				addCalendarKey(metaDataByteOut, valueDataByteOut, (Calendar) currKey);
+				preparedValues[i] = toInnards((Calendar) currKey);
 			}
 			else if (currKey instanceof NotesTimeDate) {
-				addCalendarKey(metaDataByteOut, valueDataByteOut, (NotesTimeDate) currKey);
+				preparedValues[i] = ((NotesTimeDate) currKey).getInnards();
 			}
 			else if (currKey instanceof Date[]) {
 				Date[] dateArr = (Date[]) currKey;
@@ -96,20 +196,23 @@ public class NotesSearchKeyEncoder {
 					calArr[j] = Calendar.getInstance();
 					calArr[j].setTime(dateArr[j]);
 				}
-				
-				addCalendarRangeKey(metaDataByteOut, valueDataByteOut, calArr);
+
+				preparedValues[i] = toRangeInnards(calArr);
 			}
 			else if (currKey instanceof Calendar[]) {
 				//date range
-				addCalendarRangeKey(metaDataByteOut, valueDataByteOut, (Calendar[]) currKey);
+				preparedValues[i] = toRangeInnards((Calendar[]) currKey);
 			}
 			else if (currKey instanceof NotesDateRange) {
 				//date range
-				addCalendarRangeKey(metaDataByteOut, valueDataByteOut, (NotesDateRange) currKey);
+				NotesDateRange range = (NotesDateRange) currKey;
+				int[] startInnards = range.getStartDateTime().getInnards();
+				int[] endInnards = range.getEndDateTime().getInnards();
+				preparedValues[i] = new int[] {startInnards[0], startInnards[1], endInnards[0], endInnards[1]};
 			}
 			else if (currKey instanceof double[]) {
 				//looks like this does not work (the C API documentation says it does not work either)
-				addNumberRangeKey(metaDataByteOut, valueDataByteOut, (double[]) currKey);
+				preparedValues[i] = toNumberRange((double[]) currKey);
 			}
 			else if (currKey instanceof Double[]) {
 				Double[] objArr = (Double[]) currKey;
@@ -120,290 +223,149 @@ public class NotesSearchKeyEncoder {
 					}
 				}
 				//looks like this does not work (the C API documentation says it does not work either)
-				addNumberRangeKey(metaDataByteOut, valueDataByteOut, doubleArr);
+				preparedValues[i] = toNumberRange(doubleArr);
 			}
 			else {
 				throw new IllegalArgumentException("Unknown key type: "+currKey+", class="+(currKey==null ? "null" : currKey.getClass().getName()));
 			}
-		}		
-		
-		byte[] metaDataByteArr = metaDataByteOut.toByteArray();
-		byte[] valueDataByteArr = valueDataByteOut.toByteArray();
-		
-		Memory mem = new Memory(metaDataByteArr.length + valueDataByteArr.length);
-		
-		int offset = 0;
-		for (int i=0; i<metaDataByteArr.length; i++) {
-			mem.setByte(offset, metaDataByteArr[i]);
-			offset++;
-		}
-		
-		//update length value containing the total buffer size
-		short totalSize = (short) ((4 + (keys.length * 4) + valueDataByteArr.length)  & 0xffff);
-		
-		NotesItemValueTableStruct itemTable = NotesItemValueTableStruct.newInstance(mem);
-		itemTable.Length = totalSize;
-		itemTable.Items = (short) keys.length;
-		itemTable.write();
-		
-		for (int i=0; i<valueDataByteArr.length; i++) {
-			mem.setByte(offset, valueDataByteArr[i]);
-			offset++;
+
+			totalSize += getValueSize(preparedValues[i]);
 		}
-		
-		return mem;
-	}
 
-	/**
-	 * Writes data for a time search key
-	 * 
-	 * @param itemOut output stream for ITEM structure
-	 * @param valueDataOut output stream for search key value
-	 * @param currKey search key
-	 * @throws Exception in case of errors
-	 */
-	private static void addCalendarKey(OutputStream itemOut, OutputStream valueDataOut, NotesTimeDate td) throws Exception {
-		int[] innards = td.getInnards();
-		addCalendarKey(itemOut, valueDataOut, innards[0], innards[1]);
-	}
-	
-	/**
-	 * Writes data for a time search key
-	 * 
-	 * @param itemOut output stream for ITEM structure
-	 * @param valueDataOut output stream for search key value
-	 * @param currKey search key
-	 * @throws Exception in case of errors
-	 */
-	private static void addCalendarKey(OutputStream itemOut, OutputStream valueDataOut, Calendar currKey) throws Exception {
-		boolean hasDate = NotesDateTimeUtils.hasDate(currKey);
-		boolean hasTime = NotesDateTimeUtils.hasTime(currKey);
-		
-		int[] innards = NotesDateTimeUtils.calendarToInnards(currKey, hasDate, hasTime);
+		if (totalSize > MAX_BUFFER_SIZE)
+			throw new IllegalArgumentException("Search keys exceed the max size of "+MAX_BUFFER_SIZE+" bytes: "+totalSize);
 
-		addCalendarKey(itemOut, valueDataOut, innards[0], innards[1]);
+		return totalSize;
 	}
-	
-	/**
-	 * Writes data for a time search key
-	 * 
-	 * @param itemOut output stream for ITEM structure
-	 * @param valueDataOut output stream for search key value
-	 * @param innard0 first innard of date
-	 * @param innard1 second innard of date
-	 * @throws Exception in case of errors
-	 */
-	private static void addCalendarKey(OutputStream itemOut, OutputStream valueDataOut, int innard0, int innard1) throws Exception {
-		Memory itemMem = new Memory(NotesConstants.tableItemSize);
-		NotesTableItemStruct item = NotesTableItemStruct.newInstance(itemMem);
-		item.NameLength = 0;
-		item.ValueLength = (short) (NotesConstants.timeDateSize + 2);
-		item.write();
-		
-		for (int i=0; i<NotesConstants.tableItemSize; i++) {
-			itemOut.write(itemMem.getByte(i));
-		}
-		
-		//write data type
-		Memory valueMem = new Memory(2 + 8);
-		valueMem.setShort(0, (short) NotesItem.TYPE_TIME);
-		
-		Pointer timeDatePtr = valueMem.share(2);
-		NotesTimeDateStruct timeDate = NotesTimeDateStruct.newInstance(timeDatePtr);
-		timeDate.Innards[0] = innard0;
-		timeDate.Innards[1] = innard1;
-		timeDate.write();
-		
-		for (int i=0; i<valueMem.size(); i++) {
-			valueDataOut.write(valueMem.getByte(i));
-		}
-	}
-	
-	/**
-	 * Searching with number range keys is not supported yet (R9), as the 
-	 * <a href="http://www-12.lotus.com/ldd/doc/domino_notes/9.0/api90ref.nsf/70cfe734675fd140852561ce00718042/35abe18f9580ca2d8525622e0062c48d?OpenDocument">documentation</a> says.
-	 * 
-	 * @param itemOut output stream for ITEM structure
-	 * @param valueDataOut output stream for search key value
-	 * @param currKey search key
-	 * @throws Exception in case of errors
-	 */
-	private static void addNumberRangeKey(OutputStream itemOut, OutputStream valueDataOut, double[] currKey) throws Exception {
-		if (currKey.length!=2)
-			throw new IllegalArgumentException("Double search key array must have exactly 2 elements. We found "+currKey.length);
-		
-		Memory itemMem = new Memory(NotesConstants.tableItemSize);
-		NotesTableItemStruct item = NotesTableItemStruct.newInstance(itemMem);
-		item.NameLength = 0;
-		item.ValueLength = (short) ((NotesConstants.rangeSize + NotesConstants.numberPairSize + 2) & 0xffff);
-		item.write();
-
-		for (int i=0; i<NotesConstants.tableItemSize; i++) {
-			itemOut.write(itemMem.getByte(i));
-		}
 
-		Memory valueMem = new Memory(NotesConstants.rangeSize + NotesConstants.numberPairSize + 2);
-		valueMem.setShort(0, (short) NotesItem.TYPE_NUMBER_RANGE);
-
-		Pointer rangePtr = valueMem.share(2);
-		NotesRangeStruct range = NotesRangeStruct.newInstance(rangePtr);
-		range.ListEntries = 0;
-		range.RangeEntries = 1;
-		range.write();
-
-		Pointer pairPtr = rangePtr.share(NotesConstants.rangeSize);
-		NotesNumberPairStruct pair = NotesNumberPairStruct.newInstance(pairPtr);
-		pair.Lower = currKey[0];
-		pair.Upper = currKey[1];
-		pair.write();
-		
-		for (int i=0; i<valueMem.size(); i++) {
-			valueDataOut.write(valueMem.getByte(i));
-		}
-	}
-	
-	/**
-	 * Writes data for a time range search key
-	 * 
-	 * @param itemOut output stream for ITEM structure
-	 * @param valueDataOut output stream for search key value
-	 * @param currKey search key, array with two values
-	 * @throws Exception in case of errors
-	 */
-	private static void addCalendarRangeKey(OutputStream itemOut, OutputStream valueDataOut, NotesDateRange currKey) throws Exception {
-		int[] startInnards = currKey.getStartDateTime().getInnards();
-		int[] endInnards = currKey.getEndDateTime().getInnards();
-		
-		addCalendarRangeKey(itemOut, valueDataOut, startInnards[0], startInnards[1], endInnards[0], endInnards[1]);
+	private static int[] toInnards(Calendar cal) {
+		boolean hasDate = NotesDateTimeUtils.hasDate(cal);
+		boolean hasTime = NotesDateTimeUtils.hasTime(cal);
+
+		return NotesDateTimeUtils.calendarToInnards(cal, hasDate, hasTime);
 	}
-	
-	/**
-	 * Writes data for a time range search key
-	 * 
-	 * @param itemOut output stream for ITEM structure
-	 * @param valueDataOut output stream for search key value
-	 * @param currKey search key, array with two values
-	 * @throws Exception in case of errors
-	 */
-	private static void addCalendarRangeKey(OutputStream itemOut, OutputStream valueDataOut, Calendar[] currKey) throws Exception {
+
+	private static int[] toRangeInnards(Calendar[] currKey) {
 		if (currKey.length!=2)
 			throw new IllegalArgumentException("Calendar search key array must have exactly 2 elements. We found "+currKey.length);
-		
+
 		int[] startInnards = NotesDateTimeUtils.calendarToInnards(currKey[0]);
 		int[] endInnards = NotesDateTimeUtils.calendarToInnards(currKey[1]);
-		
-		addCalendarRangeKey(itemOut, valueDataOut, startInnards[0], startInnards[1], endInnards[0], endInnards[1]);
+		return new int[] {startInnards[0], startInnards[1], endInnards[0], endInnards[1]};
 	}
-	
+
 	/**
-	 * Writes data for a time range search key
-	 * 
-	 * @param itemOut output stream for ITEM structure
-	 * @param valueDataOut output stream for search key value
-	 * @param startInnard0 innard 0 of startdatetime
-	 * @param startInnard1 innard 0 of startdatetime
-	 * @param endInnard0 innard 0 of enddatetime
-	 * @param endInnard1 innard 0 of enddatetime
-	 * @throws Exception in case of errors
+	 * Searching with number range keys is not supported yet (R9), as the
+	 * <a href="http://www-12.lotus.com/ldd/doc/domino_notes/9.0/api90ref.nsf/70cfe734675fd140852561ce00718042/35abe18f9580ca2d8525622e0062c48d?OpenDocument">documentation</a> says.
+	 *
+	 * @param currKey search key
+	 * @return range values
 	 */
-	private static void addCalendarRangeKey(OutputStream itemOut, OutputStream valueDataOut, int startInnard0, int startInnard1,
-			int endInnard0, int endInnard1) throws Exception {
-		
-		Memory itemMem = new Memory(NotesConstants.tableItemSize);
-		NotesTableItemStruct item = NotesTableItemStruct.newInstance(itemMem);
-		item.NameLength = 0;
-		item.ValueLength = (short) ((NotesConstants.rangeSize + NotesConstants.timeDatePairSize + 2) & 0xffff);
-		item.write();
-
-		for (int i=0; i<NotesConstants.tableItemSize; i++) {
-			itemOut.write(itemMem.getByte(i));
-		}
-
-		Memory valueMem = new Memory(NotesConstants.rangeSize + NotesConstants.timeDatePairSize + 2);
-		valueMem.setShort(0, (short) NotesItem.TYPE_TIME_RANGE);
-		
-		Pointer rangePtr = valueMem.share(2);
-		NotesRangeStruct range = NotesRangeStruct.newInstance(rangePtr);
-		range.ListEntries = 0;
-		range.RangeEntries = 1;
-		range.write();
-		
-		Pointer pairPtr = rangePtr.share(NotesConstants.rangeSize);
-		NotesTimeDatePairStruct pair = NotesTimeDatePairStruct.newInstance(pairPtr);
-		pair.Lower = NotesTimeDateStruct.newInstance(new int[] {startInnard0, startInnard1});
-		pair.Upper = NotesTimeDateStruct.newInstance(new int[] {endInnard0, endInnard1});
-		pair.write();
-		
-		for (int i=0; i<valueMem.size(); i++) {
-			valueDataOut.write(valueMem.getByte(i));
-		}
+	private static double[] toNumberRange(double[] currKey) {
+		if (currKey.length!=2)
+			throw new IllegalArgumentException("Double search key array must have exactly 2 elements. We found "+currKey.length);
+		return currKey;
 	}
 
 	/**
-	 * Writes data for a string search key
-	 * 
-	 * @param itemOut output stream for ITEM structure
-	 * @param valueDataOut output stream for search key value
-	 * @param currKey search key
-	 * @throws Exception in case of errors
+	 * Returns the size of a key value including the data type WORD
+	 *
+	 * @param preparedValue value
+	 * @return size
 	 */
-	private static void addStringKey(OutputStream itemOut, OutputStream valueDataOut, String currKey) throws Exception {
-		Memory strValueMem = NotesStringUtils.toLMBCS(currKey, false);
-		
-		Memory itemMem = new Memory(NotesConstants.tableItemSize);
-		NotesTableItemStruct item = NotesTableItemStruct.newInstance(itemMem);
-		item.NameLength = 0;
-		item.ValueLength = (short) ((strValueMem.size() + 2) & 0xffff);
-		item.write();
-
-		for (int i=0; i<NotesConstants.tableItemSize; i++) {
-			itemOut.write(itemMem.getByte(i));
+	private static int getValueSize(Object preparedValue) {
+		if (preparedValue instanceof Double) {
+			return 2 + 8;
 		}
-
-		Memory valueMem = new Memory(strValueMem.size() + 2);
-		short txtType = (short) NotesItem.TYPE_TEXT;
-		valueMem.setShort(0, txtType);
-
-		Pointer strValuePtr = valueMem.share(2);
-		
-		for (int i=0; i<strValueMem.size(); i++) {
-			strValuePtr.setByte(i, strValueMem.getByte(i));
+		else if (preparedValue instanceof int[]) {
+			if (((int[]) preparedValue).length==2) {
+				return 2 + NotesConstants.timeDateSize;
+			}
+			else {
+				return 2 + NotesConstants.rangeSize + NotesConstants.timeDatePairSize;
+			}
+		}
+		else if (preparedValue instanceof double[]) {
+			return 2 + NotesConstants.rangeSize + NotesConstants.numberPairSize;
 		}
-		
-		for (int i=0; i<valueMem.size(); i++) {
-			valueDataOut.write(valueMem.getByte(i));
+		else {
+			//LMBCS string, null for empty strings
+			Memory strValueMem = (Memory) preparedValue;
+			return 2 + (strValueMem==null ? 0 : (int) strValueMem.size());
 		}
 	}
 
 	/**
-	 * Writes data for a number search key
-	 * 
-	 * @param itemOut output stream for ITEM structure
-	 * @param valueDataOut output stream for search key value
-	 * @param doubleValue search key
-	 * @throws Exception in case of errors
+	 * Writes the ITEM_VALUE_TABLE with all keys
+	 *
+	 * @param mem target buffer
+	 * @param keys keys
+	 * @param preparedValues values computed by {@link #prepareKeys(Object[], Object[])}
+	 * @param totalSize total buffer size
 	 */
-	private static void addNumberKey(OutputStream itemOut, OutputStream valueDataOut, double doubleValue) throws Exception {
-		Memory itemMem = new Memory(NotesConstants.tableItemSize);
-		NotesTableItemStruct item = NotesTableItemStruct.newInstance(itemMem);
-		item.NameLength = 0;
-		item.ValueLength = (short) (8 + 2);
-		item.write();
-
-		for (int i=0; i<NotesConstants.tableItemSize; i++) {
-			itemOut.write(itemMem.getByte(i));
-		}
+	private static void writeKeys(Memory mem, Object[] keys, Object[] preparedValues, int totalSize) {
+		//ITEM_VALUE_TABLE
+		mem.setShort(0, (short) (totalSize & 0xffff));
+		mem.setShort(2, (short) (keys.length & 0xffff));
+
+		int itemOffset = 4;
+		int valueOffset = 4 + keys.length * NotesConstants.tableItemSize;
 
-		Memory valueMem = new Memory(8 + 2);
-		valueMem.setShort(0, (short) NotesItem.TYPE_NUMBER);
-		
-		Pointer doubleValPtr = valueMem.share(2);
-		doubleValPtr.setDouble(0, doubleValue);
-		
-		for (int i=0; i<valueMem.size(); i++) {
-			valueDataOut.write(valueMem.getByte(i));
+		for (int i=0; i<keys.length; i++) {
+			Object currValue = preparedValues[i];
+			int valueSize = getValueSize(currValue);
+
+			//ITEM
+			mem.setShort(itemOffset, (short) 0);
+			mem.setShort(itemOffset + 2, (short) (valueSize & 0xffff));
+			itemOffset += NotesConstants.tableItemSize;
+
+			if (currValue instanceof Double) {
+				mem.setShort(valueOffset, (short) NotesItem.TYPE_NUMBER);
+				mem.setDouble(valueOffset + 2, ((Double) currValue).doubleValue());
+			}
+			else if (currValue instanceof int[]) {
+				int[] innards = (int[]) currValue;
+				if (innards.length==2) {
+					mem.setShort(valueOffset, (short) NotesItem.TYPE_TIME);
+					mem.setInt(valueOffset + 2, innards[0]);
+					mem.setInt(valueOffset + 6, innards[1]);
+				}
+				else {
+					mem.setShort(valueOffset, (short) NotesItem.TYPE_TIME_RANGE);
+					//RANGE
+					mem.setShort(valueOffset + 2, (short) 0);
+					mem.setShort(valueOffset + 4, (short) 1);
+					//TIMEDATE_PAIR
+					int pairOffset = valueOffset + 2 + NotesConstants.rangeSize;
+					mem.setInt(pairOffset, innards[0]);
+					mem.setInt(pairOffset + 4, innards[1]);
+					mem.setInt(pairOffset + 8, innards[2]);
+					mem.setInt(pairOffset + 12, innards[3]);
+				}
+			}
+			else if (currValue instanceof double[]) {
+				double[] range = (double[]) currValue;
+				mem.setShort(valueOffset, (short) NotesItem.TYPE_NUMBER_RANGE);
+				//RANGE
+				mem.setShort(valueOffset + 2, (short) 0);
+				mem.setShort(valueOffset + 4, (short) 1);
+				//NUMBER_PAIR
+				int pairOffset = valueOffset + 2 + NotesConstants.rangeSize;
+				mem.setDouble(pairOffset, range[0]);
+				mem.setDouble(pairOffset + 8, range[1]);
+			}
+			else {
+				Memory strValueMem = (Memory) currValue;
+				mem.setShort(valueOffset, (short) NotesItem.TYPE_TEXT);
+				if (strValueMem!=null) {
+					int strSize = (int) strValueMem.size();
+					mem.write(valueOffset + 2, strValueMem.getByteArray(0, strSize), 0, strSize);
+				}
+			}
+
+			valueOffset += valueSize;
 		}
 	}
 
-
 }
@@ -42,6 +42,25 @@ public abstract class SizeLimitedLRUCache<K,V> {
 		return m_cache.weightedSize();
 	}
 
+	/**
+	 * Returns the max size of the cache
+	 * 
+	 * @return max size in units
+	 */
+	public final long getMaxSizeInUnits() {
+		return m_cache.capacity();
+	}
+	
+	/**
+	 * Changes the max size of the cache. Entries get evicted immediately if the
+	 * cache exceeds the new size.
+	 * 
+	 * @param maxSizeUnits max size in units
+	 */
+	public void setMaxSizeInUnits(long maxSizeUnits) {
+		m_cache.setCapacity(maxSizeUnits);
+	}
+
 	/**
 	 * Implement this method to compute a size for the cache entry
 	 * 
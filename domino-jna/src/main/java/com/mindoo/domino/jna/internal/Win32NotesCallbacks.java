@@ -14,6 +14,8 @@ public interface Win32NotesCallbacks {
 
 	interface IdEnumerateProcWin32 extends NotesCallbacks.IdEnumerateProc, StdCallCallback {}
 
+	interface NSFItemScanProcWin32 extends NotesCallbacks.NSFItemScanProc, StdCallCallback {}
+
 	interface MQScanCallbackWin32 extends NotesCallbacks.MQScanCallback, StdCallCallback {}
 
 	interface NSFGetNotesCallbackWin32 extends NotesCallbacks.NSFGetNotesCallback, StdCallCallback {}
@@ -1,9 +1,12 @@
 package com.mindoo.domino.jna.mq;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.mindoo.domino.jna.errors.INotesErrorConstants;
 import com.mindoo.domino.jna.errors.NotesError;
@@ -34,6 +37,11 @@ import com.sun.jna.ptr.ShortByReference;
  * @author Karsten Lehmann
  */
 public class MessageQueue implements IRecyclableNotesObject {
+	/** marker at the start of queue messages that contain several messages, written by {@link #put(List, int)} */
+	private static final int BATCH_MAGIC = 0x4A4E4142;
+	/** marker and number of messages */
+	private static final int BATCH_HEADER_SIZE = 6;
+
 	private String m_queueName;
 	private int m_queue;
 
@@ -328,6 +336,124 @@ public class MessageQueue implements IRecyclableNotesObject {
 		put(buffer, priority, 0, (int) buffer.size());
 	}
 
+	/**
+	 * Adds several messages with the same priority to the message queue.<br>
+	 * <br>
+	 * The C API does not have a call to put more than one message, so consecutive messages are
+	 * packed into as few queue messages as possible (each up to {@link NotesConstants#MQ_MAX_MSGSIZE} bytes)
+	 * and written with one MQPut call per packed message. {@link MessageQueueConsumer} unpacks them
+	 * automatically, other readers can use {@link #unpackBatch(ByteBuffer)}. Messages that do not
+	 * fit into a packed message together with their neighbours are written unchanged.<br>
+	 * <br>
+	 * If the queue quota is exceeded or the queue is in a QUIT state, we stop adding messages
+	 * and return the number of messages that have been added so far, so that the producer
+	 * can retry the remaining ones later.
+	 * 
+	 * @param messages messages, each message max {@link NotesConstants#MQ_MAX_MSGSIZE} (65326 bytes)
+	 * @param priority priority
+	 * @return number of messages added to the queue
+	 */
+	public int put(List<byte[]> messages, int priority) {
+		checkHandle();
+
+		if (priority<0 || priority>65535)
+			throw new IllegalArgumentException("Priority must be between 0 and 65535 (WORD datatype in C API)");
+
+		for (byte[] currMsg : messages) {
+			if (currMsg.length > NotesConstants.MQ_MAX_MSGSIZE) {
+				throw new IllegalArgumentException("Max size for a message is "+NotesConstants.MQ_MAX_MSGSIZE+" bytes. You specified one with "+currMsg.length+" bytes.");
+			}
+		}
+
+		Memory buffer = new Memory(NotesConstants.MQ_MAX_MSGSIZE);
+		int msgsAdded = 0;
+		while (msgsAdded < messages.size()) {
+			//collect as many messages as fit into one queue message
+			int batchEnd = msgsAdded;
+			int batchLength = BATCH_HEADER_SIZE;
+			while (batchEnd < messages.size() && batchEnd-msgsAdded < 65535 &&
+					batchLength + 2 + messages.get(batchEnd).length <= NotesConstants.MQ_MAX_MSGSIZE) {
+				batchLength += 2 + messages.get(batchEnd).length;
+				batchEnd++;
+			}
+
+			int msgCount;
+			int length;
+			if (batchEnd-msgsAdded < 2) {
+				byte[] currMsg = messages.get(msgsAdded);
+				buffer.write(0, currMsg, 0, currMsg.length);
+				msgCount = 1;
+				length = currMsg.length;
+			}
+			else {
+				ByteBuffer batchBuf = buffer.getByteBuffer(0, batchLength).order(ByteOrder.BIG_ENDIAN);
+				batchBuf.putInt(BATCH_MAGIC);
+				batchBuf.putShort((short) ((batchEnd-msgsAdded) & 0xffff));
+				for (int i=msgsAdded; i<batchEnd; i++) {
+					byte[] currMsg = messages.get(i);
+					batchBuf.putShort((short) (currMsg.length & 0xffff));
+					batchBuf.put(currMsg);
+				}
+				msgCount = batchEnd-msgsAdded;
+				length = batchLength;
+			}
+
+			short result = NotesNativeAPI.get().MQPut(m_queue, (short) (priority & 0xffff), buffer, (short) (length & 0xffff), 0);
+			if (result==INotesErrorConstants.ERR_MQ_EXCEEDED_QUOTA || result==INotesErrorConstants.ERR_MQ_QUITTING) {
+				break;
+			}
+			NotesErrorUtils.checkResult(result);
+			msgsAdded += msgCount;
+		}
+		return msgsAdded;
+	}
+
+	/**
+	 * Splits a queue message written by {@link #put(List, int)} into the original messages.<br>
+	 * <br>
+	 * Packed messages start with a 4 byte marker and the number of messages (WORD), followed by
+	 * the length (WORD) and data of each message, all in big endian byte order.
+	 * 
+	 * @param buffer queue message
+	 * @return read only buffers for the packed messages or null if the queue message is not a packed message
+	 */
+	public static List<ByteBuffer> unpackBatch(ByteBuffer buffer) {
+		ByteBuffer batchBuf = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+		if (batchBuf.remaining() < BATCH_HEADER_SIZE || batchBuf.getInt()!=BATCH_MAGIC) {
+			return null;
+		}
+		int msgCount = batchBuf.getShort() & 0xffff;
+		List<ByteBuffer> msgs = new ArrayList<ByteBuffer>(msgCount);
+		for (int i=0; i<msgCount; i++) {
+			if (batchBuf.remaining() < 2) {
+				return null;
+			}
+			int msgLength = batchBuf.getShort() & 0xffff;
+			if (batchBuf.remaining() < msgLength) {
+				return null;
+			}
+			ByteBuffer msgBuf = batchBuf.slice();
+			msgBuf.limit(msgLength);
+			msgs.add(msgBuf.asReadOnlyBuffer());
+			batchBuf.position(batchBuf.position() + msgLength);
+		}
+		if (msgCount==0 || batchBuf.hasRemaining()) {
+			return null;
+		}
+		return msgs;
+	}
+
+	/**
+	 * Returns the number of messages in the message queue
+	 * 
+	 * @return number of messages
+	 */
+	public int getCount() {
+		checkHandle();
+
+		return NotesNativeAPI.get().MQGetCount(m_queue) & 0xffff;
+	}
+
 	/**
 	 * Retrieves a message from the message queue, provided the queue is not in a QUIT state.
 	 * The message will be stored in the buffer specified in the Buffer argument.<br>
@@ -424,7 +550,7 @@ public class MessageQueue implements IRecyclableNotesObject {
 
 	@Override
 	public boolean isRecycled() {
-		return m_queue!=0;
+		return m_queue==0;
 	}
 
 	@Override
@@ -0,0 +1,554 @@
+package com.mindoo.domino.jna.mq;
+
+import java.nio.ByteBuffer;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mindoo.domino.jna.errors.INotesErrorConstants;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.errors.NotesErrorUtils;
+import com.mindoo.domino.jna.internal.NotesCallbacks;
+import com.mindoo.domino.jna.internal.NotesConstants;
+import com.mindoo.domino.jna.internal.NotesNativeAPI;
+import com.mindoo.domino.jna.internal.Win32NotesCallbacks;
+import com.mindoo.domino.jna.utils.NotesInitUtils;
+import com.mindoo.domino.jna.utils.PlatformUtils;
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.ShortByReference;
+
+/**
+ * Asynchronous consumer for a {@link MessageQueue}.<br>
+ * <br>
+ * A dedicated poller thread drains up to {@link #setMaxBatchSize(int)} messages per wakeup
+ * with a single MQScan call, copies them into slots of a reusable off-heap ring buffer and
+ * dispatches them to an {@link IMessageHandler} via an {@link Executor}. Messages are
+ * dispatched in queue order, which means higher priority messages first. Queue messages
+ * written with {@link MessageQueue#put(java.util.List, int)} that contain several messages
+ * are unpacked and their messages are passed to the handler one after the other.<br>
+ * <br>
+ * The number of ring buffer slots limits the number of messages being processed at the same
+ * time. If all slots are in use, the poller stops reading from the queue until a handler
+ * completes (backpressure), so messages stay in the Domino queue instead of piling up
+ * in the Java heap.<br>
+ * <br>
+ * The {@link MessageQueue} must stay open until {@link #stop(long)} has been called.
+ *
+ * @author Karsten Lehmann
+ */
+public class MessageQueueConsumer {
+	private final MessageQueue m_queue;
+	private final IMessageHandler m_handler;
+	private final Executor m_executor;
+
+	private int m_maxBatchSize = 32;
+	private int m_slotCount = 64;
+	private int m_slotSize = NotesConstants.MQ_MAX_MSGSIZE;
+	private int m_maxIdleWaitMillis = 50;
+	private boolean m_stopOnQuit = true;
+
+	private Memory m_ringBuffer;
+	private ArrayBlockingQueue<Integer> m_freeSlots;
+	private NotesCallbacks.MQScanCallback m_scanCallback;
+	private Thread m_pollerThread;
+	private volatile boolean m_stopRequested;
+
+	//state of the current MQScan call, only accessed by the poller thread
+	private int[] m_batchSlots;
+	private int[] m_batchLengths;
+	private int[] m_batchPriorities;
+	private int m_batchCount;
+
+	private final AtomicInteger m_inFlight = new AtomicInteger();
+	private final AtomicLong m_receivedCount = new AtomicLong();
+	private final AtomicLong m_handledCount = new AtomicLong();
+	private final AtomicLong m_failedCount = new AtomicLong();
+	private final AtomicLong m_batchesCount = new AtomicLong();
+	private final AtomicLong m_totalLatencyNanos = new AtomicLong();
+	private final AtomicLong m_latencySamples = new AtomicLong();
+	private final AtomicLong m_maxLatencyNanos = new AtomicLong();
+	private volatile Throwable m_lastError;
+
+	/**
+	 * Creates a new consumer. Call {@link #start()} to start reading messages.
+	 *
+	 * @param queue queue to read
+	 * @param handler handler for received messages
+	 * @param executor executor to run the handler or null to run it in the poller thread
+	 */
+	public MessageQueueConsumer(MessageQueue queue, IMessageHandler handler, Executor executor) {
+		if (queue==null)
+			throw new IllegalArgumentException("Queue cannot be null");
+		if (handler==null)
+			throw new IllegalArgumentException("Handler cannot be null");
+
+		m_queue = queue;
+		m_handler = handler;
+		m_executor = executor;
+	}
+
+	/**
+	 * Callback interface to process messages
+	 *
+	 * @author Karsten Lehmann
+	 */
+	public static interface IMessageHandler {
+
+		/**
+		 * Method is called for each received message. The buffer points to a slot
+		 * of the ring buffer and is only valid until this method returns; copy the
+		 * data if you need it later.
+		 *
+		 * @param buffer read only byte buffer with message data
+		 * @param priority message priority
+		 */
+		public void messageReceived(ByteBuffer buffer, int priority);
+
+	}
+
+	private void checkNotStarted() {
+		if (m_pollerThread!=null)
+			throw new IllegalStateException("Consumer has already been started");
+	}
+
+	/**
+	 * Sets the max number of messages read from the queue with one native call (defaults to 32)
+	 *
+	 * @param maxBatchSize batch size
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		checkNotStarted();
+		if (maxBatchSize<1)
+			throw new IllegalArgumentException("Batch size must be at least 1");
+		m_maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Sets the number of slots in the ring buffer, which is the max number of messages
+	 * being processed at the same time (defaults to 64)
+	 *
+	 * @param slotCount number of slots
+	 */
+	public void setSlotCount(int slotCount) {
+		checkNotStarted();
+		if (slotCount<1)
+			throw new IllegalArgumentException("Slot count must be at least 1");
+		m_slotCount = slotCount;
+	}
+
+	/**
+	 * Sets the max message size to reserve in each ring buffer slot (defaults to
+	 * {@link NotesConstants#MQ_MAX_MSGSIZE}). Larger messages are removed from the queue
+	 * and counted as failed. Producers using {@link MessageQueue#put(java.util.List, int)}
+	 * write packed queue messages of up to {@link NotesConstants#MQ_MAX_MSGSIZE} bytes.
+	 *
+	 * @param maxMessageSize max message size in bytes
+	 */
+	public void setMaxMessageSize(int maxMessageSize) {
+		checkNotStarted();
+		if (maxMessageSize<1 || maxMessageSize>NotesConstants.MQ_MAX_MSGSIZE)
+			throw new IllegalArgumentException("Max message size must be between 1 and "+NotesConstants.MQ_MAX_MSGSIZE);
+		m_slotSize = maxMessageSize;
+	}
+
+	/**
+	 * Sets the max time the poller waits before checking an empty queue again (defaults to 50ms).
+	 * The wait time starts with 1ms and is doubled for each empty check.
+	 *
+	 * @param millis max wait time in milliseconds
+	 */
+	public void setMaxIdleWaitMillis(int millis) {
+		checkNotStarted();
+		if (millis<1)
+			throw new IllegalArgumentException("Wait time must be at least 1ms");
+		m_maxIdleWaitMillis = millis;
+	}
+
+	/**
+	 * Sets whether the consumer should stop when the queue is in a QUIT state (defaults to true)
+	 *
+	 * @param stopOnQuit true to stop
+	 */
+	public void setStopOnQuit(boolean stopOnQuit) {
+		checkNotStarted();
+		m_stopOnQuit = stopOnQuit;
+	}
+
+	/**
+	 * Starts the poller thread
+	 */
+	public synchronized void start() {
+		m_queue.checkHandle();
+		checkNotStarted();
+
+		m_ringBuffer = new Memory((long) m_slotCount * m_slotSize);
+		m_freeSlots = new ArrayBlockingQueue<Integer>(m_slotCount);
+		for (int i=0; i<m_slotCount; i++) {
+			m_freeSlots.add(Integer.valueOf(i));
+		}
+		m_batchSlots = new int[m_maxBatchSize];
+		m_batchLengths = new int[m_maxBatchSize];
+		m_batchPriorities = new int[m_maxBatchSize];
+
+		if (PlatformUtils.isWin32()) {
+			m_scanCallback = new Win32NotesCallbacks.MQScanCallbackWin32() {
+
+				@Override
+				public short invoke(Pointer pBuffer, short length, short priority, Pointer ctx) {
+					return onMessageScanned(pBuffer, length, priority);
+				}
+			};
+		}
+		else {
+			m_scanCallback = new NotesCallbacks.MQScanCallback() {
+
+				@Override
+				public short invoke(Pointer pBuffer, short length, short priority, Pointer ctx) {
+					return onMessageScanned(pBuffer, length, priority);
+				}
+			};
+		}
+
+		m_stopRequested = false;
+		m_pollerThread = NotesInitUtils.createNotesThread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					pollLoop();
+				}
+				catch (Throwable t) {
+					m_lastError = t;
+				}
+			}
+		}, "MessageQueueConsumer-"+m_queue.getName());
+		m_pollerThread.start();
+	}
+
+	/**
+	 * Stops the poller thread and waits until all dispatched messages have been processed
+	 *
+	 * @param timeoutMillis max time to wait in milliseconds
+	 * @return true if poller has stopped and all messages have been processed within the timeout
+	 * @throws InterruptedException if the current thread got interrupted while waiting
+	 */
+	public boolean stop(long timeoutMillis) throws InterruptedException {
+		Thread pollerThread;
+		synchronized (this) {
+			pollerThread = m_pollerThread;
+		}
+		if (pollerThread==null) {
+			return true;
+		}
+		m_stopRequested = true;
+
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		pollerThread.join(Math.max(1, timeoutMillis));
+		while (m_inFlight.get()>0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		return !pollerThread.isAlive() && m_inFlight.get()==0;
+	}
+
+	/**
+	 * Returns true if the poller thread is running
+	 *
+	 * @return true if running
+	 */
+	public boolean isRunning() {
+		Thread pollerThread = m_pollerThread;
+		return pollerThread!=null && pollerThread.isAlive();
+	}
+
+	private void pollLoop() throws InterruptedException {
+		int queueHandle = m_queue.getHandle32();
+		int idleWaitMillis = 1;
+
+		while (!m_stopRequested) {
+			int drained = drainBatch(queueHandle);
+
+			if (drained>0) {
+				idleWaitMillis = 1;
+				continue;
+			}
+
+			if (m_stopOnQuit && NotesNativeAPI.get().MQIsQuitPending(queueHandle)) {
+				break;
+			}
+
+			if (m_freeSlots.isEmpty()) {
+				//backpressure: wait until a handler has completed
+				Integer slot = m_freeSlots.poll(m_maxIdleWaitMillis, TimeUnit.MILLISECONDS);
+				if (slot!=null) {
+					m_freeSlots.offer(slot);
+				}
+			}
+			else {
+				Thread.sleep(idleWaitMillis);
+				idleWaitMillis = Math.min(m_maxIdleWaitMillis, idleWaitMillis*2);
+			}
+		}
+	}
+
+	/**
+	 * Reads up to {@link #m_maxBatchSize} messages with a single MQScan call and dispatches them
+	 *
+	 * @param queueHandle queue handle
+	 * @return number of messages read
+	 */
+	private int drainBatch(final int queueHandle) {
+		m_batchCount = 0;
+		if (m_freeSlots.isEmpty()) {
+			return 0;
+		}
+
+		final ShortByReference retMsgLength = new ShortByReference();
+		int drained;
+		try {
+			short result;
+			try {
+				//AccessController call required to prevent SecurityException when running in XPages
+				result = AccessController.doPrivileged(new PrivilegedExceptionAction<Short>() {
+
+					@Override
+					public Short run() throws Exception {
+						return NotesNativeAPI.get().MQScan(queueHandle, null, (short) 0, 0, m_scanCallback, null, retMsgLength);
+					}
+				});
+			} catch (PrivilegedActionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				else
+					throw new NotesError(0, "Error scanning message queue", e);
+			}
+
+			if (result!=INotesErrorConstants.ERR_MQ_EMPTY && result!=INotesErrorConstants.ERR_MQSCAN_ABORT &&
+					result!=INotesErrorConstants.ERR_MQ_QUITTING) {
+				NotesErrorUtils.checkResult(result);
+			}
+		}
+		finally {
+			//messages copied before an error have already been deleted from the queue;
+			//dispatch them so that they are processed and their slots get released
+			drained = dispatchBatch();
+		}
+		return drained;
+	}
+
+	/**
+	 * Dispatches the messages copied by the last MQScan call
+	 *
+	 * @return number of queue messages
+	 */
+	private int dispatchBatch() {
+		int drained = m_batchCount;
+		m_batchCount = 0;
+		if (drained>0) {
+			m_batchesCount.incrementAndGet();
+
+			long dequeueTime = System.nanoTime();
+			for (int i=0; i<drained; i++) {
+				dispatch(m_batchSlots[i], m_batchLengths[i], m_batchPriorities[i], dequeueTime);
+			}
+		}
+		return drained;
+	}
+
+	/**
+	 * Called by MQScan for each message; copies the message into a free slot and
+	 * removes it from the queue
+	 *
+	 * @param pBuffer message data
+	 * @param length message length
+	 * @param priority message priority
+	 * @return MQScan action code
+	 */
+	private short onMessageScanned(Pointer pBuffer, short length, short priority) {
+		if (m_batchCount >= m_maxBatchSize) {
+			return INotesErrorConstants.ERR_MQSCAN_ABORT;
+		}
+		int msgLength = length & 0xffff;
+		if (msgLength > m_slotSize) {
+			m_receivedCount.incrementAndGet();
+			m_failedCount.incrementAndGet();
+			m_lastError = new NotesError(0, "Message with "+msgLength+" bytes exceeds the max message size of "+m_slotSize+" bytes");
+			return INotesErrorConstants.ERR_MQSCAN_DELETE;
+		}
+		Integer slot = m_freeSlots.poll();
+		if (slot==null) {
+			return INotesErrorConstants.ERR_MQSCAN_ABORT;
+		}
+
+		if (msgLength>0) {
+			ByteBuffer slotBuf = m_ringBuffer.getByteBuffer((long) slot.intValue() * m_slotSize, msgLength);
+			slotBuf.put(pBuffer.getByteBuffer(0, msgLength));
+		}
+
+		m_batchSlots[m_batchCount] = slot.intValue();
+		m_batchLengths[m_batchCount] = msgLength;
+		m_batchPriorities[m_batchCount] = priority & 0xffff;
+		m_batchCount++;
+		return INotesErrorConstants.ERR_MQSCAN_DELETE;
+	}
+
+	private void dispatch(final int slot, int msgLength, final int priority, final long dequeueTime) {
+		ByteBuffer slotBuf = m_ringBuffer.getByteBuffer((long) slot * m_slotSize, msgLength).asReadOnlyBuffer();
+		//messages written with MessageQueue.put(List, int) share one queue message
+		List<ByteBuffer> batchMsgs = MessageQueue.unpackBatch(slotBuf);
+		final List<ByteBuffer> msgs = batchMsgs==null ? Collections.singletonList(slotBuf) : batchMsgs;
+		m_receivedCount.addAndGet(msgs.size());
+		m_inFlight.addAndGet(msgs.size());
+
+		Runnable task = new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					for (ByteBuffer currMsg : msgs) {
+						try {
+							m_handler.messageReceived(currMsg, priority);
+							m_handledCount.incrementAndGet();
+						}
+						catch (Throwable t) {
+							m_failedCount.incrementAndGet();
+							m_lastError = t;
+						}
+						finally {
+							recordLatency(System.nanoTime() - dequeueTime);
+							m_inFlight.decrementAndGet();
+						}
+					}
+				}
+				finally {
+					m_freeSlots.offer(Integer.valueOf(slot));
+				}
+			}
+		};
+
+		if (m_executor==null) {
+			task.run();
+		}
+		else {
+			try {
+				m_executor.execute(task);
+			}
+			catch (RejectedExecutionException e) {
+				//executor is saturated, process the message in the poller thread
+				task.run();
+			}
+		}
+	}
+
+	private void recordLatency(long nanos) {
+		m_totalLatencyNanos.addAndGet(nanos);
+		m_latencySamples.incrementAndGet();
+		long currMax;
+		do {
+			currMax = m_maxLatencyNanos.get();
+			if (nanos <= currMax) {
+				break;
+			}
+		}
+		while (!m_maxLatencyNanos.compareAndSet(currMax, nanos));
+	}
+
+	/**
+	 * Returns the number of messages currently waiting in the Domino message queue
+	 *
+	 * @return queue depth
+	 */
+	public int getQueueDepth() {
+		return NotesNativeAPI.get().MQGetCount(m_queue.getHandle32()) & 0xffff;
+	}
+
+	/**
+	 * Returns the number of messages read from the queue that are not processed yet
+	 *
+	 * @return number of messages
+	 */
+	public int getInFlightCount() {
+		return m_inFlight.get();
+	}
+
+	/**
+	 * Returns the total number of messages read from the queue
+	 *
+	 * @return number of messages
+	 */
+	public long getReceivedCount() {
+		return m_receivedCount.get();
+	}
+
+	/**
+	 * Returns the number of messages successfully processed by the handler
+	 *
+	 * @return number of messages
+	 */
+	public long getHandledCount() {
+		return m_handledCount.get();
+	}
+
+	/**
+	 * Returns the number of messages that could not be processed, because the handler threw
+	 * an exception or the message exceeded the max message size
+	 *
+	 * @return number of messages
+	 */
+	public long getFailedCount() {
+		return m_failedCount.get();
+	}
+
+	/**
+	 * Returns the number of MQScan calls that returned at least one message
+	 *
+	 * @return number of batches
+	 */
+	public long getBatchCount() {
+		return m_batchesCount.get();
+	}
+
+	/**
+	 * Returns the average time between reading a message from the queue and the end
+	 * of its processing
+	 *
+	 * @return latency in microseconds
+	 */
+	public long getAverageLatencyMicros() {
+		long count = m_latencySamples.get();
+		return count==0 ? 0 : TimeUnit.NANOSECONDS.toMicros(m_totalLatencyNanos.get() / count);
+	}
+
+	/**
+	 * Returns the max time between reading a message from the queue and the end
+	 * of its processing
+	 *
+	 * @return latency in microseconds
+	 */
+	public long getMaxLatencyMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(m_maxLatencyNanos.get());
+	}
+
+	/**
+	 * Returns the last error thrown by the handler or the poller thread
+	 *
+	 * @return error or null
+	 */
+	public Throwable getLastError() {
+		return m_lastError;
+	}
+
+	@Override
+	public String toString() {
+		return "MessageQueueConsumer [queue="+m_queue.getName()+", running="+isRunning()+", received="+getReceivedCount()+
+				", handled="+getHandledCount()+", failed="+getFailedCount()+", inflight="+getInFlightCount()+"]";
+	}
+}
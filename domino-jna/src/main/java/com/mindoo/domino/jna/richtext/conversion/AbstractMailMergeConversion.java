@@ -14,7 +14,7 @@ import com.sun.jna.Pointer;
  * 
  * @author Karsten Lehmann
  */
-public abstract class AbstractMailMergeConversion implements IRichTextConversion {
+public abstract class AbstractMailMergeConversion implements IStreamingRichTextConversion {
 	
 	public AbstractMailMergeConversion() {
 	}
@@ -58,47 +58,98 @@ public abstract class AbstractMailMergeConversion implements IRichTextConversion
 	public void convert(IRichTextNavigator source, ICompoundText target) {
 		if (source.gotoFirst()) {
 			do {
+				boolean replaced = false;
 				if (source.getCurrentRecordType() == CDRecordType.TEXT) {
-//					typedef struct {
-//						   WSIG   Header; /* Tag and length */
-//						   FONTID FontID; /* Font ID */
-//						/* The 8-bit text string follows... */
-//						} CDTEXT;
-					Memory recordData = source.getCurrentRecordData();
-					int recordDataLength = source.getCurrentRecordDataLength();
-					final byte[] fontIdArr = recordData.getByteArray(0, 4);
-					int txtMemLength = recordDataLength-4;
-					
-					if (txtMemLength>0) {
-						//skip FONTID
-						Pointer txtPtr = recordData.share(4);
-						String txt = NotesStringUtils.fromLMBCS(txtPtr, txtMemLength);
-						
-						if (containsMatch(txt)) {
-							String newTxt = replaceAllMatches(txt);
-							//add text, prevent creating extra linebreaks for newlines (false parameter)
-							target.addText(newTxt, null, new FontStyle(new IAdaptable() {
-								
-								@Override
-								public <T> T getAdapter(Class<T> clazz) {
-									if (clazz==byte[].class) {
-										return (T) fontIdArr;
-									}
-									else
-										return null;
-								}
-							}), false);
-						}
-						else {
-							source.copyCurrentRecordTo(target);
-						}
-					}
+					replaced = replaceText(source.getCurrentRecordData(), source.getCurrentRecordDataLength(), target);
 				}
-				else {
+				if (!replaced) {
 					source.copyCurrentRecordTo(target);
 				}
 			}
 			while (source.gotoNext());
 		}
 	}
+	
+	@Override
+	public void begin() {
+	}
+	
+	@Override
+	public void processRecord(IRichTextRecord record, IRichTextConversionOutput out) {
+		//other than convert(), TEXT records without text are kept, so that they alone
+		//do not mark the item as modified
+		if (record.getType() == CDRecordType.TEXT) {
+			String txt = getText(record.getData(), record.getDataLength());
+			if (txt!=null && containsMatch(txt)) {
+				addReplacedText(record.getData(), txt, out.getCompoundText());
+				return;
+			}
+		}
+		out.write(record);
+	}
+	
+	@Override
+	public void end(IRichTextConversionOutput out) {
+	}
+	
+	/**
+	 * Reads the text of a TEXT record
+	 * 
+	 * @param recordData record data without header
+	 * @param recordDataLength length of record data
+	 * @return text or null if the record does not contain text
+	 */
+	private String getText(Memory recordData, int recordDataLength) {
+//		typedef struct {
+//			   WSIG   Header; /* Tag and length */
+//			   FONTID FontID; /* Font ID */
+//			/* The 8-bit text string follows... */
+//			} CDTEXT;
+		int txtMemLength = recordDataLength-4;
+		if (txtMemLength<=0) {
+			return null;
+		}
+		//skip FONTID
+		Pointer txtPtr = recordData.share(4);
+		return NotesStringUtils.fromLMBCS(txtPtr, txtMemLength);
+	}
+	
+	/**
+	 * Writes the text of a TEXT record with all matches replaced. TEXT records that only contain
+	 * a font id are dropped.
+	 * 
+	 * @param recordData record data without header
+	 * @param recordDataLength length of record data
+	 * @param target target
+	 * @return true if the record has been replaced or dropped, false if the record needs to be copied
+	 */
+	private boolean replaceText(Memory recordData, int recordDataLength, ICompoundText target) {
+		String txt = getText(recordData, recordDataLength);
+		if (txt==null) {
+			return true;
+		}
+		else if (containsMatch(txt)) {
+			addReplacedText(recordData, txt, target);
+			return true;
+		}
+		return false;
+	}
+	
+	private void addReplacedText(Memory recordData, String txt, ICompoundText target) {
+		final byte[] fontIdArr = recordData.getByteArray(0, 4);
+		String newTxt = replaceAllMatches(txt);
+		//add text, prevent creating extra linebreaks for newlines (false parameter)
+		target.addText(newTxt, null, new FontStyle(new IAdaptable() {
+			
+			@SuppressWarnings("unchecked")
+			@Override
+			public <T> T getAdapter(Class<T> clazz) {
+				if (clazz==byte[].class) {
+					return (T) fontIdArr;
+				}
+				else
+					return null;
+			}
+		}), false);
+	}
 }
@@ -9,7 +9,7 @@ import com.mindoo.domino.jna.richtext.IRichTextNavigator;
  * 
  * @author Karsten Lehmann
  */
-public class AppendFileHotspotConversion implements IRichTextConversion {
+public class AppendFileHotspotConversion implements IStreamingRichTextConversion {
 	private NotesAttachment m_att;
 	private String m_fileNameToDisplay;
 	
@@ -36,4 +36,18 @@ public class AppendFileHotspotConversion implements IRichTextConversion {
 		target.addFileHotspot(m_att, m_fileNameToDisplay);
 	}
 
+	@Override
+	public void begin() {
+	}
+	
+	@Override
+	public void processRecord(IRichTextRecord record, IRichTextConversionOutput out) {
+		out.write(record);
+	}
+	
+	@Override
+	public void end(IRichTextConversionOutput out) {
+		out.getCompoundText().addFileHotspot(m_att, m_fileNameToDisplay);
+	}
+	
 }
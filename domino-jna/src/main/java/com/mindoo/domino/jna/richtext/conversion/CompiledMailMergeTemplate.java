@@ -0,0 +1,482 @@
+package com.mindoo.domino.jna.richtext.conversion;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.mindoo.domino.jna.IAdaptable;
+import com.mindoo.domino.jna.NotesNote;
+import com.mindoo.domino.jna.constants.CDRecordType;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.internal.CompoundTextWriter;
+import com.mindoo.domino.jna.internal.NotesConstants;
+import com.mindoo.domino.jna.richtext.FontStyle;
+import com.mindoo.domino.jna.richtext.ICompoundText;
+import com.mindoo.domino.jna.richtext.IRichTextNavigator;
+import com.mindoo.domino.jna.richtext.RichTextBuilder;
+import com.mindoo.domino.jna.utils.NotesStringUtils;
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+/**
+ * Mail merge template that parses a richtext item once and can then produce the merged
+ * richtext for many recipients.<br>
+ * <br>
+ * {@link SimpleMailMergeConversion} decodes and searches all TEXT records of the template
+ * for every recipient. This class reads the CD records once, finds the placeholders, also when
+ * they are split across multiple TEXT records (e.g. because of a font change), and stores the
+ * CD records between placeholders as ready-to-write bytes. Producing the richtext for a recipient
+ * only encodes the replacement values and writes the prepared bytes with a few
+ * <code>CompoundTextAddCDRecords</code> calls.<br>
+ * <br>
+ * A replacement value uses the font of the TEXT record where the placeholder starts.
+ * Placeholders without a value in the value map are written unchanged.<br>
+ * <br>
+ * Instances are immutable and can be used by multiple threads at the same time, e.g. to
+ * create the mails for different recipients in parallel. Each thread needs to write into its
+ * own {@link NotesNote} objects.
+ *
+ * @author Karsten Lehmann
+ */
+public class CompiledMailMergeTemplate {
+	/** max size of the CD record buffer we pass to the C API in one call */
+	private static final int MAX_WRITE_BUFFER_SIZE = 32768;
+	/** max size of the LMBCS text we write in a single TEXT record */
+	private static final int MAX_TEXT_RECORD_TEXT_SIZE = 60000;
+
+	private final List<Segment> m_segments;
+	private final Set<String> m_placeholdersFound;
+
+	private CompiledMailMergeTemplate(List<Segment> segments, Set<String> placeholdersFound) {
+		m_segments = segments;
+		m_placeholdersFound = placeholdersFound;
+	}
+
+	/**
+	 * Compiles the template stored in a richtext item
+	 *
+	 * @param note note containing the template
+	 * @param itemName richtext item name
+	 * @param placeholders placeholders to search for, e.g. "{firstname}"
+	 * @param ignoreCase true to ignore the case when searching
+	 * @return template
+	 */
+	public static CompiledMailMergeTemplate compile(NotesNote note, String itemName, Collection<String> placeholders,
+			boolean ignoreCase) {
+		return compile(note.getRichtextNavigator(itemName), placeholders, ignoreCase);
+	}
+
+	/**
+	 * Compiles a template
+	 *
+	 * @param nav navigator to read the CD records of the template
+	 * @param placeholders placeholders to search for, e.g. "{firstname}"
+	 * @param ignoreCase true to ignore the case when searching
+	 * @return template
+	 */
+	public static CompiledMailMergeTemplate compile(IRichTextNavigator nav, Collection<String> placeholders,
+			boolean ignoreCase) {
+		if (placeholders==null || placeholders.isEmpty())
+			throw new IllegalArgumentException("No placeholders specified");
+
+		Compiler compiler = new Compiler(placeholders, ignoreCase);
+
+		if (nav.gotoFirst()) {
+			do {
+				if (nav.getCurrentRecordType() == CDRecordType.TEXT && nav.getCurrentRecordDataLength()>=4) {
+					compiler.addTextRecord(DetachedRichTextRecord.fromNavigator(nav));
+				}
+				else {
+					compiler.addOtherRecord(DetachedRichTextRecord.fromNavigator(nav));
+				}
+			}
+			while (nav.gotoNext());
+		}
+
+		return compiler.finish();
+	}
+
+	/**
+	 * Returns the placeholders found in the template
+	 *
+	 * @return placeholders as specified when compiling the template
+	 */
+	public Set<String> getPlaceholders() {
+		return m_placeholdersFound;
+	}
+
+	/**
+	 * Writes the merged richtext to a compound text
+	 *
+	 * @param values replacement values with the placeholders as keys, as specified when compiling the template
+	 * @param target target
+	 */
+	public void render(Map<String,String> values, ICompoundText target) {
+		if (target.isRecycled())
+			throw new NotesError(0, "ICompoundText already recycled");
+
+		CompoundTextWriter writer = target.getAdapter(CompoundTextWriter.class);
+		if (writer==null)
+			throw new NotesError(0, "Unable to get CompoundTextWriter from compound text");
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(MAX_WRITE_BUFFER_SIZE);
+
+		for (Segment currSegment : m_segments) {
+			byte[] data;
+			if (currSegment instanceof StaticSegment) {
+				data = ((StaticSegment) currSegment).m_data;
+			}
+			else {
+				ValueSegment valueSegment = (ValueSegment) currSegment;
+				String value = values==null ? null : values.get(valueSegment.m_placeholder);
+				if (value==null) {
+					value = valueSegment.m_matchedText;
+				}
+				if (value.length()==0) {
+					continue;
+				}
+
+				data = valueSegment.createTextRecord(value);
+				if (data==null) {
+					//too long for a single TEXT record, let the C API split it up
+					flush(buffer, writer);
+					target.addText(value, null, valueSegment.createFontStyle(), false);
+					continue;
+				}
+			}
+
+			if (buffer.size()>0 && (buffer.size() + data.length) > MAX_WRITE_BUFFER_SIZE) {
+				flush(buffer, writer);
+			}
+			buffer.write(data, 0, data.length);
+		}
+		flush(buffer, writer);
+	}
+
+	/**
+	 * Writes the merged richtext to a note, replacing existing items with the same name
+	 *
+	 * @param values replacement values with the placeholders as keys, as specified when compiling the template
+	 * @param note target note
+	 * @param itemName richtext item name
+	 */
+	public void renderToNote(Map<String,String> values, NotesNote note, String itemName) {
+		note.removeItem(itemName);
+
+		RichTextBuilder rt = note.createRichTextItem(itemName);
+		render(values, rt);
+		rt.close();
+	}
+
+	private static void flush(ByteArrayOutputStream buffer, CompoundTextWriter writer) {
+		int size = buffer.size();
+		if (size==0) {
+			return;
+		}
+		Memory mem = new Memory(size);
+		mem.write(0, buffer.toByteArray(), 0, size);
+		writer.addCDRecords(mem, size);
+		buffer.reset();
+	}
+
+	/**
+	 * Adds CD record bytes to a buffer, with a filler byte for odd record lengths
+	 *
+	 * @param buffer buffer
+	 * @param record record bytes with header
+	 */
+	private static void appendRecord(ByteArrayOutputStream buffer, byte[] record) {
+		buffer.write(record, 0, record.length);
+		if ((record.length & 1) == 1) {
+			buffer.write(0);
+		}
+	}
+
+	/**
+	 * Builds a TEXT record
+	 *
+	 * @param fontId FONTID of the record
+	 * @param txtPtr LMBCS text
+	 * @param txtLength length of LMBCS text
+	 * @return record with header and filler byte if required
+	 */
+	private static byte[] createTextRecord(byte[] fontId, Pointer txtPtr, int txtLength) {
+//		typedef struct {
+//			   WSIG   Header; /* Tag and length */
+//			   FONTID FontID; /* Font ID */
+//			/* The 8-bit text string follows... */
+//			} CDTEXT;
+		int recordLength = 4 + 4 + txtLength;
+		byte[] record = new byte[recordLength + (recordLength & 1)];
+
+		short sig = NotesConstants.SIG_CD_TEXT;
+		//WSIG, little endian like the rest of the CD record data
+		record[0] = (byte) (sig & 0xff);
+		record[1] = (byte) ((sig >> 8) & 0xff);
+		record[2] = (byte) (recordLength & 0xff);
+		record[3] = (byte) ((recordLength >> 8) & 0xff);
+		System.arraycopy(fontId, 0, record, 4, 4);
+		if (txtLength>0) {
+			txtPtr.read(0, record, 8, txtLength);
+		}
+		return record;
+	}
+
+	/**
+	 * Part of the compiled template
+	 */
+	private static abstract class Segment {
+	}
+
+	/**
+	 * CD records that are the same for all recipients
+	 */
+	private static class StaticSegment extends Segment {
+		private final byte[] m_data;
+
+		public StaticSegment(byte[] data) {
+			m_data = data;
+		}
+	}
+
+	/**
+	 * Placeholder to be replaced with a value
+	 */
+	private static class ValueSegment extends Segment {
+		private final String m_placeholder;
+		private final String m_matchedText;
+		private final byte[] m_fontId;
+
+		public ValueSegment(String placeholder, String matchedText, byte[] fontId) {
+			m_placeholder = placeholder;
+			m_matchedText = matchedText;
+			m_fontId = fontId;
+		}
+
+		/**
+		 * Encodes a value as TEXT record
+		 *
+		 * @param value value
+		 * @return record or null if the value is too long for a single record
+		 */
+		public byte[] createTextRecord(String value) {
+			Memory txtMem = NotesStringUtils.toLMBCS(value, false);
+			int txtLength = (int) txtMem.size();
+			if (txtLength > MAX_TEXT_RECORD_TEXT_SIZE) {
+				return null;
+			}
+			return CompiledMailMergeTemplate.createTextRecord(m_fontId, txtMem, txtLength);
+		}
+
+		public FontStyle createFontStyle() {
+			return new FontStyle(new IAdaptable() {
+
+				@SuppressWarnings("unchecked")
+				@Override
+				public <T> T getAdapter(Class<T> clazz) {
+					if (clazz==byte[].class) {
+						return (T) m_fontId.clone();
+					}
+					else
+						return null;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Collects the CD records of the template and splits them up into segments
+	 */
+	private static class Compiler {
+		private final Pattern m_pattern;
+		private final Map<String,String> m_placeholdersByKey;
+
+		private final List<Segment> m_segments = new ArrayList<Segment>();
+		private final Set<String> m_placeholdersFound = new LinkedHashSet<String>();
+		private final ByteArrayOutputStream m_staticData = new ByteArrayOutputStream();
+
+		/** consecutive TEXT records, searched together for placeholders */
+		private final List<DetachedRichTextRecord> m_textRun = new ArrayList<DetachedRichTextRecord>();
+
+		public Compiler(Collection<String> placeholders, boolean ignoreCase) {
+			//same case insensitive char by char compare as the regular expression uses
+			m_placeholdersByKey = ignoreCase ? new TreeMap<String,String>(String.CASE_INSENSITIVE_ORDER) :
+				new HashMap<String,String>();
+
+			//longest placeholders first, so that "{name}" does not win over "{name}s"
+			List<String> sortedPlaceholders = new ArrayList<String>(new LinkedHashSet<String>(placeholders));
+			Collections.sort(sortedPlaceholders, new Comparator<String>() {
+
+				@Override
+				public int compare(String o1, String o2) {
+					return o2.length() - o1.length();
+				}
+			});
+
+			StringBuilder patternStr = new StringBuilder();
+			for (String currPlaceholder : sortedPlaceholders) {
+				if (currPlaceholder==null || currPlaceholder.length()==0)
+					throw new IllegalArgumentException("Placeholders cannot be empty");
+
+				if (patternStr.length()>0) {
+					patternStr.append('|');
+				}
+				patternStr.append(Pattern.quote(currPlaceholder));
+				m_placeholdersByKey.put(currPlaceholder, currPlaceholder);
+			}
+			m_pattern = ignoreCase ? Pattern.compile(patternStr.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE) :
+				Pattern.compile(patternStr.toString());
+		}
+
+		public void addTextRecord(DetachedRichTextRecord record) {
+			m_textRun.add(record);
+		}
+
+		public void addOtherRecord(DetachedRichTextRecord record) {
+			flushTextRun();
+			appendStaticRecord(record.getRecordWithHeader());
+		}
+
+		public CompiledMailMergeTemplate finish() {
+			flushTextRun();
+			flushStaticData();
+			return new CompiledMailMergeTemplate(Collections.unmodifiableList(m_segments),
+					Collections.unmodifiableSet(m_placeholdersFound));
+		}
+
+		/**
+		 * Adds a record to the static data, starting a new segment if the current one gets
+		 * too large to be written in one call
+		 *
+		 * @param record record bytes with header
+		 */
+		private void appendStaticRecord(byte[] record) {
+			if (m_staticData.size()>0 && (m_staticData.size() + record.length + 1) > MAX_WRITE_BUFFER_SIZE) {
+				flushStaticData();
+			}
+			appendRecord(m_staticData, record);
+		}
+
+		private void flushStaticData() {
+			if (m_staticData.size()>0) {
+				m_segments.add(new StaticSegment(m_staticData.toByteArray()));
+				m_staticData.reset();
+			}
+		}
+
+		/**
+		 * Searches the text of all collected TEXT records for placeholders and
+		 * creates the segments for them
+		 */
+		private void flushTextRun() {
+			if (m_textRun.isEmpty()) {
+				return;
+			}
+
+			int recordCount = m_textRun.size();
+			String[] texts = new String[recordCount];
+			int[] startOffsets = new int[recordCount];
+			StringBuilder fullText = new StringBuilder();
+			for (int i=0; i<recordCount; i++) {
+				DetachedRichTextRecord currRecord = m_textRun.get(i);
+				int txtLength = currRecord.getDataLength() - 4;
+				//skip FONTID
+				texts[i] = txtLength>0 ? NotesStringUtils.fromLMBCS(currRecord.getData().share(4), txtLength) : "";
+				startOffsets[i] = fullText.length();
+				fullText.append(texts[i]);
+			}
+
+			int pos = 0;
+			int nextRecordIdx = 0;
+			Matcher matcher = m_pattern.matcher(fullText);
+			while (matcher.find()) {
+				int matchStart = matcher.start();
+				nextRecordIdx = appendStaticText(texts, startOffsets, nextRecordIdx, pos, matchStart);
+
+				String matchedText = matcher.group();
+				String placeholder = m_placeholdersByKey.get(matchedText);
+				if (placeholder==null) {
+					throw new NotesError(0, "Matched text "+matchedText+" could not be mapped to a placeholder");
+				}
+				m_placeholdersFound.add(placeholder);
+
+				int recordIdxAtStart = findRecordIndex(startOffsets, texts, matchStart);
+				byte[] fontId = m_textRun.get(recordIdxAtStart).getData().getByteArray(0, 4);
+				flushStaticData();
+				m_segments.add(new ValueSegment(placeholder, matchedText, fontId));
+
+				pos = matcher.end();
+			}
+			appendStaticText(texts, startOffsets, nextRecordIdx, pos, fullText.length());
+
+			m_textRun.clear();
+		}
+
+		private int findRecordIndex(int[] startOffsets, String[] texts, int offset) {
+			for (int i=0; i<startOffsets.length; i++) {
+				if (offset >= startOffsets[i] && offset < (startOffsets[i] + texts[i].length())) {
+					return i;
+				}
+			}
+			return startOffsets.length-1;
+		}
+
+		/**
+		 * Writes the text between two offsets of the text run to the static data. Records
+		 * that are completely within the range are copied as they are, the others are
+		 * written as new TEXT records with the same font.
+		 *
+		 * @param texts texts of the run records
+		 * @param startOffsets start offsets of the run records
+		 * @param firstRecordIdx index of first run record that has not been processed yet
+		 * @param from start offset
+		 * @param to end offset (exclusive)
+		 * @return index of the first run record that has not been processed completely
+		 */
+		private int appendStaticText(String[] texts, int[] startOffsets, int firstRecordIdx, int from, int to) {
+			int recordIdx = firstRecordIdx;
+			while (recordIdx < texts.length) {
+				int recordStart = startOffsets[recordIdx];
+				int recordEnd = recordStart + texts[recordIdx].length();
+
+				if (recordStart > to || (recordStart == to && recordEnd > recordStart)) {
+					//record starts after the range
+					break;
+				}
+
+				DetachedRichTextRecord currRecord = m_textRun.get(recordIdx);
+				if (from <= recordStart && recordEnd <= to) {
+					//record text completely static
+					appendStaticRecord(currRecord.getRecordWithHeader());
+				}
+				else {
+					int pieceStart = Math.max(from, recordStart);
+					int pieceEnd = Math.min(to, recordEnd);
+					if (pieceStart < pieceEnd) {
+						String piece = texts[recordIdx].substring(pieceStart - recordStart, pieceEnd - recordStart);
+						Memory txtMem = NotesStringUtils.toLMBCS(piece, false);
+						byte[] fontId = currRecord.getData().getByteArray(0, 4);
+						appendStaticRecord(createTextRecord(fontId, txtMem, (int) txtMem.size()));
+					}
+				}
+
+				if (recordEnd > to) {
+					//rest of the record is processed with the next range
+					break;
+				}
+				recordIdx++;
+			}
+			return recordIdx;
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package com.mindoo.domino.jna.richtext.conversion;
+
+import com.mindoo.domino.jna.constants.CDRecordType;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.internal.CompoundTextWriter;
+import com.mindoo.domino.jna.richtext.ICompoundText;
+import com.mindoo.domino.jna.richtext.IRichTextNavigator;
+import com.sun.jna.Memory;
+
+/**
+ * Copy of a CD record including its header that does not depend on the position of a navigator
+ * 
+ * @author Karsten Lehmann
+ */
+class DetachedRichTextRecord implements IRichTextRecord {
+	private final CDRecordType m_type;
+	private final short m_typeAsShort;
+	private final Memory m_recordWithHeader;
+	private final int m_dataLength;
+	private final int m_totalLength;
+
+	/**
+	 * Copies the current record of a navigator
+	 * 
+	 * @param nav navigator
+	 * @return copy
+	 */
+	public static DetachedRichTextRecord fromNavigator(IRichTextNavigator nav) {
+		return new DetachedRichTextRecord(nav.getCurrentRecordType(), nav.getCurrentRecordTypeAsShort(),
+				nav.getCurrentRecordData(), nav.getCurrentRecordDataLength(), nav.getCurrentRecordTotalLength());
+	}
+	
+	public DetachedRichTextRecord(CDRecordType type, short typeAsShort, Memory data, int dataLength, int totalLength) {
+		m_type = type;
+		m_typeAsShort = typeAsShort;
+		m_dataLength = dataLength;
+		m_totalLength = totalLength;
+		m_recordWithHeader = new Memory(totalLength);
+
+		//rebuild the header, the navigator only gives us access to the data
+		int headerSize = totalLength - dataLength;
+		switch (headerSize) {
+		case 6: //LSIG
+			m_recordWithHeader.setShort(0, typeAsShort);
+			m_recordWithHeader.setInt(2, totalLength);
+			break;
+		case 4: //WSIG
+			m_recordWithHeader.setShort(0, typeAsShort);
+			m_recordWithHeader.setShort(2, (short) (totalLength & 0xffff));
+			break;
+		case 2: //BSIG
+			m_recordWithHeader.setByte(0, (byte) (typeAsShort & 0xff));
+			m_recordWithHeader.setByte(1, (byte) (totalLength & 0xff));
+			break;
+		default:
+			throw new NotesError(0, "Unexpected CD record header size: "+headerSize);
+		}
+		if (dataLength>0) {
+			m_recordWithHeader.write(headerSize, data.getByteArray(0, dataLength), 0, dataLength);
+		}
+	}
+
+	@Override
+	public CDRecordType getType() {
+		return m_type;
+	}
+
+	@Override
+	public short getTypeAsShort() {
+		return m_typeAsShort;
+	}
+
+	@Override
+	public Memory getData() {
+		return (Memory) m_recordWithHeader.share(m_totalLength - m_dataLength);
+	}
+
+	@Override
+	public int getDataLength() {
+		return m_dataLength;
+	}
+
+	@Override
+	public int getTotalLength() {
+		return m_totalLength;
+	}
+
+	/**
+	 * Returns the record bytes including the header
+	 * 
+	 * @return record bytes
+	 */
+	public byte[] getRecordWithHeader() {
+		return m_recordWithHeader.getByteArray(0, m_totalLength);
+	}
+	
+	@Override
+	public void copyTo(ICompoundText target) {
+		if (target.isRecycled())
+			throw new NotesError(0, "ICompoundText already recycled");
+
+		CompoundTextWriter writer = target.getAdapter(CompoundTextWriter.class);
+		if (writer==null)
+			throw new NotesError(0, "Unable to get CompoundTextWriter from compound text");
+
+		writer.addCDRecords(m_recordWithHeader, m_totalLength);
+	}
+
+	@Override
+	public IRichTextRecord copy() {
+		return this;
+	}
+}
@@ -0,0 +1,32 @@
+package com.mindoo.domino.jna.richtext.conversion;
+
+import com.mindoo.domino.jna.richtext.ICompoundText;
+
+/**
+ * Output of one stage of a {@link RichTextConversionPipeline}. Records written here are passed
+ * to the next conversion of the pipeline or, for the last conversion, to the target compound text.
+ * 
+ * @author Karsten Lehmann
+ */
+public interface IRichTextConversionOutput {
+
+	/**
+	 * Passes a record to the next stage. Writing a record other than the one passed to the
+	 * current {@link IStreamingRichTextConversion#processRecord(IRichTextRecord, IRichTextConversionOutput)}
+	 * call marks the pipeline result as modified.
+	 * 
+	 * @param record record
+	 */
+	public void write(IRichTextRecord record);
+	
+	/**
+	 * Returns a compound text to generate new content, e.g. via {@link ICompoundText#addText(String)}.
+	 * The generated content is passed to the next stage in the order of the calls to
+	 * this method and {@link #write(IRichTextRecord)}. Do not keep the returned object
+	 * beyond the current call.
+	 * 
+	 * @return compound text
+	 */
+	public ICompoundText getCompoundText();
+	
+}
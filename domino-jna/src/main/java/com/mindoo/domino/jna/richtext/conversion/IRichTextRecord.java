@@ -0,0 +1,67 @@
+package com.mindoo.domino.jna.richtext.conversion;
+
+import com.mindoo.domino.jna.constants.CDRecordType;
+import com.mindoo.domino.jna.richtext.ICompoundText;
+import com.sun.jna.Memory;
+
+/**
+ * Single CD record passed through a {@link RichTextConversionPipeline}.<br>
+ * <br>
+ * Record instances passed to {@link IStreamingRichTextConversion#processRecord(IRichTextRecord, IRichTextConversionOutput)}
+ * are only valid during that call. Use {@link #copy()} to keep a record for later use.
+ * 
+ * @author Karsten Lehmann
+ */
+public interface IRichTextRecord {
+
+	/**
+	 * Returns the type of the record
+	 * 
+	 * @return type or null if unknown
+	 */
+	public CDRecordType getType();
+	
+	/**
+	 * Returns the record type as short (signature without the length byte for BSIG records)
+	 * 
+	 * @return type
+	 */
+	public short getTypeAsShort();
+	
+	/**
+	 * Returns the record data without the header (signature and length)
+	 * 
+	 * @return data
+	 */
+	public Memory getData();
+	
+	/**
+	 * Returns the length of the record data without the header
+	 * 
+	 * @return length
+	 */
+	public int getDataLength();
+	
+	/**
+	 * Returns the total length of the record including the header
+	 * 
+	 * @return length
+	 */
+	public int getTotalLength();
+	
+	/**
+	 * Writes the record to a compound text
+	 * 
+	 * @param target target
+	 */
+	public void copyTo(ICompoundText target);
+	
+	/**
+	 * Returns a copy of this record that stays valid after the current
+	 * {@link IStreamingRichTextConversion#processRecord(IRichTextRecord, IRichTextConversionOutput)} call
+	 * 
+	 * @return copy
+	 */
+	public IRichTextRecord copy();
+	
+}
@@ -0,0 +1,43 @@
+package com.mindoo.domino.jna.richtext.conversion;
+
+import com.mindoo.domino.jna.richtext.IRichTextNavigator;
+
+/**
+ * Extension of {@link IRichTextConversion} for conversions that can process the CD records of a
+ * richtext item one by one. Multiple streaming conversions can be chained in a
+ * {@link RichTextConversionPipeline}, which reads the source item once and writes the result once,
+ * instead of writing a temporary compound text for every conversion in the chain.<br>
+ * <br>
+ * For a streaming conversion, the pipeline does not call {@link #isMatch(IRichTextNavigator)}.
+ * The result is considered modified if a conversion drops records, generates new content or writes
+ * a record other than the one passed to the current
+ * {@link #processRecord(IRichTextRecord, IRichTextConversionOutput)} call, e.g. a rewritten
+ * record or a {@link IRichTextRecord#copy()} of an earlier record.
+ * 
+ * @author Karsten Lehmann
+ */
+public interface IStreamingRichTextConversion extends IRichTextConversion {
+
+	/**
+	 * Called before the first record is processed, can be used to reset the
+	 * state of the conversion
+	 */
+	public void begin();
+	
+	/**
+	 * Called for each CD record
+	 * 
+	 * @param record record, only valid during this call
+	 * @param out output to write records for the next stage
+	 */
+	public void processRecord(IRichTextRecord record, IRichTextConversionOutput out);
+	
+	/**
+	 * Called after the last record has been processed, e.g. to write held back records
+	 * or to append content
+	 * 
+	 * @param out output to write records for the next stage
+	 */
+	public void end(IRichTextConversionOutput out);
+	
+}
@@ -16,9 +16,14 @@ import com.sun.jna.Memory;
  * 
  * @author Karsten Lehmann
  */
-public class RemoveFileHotspotConversion implements IRichTextConversion {
+public class RemoveFileHotspotConversion implements IStreamingRichTextConversion {
 	private NotesAttachment m_att;
 	
+	//state of the streaming conversion
+	private IRichTextRecord m_heldBeginRecord;
+	private boolean m_skippingHotspot;
+	private boolean m_prevWasHotspotEnd;
+	
 	public RemoveFileHotspotConversion(NotesAttachment att) {
 		m_att = att;
 	}
@@ -187,4 +192,74 @@ public class RemoveFileHotspotConversion implements IRichTextConversion {
 		}
 	}
 
+	@Override
+	public void begin() {
+		m_heldBeginRecord = null;
+		m_skippingHotspot = false;
+		m_prevWasHotspotEnd = false;
+	}
+	
+	@Override
+	public void processRecord(IRichTextRecord record, IRichTextConversionOutput out) {
+		CDRecordType type = record.getType();
+		
+		if (m_skippingHotspot) {
+			//skip everything until HOTSPOTEND followed by END
+			if (type == CDRecordType.END && m_prevWasHotspotEnd) {
+				m_skippingHotspot = false;
+			}
+			m_prevWasHotspotEnd = type == CDRecordType.HOTSPOTEND;
+			return;
+		}
+		
+		if (m_heldBeginRecord!=null) {
+			IRichTextRecord beginRecord = m_heldBeginRecord;
+			m_heldBeginRecord = null;
+			
+			if (isHotspotBeginForAttachment(record)) {
+				//drop BEGIN and the whole hotspot
+				m_skippingHotspot = true;
+				m_prevWasHotspotEnd = false;
+				return;
+			}
+			out.write(beginRecord);
+		}
+		
+		if (type == CDRecordType.BEGIN && isBeginOfHotspot(record.getData())) {
+			//hold back until we know what comes next
+			m_heldBeginRecord = record.copy();
+			return;
+		}
+		
+		out.write(record);
+	}
+	
+	@Override
+	public void end(IRichTextConversionOutput out) {
+		if (m_heldBeginRecord!=null) {
+			out.write(m_heldBeginRecord);
+			m_heldBeginRecord = null;
+		}
+	}
+	
+	private boolean isBeginOfHotspot(Memory beginDataBuf) {
+		int signature = beginDataBuf.share(2).getShort(0);
+		return signature == NotesConstants.SIG_CD_V4HOTSPOTBEGIN;
+	}
+	
+	private boolean isHotspotBeginForAttachment(IRichTextRecord record) {
+		if (record.getType() != CDRecordType.HOTSPOTBEGIN) {
+			return false;
+		}
+		
+		Memory hotspotRecordDataBuf = record.getData();
+		short type = hotspotRecordDataBuf.getShort(0);
+		if (type != NotesConstants.HOTSPOTREC_TYPE_FILE) {
+			return false;
+		}
+		
+		String uniqueFileName = NotesStringUtils.fromLMBCS(hotspotRecordDataBuf.share(8), -1);
+		return uniqueFileName.equalsIgnoreCase(m_att.getFileName());
+	}
+	
 }
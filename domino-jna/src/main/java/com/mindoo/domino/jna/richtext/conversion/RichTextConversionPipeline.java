@@ -0,0 +1,226 @@
+package com.mindoo.domino.jna.richtext.conversion;
+
+import com.mindoo.domino.jna.constants.CDRecordType;
+import com.mindoo.domino.jna.richtext.ICompoundText;
+import com.mindoo.domino.jna.richtext.IRichTextNavigator;
+import com.mindoo.domino.jna.richtext.StandaloneRichText;
+import com.sun.jna.Memory;
+
+/**
+ * Runs a chain of {@link IStreamingRichTextConversion} objects in a single pass over the
+ * CD records of a richtext item.<br>
+ * <br>
+ * Every record read from the source is pushed through all conversions and ends up in the
+ * target compound text, so the source is read once and the target is written once. Only content
+ * generated by a conversion that is not the last one in the chain is buffered in a small
+ * temporary compound text, so that the following conversions can process its records.
+ *
+ * @author Karsten Lehmann
+ */
+public class RichTextConversionPipeline {
+	private final IStreamingRichTextConversion[] m_conversions;
+	private StageOutput[] m_outputs;
+	private ICompoundText m_target;
+	private boolean m_modified;
+
+	/**
+	 * Creates a new pipeline
+	 *
+	 * @param conversions conversions, processed from left to right
+	 */
+	public RichTextConversionPipeline(IStreamingRichTextConversion... conversions) {
+		if (conversions==null || conversions.length==0)
+			throw new IllegalArgumentException("No conversions specified");
+
+		m_conversions = conversions.clone();
+	}
+
+	/**
+	 * Reads all records from the source, passes them through the conversions and writes the
+	 * result to the target
+	 *
+	 * @param source source richtext navigator
+	 * @param target target to write conversion result
+	 * @return true if any conversion dropped, replaced or generated records
+	 */
+	public boolean run(IRichTextNavigator source, ICompoundText target) {
+		m_target = target;
+		m_modified = false;
+		m_outputs = new StageOutput[m_conversions.length];
+		for (int i=0; i<m_conversions.length; i++) {
+			m_outputs[i] = new StageOutput(i);
+			m_conversions[i].begin();
+		}
+
+		try {
+			if (source.gotoFirst()) {
+				NavigatorRecord sourceRecord = new NavigatorRecord(source);
+				do {
+					processRecord(0, sourceRecord);
+				}
+				while (source.gotoNext());
+			}
+
+			for (int i=0; i<m_conversions.length; i++) {
+				m_conversions[i].end(m_outputs[i]);
+				m_outputs[i].flushGeneratedContent();
+
+				if (m_outputs[i].m_recordsIn != m_outputs[i].m_recordsOut) {
+					m_modified = true;
+				}
+			}
+		}
+		finally {
+			for (int i=0; i<m_outputs.length; i++) {
+				m_outputs[i].discardGeneratedContent();
+			}
+			m_outputs = null;
+			m_target = null;
+		}
+
+		return m_modified;
+	}
+
+	private void processRecord(int stageIdx, IRichTextRecord record) {
+		StageOutput out = m_outputs[stageIdx];
+		out.m_recordsIn++;
+		IRichTextRecord oldInput = out.m_currentInput;
+		out.m_currentInput = record;
+		try {
+			m_conversions[stageIdx].processRecord(record, out);
+		}
+		finally {
+			out.m_currentInput = oldInput;
+		}
+	}
+
+	/**
+	 * Output of one conversion, passes records to the next conversion or to the target
+	 */
+	private class StageOutput implements IRichTextConversionOutput {
+		private final int m_stageIdx;
+		private final boolean m_isLast;
+		private StandaloneRichText m_generatedContent;
+		private int m_recordsIn;
+		private int m_recordsOut;
+		/** record currently processed by the conversion of this stage */
+		private IRichTextRecord m_currentInput;
+
+		public StageOutput(int stageIdx) {
+			m_stageIdx = stageIdx;
+			m_isLast = stageIdx == (m_conversions.length-1);
+		}
+
+		@Override
+		public void write(IRichTextRecord record) {
+			flushGeneratedContent();
+			m_recordsOut++;
+
+			if (record != m_currentInput) {
+				//the conversion replaced the record, wrote a copy held back from
+				//an earlier call or changed the record order
+				m_modified = true;
+			}
+
+			if (m_isLast) {
+				record.copyTo(m_target);
+			}
+			else {
+				processRecord(m_stageIdx+1, record);
+			}
+		}
+
+		@Override
+		public ICompoundText getCompoundText() {
+			m_modified = true;
+
+			if (m_isLast) {
+				return m_target;
+			}
+
+			if (m_generatedContent==null) {
+				m_generatedContent = new StandaloneRichText();
+			}
+			return m_generatedContent;
+		}
+
+		/**
+		 * Passes the records of generated content to the next conversion
+		 */
+		void flushGeneratedContent() {
+			if (m_generatedContent==null) {
+				return;
+			}
+
+			StandaloneRichText generatedContent = m_generatedContent;
+			m_generatedContent = null;
+
+			try {
+				IRichTextNavigator nav = generatedContent.closeAndGetRichTextNavigator();
+				if (nav.gotoFirst()) {
+					NavigatorRecord generatedRecord = new NavigatorRecord(nav);
+					do {
+						processRecord(m_stageIdx+1, generatedRecord);
+					}
+					while (nav.gotoNext());
+				}
+			}
+			finally {
+				generatedContent.recycle();
+			}
+		}
+
+		void discardGeneratedContent() {
+			if (m_generatedContent!=null) {
+				m_generatedContent.recycle();
+				m_generatedContent = null;
+			}
+		}
+	}
+
+	/**
+	 * Record at the current position of a navigator
+	 */
+	private static class NavigatorRecord implements IRichTextRecord {
+		private final IRichTextNavigator m_nav;
+
+		public NavigatorRecord(IRichTextNavigator nav) {
+			m_nav = nav;
+		}
+
+		@Override
+		public CDRecordType getType() {
+			return m_nav.getCurrentRecordType();
+		}
+
+		@Override
+		public short getTypeAsShort() {
+			return m_nav.getCurrentRecordTypeAsShort();
+		}
+
+		@Override
+		public Memory getData() {
+			return m_nav.getCurrentRecordData();
+		}
+
+		@Override
+		public int getDataLength() {
+			return m_nav.getCurrentRecordDataLength();
+		}
+
+		@Override
+		public int getTotalLength() {
+			return m_nav.getCurrentRecordTotalLength();
+		}
+
+		@Override
+		public void copyTo(ICompoundText target) {
+			m_nav.copyCurrentRecordTo(target);
+		}
+
+		@Override
+		public IRichTextRecord copy() {
+			return DetachedRichTextRecord.fromNavigator(m_nav);
+		}
+	}
+}
@@ -0,0 +1,372 @@
+package com.mindoo.domino.jna.simulation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.constants.NoteClass;
+import com.mindoo.domino.jna.utils.NotesDateTimeUtils;
+import com.mindoo.domino.jna.utils.NotesStringUtils;
+
+/**
+ * In-memory database of the simulated Domino backend, see {@link SimulatedNotesBackend}.<br>
+ * <br>
+ * Notes get note ids in ascending order and a random UNID (seeded with the database path, so
+ * runs are reproducible). Each database has its own clock that produces strictly increasing
+ * modification dates with the 1/100 second resolution of Domino, so that the "until" date
+ * returned by a search can be used as "since" date for the next search without missing
+ * changes. Deleting a note leaves a deletion stub that incremental searches report.<br>
+ * <br>
+ * NSF transactions (NSFTransactionBegin/Commit/Rollback) are simulated with snapshots of the
+ * note table: a rollback restores the state from the start of the (nested) transaction.
+ *
+ * @author Karsten Lehmann
+ */
+public class SimulatedDatabase {
+	private static final int FIRST_NOTEID = 0x20e;
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+	private final String m_filePath;
+	private String m_title;
+	private final int[] m_replicaIdInnards;
+	private final int[] m_dbIdInnards;
+	private final Random m_random;
+	private final TreeMap<Integer,SimulatedNote> m_notesById;
+	private final Map<String,Integer> m_noteIdsByUnid;
+	private int m_nextNoteId;
+	private long m_lastTimeMillis;
+	private int[] m_lastModifiedInnards;
+	private final LinkedList<Snapshot> m_transactionSnapshots = new LinkedList<Snapshot>();
+	private int m_transactionsCommitted;
+	private int m_pendingCalendarViewChanges;
+
+	SimulatedDatabase(String filePath, String title) {
+		m_filePath = filePath;
+		m_title = title;
+		m_random = new Random(filePath.toLowerCase(Locale.ENGLISH).hashCode());
+		m_notesById = new TreeMap<Integer,SimulatedNote>();
+		m_noteIdsByUnid = new HashMap<String,Integer>();
+		m_nextNoteId = FIRST_NOTEID;
+		m_dbIdInnards = nextTimeInnards();
+		m_replicaIdInnards = new int[] {m_random.nextInt(), m_random.nextInt()};
+		m_lastModifiedInnards = m_dbIdInnards;
+	}
+
+	/**
+	 * Returns the path of the database
+	 *
+	 * @return path relative to the data directory
+	 */
+	public String getFilePath() {
+		return m_filePath;
+	}
+
+	/**
+	 * Returns the database title
+	 *
+	 * @return title
+	 */
+	public synchronized String getTitle() {
+		return m_title;
+	}
+
+	/**
+	 * Changes the database title
+	 *
+	 * @param title new title
+	 */
+	public synchronized void setTitle(String title) {
+		m_title = title;
+	}
+
+	/**
+	 * Returns the replica id
+	 *
+	 * @return replica id with 16 hex characters
+	 */
+	public String getReplicaID() {
+		return NotesStringUtils.innardsToReplicaId(m_replicaIdInnards);
+	}
+
+	int[] getReplicaIdInnards() {
+		return m_replicaIdInnards.clone();
+	}
+
+	int[] getDbIdInnards() {
+		return m_dbIdInnards.clone();
+	}
+
+	/**
+	 * Returns the date of the last change in the database
+	 *
+	 * @return date
+	 */
+	public synchronized NotesTimeDate getLastModified() {
+		return new NotesTimeDate(m_lastModifiedInnards);
+	}
+
+	/**
+	 * Produces the next date of the database clock
+	 *
+	 * @return innards, always later than the previous result
+	 */
+	synchronized int[] nextTimeInnards() {
+		//innards have a resolution of 1/100 second
+		long nowMillis = (System.currentTimeMillis() / 10) * 10;
+		if (nowMillis <= m_lastTimeMillis) {
+			nowMillis = m_lastTimeMillis + 10;
+		}
+		m_lastTimeMillis = nowMillis;
+		return NotesDateTimeUtils.millisToInnards(nowMillis, UTC);
+	}
+
+	/**
+	 * Creates a new document
+	 *
+	 * @param items item names and values, see {@link SimulatedNotesBackend} for the supported value types
+	 * @return created note
+	 */
+	public SimulatedNote createNote(Map<String,Object> items) {
+		return createNote(NoteClass.DOCUMENT, items);
+	}
+
+	/**
+	 * Creates a new note
+	 *
+	 * @param noteClass note class
+	 * @param items item names and values, see {@link SimulatedNotesBackend} for the supported value types
+	 * @return created note
+	 */
+	public synchronized SimulatedNote createNote(NoteClass noteClass, Map<String,Object> items) {
+		if (noteClass==NoteClass.NOTIFYDELETION || noteClass==NoteClass.DEFAULT || noteClass==NoteClass.SINGLE_INSTANCE ||
+				noteClass==NoteClass.ALL || noteClass==NoteClass.ALLNONDATA || noteClass==NoteClass.NONE)
+			throw new IllegalArgumentException("Note class cannot be used for a single note: "+noteClass);
+
+		int noteId = m_nextNoteId;
+		int[] oidFileInnards = new int[] {m_random.nextInt(), m_random.nextInt()};
+		int[] oidNoteInnards = new int[] {m_random.nextInt(), m_random.nextInt()};
+		int[] modifiedInnards = nextTimeInnards();
+
+		SimulatedNote note = new SimulatedNote(noteId, oidFileInnards, oidNoteInnards, 1, modifiedInnards,
+				(short) (noteClass.getValue() & 0xffff), false, items);
+		m_nextNoteId += 4;
+		m_notesById.put(noteId, note);
+		m_noteIdsByUnid.put(note.getUNID(), noteId);
+		m_lastModifiedInnards = modifiedInnards;
+		return note;
+	}
+
+	/**
+	 * Replaces all items of a note
+	 *
+	 * @param noteId note id
+	 * @param items new item names and values
+	 * @return updated note
+	 * @throws IllegalArgumentException if the note does not exist or has been deleted
+	 */
+	public synchronized SimulatedNote updateNote(int noteId, Map<String,Object> items) {
+		SimulatedNote oldNote = getExistingNote(noteId);
+		int[] modifiedInnards = nextTimeInnards();
+		SimulatedNote newNote = new SimulatedNote(noteId, oldNote.getOIDFileInnards(), oldNote.getOIDNoteInnards(),
+				oldNote.getSequence()+1, modifiedInnards, oldNote.getNoteClass(), false, items);
+		m_notesById.put(noteId, newNote);
+		m_lastModifiedInnards = modifiedInnards;
+		return newNote;
+	}
+
+	/**
+	 * Deletes a note and leaves a deletion stub
+	 *
+	 * @param noteId note id
+	 * @return deletion stub
+	 * @throws IllegalArgumentException if the note does not exist or has already been deleted
+	 */
+	public synchronized SimulatedNote deleteNote(int noteId) {
+		SimulatedNote oldNote = getExistingNote(noteId);
+		int[] modifiedInnards = nextTimeInnards();
+		SimulatedNote stub = new SimulatedNote(noteId, oldNote.getOIDFileInnards(), oldNote.getOIDNoteInnards(),
+				oldNote.getSequence()+1, modifiedInnards, oldNote.getNoteClass(), true, null);
+		m_notesById.put(noteId, stub);
+		m_lastModifiedInnards = modifiedInnards;
+		return stub;
+	}
+
+	private SimulatedNote getExistingNote(int noteId) {
+		SimulatedNote note = m_notesById.get(noteId);
+		if (note==null || note.isDeleted())
+			throw new IllegalArgumentException("Note with id "+noteId+" does not exist in database "+m_filePath);
+		return note;
+	}
+
+	/**
+	 * Returns a note or deletion stub
+	 *
+	 * @param noteId note id
+	 * @return note or null if not found
+	 */
+	public synchronized SimulatedNote getNoteById(int noteId) {
+		return m_notesById.get(noteId);
+	}
+
+	/**
+	 * Returns a note or deletion stub
+	 *
+	 * @param unid UNID
+	 * @return note or null if not found
+	 */
+	public synchronized SimulatedNote getNoteByUNID(String unid) {
+		Integer noteId = m_noteIdsByUnid.get(unid.toUpperCase(Locale.ENGLISH));
+		return noteId==null ? null : m_notesById.get(noteId);
+	}
+
+	/**
+	 * Returns a snapshot of all notes and deletion stubs sorted by note id. The snapshot is not
+	 * affected by later changes, so it's safe to change the database while processing it.
+	 *
+	 * @return notes
+	 */
+	public synchronized List<SimulatedNote> getNotes() {
+		return new ArrayList<SimulatedNote>(m_notesById.values());
+	}
+
+	/**
+	 * Returns the number of notes that are not deleted
+	 *
+	 * @return count
+	 */
+	public synchronized int getNoteCount() {
+		int count = 0;
+		for (SimulatedNote currNote : m_notesById.values()) {
+			if (!currNote.isDeleted()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Removes deletion stubs, e.g. to simulate purging after the cutoff interval
+	 *
+	 * @param noteIds ids of stubs to purge or null for all stubs
+	 * @return number of purged stubs
+	 */
+	public synchronized int purgeDeletionStubs(Collection<Integer> noteIds) {
+		List<Integer> stubIds = new ArrayList<Integer>();
+		for (SimulatedNote currNote : m_notesById.values()) {
+			if (currNote.isDeleted() && (noteIds==null || noteIds.contains(currNote.getNoteId()))) {
+				stubIds.add(currNote.getNoteId());
+			}
+		}
+		for (Integer currNoteId : stubIds) {
+			SimulatedNote stub = m_notesById.remove(currNoteId);
+			m_noteIdsByUnid.remove(stub.getUNID());
+		}
+		return stubIds.size();
+	}
+
+	/**
+	 * Lets the next calls of CalReadRange report a change of the calendar view
+	 * (SIGNAL_ANY_CONFLICT) without returning entries
+	 *
+	 * @param count number of calls
+	 */
+	public synchronized void simulateCalendarViewChanges(int count) {
+		m_pendingCalendarViewChanges = count;
+	}
+
+	/**
+	 * Checks whether CalReadRange should report a change of the calendar view
+	 *
+	 * @return true to report a change
+	 */
+	synchronized boolean consumeCalendarViewChange() {
+		if (m_pendingCalendarViewChanges>0) {
+			m_pendingCalendarViewChanges--;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Starts a (nested) transaction
+	 */
+	synchronized void beginTransaction() {
+		m_transactionSnapshots.push(new Snapshot());
+	}
+
+	/**
+	 * Commits the innermost transaction; changes of a nested transaction become part of the
+	 * enclosing transaction
+	 *
+	 * @return false if there is no active transaction
+	 */
+	synchronized boolean commitTransaction() {
+		if (m_transactionSnapshots.isEmpty()) {
+			return false;
+		}
+		m_transactionSnapshots.pop();
+		if (m_transactionSnapshots.isEmpty()) {
+			m_transactionsCommitted++;
+		}
+		return true;
+	}
+
+	/**
+	 * Rolls back the innermost transaction
+	 *
+	 * @return false if there is no active transaction
+	 */
+	synchronized boolean rollbackTransaction() {
+		if (m_transactionSnapshots.isEmpty()) {
+			return false;
+		}
+		Snapshot snapshot = m_transactionSnapshots.pop();
+		m_notesById.clear();
+		m_notesById.putAll(snapshot.m_notesById);
+		m_noteIdsByUnid.clear();
+		m_noteIdsByUnid.putAll(snapshot.m_noteIdsByUnid);
+		m_nextNoteId = snapshot.m_nextNoteId;
+		m_lastModifiedInnards = snapshot.m_lastModifiedInnards;
+		return true;
+	}
+
+	/**
+	 * Returns the number of committed top level transactions
+	 *
+	 * @return count
+	 */
+	public synchronized int getTransactionsCommitted() {
+		return m_transactionsCommitted;
+	}
+
+	/**
+	 * State of the database at the start of a transaction; notes are immutable, so copying
+	 * the maps is enough
+	 */
+	private class Snapshot {
+		private final TreeMap<Integer,SimulatedNote> m_notesById;
+		private final Map<String,Integer> m_noteIdsByUnid;
+		private final int m_nextNoteId;
+		private final int[] m_lastModifiedInnards;
+
+		private Snapshot() {
+			m_notesById = new TreeMap<Integer,SimulatedNote>(SimulatedDatabase.this.m_notesById);
+			m_noteIdsByUnid = new HashMap<String,Integer>(SimulatedDatabase.this.m_noteIdsByUnid);
+			m_nextNoteId = SimulatedDatabase.this.m_nextNoteId;
+			m_lastModifiedInnards = SimulatedDatabase.this.m_lastModifiedInnards;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SimulatedDatabase [path="+m_filePath+", replicaid="+getReplicaID()+", notes="+getNoteCount()+"]";
+	}
+}
@@ -0,0 +1,141 @@
+package com.mindoo.domino.jna.simulation;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+import com.sun.jna.Memory;
+
+/**
+ * ID table of the simulated backend. The sorted note ids are stored on the Java heap,
+ * {@link #getHeader()} is the memory that OSLockObject returns for the table handle, so
+ * that the IDTableFlags/IDTableTime functions can find the table by its address.
+ *
+ * @author Karsten Lehmann
+ */
+class SimulatedIDTable {
+	/** size of the IDTABLE header used to estimate the table size */
+	private static final int HEADER_SIZE = 16;
+
+	private final Memory m_header;
+	private TreeSet<Integer> m_ids;
+	private short m_flags;
+	private int[] m_timeInnards;
+	private Integer m_scanPos;
+
+	SimulatedIDTable() {
+		m_header = new Memory(HEADER_SIZE);
+		m_header.clear();
+		m_ids = new TreeSet<Integer>(new UnsignedIntComparator());
+		m_timeInnards = new int[2];
+	}
+
+	Memory getHeader() {
+		return m_header;
+	}
+
+	synchronized boolean insert(int id) {
+		return m_ids.add(id);
+	}
+
+	synchronized boolean delete(int id) {
+		return m_ids.remove(id);
+	}
+
+	synchronized boolean contains(int id) {
+		return m_ids.contains(id);
+	}
+
+	synchronized int size() {
+		return m_ids.size();
+	}
+
+	synchronized int sizeInBytes() {
+		return HEADER_SIZE + 4 * m_ids.size();
+	}
+
+	synchronized void clear() {
+		m_ids.clear();
+		m_scanPos = null;
+	}
+
+	synchronized List<Integer> getIds() {
+		return new ArrayList<Integer>(m_ids);
+	}
+
+	synchronized void insertAll(List<Integer> ids) {
+		m_ids.addAll(ids);
+	}
+
+	synchronized void deleteAll(List<Integer> ids) {
+		m_ids.removeAll(ids);
+	}
+
+	synchronized void replaceIds(List<Integer> ids) {
+		m_ids.clear();
+		m_ids.addAll(ids);
+		m_scanPos = null;
+	}
+
+	/**
+	 * Implementation of IDScan
+	 *
+	 * @param first true to start with the first id
+	 * @return id or null if there are no more ids
+	 */
+	synchronized Integer scan(boolean first) {
+		if (first || m_scanPos==null) {
+			m_scanPos = m_ids.isEmpty() ? null : m_ids.first();
+		}
+		else {
+			m_scanPos = m_ids.higher(m_scanPos);
+		}
+		return m_scanPos;
+	}
+
+	/**
+	 * Implementation of IDScanBack
+	 *
+	 * @param last true to start with the last id
+	 * @return id or null if there are no more ids
+	 */
+	synchronized Integer scanBack(boolean last) {
+		if (last || m_scanPos==null) {
+			m_scanPos = m_ids.isEmpty() ? null : m_ids.last();
+		}
+		else {
+			m_scanPos = m_ids.lower(m_scanPos);
+		}
+		return m_scanPos;
+	}
+
+	synchronized short getFlags() {
+		return m_flags;
+	}
+
+	synchronized void setFlags(short flags) {
+		m_flags = flags;
+	}
+
+	synchronized int[] getTimeInnards() {
+		return m_timeInnards.clone();
+	}
+
+	synchronized void setTimeInnards(int[] innards) {
+		m_timeInnards = innards.clone();
+	}
+
+	/**
+	 * Note ids with the high order bit set (e.g. for deletion stubs) are sorted behind all other ids
+	 */
+	private static class UnsignedIntComparator implements Comparator<Integer> {
+
+		@Override
+		public int compare(Integer o1, Integer o2) {
+			long l1 = o1.intValue() & 0xffffffffL;
+			long l2 = o2.intValue() & 0xffffffffL;
+			return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.mindoo.domino.jna.simulation;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * Message queue of the simulated Domino backend, created with MQCreate or MQOpen
+ * (see {@link SimulatedNotesBackend#getMessageQueue(String)}).<br>
+ * <br>
+ * Messages are ordered by priority (higher priority first) and by insertion order within
+ * the same priority, like in the C API.
+ *
+ * @author Karsten Lehmann
+ */
+public class SimulatedMessageQueue {
+	private final String m_name;
+	private final int m_quota;
+	private final LinkedList<Message> m_messages = new LinkedList<Message>();
+	private boolean m_quitPending;
+	private short m_scanError;
+
+	SimulatedMessageQueue(String name, int quota) {
+		m_name = name;
+		m_quota = quota==0 ? 65535 : quota;
+	}
+
+	/**
+	 * Returns the queue name
+	 *
+	 * @return name
+	 */
+	public String getName() {
+		return m_name;
+	}
+
+	/**
+	 * Returns the max number of messages in the queue
+	 *
+	 * @return quota
+	 */
+	public int getQuota() {
+		return m_quota;
+	}
+
+	/**
+	 * Returns the number of messages in the queue
+	 *
+	 * @return count
+	 */
+	public synchronized int getCount() {
+		return m_messages.size();
+	}
+
+	/**
+	 * Returns copies of the message data in queue order
+	 *
+	 * @return messages
+	 */
+	public synchronized List<byte[]> getMessages() {
+		List<byte[]> messages = new ArrayList<byte[]>(m_messages.size());
+		for (Message currMsg : m_messages) {
+			messages.add(currMsg.m_data.clone());
+		}
+		return messages;
+	}
+
+	/**
+	 * Returns true if the queue is in a QUIT state
+	 *
+	 * @return true if quitting
+	 */
+	public synchronized boolean isQuitPending() {
+		return m_quitPending;
+	}
+
+	/**
+	 * Puts the queue in a QUIT state and wakes up readers waiting for messages
+	 */
+	public synchronized void putQuitMsg() {
+		m_quitPending = true;
+		notifyAll();
+	}
+
+	/**
+	 * Makes the next MQScan call return an error after the scan callback has been called
+	 * for all messages, e.g. to test error handling of queue readers
+	 *
+	 * @param errorCode error code
+	 */
+	public synchronized void setScanError(short errorCode) {
+		m_scanError = errorCode;
+	}
+
+	/**
+	 * Returns and clears the error set via {@link #setScanError(short)}
+	 *
+	 * @return error code or 0
+	 */
+	synchronized short takeScanError() {
+		short errorCode = m_scanError;
+		m_scanError = 0;
+		return errorCode;
+	}
+
+	/**
+	 * Adds a message behind all messages with the same or a higher priority
+	 *
+	 * @param data message data
+	 * @param priority priority
+	 * @return false if the quota is exceeded
+	 */
+	synchronized boolean put(byte[] data, int priority) {
+		if (m_messages.size() >= m_quota) {
+			return false;
+		}
+		Message msg = new Message(data, priority);
+		ListIterator<Message> msgsIt = m_messages.listIterator(m_messages.size());
+		while (msgsIt.hasPrevious()) {
+			if (msgsIt.previous().m_priority >= priority) {
+				msgsIt.next();
+				break;
+			}
+		}
+		msgsIt.add(msg);
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Returns the live message list, callers must synchronize on this queue
+	 *
+	 * @return messages
+	 */
+	List<Message> getMessageList() {
+		return m_messages;
+	}
+
+	/**
+	 * Message in the queue
+	 */
+	static class Message {
+		final byte[] m_data;
+		final int m_priority;
+
+		Message(byte[] data, int priority) {
+			m_data = data;
+			m_priority = priority;
+		}
+	}
+}
@@ -0,0 +1,1674 @@
+package com.mindoo.domino.jna.simulation;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.errors.INotesErrorConstants;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.internal.NotesCallbacks;
+import com.mindoo.domino.jna.internal.NotesConstants;
+import com.mindoo.domino.jna.internal.structs.NotesBlockIdStruct;
+import com.mindoo.domino.jna.internal.structs.NotesDbReplicaInfoStruct;
+import com.mindoo.domino.jna.internal.structs.NotesSearchMatch64Struct;
+import com.mindoo.domino.jna.internal.structs.NotesTimeDateStruct;
+import com.mindoo.domino.jna.internal.structs.NotesUniversalNoteIdStruct;
+import com.mindoo.domino.jna.utils.NotesDateTimeUtils;
+import com.mindoo.domino.jna.utils.NotesStringUtils;
+import com.mindoo.domino.jna.utils.PlatformUtils;
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import com.sun.jna.StringArray;
+import com.sun.jna.ptr.ByteByReference;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.LongByReference;
+import com.sun.jna.ptr.ShortByReference;
+
+/**
+ * Pure Java implementation of the subset of the Notes C API that is used to open databases,
+ * search them with NSFSearch, open notes to read their items, read calendar ranges and exchange
+ * data via message queues, see {@link SimulatedNotesBackend}.<br>
+ * <br>
+ * {@link #createProxy(Class)} produces implementations of the JNA API interfaces. Each call is
+ * dispatched to the public method of this class with the same name and parameter types; calling
+ * a C function without such a method throws a {@link NotesError} that names the function.<br>
+ * <br>
+ * Memory handles are backed by JNA {@link Memory} blocks, so pointers returned by OSLockObject
+ * can be read and written like native Notes memory. Selection formulas are limited to
+ * <code>@All</code>/<code>@True</code> and column formulas to item names, because formulas
+ * cannot be evaluated without the formula engine. View indexes (NIFOpenCollection,
+ * NIFReadEntries) are not simulated, so code reading collections needs a Domino installation.
+ *
+ * @author Karsten Lehmann
+ */
+public class SimulatedNativeAPI implements InvocationHandler {
+	private static final Pattern SELECT_ALL_FORMULA = Pattern.compile("(?i)^(select\\s+)?(@all|@true|1)$");
+	private static final Pattern ITEM_NAME_FORMULA = Pattern.compile("^[A-Za-z$_][A-Za-z0-9$_]*$");
+
+	private static final short NOERROR = 0;
+	/** size of the SEARCH_MATCH structure */
+	private static final int SEARCH_MATCH_SIZE = NotesSearchMatch64Struct.newInstance().size();
+	/** handle or parameter not known to the simulated backend */
+	private static final short ERR_BAD_PARAM = INotesErrorConstants.ERR_BAD_PARAM;
+	/** database does not exist */
+	private static final short ERR_OPEN_FILE = INotesErrorConstants.ERR_OPEN_FILE;
+	/** note id not found */
+	private static final short ERR_INVALID_NOTE = INotesErrorConstants.ERR_INVALID_NOTE;
+	/** note is a deletion stub */
+	private static final short ERR_NOTE_DELETED = INotesErrorConstants.ERR_NOTE_DELETED;
+
+	private static volatile Map<Short,String> m_errorMessages;
+
+	private final AtomicInteger m_nextHandle = new AtomicInteger(0x1000);
+	private final ConcurrentHashMap<Long,MemoryBlock> m_memoryBlocks = new ConcurrentHashMap<Long,MemoryBlock>();
+	private final ConcurrentHashMap<Long,SimulatedIDTable> m_idTables = new ConcurrentHashMap<Long,SimulatedIDTable>();
+	private final ConcurrentHashMap<Long,SimulatedIDTable> m_idTablesByAddress = new ConcurrentHashMap<Long,SimulatedIDTable>();
+	private final ConcurrentHashMap<Long,SimulatedFormula> m_formulas = new ConcurrentHashMap<Long,SimulatedFormula>();
+	private final ConcurrentHashMap<Long,SimulatedDatabase> m_openDatabases = new ConcurrentHashMap<Long,SimulatedDatabase>();
+	private final ConcurrentHashMap<Long,OpenNote> m_openNotes = new ConcurrentHashMap<Long,OpenNote>();
+	private final ConcurrentHashMap<Long,SimulatedMessageQueue> m_openQueues = new ConcurrentHashMap<Long,SimulatedMessageQueue>();
+	private final ConcurrentHashMap<Long,List<String>> m_htmlConverters = new ConcurrentHashMap<Long,List<String>>();
+	private final ConcurrentHashMap<Method,Method> m_implMethods = new ConcurrentHashMap<Method,Method>();
+
+	/**
+	 * Creates a proxy for one of the JNA API interfaces that calls this backend
+	 *
+	 * @param apiClass API interface
+	 * @return proxy
+	 *
+	 * @param <T> API type
+	 */
+	public <T> T createProxy(Class<T> apiClass) {
+		return apiClass.cast(Proxy.newProxyInstance(SimulatedNativeAPI.class.getClassLoader(), new Class<?>[] {apiClass}, this));
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		if (method.getDeclaringClass() == Object.class) {
+			if ("equals".equals(method.getName())) {
+				return proxy == args[0];
+			}
+			else if ("hashCode".equals(method.getName())) {
+				return System.identityHashCode(proxy);
+			}
+			else {
+				return "SimulatedNativeAPI proxy";
+			}
+		}
+
+		Method implMethod = m_implMethods.get(method);
+		if (implMethod==null) {
+			try {
+				implMethod = SimulatedNativeAPI.class.getMethod(method.getName(), method.getParameterTypes());
+			}
+			catch (NoSuchMethodException e) {
+				throw new NotesError(0, "C API function "+method.getName()+" is not supported by the simulated Domino backend");
+			}
+			m_implMethods.put(method, implMethod);
+		}
+
+		try {
+			return implMethod.invoke(this, args);
+		}
+		catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	private long newHandle() {
+		return m_nextHandle.getAndIncrement();
+	}
+
+	private static String readString(Pointer ptr) {
+		return ptr==null ? "" : NotesStringUtils.fromLMBCS(ptr, -1);
+	}
+
+	/**
+	 * Writes a null terminated LMBCS string
+	 *
+	 * @param str string
+	 * @param target target memory
+	 * @param maxLength max length including the null byte
+	 * @return number of bytes written without the null byte
+	 */
+	private static int writeString(String str, Pointer target, int maxLength) {
+		if (target==null || maxLength<=0) {
+			return 0;
+		}
+		Memory mem = NotesStringUtils.toLMBCS(str, false);
+		int length = mem==null ? 0 : Math.min((int) mem.size(), maxLength-1);
+		if (length>0) {
+			target.write(0, mem.getByteArray(0, length), 0, length);
+		}
+		target.setByte(length, (byte) 0);
+		return length;
+	}
+
+	private static int maxLength(Memory mem, int defaultLength) {
+		return mem==null ? 0 : (int) Math.min(mem.size(), defaultLength);
+	}
+
+	private static void setInnards(NotesTimeDateStruct struct, int[] innards) {
+		if (struct!=null) {
+			struct.Innards[0] = innards[0];
+			struct.Innards[1] = innards[1];
+			struct.write();
+		}
+	}
+
+	// ---------------------------------------------------------------------------------
+	// OS functions
+	// ---------------------------------------------------------------------------------
+
+	public short NotesInitThread() {
+		//no per thread state in the simulated backend
+		return NOERROR;
+	}
+
+	public void NotesTermThread() {
+	}
+
+	public short OSMemAlloc(short BlkType, int dwSize, LongByReference retHandle) {
+		return OSMemoryAllocate(BlkType, dwSize, retHandle);
+	}
+
+	public short OSMemoryAllocate(int dwtype, int size, LongByReference retHandle) {
+		if (size<0)
+			return ERR_BAD_PARAM;
+
+		Memory mem = new Memory(Math.max(1, size));
+		mem.clear();
+		long handle = newHandle();
+		m_memoryBlocks.put(handle, new MemoryBlock(mem, size));
+		retHandle.setValue(handle);
+		return NOERROR;
+	}
+
+	private MemoryBlock getMemoryBlock(long handle) {
+		MemoryBlock block = m_memoryBlocks.get(handle);
+		if (block==null)
+			throw new NotesError(ERR_BAD_PARAM, "Invalid memory handle: "+handle);
+		return block;
+	}
+
+	public Pointer OSLockObject(long handle) {
+		MemoryBlock block = getMemoryBlock(handle);
+		block.m_lockCount.incrementAndGet();
+		return block.m_memory;
+	}
+
+	public boolean OSUnlockObject(long handle) {
+		MemoryBlock block = getMemoryBlock(handle);
+		return block.m_lockCount.decrementAndGet() > 0;
+	}
+
+	public Pointer OSMemoryLock(long handle) {
+		return OSLockObject(handle);
+	}
+
+	public boolean OSMemoryUnlock(long handle) {
+		return OSUnlockObject(handle);
+	}
+
+	public short OSMemFree(long handle) {
+		MemoryBlock block = m_memoryBlocks.remove(handle);
+		if (block==null)
+			return ERR_BAD_PARAM;
+		m_formulas.remove(handle);
+		return NOERROR;
+	}
+
+	public void OSMemoryFree(long handle) {
+		OSMemFree(handle);
+	}
+
+	public short OSMemGetSize(long handle, IntByReference retSize) {
+		retSize.setValue(getMemoryBlock(handle).m_size);
+		return NOERROR;
+	}
+
+	public int OSMemoryGetSize(long handle) {
+		return getMemoryBlock(handle).m_size;
+	}
+
+	public short OSMemoryReallocate(long handle, int size) {
+		MemoryBlock block = m_memoryBlocks.get(handle);
+		if (block==null || size<0)
+			return ERR_BAD_PARAM;
+
+		Memory newMem = new Memory(Math.max(1, size));
+		newMem.clear();
+		int bytesToCopy = Math.min(block.m_size, size);
+		if (bytesToCopy>0) {
+			newMem.write(0, block.m_memory.getByteArray(0, bytesToCopy), 0, bytesToCopy);
+		}
+		m_memoryBlocks.put(handle, new MemoryBlock(newMem, size));
+		return NOERROR;
+	}
+
+	public short OSLoadString(int hModule, short StringCode, Memory retBuffer, short BufferLength) {
+		return OSLoadString((long) hModule, StringCode, retBuffer, BufferLength);
+	}
+
+	public short OSLoadString(long hModule, short StringCode, Memory retBuffer, short BufferLength) {
+		String msg = getErrorMessages().get(StringCode);
+		if (msg==null) {
+			msg = "Error "+(StringCode & 0xffff)+" in simulated Domino backend";
+		}
+		return (short) writeString(msg, retBuffer, maxLength(retBuffer, BufferLength & 0xffff));
+	}
+
+	/**
+	 * Maps error codes to the messages declared in {@link INotesErrorConstants} (ERR_xxx / ERR_MSG_xxx)
+	 *
+	 * @return messages
+	 */
+	private static Map<Short,String> getErrorMessages() {
+		if (m_errorMessages==null) {
+			Map<Short,String> messages = new HashMap<Short,String>();
+			for (Field currField : INotesErrorConstants.class.getFields()) {
+				String currFieldName = currField.getName();
+				if (currField.getType() == short.class && currFieldName.startsWith("ERR_")) {
+					try {
+						Field msgField = INotesErrorConstants.class.getField("ERR_MSG_"+currFieldName.substring(4));
+						messages.put((Short) currField.get(null), (String) msgField.get(null));
+					}
+					catch (NoSuchFieldException e) {
+						//no message for this code
+					}
+					catch (IllegalAccessException e) {
+						throw new NotesError(0, "Error reading error message constants", e);
+					}
+				}
+			}
+			m_errorMessages = messages;
+		}
+		return m_errorMessages;
+	}
+
+	public short OSPathNetConstruct(Memory PortName, Memory ServerName, Memory FileName, Memory retPathName) {
+		String server = readString(ServerName);
+		String fileName = readString(FileName);
+		String path = server.length()==0 ? fileName : (server + "!!" + fileName);
+		writeString(path, retPathName, maxLength(retPathName, NotesConstants.MAXPATH));
+		return NOERROR;
+	}
+
+	public short OSPathNetParse(Memory PathName, Memory retPortName, Memory retServerName, Memory retFileName) {
+		String path = readString(PathName);
+		int iPos = path.indexOf("!!");
+		String server = iPos==-1 ? "" : path.substring(0, iPos);
+		String fileName = iPos==-1 ? path : path.substring(iPos+2);
+
+		writeString("", retPortName, maxLength(retPortName, NotesConstants.MAXPATH));
+		writeString(server, retServerName, maxLength(retServerName, NotesConstants.MAXPATH));
+		writeString(fileName, retFileName, maxLength(retFileName, NotesConstants.MAXPATH));
+		return NOERROR;
+	}
+
+	public short OSGetEnvironmentString(Memory variableName, Memory rethValueBuffer, short bufferLength) {
+		String value = SimulatedNotesBackend.getEnvironmentString(readString(variableName));
+		if (value==null) {
+			return 0;
+		}
+		writeString(value, rethValueBuffer, maxLength(rethValueBuffer, bufferLength & 0xffff));
+		//returns TRUE if the variable exists
+		return 1;
+	}
+
+	public long OSGetEnvironmentLong(Memory variableName) {
+		String value = SimulatedNotesBackend.getEnvironmentString(readString(variableName));
+		if (value==null) {
+			return 0;
+		}
+		try {
+			return (long) Double.parseDouble(value.trim());
+		}
+		catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	public void OSSetEnvironmentVariable(Memory variableName, Memory Value) {
+		SimulatedNotesBackend.setEnvironmentString(readString(variableName), Value==null ? null : readString(Value));
+	}
+
+	public void OSSetEnvironmentInt(Memory variableName, int Value) {
+		SimulatedNotesBackend.setEnvironmentString(readString(variableName), Integer.toString(Value));
+	}
+
+	public short ODSLength(short type) {
+		if (type==1) {
+			//_NOTEID
+			return 4;
+		}
+		throw new NotesError(0, "ODSLength is only supported for _NOTEID in the simulated Domino backend, requested type: "+type);
+	}
+
+	public short ListGetNumEntries(Pointer vList, int noteItem) {
+		return vList.getShort(noteItem!=0 ? 2 : 0);
+	}
+
+	public short ListGetText(Pointer pList, boolean fPrefixDataType, short entryNumber, Memory retTextPointer, ShortByReference retTextLength) {
+		//LIST structure: USHORT ListEntries, USHORT lengths[ListEntries], packed text
+		Pointer listPtr = fPrefixDataType ? pList.share(2) : pList;
+		int numEntries = listPtr.getShort(0) & 0xffff;
+		int entryIdx = entryNumber & 0xffff;
+		if (entryIdx >= numEntries)
+			return ERR_BAD_PARAM;
+
+		int textOffset = 2 + 2*numEntries;
+		for (int i=0; i<entryIdx; i++) {
+			textOffset += listPtr.getShort(2 + 2*i) & 0xffff;
+		}
+		retTextPointer.setPointer(0, listPtr.share(textOffset));
+		retTextLength.setValue(listPtr.getShort(2 + 2*entryIdx));
+		return NOERROR;
+	}
+
+	// ---------------------------------------------------------------------------------
+	// Names
+	// ---------------------------------------------------------------------------------
+
+	public short SECKFMGetUserName(Memory retUserName) {
+		writeString(SimulatedNotesBackend.getUserName(), retUserName, maxLength(retUserName, NotesConstants.MAXUSERNAME+1));
+		return NOERROR;
+	}
+
+	public short DNCanonicalize(int Flags, Memory TemplateName, Memory InName, Memory OutName, short OutSize, ShortByReference OutLength) {
+		//names that cannot be converted in Java (e.g. flat names) are returned unchanged
+		int length = writeString(readString(InName), OutName, maxLength(OutName, OutSize & 0xffff));
+		OutLength.setValue((short) length);
+		return NOERROR;
+	}
+
+	public short DNAbbreviate(int Flags, Memory TemplateName, Memory InName, Memory OutName, short OutSize, ShortByReference OutLength) {
+		return DNCanonicalize(Flags, TemplateName, InName, OutName, OutSize, OutLength);
+	}
+
+	public short CreateNamesListFromSingleName(Memory pszServerName, short fDontLookupAlternateNames,
+			Pointer pLookupFlags, Memory pTarget, LongByReference rethNames) {
+		String userName = readString(pTarget);
+
+		//user name, wildcards for each level of the hierarchy and "*"; groups are not simulated
+		List<String> names = new ArrayList<String>();
+		names.add(userName);
+		int iPos = userName.indexOf('/');
+		while (iPos!=-1) {
+			names.add("*"+userName.substring(iPos));
+			iPos = userName.indexOf('/', iPos+1);
+		}
+		names.add("*");
+
+		List<byte[]> namesLMBCS = new ArrayList<byte[]>(names.size());
+		int headerSize = PlatformUtils.isWindows() ? NotesConstants.winNamesListHeaderSize64 :
+			(PlatformUtils.isMac() ? NotesConstants.macNamesListHeaderSize64 : NotesConstants.linuxNamesListHeaderSize64);
+		int totalSize = headerSize;
+		for (String currName : names) {
+			Memory currNameMem = NotesStringUtils.toLMBCS(currName, true);
+			byte[] currNameData = currNameMem.getByteArray(0, (int) currNameMem.size());
+			namesLMBCS.add(currNameData);
+			totalSize += currNameData.length;
+		}
+
+		short result = OSMemAlloc((short) 0, totalSize, rethNames);
+		if (result!=NOERROR)
+			return result;
+
+		//all NAMES_LIST header variants start with WORD NumNames
+		Pointer ptr = m_memoryBlocks.get(rethNames.getValue()).m_memory;
+		ptr.setShort(0, (short) (names.size() & 0xffff));
+		int offset = headerSize;
+		for (byte[] currNameData : namesLMBCS) {
+			ptr.write(offset, currNameData, 0, currNameData.length);
+			offset += currNameData.length;
+		}
+		return NOERROR;
+	}
+
+	public short NSFBuildNamesList(Memory UserName, int dwFlags, LongByReference rethNamesList) {
+		return CreateNamesListFromSingleName(null, (short) 0, null, UserName, rethNamesList);
+	}
+
+	// ---------------------------------------------------------------------------------
+	// ID tables
+	// ---------------------------------------------------------------------------------
+
+	private SimulatedIDTable getIDTable(long hTable) {
+		SimulatedIDTable table = m_idTables.get(hTable);
+		if (table==null)
+			throw new NotesError(ERR_BAD_PARAM, "Invalid ID table handle: "+hTable);
+		return table;
+	}
+
+	private SimulatedIDTable getIDTable(Pointer pIDTable) {
+		SimulatedIDTable table = m_idTablesByAddress.get(Pointer.nativeValue(pIDTable));
+		if (table==null)
+			throw new NotesError(ERR_BAD_PARAM, "Invalid ID table pointer: "+pIDTable);
+		return table;
+	}
+
+	private long registerIDTable(SimulatedIDTable table) {
+		long handle = newHandle();
+		m_idTables.put(handle, table);
+		m_idTablesByAddress.put(Pointer.nativeValue(table.getHeader()), table);
+		m_memoryBlocks.put(handle, new MemoryBlock(table.getHeader(), (int) table.getHeader().size()));
+		return handle;
+	}
+
+	public short IDCreateTable(int alignment, LongByReference rethTable) {
+		rethTable.setValue(registerIDTable(new SimulatedIDTable()));
+		return NOERROR;
+	}
+
+	public short IDDestroyTable(long hTable) {
+		SimulatedIDTable table = m_idTables.remove(hTable);
+		if (table==null)
+			return ERR_BAD_PARAM;
+		m_idTablesByAddress.remove(Pointer.nativeValue(table.getHeader()));
+		m_memoryBlocks.remove(hTable);
+		return NOERROR;
+	}
+
+	public short IDInsert(long hTable, int id, IntByReference retfInserted) {
+		SimulatedIDTable table = getIDTable(hTable);
+		boolean inserted = table.insert(id);
+		if (inserted) {
+			table.setFlags((short) (table.getFlags() | NotesConstants.IDTABLE_MODIFIED));
+		}
+		if (retfInserted!=null) {
+			retfInserted.setValue(inserted ? 1 : 0);
+		}
+		return NOERROR;
+	}
+
+	public short IDDelete(long hTable, int id, IntByReference retfDeleted) {
+		SimulatedIDTable table = getIDTable(hTable);
+		boolean deleted = table.delete(id);
+		if (deleted) {
+			table.setFlags((short) (table.getFlags() | NotesConstants.IDTABLE_MODIFIED));
+		}
+		if (retfDeleted!=null) {
+			retfDeleted.setValue(deleted ? 1 : 0);
+		}
+		return NOERROR;
+	}
+
+	public short IDInsertRange(long hTable, int IDFrom, int IDTo, boolean AddToEnd) {
+		SimulatedIDTable table = getIDTable(hTable);
+		//note ids are multiples of 4
+		List<Integer> ids = new ArrayList<Integer>();
+		for (long currId=IDFrom & 0xffffffffL; currId<=(IDTo & 0xffffffffL); currId+=4) {
+			ids.add((int) currId);
+		}
+		table.insertAll(ids);
+		table.setFlags((short) (table.getFlags() | NotesConstants.IDTABLE_MODIFIED));
+		return NOERROR;
+	}
+
+	public short IDInsertTable(long hTable, long hIDsToAdd) {
+		getIDTable(hTable).insertAll(getIDTable(hIDsToAdd).getIds());
+		return NOERROR;
+	}
+
+	public short IDDeleteTable(long hTable, long hIDsToDelete) {
+		getIDTable(hTable).deleteAll(getIDTable(hIDsToDelete).getIds());
+		return NOERROR;
+	}
+
+	public short IDDeleteAll(long hTable) {
+		getIDTable(hTable).clear();
+		return NOERROR;
+	}
+
+	public boolean IDScan(long hTable, boolean fFirst, IntByReference retID) {
+		Integer id = getIDTable(hTable).scan(fFirst);
+		if (id==null) {
+			return false;
+		}
+		retID.setValue(id.intValue());
+		return true;
+	}
+
+	public boolean IDScanBack(long hTable, boolean fLast, IntByReference retID) {
+		Integer id = getIDTable(hTable).scanBack(fLast);
+		if (id==null) {
+			return false;
+		}
+		retID.setValue(id.intValue());
+		return true;
+	}
+
+	public int IDEntries(long hTable) {
+		return getIDTable(hTable).size();
+	}
+
+	public boolean IDIsPresent(long hTable, int id) {
+		return getIDTable(hTable).contains(id);
+	}
+
+	public int IDTableSize(long hTable) {
+		return getIDTable(hTable).sizeInBytes();
+	}
+
+	public int IDTableSizeP(Pointer pIDTable) {
+		return getIDTable(pIDTable).sizeInBytes();
+	}
+
+	public short IDTableCopy(long hTable, LongByReference rethTable) {
+		SimulatedIDTable table = getIDTable(hTable);
+		SimulatedIDTable copy = new SimulatedIDTable();
+		copy.replaceIds(table.getIds());
+		copy.setFlags(table.getFlags());
+		copy.setTimeInnards(table.getTimeInnards());
+		rethTable.setValue(registerIDTable(copy));
+		return NOERROR;
+	}
+
+	public short IDTableIntersect(long hSrc1Table, long hSrc2Table, LongByReference rethDstTable) {
+		SimulatedIDTable table2 = getIDTable(hSrc2Table);
+		List<Integer> ids = new ArrayList<Integer>();
+		for (Integer currId : getIDTable(hSrc1Table).getIds()) {
+			if (table2.contains(currId)) {
+				ids.add(currId);
+			}
+		}
+		SimulatedIDTable dstTable = new SimulatedIDTable();
+		dstTable.replaceIds(ids);
+		rethDstTable.setValue(registerIDTable(dstTable));
+		return NOERROR;
+	}
+
+	public boolean IDAreTablesEqual(long hSrc1Table, long hSrc2Table) {
+		return getIDTable(hSrc1Table).getIds().equals(getIDTable(hSrc2Table).getIds());
+	}
+
+	public short IDTableDifferences(long idtable1, long idtable2, LongByReference outputidtableAdds,
+			LongByReference outputidtableDeletes, LongByReference outputidtableSame) {
+		SimulatedIDTable table1 = getIDTable(idtable1);
+		SimulatedIDTable table2 = getIDTable(idtable2);
+
+		List<Integer> adds = new ArrayList<Integer>();
+		List<Integer> deletes = new ArrayList<Integer>();
+		List<Integer> same = new ArrayList<Integer>();
+		for (Integer currId : table2.getIds()) {
+			if (table1.contains(currId)) {
+				same.add(currId);
+			}
+			else {
+				adds.add(currId);
+			}
+		}
+		for (Integer currId : table1.getIds()) {
+			if (!table2.contains(currId)) {
+				deletes.add(currId);
+			}
+		}
+
+		SimulatedIDTable addsTable = new SimulatedIDTable();
+		addsTable.replaceIds(adds);
+		SimulatedIDTable deletesTable = new SimulatedIDTable();
+		deletesTable.replaceIds(deletes);
+		SimulatedIDTable sameTable = new SimulatedIDTable();
+		sameTable.replaceIds(same);
+
+		outputidtableAdds.setValue(registerIDTable(addsTable));
+		outputidtableDeletes.setValue(registerIDTable(deletesTable));
+		outputidtableSame.setValue(registerIDTable(sameTable));
+		return NOERROR;
+	}
+
+	public short IDTableReplaceExtended(long idtableSrc, long idtableDest, byte flags) {
+		SimulatedIDTable srcTable = getIDTable(idtableSrc);
+		SimulatedIDTable destTable = getIDTable(idtableDest);
+		destTable.replaceIds(srcTable.getIds());
+		if ((flags & NotesConstants.IDREPLACE_SAVEDEST)==0) {
+			destTable.setFlags(srcTable.getFlags());
+			destTable.setTimeInnards(srcTable.getTimeInnards());
+		}
+		return NOERROR;
+	}
+
+	public short IDEnumerate(long hTable, NotesCallbacks.IdEnumerateProc Routine, Pointer Parameter) {
+		for (Integer currId : getIDTable(hTable).getIds()) {
+			short result = Routine.invoke(Parameter, currId.intValue());
+			if (result!=NOERROR) {
+				return result;
+			}
+		}
+		return NOERROR;
+	}
+
+	public short IDTableFlags(Pointer pIDTable) {
+		return getIDTable(pIDTable).getFlags();
+	}
+
+	public void IDTableSetFlags(Pointer pIDTable, short Flags) {
+		getIDTable(pIDTable).setFlags(Flags);
+	}
+
+	public void IDTableSetTime(Pointer pIDTable, NotesTimeDateStruct Time) {
+		getIDTable(pIDTable).setTimeInnards(Time==null ? new int[2] : Time.Innards);
+	}
+
+	public NotesTimeDateStruct IDTableTime(Pointer pIDTable) {
+		return NotesTimeDateStruct.newInstance(getIDTable(pIDTable).getTimeInnards());
+	}
+
+	// ---------------------------------------------------------------------------------
+	// Databases
+	// ---------------------------------------------------------------------------------
+
+	private SimulatedDatabase getOpenDatabase(long hDB) {
+		SimulatedDatabase db = m_openDatabases.get(hDB);
+		if (db==null)
+			throw new NotesError(ERR_BAD_PARAM, "Invalid database handle: "+hDB);
+		return db;
+	}
+
+	public short NSFDbOpen(Memory dbName, LongByReference dbHandle) {
+		return NSFDbOpenExtended(dbName, (short) 0, 0, null, dbHandle, null, null);
+	}
+
+	public short NSFDbOpenExtended(Memory PathName, short Options, long hNames, NotesTimeDateStruct ModifiedTime,
+			LongByReference rethDB, NotesTimeDateStruct retDataModified, NotesTimeDateStruct retNonDataModified) {
+		String path = readString(PathName);
+		int iPos = path.indexOf("!!");
+		if (iPos!=-1) {
+			path = path.substring(iPos+2);
+		}
+		SimulatedDatabase db = SimulatedNotesBackend.getDatabase(path);
+		if (db==null) {
+			return ERR_OPEN_FILE;
+		}
+		long handle = newHandle();
+		m_openDatabases.put(handle, db);
+		rethDB.setValue(handle);
+
+		int[] lastModified = db.getLastModified().getInnards();
+		setInnards(retDataModified, lastModified);
+		setInnards(retNonDataModified, lastModified);
+		return NOERROR;
+	}
+
+	public short NSFDbClose(long dbHandle) {
+		return m_openDatabases.remove(dbHandle)==null ? ERR_BAD_PARAM : NOERROR;
+	}
+
+	public short NSFDbModeGet(long hDB, ShortByReference retMode) {
+		getOpenDatabase(hDB);
+		retMode.setValue(NotesConstants.DB_LOADED);
+		return NOERROR;
+	}
+
+	public void NSFDbPathGet(long hDB, Memory retCanonicalPathName, Memory retExpandedPathName) {
+		String path = getOpenDatabase(hDB).getFilePath();
+		writeString(path, retCanonicalPathName, maxLength(retCanonicalPathName, NotesConstants.MAXPATH));
+		writeString(path, retExpandedPathName, maxLength(retExpandedPathName, NotesConstants.MAXPATH));
+	}
+
+	public short NSFDbIDGet(long hDB, NotesTimeDateStruct retDbID) {
+		setInnards(retDbID, getOpenDatabase(hDB).getDbIdInnards());
+		return NOERROR;
+	}
+
+	public short NSFDbReplicaInfoGet(long hDB, NotesDbReplicaInfoStruct retReplicationInfo) {
+		int[] replicaIdInnards = getOpenDatabase(hDB).getReplicaIdInnards();
+		if (retReplicationInfo.ID==null) {
+			retReplicationInfo.ID = NotesTimeDateStruct.newInstance();
+		}
+		retReplicationInfo.ID.Innards[0] = replicaIdInnards[0];
+		retReplicationInfo.ID.Innards[1] = replicaIdInnards[1];
+		retReplicationInfo.write();
+		return NOERROR;
+	}
+
+	public short NSFDbModifiedTime(long hDB, NotesTimeDateStruct retDataModified, NotesTimeDateStruct retNonDataModified) {
+		int[] lastModified = getOpenDatabase(hDB).getLastModified().getInnards();
+		setInnards(retDataModified, lastModified);
+		setInnards(retNonDataModified, lastModified);
+		return NOERROR;
+	}
+
+	public short NSFDbGetMultNoteInfo(long hDb, short Count, short Options, long hInBuf, IntByReference retSize,
+			LongByReference rethOutBuf) {
+		SimulatedDatabase db = getOpenDatabase(hDb);
+		int count = Count & 0xffff;
+		Pointer inBuf = getMemoryBlock(hInBuf).m_memory;
+		SimulatedNote[] notes = new SimulatedNote[count];
+		for (int i=0; i<count; i++) {
+			notes[i] = db.getNoteById(inBuf.getInt(i*4));
+		}
+		return writeMultNoteInfo(notes, retSize, rethOutBuf);
+	}
+
+	public short NSFDbGetMultNoteInfoByUNID(long hDB, short Count, short Options, long hInBuf, IntByReference retSize,
+			LongByReference rethOutBuf) {
+		SimulatedDatabase db = getOpenDatabase(hDB);
+		int count = Count & 0xffff;
+		Pointer inBuf = getMemoryBlock(hInBuf).m_memory;
+		SimulatedNote[] notes = new SimulatedNote[count];
+		for (int i=0; i<count; i++) {
+			notes[i] = db.getNoteByUNID(NotesStringUtils.pointerToUnid(inBuf.share(i*16)));
+		}
+		return writeMultNoteInfo(notes, retSize, rethOutBuf);
+	}
+
+	/**
+	 * Writes the result of NSFDbGetMultNoteInfo(ByUNID): note id and ORIGINATORID per note,
+	 * note id 0 for notes that do not exist and flagged with RRV_DELETED for deletion stubs
+	 *
+	 * @param notes notes or null entries
+	 * @param retSize returns the size of the result buffer
+	 * @param rethOutBuf returns the handle of the result buffer
+	 * @return status
+	 */
+	private short writeMultNoteInfo(SimulatedNote[] notes, IntByReference retSize, LongByReference rethOutBuf) {
+		int entrySize = 4 + NotesConstants.oidSize;
+		LongByReference rethBuf = new LongByReference();
+		short result = OSMemAlloc((short) 0, notes.length * entrySize, rethBuf);
+		if (result!=NOERROR)
+			return result;
+
+		Pointer outBuf = getMemoryBlock(rethBuf.getValue()).m_memory;
+		for (int i=0; i<notes.length; i++) {
+			SimulatedNote note = notes[i];
+			if (note==null) {
+				continue;
+			}
+			int offset = i * entrySize;
+			outBuf.setInt(offset, note.isDeleted() ? (int) (note.getNoteId() | NotesConstants.RRV_DELETED) : note.getNoteId());
+			int[] oidFile = note.getOIDFileInnards();
+			int[] oidNote = note.getOIDNoteInnards();
+			int[] modified = note.getModifiedInnards();
+			outBuf.setInt(offset+4, oidFile[0]);
+			outBuf.setInt(offset+8, oidFile[1]);
+			outBuf.setInt(offset+12, oidNote[0]);
+			outBuf.setInt(offset+16, oidNote[1]);
+			outBuf.setInt(offset+20, note.getSequence());
+			outBuf.setInt(offset+24, modified[0]);
+			outBuf.setInt(offset+28, modified[1]);
+		}
+		retSize.setValue(notes.length * entrySize);
+		rethOutBuf.setValue(rethBuf.getValue());
+		return NOERROR;
+	}
+
+	public short NSFDbGetModifiedNoteTable(long hDB, short NoteClassMask, NotesTimeDateStruct.ByValue Since,
+			NotesTimeDateStruct retUntil, LongByReference rethTable) {
+		SimulatedDatabase db = getOpenDatabase(hDB);
+		int[] untilInnards = db.nextTimeInnards();
+		long sinceMillis = toSinceMillis(Since);
+
+		List<Integer> ids = new ArrayList<Integer>();
+		for (SimulatedNote currNote : db.getNotes()) {
+			if ((currNote.getNoteClass() & NoteClassMask)==0) {
+				continue;
+			}
+			if (NotesDateTimeUtils.innardsToMillis(currNote.getModifiedInnards()) <= sinceMillis) {
+				continue;
+			}
+			//deleted notes are flagged with the high order bit
+			ids.add(currNote.isDeleted() ? (int) (currNote.getNoteId() | NotesConstants.NOTEID_RESERVED) : currNote.getNoteId());
+		}
+		SimulatedIDTable table = new SimulatedIDTable();
+		table.replaceIds(ids);
+		table.setTimeInnards(untilInnards);
+		rethTable.setValue(registerIDTable(table));
+		setInnards(retUntil, untilInnards);
+		return NOERROR;
+	}
+
+	/**
+	 * Converts the since date of a search
+	 *
+	 * @param since since date or null
+	 * @return milliseconds or {@link Long#MIN_VALUE} to return all notes
+	 */
+	private static long toSinceMillis(NotesTimeDateStruct since) {
+		if (since==null || (since.Innards[0]==0 && since.Innards[1]==0)) {
+			return Long.MIN_VALUE;
+		}
+		try {
+			return NotesDateTimeUtils.innardsToMillis(since.Innards);
+		}
+		catch (IllegalArgumentException e) {
+			//no date part (e.g. a wildcard timedate)
+			return Long.MIN_VALUE;
+		}
+	}
+
+	public short NSFTransactionBegin(long hDB, int flags) {
+		getOpenDatabase(hDB).beginTransaction();
+		return NOERROR;
+	}
+
+	public short NSFTransactionCommit(long hDB, int flags) {
+		return getOpenDatabase(hDB).commitTransaction() ? NOERROR : ERR_BAD_PARAM;
+	}
+
+	public short NSFTransactionRollback(long hDB) {
+		return getOpenDatabase(hDB).rollbackTransaction() ? NOERROR : ERR_BAD_PARAM;
+	}
+
+	// ---------------------------------------------------------------------------------
+	// Notes and items
+	// ---------------------------------------------------------------------------------
+
+	public short NSFNoteOpen(long hDB, int noteId, short openFlags, LongByReference rethNote) {
+		return NSFNoteOpenExt(hDB, noteId, openFlags & 0xffff, rethNote);
+	}
+
+	public short NSFNoteOpenExt(long hDB, int noteId, int flags, LongByReference rethNote) {
+		//all items are summary items, so OPEN_SUMMARY and OPEN_EXPAND do not change the result
+		return openNote(getOpenDatabase(hDB).getNoteById(noteId), rethNote);
+	}
+
+	public short NSFNoteOpenByUNID(long hDB, NotesUniversalNoteIdStruct pUNID, short flags, LongByReference rethNote) {
+		return openNote(getOpenDatabase(hDB).getNoteByUNID(pUNID.toString()), rethNote);
+	}
+
+	private short openNote(SimulatedNote note, LongByReference rethNote) {
+		if (note==null)
+			return ERR_INVALID_NOTE;
+		if (note.isDeleted())
+			return ERR_NOTE_DELETED;
+
+		//copy each item value into its own memory block, so that value BLOCKIDs can be locked
+		List<String> itemNames = note.getItemNames();
+		long[] valueHandles = new long[itemNames.size()];
+		for (int i=0; i<valueHandles.length; i++) {
+			byte[] value = note.getEncodedValue(itemNames.get(i));
+			Memory mem = new Memory(value.length);
+			mem.write(0, value, 0, value.length);
+			valueHandles[i] = newHandle();
+			m_memoryBlocks.put(valueHandles[i], new MemoryBlock(mem, value.length));
+		}
+
+		long handle = newHandle();
+		m_openNotes.put(handle, new OpenNote(note, valueHandles));
+		rethNote.setValue(handle);
+		return NOERROR;
+	}
+
+	private OpenNote getOpenNote(long hNote) {
+		OpenNote note = m_openNotes.get(hNote);
+		if (note==null)
+			throw new NotesError(ERR_BAD_PARAM, "Invalid note handle: "+hNote);
+		return note;
+	}
+
+	public short NSFNoteClose(long hNote) {
+		OpenNote note = m_openNotes.remove(hNote);
+		if (note==null)
+			return ERR_BAD_PARAM;
+		for (long currValueHandle : note.m_valueHandles) {
+			m_memoryBlocks.remove(currValueHandle);
+		}
+		return NOERROR;
+	}
+
+	public void NSFNoteGetInfo(long hNote, short type, Memory retValue) {
+		SimulatedNote note = getOpenNote(hNote).m_note;
+
+		if (type==NotesConstants._NOTE_ID) {
+			retValue.setInt(0, note.getNoteId());
+		}
+		else if (type==NotesConstants._NOTE_OID) {
+			//ORIGINATORID: UNID, sequence number and sequence time
+			int[] oidFile = note.getOIDFileInnards();
+			int[] oidNote = note.getOIDNoteInnards();
+			int[] modified = note.getModifiedInnards();
+			retValue.setInt(0, oidFile[0]);
+			retValue.setInt(4, oidFile[1]);
+			retValue.setInt(8, oidNote[0]);
+			retValue.setInt(12, oidNote[1]);
+			retValue.setInt(16, note.getSequence());
+			retValue.setInt(20, modified[0]);
+			retValue.setInt(24, modified[1]);
+		}
+		else if (type==NotesConstants._NOTE_CLASS) {
+			retValue.setShort(0, note.getNoteClass());
+		}
+		else if (type==NotesConstants._NOTE_MODIFIED) {
+			int[] modified = note.getModifiedInnards();
+			retValue.setInt(0, modified[0]);
+			retValue.setInt(4, modified[1]);
+		}
+		else if (type==NotesConstants._NOTE_FLAGS) {
+			retValue.setShort(0, (short) 0);
+		}
+		else {
+			throw new NotesError(0, "NSFNoteGetInfo is not supported by the simulated Domino backend for type "+type);
+		}
+	}
+
+	/**
+	 * Searches an item of an open note
+	 *
+	 * @param note note
+	 * @param itemName item name or null to find any item
+	 * @param nameLength length of the LMBCS item name
+	 * @param startIndex index of the first item to check
+	 * @param step 1 to search forward, -1 to search backward
+	 * @return item index or -1 if not found
+	 */
+	private static int findItem(OpenNote note, Memory itemName, short nameLength, int startIndex, int step) {
+		String name = itemName==null || nameLength==0 ? null : NotesStringUtils.fromLMBCS(itemName, nameLength & 0xffff);
+		List<String> itemNames = note.m_note.getItemNames();
+		for (int i=startIndex; i>=0 && i<itemNames.size(); i+=step) {
+			if (name==null || name.equalsIgnoreCase(itemNames.get(i))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the item index from an item BLOCKID
+	 *
+	 * @param hNote note handle
+	 * @param itemBlockId item BLOCKID, pool is the note handle and block the item index + 1
+	 * @return item index
+	 */
+	private static int getItemIndex(long hNote, NotesBlockIdStruct itemBlockId) {
+		if (itemBlockId.pool != (int) hNote || itemBlockId.block==0)
+			throw new NotesError(ERR_BAD_PARAM, "Invalid item BLOCKID for note handle "+hNote);
+		return (itemBlockId.block & 0xffff) - 1;
+	}
+
+	/**
+	 * Writes the BLOCKIDs, data type and value length of an item
+	 */
+	private void writeItemInfo(long hNote, OpenNote note, int itemIndex, NotesBlockIdStruct retbhItem, ShortByReference retDataType,
+			NotesBlockIdStruct retbhValue, IntByReference retValueLength) {
+		MemoryBlock valueBlock = getMemoryBlock(note.m_valueHandles[itemIndex]);
+		if (retbhItem!=null) {
+			retbhItem.pool = (int) hNote;
+			retbhItem.block = (short) ((itemIndex+1) & 0xffff);
+			retbhItem.write();
+		}
+		if (retDataType!=null) {
+			retDataType.setValue(valueBlock.m_memory.getShort(0));
+		}
+		if (retbhValue!=null) {
+			retbhValue.pool = (int) note.m_valueHandles[itemIndex];
+			retbhValue.block = 0;
+			retbhValue.write();
+		}
+		if (retValueLength!=null) {
+			retValueLength.setValue(valueBlock.m_size);
+		}
+	}
+
+	public short NSFItemInfo(long note_handle, Memory item_name, short name_len, NotesBlockIdStruct retbhItem,
+			ShortByReference retDataType, NotesBlockIdStruct retbhValue, IntByReference retValueLength) {
+		OpenNote note = getOpenNote(note_handle);
+		int itemIndex = findItem(note, item_name, name_len, 0, 1);
+		if (itemIndex==-1)
+			return INotesErrorConstants.ERR_ITEM_NOT_FOUND;
+		writeItemInfo(note_handle, note, itemIndex, retbhItem, retDataType, retbhValue, retValueLength);
+		return NOERROR;
+	}
+
+	public short NSFItemInfoNext(long note_handle, NotesBlockIdStruct.ByValue NextItem, Memory item_name, short name_len,
+			NotesBlockIdStruct retbhItem, ShortByReference retDataType, NotesBlockIdStruct retbhValue, IntByReference retValueLength) {
+		OpenNote note = getOpenNote(note_handle);
+		int itemIndex = findItem(note, item_name, name_len, getItemIndex(note_handle, NextItem)+1, 1);
+		if (itemIndex==-1)
+			return INotesErrorConstants.ERR_ITEM_NOT_FOUND;
+		writeItemInfo(note_handle, note, itemIndex, retbhItem, retDataType, retbhValue, retValueLength);
+		return NOERROR;
+	}
+
+	public short NSFItemInfoPrev(long note_handle, NotesBlockIdStruct.ByValue CurrItem, Memory item_name, short name_len,
+			NotesBlockIdStruct item_blockid_ptr, ShortByReference value_type_ptr, NotesBlockIdStruct value_blockid_ptr,
+			IntByReference value_len_ptr) {
+		OpenNote note = getOpenNote(note_handle);
+		int itemIndex = findItem(note, item_name, name_len, getItemIndex(note_handle, CurrItem)-1, -1);
+		if (itemIndex==-1)
+			return INotesErrorConstants.ERR_ITEM_NOT_FOUND;
+		writeItemInfo(note_handle, note, itemIndex, item_blockid_ptr, value_type_ptr, value_blockid_ptr, value_len_ptr);
+		return NOERROR;
+	}
+
+	public void NSFItemQueryEx(long note_handle, NotesBlockIdStruct.ByValue item_bid, Memory item_name, short return_buf_len,
+			ShortByReference name_len_ptr, ShortByReference item_flags_ptr, ShortByReference value_datatype_ptr,
+			NotesBlockIdStruct value_bid_ptr, IntByReference value_len_ptr, ByteByReference retSeqByte, ByteByReference retDupItemID) {
+		OpenNote note = getOpenNote(note_handle);
+		int itemIndex = getItemIndex(note_handle, item_bid);
+
+		//the item name is not null terminated
+		Memory nameMem = NotesStringUtils.toLMBCS(note.m_note.getItemNames().get(itemIndex), false);
+		int nameLength = Math.min((int) nameMem.size(), return_buf_len & 0xffff);
+		if (item_name!=null && nameLength>0) {
+			item_name.write(0, nameMem.getByteArray(0, nameLength), 0, nameLength);
+		}
+		if (name_len_ptr!=null) {
+			name_len_ptr.setValue((short) nameLength);
+		}
+		if (item_flags_ptr!=null) {
+			item_flags_ptr.setValue(NotesConstants.ITEM_SUMMARY);
+		}
+		writeItemInfo(note_handle, note, itemIndex, null, value_datatype_ptr, value_bid_ptr, value_len_ptr);
+		if (retSeqByte!=null) {
+			retSeqByte.setValue((byte) 0);
+		}
+		if (retDupItemID!=null) {
+			retDupItemID.setValue((byte) 0);
+		}
+	}
+
+	public short NSFItemScan(long note_handle, NotesCallbacks.NSFItemScanProc ActionRoutine, Pointer RoutineParameter) {
+		OpenNote note = getOpenNote(note_handle);
+		List<String> itemNames = note.m_note.getItemNames();
+		for (int i=0; i<itemNames.size(); i++) {
+			Memory nameMem = NotesStringUtils.toLMBCS(itemNames.get(i), false);
+			MemoryBlock valueBlock = getMemoryBlock(note.m_valueHandles[i]);
+			short result = ActionRoutine.invoke((short) 0, NotesConstants.ITEM_SUMMARY, nameMem, (short) (nameMem.size() & 0xffff),
+					valueBlock.m_memory, valueBlock.m_size, RoutineParameter);
+			if (result!=NOERROR) {
+				return result;
+			}
+		}
+		return NOERROR;
+	}
+
+	// ---------------------------------------------------------------------------------
+	// Formulas
+	// ---------------------------------------------------------------------------------
+
+	public short NSFFormulaCompile(Memory FormulaName, short FormulaNameLength, Memory FormulaText, short FormulaTextLength,
+			LongByReference rethFormula, ShortByReference retFormulaLength, ShortByReference retCompileError,
+			ShortByReference retCompileErrorLine, ShortByReference retCompileErrorColumn,
+			ShortByReference retCompileErrorOffset, ShortByReference retCompileErrorLength) {
+		int textLength = FormulaTextLength & 0xffff;
+		String formula = textLength==0 ? "" : NotesStringUtils.fromLMBCS(FormulaText, textLength).trim();
+		while (formula.endsWith(";")) {
+			formula = formula.substring(0, formula.length()-1).trim();
+		}
+
+		SimulatedFormula compiledFormula;
+		if (FormulaName==null && SELECT_ALL_FORMULA.matcher(formula).matches()) {
+			compiledFormula = new SimulatedFormula(null);
+		}
+		else if (FormulaName!=null && ITEM_NAME_FORMULA.matcher(formula).matches()) {
+			compiledFormula = new SimulatedFormula(formula);
+		}
+		else {
+			retCompileError.setValue(INotesErrorConstants.ERR_FORMULA_COMPILATION);
+			retCompileErrorLine.setValue((short) 1);
+			retCompileErrorColumn.setValue((short) 1);
+			retCompileErrorOffset.setValue((short) 0);
+			retCompileErrorLength.setValue((short) textLength);
+			return INotesErrorConstants.ERR_FORMULA_COMPILATION;
+		}
+
+		short result = OSMemAlloc((short) 0, Math.max(1, textLength), rethFormula);
+		if (result!=NOERROR)
+			return result;
+		if (textLength>0) {
+			m_memoryBlocks.get(rethFormula.getValue()).m_memory.write(0, FormulaText.getByteArray(0, textLength), 0, textLength);
+		}
+		m_formulas.put(rethFormula.getValue(), compiledFormula);
+		retFormulaLength.setValue((short) textLength);
+		return NOERROR;
+	}
+
+	private SimulatedFormula getFormula(long hFormula) {
+		SimulatedFormula formula = m_formulas.get(hFormula);
+		if (formula==null)
+			throw new NotesError(ERR_BAD_PARAM, "Invalid formula handle: "+hFormula);
+		return formula;
+	}
+
+	public short NSFFormulaSummaryItem(long hFormula, Memory ItemName, short ItemNameLength) {
+		String itemName = NotesStringUtils.fromLMBCS(ItemName, ItemNameLength & 0xffff);
+		getFormula(hFormula).addSummaryItem(itemName);
+		return NOERROR;
+	}
+
+	public short NSFFormulaMerge(long hSrcFormula, long hDestFormula) {
+		SimulatedFormula srcFormula = getFormula(hSrcFormula);
+		if (srcFormula.m_itemName==null)
+			return ERR_BAD_PARAM;
+		getFormula(hDestFormula).setLastSummaryItemSource(srcFormula.m_itemName);
+		return NOERROR;
+	}
+
+	// ---------------------------------------------------------------------------------
+	// Search
+	// ---------------------------------------------------------------------------------
+
+	public short NSFSearch(long hDB, long hFormula, Memory viewTitle, short SearchFlags, short NoteClassMask,
+			NotesTimeDateStruct Since, NotesCallbacks.NsfSearchProc enumRoutine, Pointer EnumRoutineParameter,
+			NotesTimeDateStruct retUntil) {
+		return NSFSearchExtended3(hDB, hFormula, 0, NotesConstants.SEARCH_FILTER_NONE, viewTitle, SearchFlags & 0xffff,
+				0, 0, 0, 0, NoteClassMask, Since, enumRoutine, EnumRoutineParameter, retUntil, 0);
+	}
+
+	public short NSFSearchExtended3(long hDB, long hFormula, long hFilter, int filterFlags, Memory ViewTitle,
+			int SearchFlags, int SearchFlags1, int SearchFlags2, int SearchFlags3, int SearchFlags4,
+			short NoteClassMask, NotesTimeDateStruct Since, NotesCallbacks.NsfSearchProc EnumRoutine,
+			Pointer EnumRoutineParameter, NotesTimeDateStruct retUntil, long namelist) {
+		SimulatedDatabase db = getOpenDatabase(hDB);
+		SimulatedFormula formula = hFormula==0 ? null : getFormula(hFormula);
+
+		SimulatedIDTable filterTable = null;
+		if (hFilter!=0) {
+			if ((filterFlags & NotesConstants.SEARCH_FILTER_NOTEID_TABLE)==0)
+				throw new NotesError(0, "Search filter type "+filterFlags+" is not supported by the simulated Domino backend");
+			filterTable = getIDTable(hFilter);
+		}
+
+		if ((SearchFlags & NotesConstants.SEARCH_FILETYPE)!=0)
+			throw new NotesError(0, "Directory searches are not supported by the simulated Domino backend");
+
+		//changes after this date are reported in the next incremental search
+		int[] untilInnards = db.nextTimeInnards();
+		long sinceMillis = toSinceMillis(Since);
+		boolean returnDeletions = sinceMillis!=Long.MIN_VALUE &&
+				(SearchFlags & (NotesConstants.SEARCH_NOTIFYDELETIONS | NotesConstants.SEARCH_ALL_VERSIONS))!=0;
+		boolean withSummary = (SearchFlags & NotesConstants.SEARCH_SUMMARY)!=0;
+		boolean noItemNames = (SearchFlags & NotesConstants.SEARCH_NOITEMNAMES)!=0;
+
+		Memory searchMatch = new Memory(SEARCH_MATCH_SIZE);
+
+		for (SimulatedNote currNote : db.getNotes()) {
+			if ((currNote.getNoteClass() & NoteClassMask)==0) {
+				continue;
+			}
+			if (sinceMillis!=Long.MIN_VALUE && NotesDateTimeUtils.innardsToMillis(currNote.getModifiedInnards()) <= sinceMillis) {
+				continue;
+			}
+			if (filterTable!=null && !filterTable.contains((int) (currNote.getNoteId() | NotesConstants.NOTEID_RESERVED)) &&
+					!filterTable.contains(currNote.getNoteId())) {
+				continue;
+			}
+			if (currNote.isDeleted() && !returnDeletions) {
+				continue;
+			}
+
+			writeSearchMatch(searchMatch, db, currNote);
+
+			Memory summaryBuffer = null;
+			if (withSummary && !currNote.isDeleted()) {
+				summaryBuffer = createSummaryBuffer(currNote, formula, noItemNames);
+				searchMatch.setShort(52, (short) (summaryBuffer.size() & 0xffff));
+			}
+
+			short result = EnumRoutine.invoke(EnumRoutineParameter, searchMatch, summaryBuffer);
+			if (result!=NOERROR) {
+				return result;
+			}
+		}
+
+		setInnards(retUntil, untilInnards);
+		return NOERROR;
+	}
+
+	/**
+	 * Writes a SEARCH_MATCH structure, see {@link com.mindoo.domino.jna.internal.SearchMatchDecoder}
+	 * for the layout
+	 *
+	 * @param mem target memory
+	 * @param db database
+	 * @param note note
+	 */
+	private static void writeSearchMatch(Memory mem, SimulatedDatabase db, SimulatedNote note) {
+		mem.clear();
+
+		//GLOBALINSTANCEID: database id, note modification date, note id
+		int[] dbId = db.getDbIdInnards();
+		mem.setInt(0, dbId[0]);
+		mem.setInt(4, dbId[1]);
+		int[] modified = note.getModifiedInnards();
+		mem.setInt(8, modified[0]);
+		mem.setInt(12, modified[1]);
+		mem.setInt(16, note.getNoteId());
+
+		//ORIGINATORID: UNID, sequence number and sequence time
+		int[] oidFile = note.getOIDFileInnards();
+		int[] oidNote = note.getOIDNoteInnards();
+		mem.setInt(20, oidFile[0]);
+		mem.setInt(24, oidFile[1]);
+		mem.setInt(28, oidNote[0]);
+		mem.setInt(32, oidNote[1]);
+		mem.setInt(36, note.getSequence());
+		mem.setInt(40, modified[0]);
+		mem.setInt(44, modified[1]);
+
+		short noteClass = note.getNoteClass();
+		if (note.isDeleted()) {
+			noteClass = (short) (noteClass | NotesConstants.NOTE_CLASS_NOTIFYDELETION);
+		}
+		mem.setShort(48, noteClass);
+		mem.setByte(50, note.isDeleted() ? NotesConstants.SE_FNOMATCH : NotesConstants.SE_FMATCH);
+		mem.setByte(51, (byte) 0);
+		mem.setShort(52, (short) 0);
+	}
+
+	private static Memory createSummaryBuffer(SimulatedNote note, SimulatedFormula formula, boolean noItemNames) {
+		List<String> itemNames;
+		List<byte[]> values;
+
+		if (formula!=null && !formula.m_summaryItems.isEmpty()) {
+			//computed column values first, followed by the note items (only when item names are written)
+			itemNames = new ArrayList<String>(formula.m_summaryItems.keySet());
+			values = new ArrayList<byte[]>();
+			for (Map.Entry<String,String> currEntry : formula.m_summaryItems.entrySet()) {
+				values.add(note.getEncodedValue(currEntry.getValue()));
+			}
+			if (!noItemNames) {
+				for (String currItemName : note.getItemNames()) {
+					if (!formula.m_summaryItemsLC.contains(currItemName.toLowerCase(Locale.ENGLISH))) {
+						itemNames.add(currItemName);
+						values.add(note.getEncodedValue(currItemName));
+					}
+				}
+			}
+		}
+		else {
+			itemNames = note.getItemNames();
+			values = new ArrayList<byte[]>(itemNames.size());
+			for (String currItemName : itemNames) {
+				values.add(note.getEncodedValue(currItemName));
+			}
+		}
+
+		if (noItemNames) {
+			return SummaryBufferWriter.writeItemValueTable(values);
+		}
+		else {
+			return SummaryBufferWriter.writeItemTable(itemNames, values);
+		}
+	}
+
+	// ---------------------------------------------------------------------------------
+	// HTML conversion
+	// ---------------------------------------------------------------------------------
+
+	public short HTMLCreateConverter(LongByReference phHTML) {
+		long handle = newHandle();
+		m_htmlConverters.put(Long.valueOf(handle), new ArrayList<String>());
+		SimulatedNotesBackend.htmlConverterCreated();
+		phHTML.setValue(handle);
+		return NOERROR;
+	}
+
+	public short HTMLSetHTMLOptions(long hHTML, StringArray optionList) {
+		List<String> options = m_htmlConverters.get(Long.valueOf(hHTML));
+		if (options==null)
+			return ERR_BAD_PARAM;
+		options.addAll(Arrays.asList(optionList.getStringArray(0)));
+		return NOERROR;
+	}
+
+	public short HTMLDestroyConverter(long hHTML) {
+		if (m_htmlConverters.remove(Long.valueOf(hHTML))==null)
+			return ERR_BAD_PARAM;
+		SimulatedNotesBackend.htmlConverterDestroyed();
+		return NOERROR;
+	}
+
+	// ---------------------------------------------------------------------------------
+	// Calendar
+	// ---------------------------------------------------------------------------------
+
+	public short CalReadRange(long hDB, NotesTimeDateStruct.ByValue tdStart, NotesTimeDateStruct.ByValue tdEnd,
+			int dwViewSkipCount, int dwMaxReturnCount, int dwReturnMask, int dwReturnMaskExt, Pointer pFilterInfo,
+			LongByReference hRetCalData, ShortByReference retCalBufferLength, LongByReference hRetUIDData,
+			IntByReference retNumEntriesProcessed, ShortByReference retSignalFlags, int dwFlags, Pointer pCtx) {
+		SimulatedDatabase db = getOpenDatabase(hDB);
+		if (db.consumeCalendarViewChange()) {
+			//view index has changed, nothing read
+			retNumEntriesProcessed.setValue(0);
+			retSignalFlags.setValue((short) NotesConstants.SIGNAL_ANY_CONFLICT);
+			return NOERROR;
+		}
+
+		List<SimulatedNote> entries = getCalendarEntries(db, toSinceMillis(tdStart),
+				tdEnd==null ? Long.MAX_VALUE : NotesDateTimeUtils.innardsToMillis(tdEnd.Innards));
+		int fromIdx = Math.min(Math.max(0, dwViewSkipCount), entries.size());
+		int toIdx = (int) Math.min((long) fromIdx + Math.max(0, dwMaxReturnCount), entries.size());
+		List<SimulatedNote> page = entries.subList(fromIdx, toIdx);
+
+		List<String> uids = new ArrayList<String>(page.size());
+		for (SimulatedNote currNote : page) {
+			Object uid = currNote.getItems().get("ApptUNID");
+			uids.add(uid instanceof String ? (String) uid : currNote.getUNID());
+		}
+
+		if (hRetCalData!=null) {
+			hRetCalData.setValue(0);
+			if (!page.isEmpty()) {
+				StringBuilder sbICal = new StringBuilder("BEGIN:VCALENDAR\r\nVERSION:2.0\r\n");
+				for (int i=0; i<page.size(); i++) {
+					Object subject = page.get(i).getItems().get("Subject");
+					sbICal.append("BEGIN:VEVENT\r\nUID:").append(uids.get(i)).append("\r\n");
+					if (subject!=null) {
+						sbICal.append("SUMMARY:").append(subject).append("\r\n");
+					}
+					sbICal.append("END:VEVENT\r\n");
+				}
+				sbICal.append("END:VCALENDAR\r\n");
+
+				Memory iCalMem = NotesStringUtils.toLMBCS(sbICal.toString(), false);
+				int iCalLength = (int) iCalMem.size();
+				if (iCalLength > 0xffff)
+					return ERR_BAD_PARAM;
+				short result = OSMemAlloc((short) 0, iCalLength, hRetCalData);
+				if (result!=NOERROR)
+					return result;
+				getMemoryBlock(hRetCalData.getValue()).m_memory.write(0, iCalMem.getByteArray(0, iCalLength), 0, iCalLength);
+				retCalBufferLength.setValue((short) (iCalLength & 0xffff));
+			}
+		}
+
+		if (hRetUIDData!=null) {
+			hRetUIDData.setValue(0);
+			if (!uids.isEmpty()) {
+				short result = writeTextList(uids, hRetUIDData);
+				if (result!=NOERROR)
+					return result;
+			}
+		}
+
+		retNumEntriesProcessed.setValue(page.size());
+		retSignalFlags.setValue((short) (toIdx < entries.size() ? NotesConstants.SIGNAL_MORE_TO_DO : 0));
+		return NOERROR;
+	}
+
+	/**
+	 * Returns the calendar entries of a database, which are the notes with a StartDateTime
+	 * item in the specified range, sorted by start date
+	 *
+	 * @param db database
+	 * @param startMillis range start
+	 * @param endMillis range end
+	 * @return entries
+	 */
+	private static List<SimulatedNote> getCalendarEntries(SimulatedDatabase db, long startMillis, long endMillis) {
+		final Map<SimulatedNote,Long> startDates = new HashMap<SimulatedNote,Long>();
+		for (SimulatedNote currNote : db.getNotes()) {
+			if (currNote.isDeleted()) {
+				continue;
+			}
+			Object startDateTime = currNote.getItems().get("StartDateTime");
+			long startDateMillis;
+			if (startDateTime instanceof NotesTimeDate) {
+				startDateMillis = NotesDateTimeUtils.innardsToMillis(((NotesTimeDate) startDateTime).getInnards());
+			}
+			else if (startDateTime instanceof Calendar) {
+				startDateMillis = ((Calendar) startDateTime).getTimeInMillis();
+			}
+			else if (startDateTime instanceof Date) {
+				startDateMillis = ((Date) startDateTime).getTime();
+			}
+			else {
+				continue;
+			}
+			if (startDateMillis>=startMillis && startDateMillis<=endMillis) {
+				startDates.put(currNote, startDateMillis);
+			}
+		}
+
+		List<SimulatedNote> entries = new ArrayList<SimulatedNote>(startDates.keySet());
+		Collections.sort(entries, new Comparator<SimulatedNote>() {
+
+			@Override
+			public int compare(SimulatedNote o1, SimulatedNote o2) {
+				int result = startDates.get(o1).compareTo(startDates.get(o2));
+				return result!=0 ? result : (o1.getNoteId() < o2.getNoteId() ? -1 : (o1.getNoteId()==o2.getNoteId() ? 0 : 1));
+			}
+		});
+		return entries;
+	}
+
+	/**
+	 * Writes a LIST structure: USHORT ListEntries, USHORT lengths[ListEntries], packed LMBCS text
+	 *
+	 * @param values list values
+	 * @param rethList returns the handle of the list
+	 * @return status
+	 */
+	private short writeTextList(List<String> values, LongByReference rethList) {
+		List<byte[]> valuesLMBCS = new ArrayList<byte[]>(values.size());
+		int size = 2 + 2*values.size();
+		for (String currValue : values) {
+			Memory mem = NotesStringUtils.toLMBCS(currValue, false);
+			byte[] data = mem==null ? new byte[0] : mem.getByteArray(0, (int) mem.size());
+			valuesLMBCS.add(data);
+			size += data.length;
+		}
+		short result = OSMemAlloc((short) 0, size, rethList);
+		if (result!=NOERROR)
+			return result;
+
+		Pointer listPtr = getMemoryBlock(rethList.getValue()).m_memory;
+		listPtr.setShort(0, (short) values.size());
+		int textOffset = 2 + 2*values.size();
+		for (int i=0; i<valuesLMBCS.size(); i++) {
+			byte[] data = valuesLMBCS.get(i);
+			listPtr.setShort(2 + 2*i, (short) data.length);
+			listPtr.write(textOffset, data, 0, data.length);
+			textOffset += data.length;
+		}
+		return NOERROR;
+	}
+
+	// ---------------------------------------------------------------------------------
+	// Message queues
+	// ---------------------------------------------------------------------------------
+
+	private SimulatedMessageQueue getOpenQueue(int queue) {
+		return m_openQueues.get(Long.valueOf(queue));
+	}
+
+	public short MQCreate(Memory queueName, short quota, int options) {
+		SimulatedMessageQueue mq = SimulatedNotesBackend.createMessageQueue(readString(queueName), quota & 0xffff);
+		return mq==null ? INotesErrorConstants.ERR_DUPLICATE_MQ : NOERROR;
+	}
+
+	public short MQOpen(Memory queueName, int options, IntByReference retQueue) {
+		String name = readString(queueName);
+		SimulatedMessageQueue mq = SimulatedNotesBackend.getMessageQueue(name);
+		if (mq==null) {
+			if ((options & NotesConstants.MQ_OPEN_CREATE)==0) {
+				return INotesErrorConstants.ERR_NO_SUCH_MQ;
+			}
+			SimulatedNotesBackend.createMessageQueue(name, 0);
+			mq = SimulatedNotesBackend.getMessageQueue(name);
+		}
+		int handle = (int) newHandle();
+		m_openQueues.put(Long.valueOf(handle), mq);
+		retQueue.setValue(handle);
+		return NOERROR;
+	}
+
+	public short MQClose(int queue, int options) {
+		return m_openQueues.remove(Long.valueOf(queue))==null ? ERR_BAD_PARAM : NOERROR;
+	}
+
+	public short MQPut(int queue, short priority, Pointer buffer, short length, int options) {
+		SimulatedMessageQueue mq = getOpenQueue(queue);
+		if (mq==null)
+			return ERR_BAD_PARAM;
+		if (mq.isQuitPending())
+			return INotesErrorConstants.ERR_MQ_QUITTING;
+
+		int msgLength = length & 0xffff;
+		byte[] data = msgLength==0 ? new byte[0] : buffer.getByteArray(0, msgLength);
+		return mq.put(data, priority & 0xffff) ? NOERROR : INotesErrorConstants.ERR_MQ_EXCEEDED_QUOTA;
+	}
+
+	public short MQGet(int queue, Pointer buffer, short bufLength, int options, int timeout, ShortByReference retMsgLength) {
+		SimulatedMessageQueue mq = getOpenQueue(queue);
+		if (mq==null)
+			return ERR_BAD_PARAM;
+
+		synchronized (mq) {
+			long deadline = System.currentTimeMillis() + timeout;
+			while (mq.getMessageList().isEmpty() && !mq.isQuitPending() && (options & NotesConstants.MQ_WAIT_FOR_MSG)!=0) {
+				long waitMillis = timeout==0 ? 0 : deadline - System.currentTimeMillis();
+				if (timeout!=0 && waitMillis<=0) {
+					return INotesErrorConstants.ERR_MQ_TIMEOUT;
+				}
+				try {
+					mq.wait(waitMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return INotesErrorConstants.ERR_MQ_TIMEOUT;
+				}
+			}
+			if (mq.isQuitPending())
+				return INotesErrorConstants.ERR_MQ_QUITTING;
+			if (mq.getMessageList().isEmpty())
+				return INotesErrorConstants.ERR_MQ_EMPTY;
+
+			SimulatedMessageQueue.Message msg = mq.getMessageList().get(0);
+			if (msg.m_data.length > (bufLength & 0xffff))
+				return INotesErrorConstants.ERR_MQ_BFR_TOO_SMALL;
+			mq.getMessageList().remove(0);
+			buffer.write(0, msg.m_data, 0, msg.m_data.length);
+			if (retMsgLength!=null) {
+				retMsgLength.setValue((short) (msg.m_data.length & 0xffff));
+			}
+			return NOERROR;
+		}
+	}
+
+	public short MQScan(int queue, Pointer buffer, short bufLength, int options, NotesCallbacks.MQScanCallback actionRoutine,
+			Pointer ctx, ShortByReference retMsgLength) {
+		SimulatedMessageQueue mq = getOpenQueue(queue);
+		if (mq==null)
+			return ERR_BAD_PARAM;
+
+		//like the C API, the queue is locked while the action routine runs
+		synchronized (mq) {
+			if (mq.isQuitPending())
+				return INotesErrorConstants.ERR_MQ_QUITTING;
+
+			short scanError = mq.takeScanError();
+			Iterator<SimulatedMessageQueue.Message> msgsIt = mq.getMessageList().iterator();
+			while (msgsIt.hasNext()) {
+				SimulatedMessageQueue.Message msg = msgsIt.next();
+				Memory msgMem = new Memory(Math.max(1, msg.m_data.length));
+				if (msg.m_data.length>0) {
+					msgMem.write(0, msg.m_data, 0, msg.m_data.length);
+				}
+				short action = actionRoutine.invoke(msgMem, (short) (msg.m_data.length & 0xffff), (short) (msg.m_priority & 0xffff), ctx);
+				if (action==INotesErrorConstants.ERR_MQSCAN_DELETE) {
+					msgsIt.remove();
+				}
+				else if (action==INotesErrorConstants.ERR_MQSCAN_DEQUEUE) {
+					if (buffer==null || msg.m_data.length > (bufLength & 0xffff))
+						return INotesErrorConstants.ERR_MQ_BFR_TOO_SMALL;
+					msgsIt.remove();
+					buffer.write(0, msg.m_data, 0, msg.m_data.length);
+					if (retMsgLength!=null) {
+						retMsgLength.setValue((short) (msg.m_data.length & 0xffff));
+					}
+					return NOERROR;
+				}
+				else if (action!=NOERROR) {
+					return action;
+				}
+			}
+			return scanError!=NOERROR ? scanError : INotesErrorConstants.ERR_MQ_EMPTY;
+		}
+	}
+
+	public void MQPutQuitMsg(int queue) {
+		SimulatedMessageQueue mq = getOpenQueue(queue);
+		if (mq!=null) {
+			mq.putQuitMsg();
+		}
+	}
+
+	public boolean MQIsQuitPending(int queue) {
+		SimulatedMessageQueue mq = getOpenQueue(queue);
+		return mq!=null && mq.isQuitPending();
+	}
+
+	public short MQGetCount(int queue) {
+		SimulatedMessageQueue mq = getOpenQueue(queue);
+		return (short) (mq==null ? 0 : mq.getCount() & 0xffff);
+	}
+
+	/**
+	 * Memory allocated for a handle
+	 */
+	private static class MemoryBlock {
+		private final Memory m_memory;
+		private final int m_size;
+		private final AtomicInteger m_lockCount = new AtomicInteger();
+
+		private MemoryBlock(Memory memory, int size) {
+			m_memory = memory;
+			m_size = size;
+		}
+	}
+
+	/**
+	 * Note opened via NSFNoteOpen with the memory handles of its item values
+	 */
+	private static class OpenNote {
+		private final SimulatedNote m_note;
+		private final long[] m_valueHandles;
+
+		private OpenNote(SimulatedNote note, long[] valueHandles) {
+			m_note = note;
+			m_valueHandles = valueHandles;
+		}
+	}
+
+	/**
+	 * Compiled formula; either a selection formula that matches all notes or a column
+	 * formula that returns an item value
+	 */
+	private static class SimulatedFormula {
+		private final String m_itemName;
+		/** programmatic column names and the items to read their values from */
+		private final LinkedHashMap<String,String> m_summaryItems;
+		private final java.util.Set<String> m_summaryItemsLC;
+		private String m_lastSummaryItem;
+
+		private SimulatedFormula(String itemName) {
+			m_itemName = itemName;
+			m_summaryItems = new LinkedHashMap<String,String>();
+			m_summaryItemsLC = new java.util.HashSet<String>();
+		}
+
+		private synchronized void addSummaryItem(String itemName) {
+			//without a column formula, the column returns the item with the same name
+			m_summaryItems.put(itemName, itemName);
+			m_summaryItemsLC.add(itemName.toLowerCase(Locale.ENGLISH));
+			m_lastSummaryItem = itemName;
+		}
+
+		private synchronized void setLastSummaryItemSource(String sourceItemName) {
+			if (m_lastSummaryItem!=null) {
+				m_summaryItems.put(m_lastSummaryItem, sourceItemName);
+			}
+		}
+	}
+}
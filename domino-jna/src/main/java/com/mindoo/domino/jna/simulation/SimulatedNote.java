@@ -0,0 +1,178 @@
+package com.mindoo.domino.jna.simulation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Formatter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.internal.NotesConstants;
+
+/**
+ * Immutable state of a note stored in a {@link SimulatedDatabase}. Every change to
+ * a note produces a new instance with an incremented sequence number.
+ *
+ * @author Karsten Lehmann
+ */
+public class SimulatedNote {
+	private final int m_noteId;
+	private final int[] m_oidFileInnards;
+	private final int[] m_oidNoteInnards;
+	private final int m_sequence;
+	private final int[] m_modifiedInnards;
+	private final short m_noteClass;
+	private final boolean m_deleted;
+	private final Map<String,Object> m_items;
+	/** LMBCS encoded item values (data type WORD followed by the value), key is the lowercase item name */
+	private final Map<String,byte[]> m_encodedValuesByLowerName;
+	private final List<String> m_itemNames;
+	private String m_unid;
+
+	SimulatedNote(int noteId, int[] oidFileInnards, int[] oidNoteInnards, int sequence, int[] modifiedInnards,
+			short noteClass, boolean deleted, Map<String,Object> items) {
+		m_noteId = noteId;
+		m_oidFileInnards = oidFileInnards;
+		m_oidNoteInnards = oidNoteInnards;
+		m_sequence = sequence;
+		m_modifiedInnards = modifiedInnards;
+		m_noteClass = noteClass;
+		m_deleted = deleted;
+
+		Map<String,Object> itemsCopy = new LinkedHashMap<String,Object>();
+		m_encodedValuesByLowerName = new HashMap<String,byte[]>();
+		m_itemNames = new ArrayList<String>();
+		if (items!=null) {
+			for (Entry<String,Object> currEntry : items.entrySet()) {
+				String currItemName = currEntry.getKey();
+				if (currItemName==null || currItemName.length()==0)
+					throw new IllegalArgumentException("Item name cannot be empty");
+				Object currValue = currEntry.getValue();
+				if (currValue==null)
+					continue;
+
+				String currItemNameLC = currItemName.toLowerCase(Locale.ENGLISH);
+				if (m_encodedValuesByLowerName.containsKey(currItemNameLC))
+					throw new IllegalArgumentException("Duplicate item name: "+currItemName);
+
+				m_encodedValuesByLowerName.put(currItemNameLC, SummaryBufferWriter.encodeValue(currItemName, currValue));
+				m_itemNames.add(currItemName);
+				itemsCopy.put(currItemName, currValue);
+			}
+		}
+		m_items = Collections.unmodifiableMap(itemsCopy);
+	}
+
+	/**
+	 * Returns the note id
+	 *
+	 * @return note id
+	 */
+	public int getNoteId() {
+		return m_noteId;
+	}
+
+	/**
+	 * Returns the universal id of the note
+	 *
+	 * @return UNID with 32 uppercase hex characters
+	 */
+	public String getUNID() {
+		if (m_unid==null) {
+			Formatter formatter = new Formatter();
+			formatter.format("%08x", m_oidFileInnards[1]);
+			formatter.format("%08x", m_oidFileInnards[0]);
+			formatter.format("%08x", m_oidNoteInnards[1]);
+			formatter.format("%08x", m_oidNoteInnards[0]);
+			m_unid = formatter.toString().toUpperCase(Locale.ENGLISH);
+			formatter.close();
+		}
+		return m_unid;
+	}
+
+	int[] getOIDFileInnards() {
+		return m_oidFileInnards;
+	}
+
+	int[] getOIDNoteInnards() {
+		return m_oidNoteInnards;
+	}
+
+	/**
+	 * Returns the sequence number of the note, incremented on each change
+	 *
+	 * @return sequence number
+	 */
+	public int getSequence() {
+		return m_sequence;
+	}
+
+	int[] getModifiedInnards() {
+		return m_modifiedInnards;
+	}
+
+	/**
+	 * Returns the time of the last modification, also used as sequence time
+	 *
+	 * @return modification date
+	 */
+	public NotesTimeDate getLastModified() {
+		return new NotesTimeDate(m_modifiedInnards);
+	}
+
+	/**
+	 * Returns the note class without the {@link NotesConstants#NOTE_CLASS_NOTIFYDELETION} flag
+	 *
+	 * @return note class bitmask
+	 */
+	public short getNoteClass() {
+		return m_noteClass;
+	}
+
+	/**
+	 * Returns true if the note has been deleted and only a deletion stub is left
+	 *
+	 * @return true if deletion stub
+	 */
+	public boolean isDeleted() {
+		return m_deleted;
+	}
+
+	/**
+	 * Returns the item values of the note
+	 *
+	 * @return unmodifiable map of item name and value
+	 */
+	public Map<String,Object> getItems() {
+		return m_items;
+	}
+
+	/**
+	 * Returns the names of all items in the order they have been set
+	 *
+	 * @return item names
+	 */
+	List<String> getItemNames() {
+		return m_itemNames;
+	}
+
+	/**
+	 * Returns the encoded value of an item
+	 *
+	 * @param itemName item name, case insensitive
+	 * @return data type WORD followed by the value or null if the item does not exist
+	 */
+	byte[] getEncodedValue(String itemName) {
+		return m_encodedValuesByLowerName.get(itemName.toLowerCase(Locale.ENGLISH));
+	}
+
+	@Override
+	public String toString() {
+		return "SimulatedNote [noteid="+m_noteId+", unid="+getUNID()+", seq="+m_sequence+
+				", class="+m_noteClass+", deleted="+m_deleted+", items="+m_items.keySet()+"]";
+	}
+}
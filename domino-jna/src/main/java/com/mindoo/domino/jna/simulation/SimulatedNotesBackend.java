@@ -0,0 +1,202 @@
+package com.mindoo.domino.jna.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.internal.NotesNativeAPI;
+
+/**
+ * Registry of the pure Java Domino backend that replaces the Notes C API for tests and
+ * benchmarks on machines without a Notes Client or Domino server.<br>
+ * <br>
+ * The backend gets activated with the system property <code>dominojna.jnamode=simulated</code>
+ * or by calling {@link NotesNativeAPI#initialize(NotesNativeAPI.Mode)} with
+ * {@link NotesNativeAPI.Mode#Simulated} before the first API call. It is only available
+ * on 64 bit JVMs.<br>
+ * <br>
+ * Only a subset of the C API is simulated (see {@link SimulatedNativeAPI}): OS memory handles, ID tables,
+ * names lists, opening/closing databases, NSFSearch with byte compatible summary buffers,
+ * e.g. via {@link com.mindoo.domino.jna.NotesSearch}, opening notes to read their items
+ * (read-only), NSF transactions, message queues, CalReadRange on the notes with a StartDateTime item
+ * and the lifecycle of HTML converters (without the conversion itself). Calling other C functions produces an error naming the missing function.<br>
+ * <br>
+ * Test code creates databases and notes via this class and {@link SimulatedDatabase}. Item values
+ * can be String, Number, {@link NotesTimeDate}, {@link java.util.Calendar}, {@link java.util.Date}
+ * or collections of one of these types. Server names in database paths are ignored, all simulated
+ * databases are treated as local, and reader fields are not evaluated.
+ *
+ * @author Karsten Lehmann
+ */
+public class SimulatedNotesBackend {
+	private static final String DEFAULT_USERNAME = "CN=Simulated User/O=Simulation";
+
+	private static final ConcurrentHashMap<String,SimulatedDatabase> m_databases = new ConcurrentHashMap<String,SimulatedDatabase>();
+	private static final ConcurrentHashMap<String,SimulatedMessageQueue> m_messageQueues = new ConcurrentHashMap<String,SimulatedMessageQueue>();
+	private static final ConcurrentHashMap<String,String> m_environment = new ConcurrentHashMap<String,String>();
+	private static final AtomicInteger m_htmlConverterCount = new AtomicInteger();
+	private static volatile String m_userName = DEFAULT_USERNAME;
+
+	private static String toKey(String filePath) {
+		return filePath.replace('\\', '/').toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Creates a new empty database
+	 *
+	 * @param filePath path relative to the data directory, e.g. "test/fakenames.nsf"
+	 * @return database
+	 * @throws IllegalArgumentException if a database with this path already exists
+	 */
+	public static SimulatedDatabase createDatabase(String filePath) {
+		return createDatabase(filePath, "");
+	}
+
+	/**
+	 * Creates a new empty database
+	 *
+	 * @param filePath path relative to the data directory, e.g. "test/fakenames.nsf"
+	 * @param title database title
+	 * @return database
+	 * @throws IllegalArgumentException if a database with this path already exists
+	 */
+	public static SimulatedDatabase createDatabase(String filePath, String title) {
+		if (filePath==null || filePath.length()==0)
+			throw new IllegalArgumentException("File path cannot be empty");
+
+		SimulatedDatabase db = new SimulatedDatabase(filePath, title);
+		SimulatedDatabase existingDb = m_databases.putIfAbsent(toKey(filePath), db);
+		if (existingDb!=null)
+			throw new IllegalArgumentException("Database already exists: "+filePath);
+		return db;
+	}
+
+	/**
+	 * Returns a database
+	 *
+	 * @param filePath path relative to the data directory, compared case-insensitive
+	 * @return database or null if not found
+	 */
+	public static SimulatedDatabase getDatabase(String filePath) {
+		return m_databases.get(toKey(filePath));
+	}
+
+	/**
+	 * Returns all databases
+	 *
+	 * @return databases
+	 */
+	public static List<SimulatedDatabase> getDatabases() {
+		return new ArrayList<SimulatedDatabase>(m_databases.values());
+	}
+
+	/**
+	 * Removes a database. Handles that are still open keep working on the removed data.
+	 *
+	 * @param filePath path relative to the data directory
+	 * @return true if the database existed
+	 */
+	public static boolean removeDatabase(String filePath) {
+		return m_databases.remove(toKey(filePath))!=null;
+	}
+
+	/**
+	 * Returns a message queue
+	 *
+	 * @param queueName queue name, compared case-insensitive
+	 * @return queue or null if it has not been created
+	 */
+	public static SimulatedMessageQueue getMessageQueue(String queueName) {
+		return m_messageQueues.get(queueName.toLowerCase(Locale.ENGLISH));
+	}
+
+	/**
+	 * Creates a message queue
+	 *
+	 * @param queueName queue name
+	 * @param quota max number of messages or 0 for the default (65535)
+	 * @return new queue or null if a queue with this name already exists
+	 */
+	static SimulatedMessageQueue createMessageQueue(String queueName, int quota) {
+		SimulatedMessageQueue queue = new SimulatedMessageQueue(queueName, quota);
+		return m_messageQueues.putIfAbsent(queueName.toLowerCase(Locale.ENGLISH), queue)==null ? queue : null;
+	}
+
+	/**
+	 * Returns the number of HTML converters that have been created with HTMLCreateConverter
+	 * and not yet destroyed, e.g. to check that converters do not leak
+	 *
+	 * @return count
+	 */
+	public static int getHtmlConverterCount() {
+		return m_htmlConverterCount.get();
+	}
+
+	static void htmlConverterCreated() {
+		m_htmlConverterCount.incrementAndGet();
+	}
+
+	static void htmlConverterDestroyed() {
+		m_htmlConverterCount.decrementAndGet();
+	}
+
+	/**
+	 * Returns the name of the simulated ID owner
+	 *
+	 * @return canonical username
+	 */
+	public static String getUserName() {
+		return m_userName;
+	}
+
+	/**
+	 * Changes the name of the simulated ID owner
+	 *
+	 * @param userName canonical username
+	 */
+	public static void setUserName(String userName) {
+		if (userName==null || userName.length()==0)
+			throw new IllegalArgumentException("Username cannot be empty");
+		m_userName = userName;
+	}
+
+	/**
+	 * Reads a simulated Notes.ini variable
+	 *
+	 * @param variableName variable name, case-insensitive
+	 * @return value or null if not set
+	 */
+	public static String getEnvironmentString(String variableName) {
+		return m_environment.get(variableName.toLowerCase(Locale.ENGLISH));
+	}
+
+	/**
+	 * Sets a simulated Notes.ini variable, e.g. "ServerName" to simulate running on a server
+	 *
+	 * @param variableName variable name, case-insensitive
+	 * @param value new value or null to remove the variable
+	 */
+	public static void setEnvironmentString(String variableName, String value) {
+		if (value==null) {
+			m_environment.remove(variableName.toLowerCase(Locale.ENGLISH));
+		}
+		else {
+			m_environment.put(variableName.toLowerCase(Locale.ENGLISH), value);
+		}
+	}
+
+	/**
+	 * Removes all databases, message queues and Notes.ini variables, resets the HTML converter
+	 * count and restores the default username
+	 */
+	public static void reset() {
+		m_databases.clear();
+		m_messageQueues.clear();
+		m_htmlConverterCount.set(0);
+		m_environment.clear();
+		m_userName = DEFAULT_USERNAME;
+	}
+}
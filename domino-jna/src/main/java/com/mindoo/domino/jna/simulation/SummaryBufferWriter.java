@@ -0,0 +1,241 @@
+package com.mindoo.domino.jna.simulation;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import com.mindoo.domino.jna.NotesItem;
+import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.internal.NotesConstants;
+import com.mindoo.domino.jna.utils.NotesDateTimeUtils;
+import com.mindoo.domino.jna.utils.NotesStringUtils;
+import com.sun.jna.Memory;
+
+/**
+ * Produces the summary buffers that NSFSearch passes to its callback, byte compatible with
+ * the buffers of the C API so that they can be decoded by
+ * {@link com.mindoo.domino.jna.internal.NotesLookupResultBufferDecoder}.<br>
+ * <br>
+ * Supported item values are String, Number, {@link NotesTimeDate}, {@link Calendar}, {@link Date}
+ * and collections of these types (all elements of the same kind).
+ *
+ * @author Karsten Lehmann
+ */
+class SummaryBufferWriter {
+	private static final int MAX_BUFFER_SIZE = 0xffff;
+
+	/**
+	 * Encodes an item value
+	 *
+	 * @param itemName item name for error messages
+	 * @param value value
+	 * @return data type WORD followed by the value data
+	 * @throws IllegalArgumentException for unsupported value types
+	 */
+	static byte[] encodeValue(String itemName, Object value) {
+		if (value instanceof Collection) {
+			return encodeList(itemName, (Collection<?>) value);
+		}
+		else if (value instanceof String) {
+			byte[] txt = toLMBCS((String) value);
+			ByteBuffer buf = allocate(2 + txt.length);
+			buf.putShort((short) NotesItem.TYPE_TEXT);
+			buf.put(txt);
+			return buf.array();
+		}
+		else if (value instanceof Number) {
+			ByteBuffer buf = allocate(2 + 8);
+			buf.putShort((short) NotesItem.TYPE_NUMBER);
+			buf.putDouble(((Number) value).doubleValue());
+			return buf.array();
+		}
+		else {
+			int[] innards = toInnards(value);
+			if (innards==null)
+				throw new IllegalArgumentException("Unsupported value type for item "+itemName+": "+value.getClass().getName());
+			ByteBuffer buf = allocate(2 + NotesConstants.timeDateSize);
+			buf.putShort((short) NotesItem.TYPE_TIME);
+			buf.putInt(innards[0]);
+			buf.putInt(innards[1]);
+			return buf.array();
+		}
+	}
+
+	private static byte[] encodeList(String itemName, Collection<?> values) {
+		boolean hasText = false;
+		boolean hasNumbers = false;
+		boolean hasTimes = false;
+
+		for (Object currValue : values) {
+			if (currValue instanceof String) {
+				hasText = true;
+			}
+			else if (currValue instanceof Number) {
+				hasNumbers = true;
+			}
+			else if (toInnards(currValue)!=null) {
+				hasTimes = true;
+			}
+			else {
+				throw new IllegalArgumentException("Unsupported list value type for item "+itemName+": "+
+						(currValue==null ? "null" : currValue.getClass().getName()));
+			}
+		}
+		if ((hasText ? 1 : 0) + (hasNumbers ? 1 : 0) + (hasTimes ? 1 : 0) > 1)
+			throw new IllegalArgumentException("List values of item "+itemName+" must all have the same type");
+		if (values.size() > 0xffff)
+			throw new IllegalArgumentException("Too many list values for item "+itemName+": "+values.size());
+
+		if (hasNumbers) {
+			//RANGE header with list entries only, followed by the doubles
+			ByteBuffer buf = allocate(2 + NotesConstants.rangeSize + 8 * values.size());
+			buf.putShort((short) NotesItem.TYPE_NUMBER_RANGE);
+			buf.putShort((short) (values.size() & 0xffff));
+			buf.putShort((short) 0);
+			for (Object currValue : values) {
+				buf.putDouble(((Number) currValue).doubleValue());
+			}
+			return buf.array();
+		}
+		else if (hasTimes) {
+			ByteBuffer buf = allocate(2 + NotesConstants.rangeSize + NotesConstants.timeDateSize * values.size());
+			buf.putShort((short) NotesItem.TYPE_TIME_RANGE);
+			buf.putShort((short) (values.size() & 0xffff));
+			buf.putShort((short) 0);
+			for (Object currValue : values) {
+				int[] innards = toInnards(currValue);
+				buf.putInt(innards[0]);
+				buf.putInt(innards[1]);
+			}
+			return buf.array();
+		}
+		else {
+			//LIST header with the entry count, followed by the entry lengths and the text data;
+			//empty collections are stored as empty text list
+			List<byte[]> entries = new ArrayList<byte[]>(values.size());
+			int textLength = 0;
+			for (Object currValue : values) {
+				byte[] txt = toLMBCS((String) currValue);
+				if (txt.length > 0xffff)
+					throw new IllegalArgumentException("List entry of item "+itemName+" is too long");
+				entries.add(txt);
+				textLength += txt.length;
+			}
+			ByteBuffer buf = allocate(2 + 2 + 2 * entries.size() + textLength);
+			buf.putShort((short) NotesItem.TYPE_TEXT_LIST);
+			buf.putShort((short) (entries.size() & 0xffff));
+			for (byte[] currEntry : entries) {
+				buf.putShort((short) (currEntry.length & 0xffff));
+			}
+			for (byte[] currEntry : entries) {
+				buf.put(currEntry);
+			}
+			return buf.array();
+		}
+	}
+
+	private static int[] toInnards(Object value) {
+		if (value instanceof NotesTimeDate) {
+			return ((NotesTimeDate) value).getInnards();
+		}
+		else if (value instanceof Calendar) {
+			Calendar cal = (Calendar) value;
+			return NotesDateTimeUtils.millisToInnards(cal.getTimeInMillis(), cal.getTimeZone());
+		}
+		else if (value instanceof Date) {
+			return NotesDateTimeUtils.millisToInnards(((Date) value).getTime(), TimeZone.getDefault());
+		}
+		return null;
+	}
+
+	private static byte[] toLMBCS(String str) {
+		Memory mem = NotesStringUtils.toLMBCS(str, false);
+		return mem==null ? new byte[0] : mem.getByteArray(0, (int) mem.size());
+	}
+
+	private static ByteBuffer allocate(int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Writes an ITEM_TABLE with item names and values
+	 *
+	 * @param itemNames item names
+	 * @param encodedValues encoded values, null for missing items
+	 * @return buffer
+	 */
+	static Memory writeItemTable(List<String> itemNames, List<byte[]> encodedValues) {
+		int count = itemNames.size();
+		byte[][] names = new byte[count][];
+		int totalSize = NotesConstants.itemValueTableSize + count * NotesConstants.tableItemSize;
+		for (int i=0; i<count; i++) {
+			names[i] = toLMBCS(itemNames.get(i));
+			byte[] currValue = encodedValues.get(i);
+			totalSize += names[i].length + (currValue==null ? 0 : currValue.length);
+		}
+		checkSize(totalSize);
+
+		ByteBuffer buf = allocate(totalSize);
+		buf.putShort((short) (totalSize & 0xffff));
+		buf.putShort((short) (count & 0xffff));
+		for (int i=0; i<count; i++) {
+			byte[] currValue = encodedValues.get(i);
+			buf.putShort((short) (names[i].length & 0xffff));
+			buf.putShort((short) ((currValue==null ? 0 : currValue.length) & 0xffff));
+		}
+		for (int i=0; i<count; i++) {
+			buf.put(names[i]);
+			byte[] currValue = encodedValues.get(i);
+			if (currValue!=null) {
+				buf.put(currValue);
+			}
+		}
+		return toMemory(buf);
+	}
+
+	/**
+	 * Writes an ITEM_VALUE_TABLE with values only, used for searches with
+	 * {@link NotesConstants#SEARCH_NOITEMNAMES}
+	 *
+	 * @param encodedValues encoded values, null for missing items
+	 * @return buffer
+	 */
+	static Memory writeItemValueTable(List<byte[]> encodedValues) {
+		int count = encodedValues.size();
+		int totalSize = NotesConstants.itemValueTableSize + count * 2;
+		for (byte[] currValue : encodedValues) {
+			totalSize += currValue==null ? 0 : currValue.length;
+		}
+		checkSize(totalSize);
+
+		ByteBuffer buf = allocate(totalSize);
+		buf.putShort((short) (totalSize & 0xffff));
+		buf.putShort((short) (count & 0xffff));
+		for (byte[] currValue : encodedValues) {
+			buf.putShort((short) ((currValue==null ? 0 : currValue.length) & 0xffff));
+		}
+		for (byte[] currValue : encodedValues) {
+			if (currValue!=null) {
+				buf.put(currValue);
+			}
+		}
+		return toMemory(buf);
+	}
+
+	private static void checkSize(int totalSize) {
+		if (totalSize > MAX_BUFFER_SIZE)
+			throw new IllegalStateException("Summary buffer exceeds the maximum size of 64K: "+totalSize);
+	}
+
+	private static Memory toMemory(ByteBuffer buf) {
+		byte[] data = buf.array();
+		Memory mem = new Memory(Math.max(1, data.length));
+		mem.write(0, data, 0, data.length);
+		return mem;
+	}
+}
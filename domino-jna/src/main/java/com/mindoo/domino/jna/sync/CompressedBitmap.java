@@ -0,0 +1,565 @@
+package com.mindoo.domino.jna.sync;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of non-negative int values, e.g. document ids.<br>
+ * <br>
+ * The value range is split into chunks of 65536 values. Each chunk stores its values either
+ * as sorted <code>short</code> array (up to 4096 values) or as a bitset of 1024 <code>long</code>
+ * words, so sparse and dense sets both use little memory and set operations like
+ * {@link #or(CompressedBitmap)} work on whole words.<br>
+ * <br>
+ * Instances are not thread-safe.
+ *
+ * @author Karsten Lehmann
+ */
+public class CompressedBitmap implements Cloneable {
+	/** max number of values in an array container, larger containers use a bitset */
+	private static final int ARRAY_MAX_SIZE = 4096;
+	private static final int BITSET_WORDS = 1024;
+	private static final Container[] NO_CONTAINERS = new Container[0];
+
+	/** containers indexed by the high 16 bits of the values */
+	private Container[] m_containers;
+
+	/**
+	 * Creates a new empty bitmap
+	 */
+	public CompressedBitmap() {
+		m_containers = NO_CONTAINERS;
+	}
+
+	/**
+	 * Adds a value
+	 *
+	 * @param value value, must not be negative
+	 * @return true if the value has been added, false if it was already in the set
+	 */
+	public boolean add(int value) {
+		if (value<0)
+			throw new IllegalArgumentException("Value cannot be negative: "+value);
+
+		int high = value >>> 16;
+		if (high >= m_containers.length) {
+			m_containers = Arrays.copyOf(m_containers, Math.max(high+1, m_containers.length*2));
+		}
+		Container container = m_containers[high];
+		if (container==null) {
+			container = new ArrayContainer();
+			m_containers[high] = container;
+		}
+		int oldCardinality = container.cardinality();
+		m_containers[high] = container.add(value & 0xffff);
+		return m_containers[high].cardinality() != oldCardinality;
+	}
+
+	/**
+	 * Removes a value
+	 *
+	 * @param value value
+	 * @return true if the value has been removed, false if it was not in the set
+	 */
+	public boolean remove(int value) {
+		if (value<0) {
+			return false;
+		}
+		int high = value >>> 16;
+		if (high >= m_containers.length || m_containers[high]==null) {
+			return false;
+		}
+		Container container = m_containers[high];
+		int oldCardinality = container.cardinality();
+		container = container.remove(value & 0xffff);
+		m_containers[high] = container.cardinality()==0 ? null : container;
+		return container.cardinality() != oldCardinality;
+	}
+
+	/**
+	 * Checks if the set contains a value
+	 *
+	 * @param value value
+	 * @return true if found
+	 */
+	public boolean contains(int value) {
+		if (value<0) {
+			return false;
+		}
+		int high = value >>> 16;
+		if (high >= m_containers.length || m_containers[high]==null) {
+			return false;
+		}
+		return m_containers[high].contains(value & 0xffff);
+	}
+
+	/**
+	 * Returns the number of values in the set
+	 *
+	 * @return count
+	 */
+	public int cardinality() {
+		int cardinality = 0;
+		for (Container currContainer : m_containers) {
+			if (currContainer!=null) {
+				cardinality += currContainer.cardinality();
+			}
+		}
+		return cardinality;
+	}
+
+	/**
+	 * Checks if the set is empty
+	 *
+	 * @return true if empty
+	 */
+	public boolean isEmpty() {
+		for (Container currContainer : m_containers) {
+			if (currContainer!=null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Removes all values
+	 */
+	public void clear() {
+		m_containers = NO_CONTAINERS;
+	}
+
+	/**
+	 * Adds all values of another bitmap to this one
+	 *
+	 * @param other other bitmap
+	 */
+	public void or(CompressedBitmap other) {
+		if (other.m_containers.length > m_containers.length) {
+			m_containers = Arrays.copyOf(m_containers, other.m_containers.length);
+		}
+		for (int i=0; i<other.m_containers.length; i++) {
+			Container otherContainer = other.m_containers[i];
+			if (otherContainer!=null) {
+				m_containers[i] = m_containers[i]==null ? otherContainer.clone() : m_containers[i].or(otherContainer);
+			}
+		}
+	}
+
+	/**
+	 * Removes all values from this bitmap that are not contained in another bitmap
+	 *
+	 * @param other other bitmap
+	 */
+	public void and(CompressedBitmap other) {
+		for (int i=0; i<m_containers.length; i++) {
+			if (m_containers[i]!=null) {
+				Container otherContainer = i<other.m_containers.length ? other.m_containers[i] : null;
+				if (otherContainer==null) {
+					m_containers[i] = null;
+				}
+				else {
+					Container result = m_containers[i].and(otherContainer);
+					m_containers[i] = result.cardinality()==0 ? null : result;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all values from this bitmap that are contained in another bitmap
+	 *
+	 * @param other other bitmap
+	 */
+	public void andNot(CompressedBitmap other) {
+		int count = Math.min(m_containers.length, other.m_containers.length);
+		for (int i=0; i<count; i++) {
+			if (m_containers[i]!=null && other.m_containers[i]!=null) {
+				Container result = m_containers[i].andNot(other.m_containers[i]);
+				m_containers[i] = result.cardinality()==0 ? null : result;
+			}
+		}
+	}
+
+	/**
+	 * Returns the smallest value in the set that is greater or equal to <code>fromValue</code>.
+	 * Can be used to iterate over the set without boxing:<br>
+	 * <code>for (int i=bitmap.nextValue(0); i>=0; i=bitmap.nextValue(i+1)) { ... }</code>
+	 *
+	 * @param fromValue start value
+	 * @return value or -1 if there are no more values
+	 */
+	public int nextValue(int fromValue) {
+		if (fromValue<0) {
+			fromValue = 0;
+		}
+		int high = fromValue >>> 16;
+		int low = fromValue & 0xffff;
+		for (; high<m_containers.length; high++) {
+			Container container = m_containers[high];
+			if (container!=null) {
+				int nextLow = container.nextValue(low);
+				if (nextLow!=-1) {
+					return (high << 16) | nextLow;
+				}
+			}
+			low = 0;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns all values in ascending order
+	 *
+	 * @return values
+	 */
+	public int[] toArray() {
+		int[] values = new int[cardinality()];
+		int idx = 0;
+		for (int value=nextValue(0); value>=0; value=nextValue(value+1)) {
+			values[idx++] = value;
+		}
+		return values;
+	}
+
+	@Override
+	public CompressedBitmap clone() {
+		CompressedBitmap clone = new CompressedBitmap();
+		clone.m_containers = new Container[m_containers.length];
+		for (int i=0; i<m_containers.length; i++) {
+			if (m_containers[i]!=null) {
+				clone.m_containers[i] = m_containers[i].clone();
+			}
+		}
+		return clone;
+	}
+
+	@Override
+	public String toString() {
+		return "CompressedBitmap [cardinality="+cardinality()+"]";
+	}
+
+	/**
+	 * Container for the values of one chunk of 65536 values. Modifying operations return
+	 * the container that contains the result, which might be a different container type.
+	 */
+	private static abstract class Container implements Cloneable {
+
+		public abstract Container add(int low);
+
+		public abstract Container remove(int low);
+
+		public abstract boolean contains(int low);
+
+		public abstract int cardinality();
+
+		public abstract int nextValue(int low);
+
+		public abstract BitsetContainer toBitset();
+
+		public abstract Container or(Container other);
+
+		public abstract Container and(Container other);
+
+		public abstract Container andNot(Container other);
+
+		@Override
+		public abstract Container clone();
+	}
+
+	/**
+	 * Container for sparse chunks with values stored in a sorted array
+	 */
+	private static class ArrayContainer extends Container {
+		private short[] m_values;
+		private int m_cardinality;
+
+		public ArrayContainer() {
+			m_values = new short[4];
+		}
+
+		private ArrayContainer(short[] values, int cardinality) {
+			m_values = values;
+			m_cardinality = cardinality;
+		}
+
+		private int indexOf(int low) {
+			int lowIdx = 0;
+			int highIdx = m_cardinality - 1;
+			while (lowIdx <= highIdx) {
+				int mid = (lowIdx + highIdx) >>> 1;
+				int midVal = m_values[mid] & 0xffff;
+				if (midVal < low) {
+					lowIdx = mid + 1;
+				}
+				else if (midVal > low) {
+					highIdx = mid - 1;
+				}
+				else {
+					return mid;
+				}
+			}
+			return -(lowIdx + 1);
+		}
+
+		@Override
+		public Container add(int low) {
+			int idx = indexOf(low);
+			if (idx >= 0) {
+				return this;
+			}
+			if (m_cardinality >= ARRAY_MAX_SIZE) {
+				return toBitset().add(low);
+			}
+			int insertIdx = -idx - 1;
+			if (m_cardinality == m_values.length) {
+				m_values = Arrays.copyOf(m_values, Math.min(ARRAY_MAX_SIZE, m_values.length * 2));
+			}
+			System.arraycopy(m_values, insertIdx, m_values, insertIdx+1, m_cardinality - insertIdx);
+			m_values[insertIdx] = (short) low;
+			m_cardinality++;
+			return this;
+		}
+
+		@Override
+		public Container remove(int low) {
+			int idx = indexOf(low);
+			if (idx >= 0) {
+				System.arraycopy(m_values, idx+1, m_values, idx, m_cardinality - idx - 1);
+				m_cardinality--;
+			}
+			return this;
+		}
+
+		@Override
+		public boolean contains(int low) {
+			return indexOf(low) >= 0;
+		}
+
+		@Override
+		public int cardinality() {
+			return m_cardinality;
+		}
+
+		@Override
+		public int nextValue(int low) {
+			int idx = indexOf(low);
+			if (idx < 0) {
+				idx = -idx - 1;
+			}
+			return idx < m_cardinality ? (m_values[idx] & 0xffff) : -1;
+		}
+
+		@Override
+		public BitsetContainer toBitset() {
+			BitsetContainer bitset = new BitsetContainer();
+			for (int i=0; i<m_cardinality; i++) {
+				bitset.set(m_values[i] & 0xffff);
+			}
+			return bitset;
+		}
+
+		@Override
+		public Container or(Container other) {
+			if (other instanceof BitsetContainer) {
+				return other.clone().or(this);
+			}
+			ArrayContainer otherArr = (ArrayContainer) other;
+			short[] merged = new short[m_cardinality + otherArr.m_cardinality];
+			int count = 0;
+			int i = 0;
+			int j = 0;
+			while (i < m_cardinality && j < otherArr.m_cardinality) {
+				int v1 = m_values[i] & 0xffff;
+				int v2 = otherArr.m_values[j] & 0xffff;
+				if (v1 < v2) {
+					merged[count++] = m_values[i++];
+				}
+				else if (v1 > v2) {
+					merged[count++] = otherArr.m_values[j++];
+				}
+				else {
+					merged[count++] = m_values[i++];
+					j++;
+				}
+			}
+			while (i < m_cardinality) {
+				merged[count++] = m_values[i++];
+			}
+			while (j < otherArr.m_cardinality) {
+				merged[count++] = otherArr.m_values[j++];
+			}
+
+			ArrayContainer result = new ArrayContainer(merged, count);
+			return count > ARRAY_MAX_SIZE ? result.toBitset() : result;
+		}
+
+		@Override
+		public Container and(Container other) {
+			short[] values = new short[m_cardinality];
+			int count = 0;
+			for (int i=0; i<m_cardinality; i++) {
+				if (other.contains(m_values[i] & 0xffff)) {
+					values[count++] = m_values[i];
+				}
+			}
+			return new ArrayContainer(values, count);
+		}
+
+		@Override
+		public Container andNot(Container other) {
+			short[] values = new short[m_cardinality];
+			int count = 0;
+			for (int i=0; i<m_cardinality; i++) {
+				if (!other.contains(m_values[i] & 0xffff)) {
+					values[count++] = m_values[i];
+				}
+			}
+			return new ArrayContainer(values, count);
+		}
+
+		@Override
+		public Container clone() {
+			return new ArrayContainer(Arrays.copyOf(m_values, Math.max(4, m_cardinality)), m_cardinality);
+		}
+	}
+
+	/**
+	 * Container for dense chunks with one bit per value
+	 */
+	private static class BitsetContainer extends Container {
+		private long[] m_words;
+		private int m_cardinality;
+
+		public BitsetContainer() {
+			m_words = new long[BITSET_WORDS];
+		}
+
+		void set(int low) {
+			long mask = 1L << low;
+			int wordIdx = low >>> 6;
+			if ((m_words[wordIdx] & mask) == 0) {
+				m_words[wordIdx] |= mask;
+				m_cardinality++;
+			}
+		}
+
+		@Override
+		public Container add(int low) {
+			set(low);
+			return this;
+		}
+
+		@Override
+		public Container remove(int low) {
+			long mask = 1L << low;
+			int wordIdx = low >>> 6;
+			if ((m_words[wordIdx] & mask) != 0) {
+				m_words[wordIdx] &= ~mask;
+				m_cardinality--;
+			}
+			return m_cardinality <= ARRAY_MAX_SIZE/2 ? toArrayContainer() : this;
+		}
+
+		@Override
+		public boolean contains(int low) {
+			return (m_words[low >>> 6] & (1L << low)) != 0;
+		}
+
+		@Override
+		public int cardinality() {
+			return m_cardinality;
+		}
+
+		@Override
+		public int nextValue(int low) {
+			int wordIdx = low >>> 6;
+			if (wordIdx >= BITSET_WORDS) {
+				return -1;
+			}
+			long word = m_words[wordIdx] & (-1L << low);
+			while (true) {
+				if (word != 0) {
+					return (wordIdx << 6) + Long.numberOfTrailingZeros(word);
+				}
+				wordIdx++;
+				if (wordIdx >= BITSET_WORDS) {
+					return -1;
+				}
+				word = m_words[wordIdx];
+			}
+		}
+
+		@Override
+		public BitsetContainer toBitset() {
+			return this;
+		}
+
+		private Container toArrayContainer() {
+			short[] values = new short[Math.max(4, m_cardinality)];
+			int count = 0;
+			for (int wordIdx=0; wordIdx<BITSET_WORDS; wordIdx++) {
+				long word = m_words[wordIdx];
+				while (word != 0) {
+					values[count++] = (short) ((wordIdx << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return new ArrayContainer(values, count);
+		}
+
+		private Container recount() {
+			int cardinality = 0;
+			for (long currWord : m_words) {
+				cardinality += Long.bitCount(currWord);
+			}
+			m_cardinality = cardinality;
+			return m_cardinality <= ARRAY_MAX_SIZE ? toArrayContainer() : this;
+		}
+
+		@Override
+		public Container or(Container other) {
+			if (other instanceof ArrayContainer) {
+				ArrayContainer otherArr = (ArrayContainer) other;
+				for (int i=0; i<otherArr.m_cardinality; i++) {
+					set(otherArr.m_values[i] & 0xffff);
+				}
+				return this;
+			}
+			long[] otherWords = ((BitsetContainer) other).m_words;
+			for (int i=0; i<BITSET_WORDS; i++) {
+				m_words[i] |= otherWords[i];
+			}
+			recount();
+			return this;
+		}
+
+		@Override
+		public Container and(Container other) {
+			if (other instanceof ArrayContainer) {
+				return other.and(this);
+			}
+			long[] otherWords = ((BitsetContainer) other).m_words;
+			for (int i=0; i<BITSET_WORDS; i++) {
+				m_words[i] &= otherWords[i];
+			}
+			return recount();
+		}
+
+		@Override
+		public Container andNot(Container other) {
+			long[] otherWords = other.toBitset().m_words;
+			for (int i=0; i<BITSET_WORDS; i++) {
+				m_words[i] &= ~otherWords[i];
+			}
+			return recount();
+		}
+
+		@Override
+		public Container clone() {
+			BitsetContainer clone = new BitsetContainer();
+			System.arraycopy(m_words, 0, clone.m_words, 0, BITSET_WORDS);
+			clone.m_cardinality = m_cardinality;
+			return clone;
+		}
+	}
+}
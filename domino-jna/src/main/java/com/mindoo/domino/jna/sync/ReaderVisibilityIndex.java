@@ -0,0 +1,364 @@
+package com.mindoo.domino.jna.sync;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.mindoo.domino.jna.NotesNamesListCache;
+
+/**
+ * In-memory index of the readers and authors of synced documents to quickly compute which
+ * documents a user is allowed to read.<br>
+ * <br>
+ * Each document UNID gets an int document id and each distinct reader/author name an int name id.
+ * For every name we store a {@link CompressedBitmap} of the document ids that list this name in their
+ * readers. The documents visible for a user are then computed as the union of the bitmaps of all names
+ * in his user names list (which contains his name, name wildcards and groups), plus the documents
+ * without reader restrictions.<br>
+ * <br>
+ * Names are compared case-insensitive, like reader items in Domino. Database roles are not part of
+ * the user names list; add them in "[rolename]" format if documents contain roles in their readers.<br>
+ * <br>
+ * Document ids of removed documents are reused for new documents, so document ids in bitmaps returned
+ * by {@link #getVisibleDocIds(Collection)} should be converted via {@link #toUnids(CompressedBitmap)}
+ * before the index changes. The class is thread-safe.
+ *
+ * @author Karsten Lehmann
+ */
+public class ReaderVisibilityIndex {
+	private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
+
+	private Map<String,Integer> m_docIdsByUnid;
+	private List<String> m_unidsByDocId;
+	/** name ids of the readers for each document id, null for documents without reader restrictions */
+	private List<int[]> m_readerNameIdsByDocId;
+	private int[] m_freeDocIds;
+	private int m_freeDocIdsCount;
+
+	private Map<String,Integer> m_nameIds;
+	private List<CompressedBitmap> m_docIdsByNameId;
+
+	private CompressedBitmap m_publicDocIds;
+
+	/**
+	 * Creates a new empty index
+	 */
+	public ReaderVisibilityIndex() {
+		m_docIdsByUnid = new HashMap<String,Integer>();
+		m_unidsByDocId = new ArrayList<String>();
+		m_readerNameIdsByDocId = new ArrayList<int[]>();
+		m_freeDocIds = new int[16];
+		m_nameIds = new HashMap<String,Integer>();
+		m_docIdsByNameId = new ArrayList<CompressedBitmap>();
+		m_publicDocIds = new CompressedBitmap();
+	}
+
+	/**
+	 * Adds a document to the index or changes its readers
+	 *
+	 * @param unid document UNID
+	 * @param readers names in the readers and authors items (authors are only relevant if readers are present) or null/empty list if the document has no reader restrictions
+	 */
+	public void setReaders(String unid, Collection<String> readers) {
+		int[] readerNameIds = null;
+
+		m_lock.writeLock().lock();
+		try {
+			if (readers!=null && !readers.isEmpty()) {
+				readerNameIds = new int[readers.size()];
+				int count = 0;
+				for (String currReader : readers) {
+					if (currReader!=null && currReader.length()>0) {
+						readerNameIds[count++] = internName(currReader);
+					}
+				}
+				readerNameIds = count==0 ? null : Arrays.copyOf(readerNameIds, count);
+			}
+
+			String unidUC = unid.toUpperCase(Locale.ENGLISH);
+			Integer docIdObj = m_docIdsByUnid.get(unidUC);
+			int docId;
+			if (docIdObj==null) {
+				docId = allocateDocId(unidUC);
+				m_docIdsByUnid.put(unidUC, docId);
+			}
+			else {
+				docId = docIdObj.intValue();
+				unlinkReaders(docId);
+			}
+
+			m_readerNameIdsByDocId.set(docId, readerNameIds);
+			if (readerNameIds==null) {
+				m_publicDocIds.add(docId);
+			}
+			else {
+				for (int currNameId : readerNameIds) {
+					m_docIdsByNameId.get(currNameId).add(docId);
+				}
+			}
+		}
+		finally {
+			m_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a document from the index
+	 *
+	 * @param unid document UNID
+	 * @return true if the document has been removed, false if it was not in the index
+	 */
+	public boolean remove(String unid) {
+		m_lock.writeLock().lock();
+		try {
+			Integer docIdObj = m_docIdsByUnid.remove(unid.toUpperCase(Locale.ENGLISH));
+			if (docIdObj==null) {
+				return false;
+			}
+			int docId = docIdObj.intValue();
+			unlinkReaders(docId);
+			m_readerNameIdsByDocId.set(docId, null);
+			m_unidsByDocId.set(docId, null);
+
+			if (m_freeDocIdsCount == m_freeDocIds.length) {
+				m_freeDocIds = Arrays.copyOf(m_freeDocIds, m_freeDocIds.length * 2);
+			}
+			m_freeDocIds[m_freeDocIdsCount++] = docId;
+			return true;
+		}
+		finally {
+			m_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes all documents and names from the index
+	 */
+	public void clear() {
+		m_lock.writeLock().lock();
+		try {
+			m_docIdsByUnid.clear();
+			m_unidsByDocId.clear();
+			m_readerNameIdsByDocId.clear();
+			m_freeDocIdsCount = 0;
+			m_nameIds.clear();
+			m_docIdsByNameId.clear();
+			m_publicDocIds.clear();
+		}
+		finally {
+			m_lock.writeLock().unlock();
+		}
+	}
+
+	private int allocateDocId(String unidUC) {
+		if (m_freeDocIdsCount > 0) {
+			int docId = m_freeDocIds[--m_freeDocIdsCount];
+			m_unidsByDocId.set(docId, unidUC);
+			return docId;
+		}
+		m_unidsByDocId.add(unidUC);
+		m_readerNameIdsByDocId.add(null);
+		return m_unidsByDocId.size() - 1;
+	}
+
+	private int internName(String name) {
+		String nameLC = name.toLowerCase(Locale.ENGLISH);
+		Integer nameId = m_nameIds.get(nameLC);
+		if (nameId==null) {
+			nameId = m_docIdsByNameId.size();
+			m_nameIds.put(nameLC, nameId);
+			m_docIdsByNameId.add(new CompressedBitmap());
+		}
+		return nameId.intValue();
+	}
+
+	/**
+	 * Removes a document id from the bitmaps of its current readers
+	 *
+	 * @param docId document id
+	 */
+	private void unlinkReaders(int docId) {
+		int[] oldNameIds = m_readerNameIdsByDocId.get(docId);
+		if (oldNameIds==null) {
+			m_publicDocIds.remove(docId);
+		}
+		else {
+			for (int currNameId : oldNameIds) {
+				m_docIdsByNameId.get(currNameId).remove(docId);
+			}
+		}
+	}
+
+	/**
+	 * Computes the ids of all documents that are visible for a user
+	 *
+	 * @param userNamesList user names list with name variants, wildcards, groups and optionally roles, e.g. from {@link NotesNamesListCache#getUserNamesList(String, String)}
+	 * @return document ids, use {@link #toUnids(CompressedBitmap)} or {@link #getUnid(int)} to convert them to UNIDs
+	 */
+	public CompressedBitmap getVisibleDocIds(Collection<String> userNamesList) {
+		m_lock.readLock().lock();
+		try {
+			CompressedBitmap visibleDocIds = m_publicDocIds.clone();
+			for (String currName : userNamesList) {
+				if (currName==null) {
+					continue;
+				}
+				Integer nameId = m_nameIds.get(currName.toLowerCase(Locale.ENGLISH));
+				if (nameId!=null) {
+					visibleDocIds.or(m_docIdsByNameId.get(nameId.intValue()));
+				}
+			}
+			return visibleDocIds;
+		}
+		finally {
+			m_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Computes the ids of all documents that are visible for a user. The user names list gets
+	 * computed via {@link NotesNamesListCache#getUserNamesList(String, String)}.
+	 *
+	 * @param server name of server to compute the user names list, either abbreviated or canonical or null/empty string for local
+	 * @param userName username, either abbreviated or canonical
+	 * @return document ids
+	 */
+	public CompressedBitmap getVisibleDocIds(String server, String userName) {
+		return getVisibleDocIds(NotesNamesListCache.getUserNamesList(server, userName));
+	}
+
+	/**
+	 * Checks whether a single document is visible for a user
+	 *
+	 * @param unid document UNID
+	 * @param userNamesList user names list with name variants, wildcards, groups and optionally roles
+	 * @return true if visible, false if not visible or not in the index
+	 */
+	public boolean isVisible(String unid, Collection<String> userNamesList) {
+		m_lock.readLock().lock();
+		try {
+			Integer docId = m_docIdsByUnid.get(unid.toUpperCase(Locale.ENGLISH));
+			if (docId==null) {
+				return false;
+			}
+			int[] readerNameIds = m_readerNameIdsByDocId.get(docId.intValue());
+			if (readerNameIds==null) {
+				return true;
+			}
+			for (String currName : userNamesList) {
+				if (currName==null) {
+					continue;
+				}
+				Integer nameId = m_nameIds.get(currName.toLowerCase(Locale.ENGLISH));
+				if (nameId!=null) {
+					for (int currReaderNameId : readerNameIds) {
+						if (currReaderNameId == nameId.intValue()) {
+							return true;
+						}
+					}
+				}
+			}
+			return false;
+		}
+		finally {
+			m_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the document id for a UNID
+	 *
+	 * @param unid UNID
+	 * @return document id or -1 if not in the index
+	 */
+	public int getDocId(String unid) {
+		m_lock.readLock().lock();
+		try {
+			Integer docId = m_docIdsByUnid.get(unid.toUpperCase(Locale.ENGLISH));
+			return docId==null ? -1 : docId.intValue();
+		}
+		finally {
+			m_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the UNID for a document id
+	 *
+	 * @param docId document id
+	 * @return UNID in uppercase or null if unknown
+	 */
+	public String getUnid(int docId) {
+		m_lock.readLock().lock();
+		try {
+			return docId>=0 && docId<m_unidsByDocId.size() ? m_unidsByDocId.get(docId) : null;
+		}
+		finally {
+			m_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Converts document ids to UNIDs
+	 *
+	 * @param docIds document ids
+	 * @return UNIDs in uppercase, sorted by document id
+	 */
+	public List<String> toUnids(CompressedBitmap docIds) {
+		m_lock.readLock().lock();
+		try {
+			List<String> unids = new ArrayList<String>(docIds.cardinality());
+			for (int docId=docIds.nextValue(0); docId>=0 && docId<m_unidsByDocId.size(); docId=docIds.nextValue(docId+1)) {
+				String unid = m_unidsByDocId.get(docId);
+				if (unid!=null) {
+					unids.add(unid);
+				}
+			}
+			return unids;
+		}
+		finally {
+			m_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of documents in the index
+	 *
+	 * @return count
+	 */
+	public int getDocumentCount() {
+		m_lock.readLock().lock();
+		try {
+			return m_docIdsByUnid.size();
+		}
+		finally {
+			m_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of distinct reader/author names in the index
+	 *
+	 * @return count
+	 */
+	public int getNameCount() {
+		m_lock.readLock().lock();
+		try {
+			return m_nameIds.size();
+		}
+		finally {
+			m_lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ReaderVisibilityIndex [documents="+getDocumentCount()+", names="+getNameCount()+"]";
+	}
+}
@@ -0,0 +1,382 @@
+package com.mindoo.domino.jna.transactions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mindoo.domino.jna.NotesDatabase;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.utils.NotesInitUtils;
+
+/**
+ * Group commit writer for a database: collects write operations from many threads and
+ * applies them in a single NSF transaction per batch.<br>
+ * <br>
+ * Calling {@link Transactions#runInDbTransaction(NotesDatabase, ITransactionCallable)} from
+ * many threads serializes them on the database lock and every caller pays for its own commit.
+ * This class instead queues the operations and runs them in a dedicated writer thread. A batch
+ * is closed when it contains {@link #setMaxBatchSize(int)} operations or when
+ * {@link #setMaxDelayMillis(int)} has passed since the first operation of the batch was taken.<br>
+ * <br>
+ * Each operation runs in its own nested transaction inside the batch transaction, so an operation
+ * that throws an exception is rolled back without affecting the other operations of the batch.
+ * Nested transactions are committed as nested top actions (see {@link Transactions}), so the
+ * {@link Future} of an operation reports the outcome of its own nested transaction: it is completed
+ * with the operation result once that transaction has been committed, or with a {@link RollbackException}
+ * if the operation has been rolled back or could not be run because the batch transaction failed.<br>
+ * <br>
+ * If the writer thread stops (after {@link #stop(long)} or because the database could not be opened),
+ * all queued operations fail and {@link #submit(ITransactionCallable)} throws a {@link RollbackException}
+ * with the error that stopped the writer as cause.<br>
+ * <br>
+ * The operations receive the {@link NotesDatabase} opened by the writer thread. Do not use
+ * Domino objects of the calling thread in the operations, pass UNIDs or note ids instead.
+ *
+ * @author Karsten Lehmann
+ */
+public class GroupCommitWriter {
+	private final String m_server;
+	private final String m_filePath;
+	private final String m_asUserCanonical;
+
+	private int m_maxBatchSize = 100;
+	private int m_maxDelayMillis = 10;
+
+	private final LinkedBlockingQueue<PendingOperation<?>> m_pendingOps = new LinkedBlockingQueue<PendingOperation<?>>();
+	private volatile Thread m_writerThread;
+	private volatile boolean m_stopRequested;
+	private volatile Throwable m_lastError;
+	/** guards m_writerRunning and adding operations to the queue */
+	private final Object m_queueLock = new Object();
+	private boolean m_writerRunning;
+
+	private final AtomicLong m_batchesCommitted = new AtomicLong();
+	private final AtomicLong m_batchesRolledBack = new AtomicLong();
+	private final AtomicLong m_opsCommitted = new AtomicLong();
+	private final AtomicLong m_opsFailed = new AtomicLong();
+
+	/**
+	 * Creates a new writer. Call {@link #start()} to start the writer thread.
+	 *
+	 * @param server database server
+	 * @param filePath database filepath
+	 * @param asUserCanonical user to open the database or null/empty string to open it as server/ID user
+	 */
+	public GroupCommitWriter(String server, String filePath, String asUserCanonical) {
+		m_server = server;
+		m_filePath = filePath;
+		m_asUserCanonical = asUserCanonical;
+	}
+
+	/**
+	 * Sets the max number of operations committed in one transaction (defaults to 100)
+	 *
+	 * @param maxBatchSize batch size
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		if (maxBatchSize<1)
+			throw new IllegalArgumentException("Batch size must be at least 1");
+		m_maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Sets the max time to wait for more operations after the first operation of a batch
+	 * has been taken from the queue (defaults to 10ms)
+	 *
+	 * @param millis delay in milliseconds, 0 to commit what is in the queue without waiting
+	 */
+	public void setMaxDelayMillis(int millis) {
+		if (millis<0)
+			throw new IllegalArgumentException("Delay cannot be negative");
+		m_maxDelayMillis = millis;
+	}
+
+	/**
+	 * Starts the writer thread
+	 */
+	public synchronized void start() {
+		if (m_writerThread!=null)
+			throw new IllegalStateException("Writer has already been started");
+
+		m_stopRequested = false;
+		synchronized (m_queueLock) {
+			m_writerRunning = true;
+		}
+		m_writerThread = NotesInitUtils.createNotesThread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					NotesGC.runWithAutoGC(new Callable<Object>() {
+
+						@Override
+						public Object call() throws Exception {
+							NotesDatabase db = new NotesDatabase(m_server, m_filePath, m_asUserCanonical);
+							writeLoop(db);
+							return null;
+						}
+					});
+				}
+				catch (Throwable t) {
+					m_lastError = t;
+				}
+				finally {
+					writerStopped();
+				}
+			}
+		}, "GroupCommitWriter-"+m_filePath);
+		m_writerThread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+
+			@Override
+			public void uncaughtException(Thread t, Throwable e) {
+				//the thread could not be initialized for C API calls, so the write loop did not run
+				m_lastError = e;
+				writerStopped();
+			}
+		});
+		m_writerThread.start();
+	}
+
+	/**
+	 * Called when the writer thread ends, rolls back all operations that are still queued
+	 */
+	private void writerStopped() {
+		synchronized (m_queueLock) {
+			//submit() does not add operations after this point, so the queue can be drained safely
+			m_writerRunning = false;
+		}
+		failPendingOperations(new RollbackException("Group commit writer has been stopped", m_lastError));
+	}
+
+	/**
+	 * Stops the writer thread after all queued operations have been committed
+	 *
+	 * @param timeoutMillis max time to wait in milliseconds
+	 * @return true if the writer thread has stopped within the timeout
+	 * @throws InterruptedException if the current thread got interrupted while waiting
+	 */
+	public boolean stop(long timeoutMillis) throws InterruptedException {
+		Thread writerThread;
+		synchronized (this) {
+			writerThread = m_writerThread;
+		}
+		if (writerThread==null) {
+			return true;
+		}
+		m_stopRequested = true;
+		writerThread.join(Math.max(1, timeoutMillis));
+		return !writerThread.isAlive();
+	}
+
+	/**
+	 * Queues a write operation
+	 *
+	 * @param callable operation
+	 * @return future that is completed with the operation result after commit or with a {@link RollbackException}
+	 * @param <T> result type
+	 * @throws RollbackException if the writer thread has already stopped, with the error that stopped it as cause
+	 */
+	public <T> Future<T> submit(ITransactionCallable<T> callable) {
+		if (callable==null)
+			throw new IllegalArgumentException("Callable cannot be null");
+		if (m_writerThread==null || m_stopRequested)
+			throw new NotesError(0, "Group commit writer is not running");
+
+		PendingOperation<T> op = new PendingOperation<T>(callable);
+		synchronized (m_queueLock) {
+			if (!m_writerRunning) {
+				throw new RollbackException("Group commit writer has been stopped", m_lastError);
+			}
+			m_pendingOps.add(op);
+		}
+		return op;
+	}
+
+	private void writeLoop(NotesDatabase db) throws InterruptedException {
+		List<PendingOperation<?>> batch = new ArrayList<PendingOperation<?>>(m_maxBatchSize);
+
+		while (true) {
+			PendingOperation<?> firstOp = m_pendingOps.poll(100, TimeUnit.MILLISECONDS);
+			if (firstOp==null) {
+				if (m_stopRequested) {
+					break;
+				}
+				continue;
+			}
+			batch.add(firstOp);
+
+			long deadline = System.currentTimeMillis() + m_maxDelayMillis;
+			while (batch.size() < m_maxBatchSize) {
+				long waitMillis = deadline - System.currentTimeMillis();
+				PendingOperation<?> nextOp = waitMillis>0 ? m_pendingOps.poll(waitMillis, TimeUnit.MILLISECONDS) : m_pendingOps.poll();
+				if (nextOp==null) {
+					break;
+				}
+				batch.add(nextOp);
+			}
+
+			commitBatch(db, batch);
+			batch.clear();
+		}
+	}
+
+	private void commitBatch(NotesDatabase db, final List<PendingOperation<?>> batch) {
+		final Object[] results = new Object[batch.size()];
+		final Throwable[] errors = new Throwable[batch.size()];
+		//true when the nested transaction of the operation has been committed or rolled back
+		final boolean[] done = new boolean[batch.size()];
+
+		try {
+			Transactions.runInDbTransaction(db, new ITransactionCallable<Object>() {
+
+				@Override
+				public Object runInDbTransaction(NotesDatabase db) throws Exception {
+					for (int i=0; i<batch.size(); i++) {
+						PendingOperation<?> currOp = batch.get(i);
+						if (currOp.isCancelled()) {
+							continue;
+						}
+						try {
+							//nested transaction, rolls back only this operation on error
+							results[i] = Transactions.runInDbTransaction(db, currOp.getCallable());
+						}
+						catch (RollbackException e) {
+							errors[i] = e;
+						}
+						done[i] = true;
+					}
+					return null;
+				}
+			});
+			m_batchesCommitted.incrementAndGet();
+		}
+		catch (Throwable t) {
+			//nested transactions that already returned keep their outcome, only the
+			//operations that did not get to run are failed with the batch error
+			RollbackException e = t instanceof RollbackException ? (RollbackException) t : new RollbackException(t);
+			m_batchesRolledBack.incrementAndGet();
+			m_lastError = e;
+			for (int i=0; i<batch.size(); i++) {
+				if (!done[i]) {
+					errors[i] = e;
+				}
+			}
+		}
+
+		for (int i=0; i<batch.size(); i++) {
+			PendingOperation<?> currOp = batch.get(i);
+			if (currOp.isCancelled()) {
+				continue;
+			}
+			if (errors[i]!=null) {
+				currOp.fail(errors[i]);
+				m_opsFailed.incrementAndGet();
+			}
+			else {
+				currOp.complete(results[i]);
+				m_opsCommitted.incrementAndGet();
+			}
+		}
+	}
+
+	private void failPendingOperations(RollbackException e) {
+		PendingOperation<?> currOp;
+		while ((currOp = m_pendingOps.poll())!=null) {
+			currOp.fail(e);
+			m_opsFailed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns the number of operations waiting for the next batch
+	 *
+	 * @return number of operations
+	 */
+	public int getQueueSize() {
+		return m_pendingOps.size();
+	}
+
+	/**
+	 * Returns the number of committed batch transactions
+	 *
+	 * @return number of batches
+	 */
+	public long getBatchesCommitted() {
+		return m_batchesCommitted.get();
+	}
+
+	/**
+	 * Returns the number of batch transactions that have been rolled back
+	 *
+	 * @return number of batches
+	 */
+	public long getBatchesRolledBack() {
+		return m_batchesRolledBack.get();
+	}
+
+	/**
+	 * Returns the number of successfully committed operations
+	 *
+	 * @return number of operations
+	 */
+	public long getOperationsCommitted() {
+		return m_opsCommitted.get();
+	}
+
+	/**
+	 * Returns the number of operations that have been rolled back
+	 *
+	 * @return number of operations
+	 */
+	public long getOperationsFailed() {
+		return m_opsFailed.get();
+	}
+
+	/**
+	 * Returns the last error that caused a batch rollback or stopped the writer thread
+	 *
+	 * @return error or null
+	 */
+	public Throwable getLastError() {
+		return m_lastError;
+	}
+
+	/**
+	 * Queued operation, completed by the writer thread
+	 *
+	 * @param <T> result type
+	 */
+	private static class PendingOperation<T> extends FutureTask<T> {
+		private final ITransactionCallable<T> m_callable;
+
+		public PendingOperation(ITransactionCallable<T> callable) {
+			super(new Callable<T>() {
+
+				@Override
+				public T call() throws Exception {
+					throw new IllegalStateException("Operation is executed by the group commit writer");
+				}
+			});
+			m_callable = callable;
+		}
+
+		public ITransactionCallable<T> getCallable() {
+			return m_callable;
+		}
+
+		@SuppressWarnings("unchecked")
+		void complete(Object result) {
+			set((T) result);
+		}
+
+		void fail(Throwable t) {
+			setException(t);
+		}
+	}
+}
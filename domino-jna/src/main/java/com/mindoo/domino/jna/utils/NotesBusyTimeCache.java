@@ -0,0 +1,637 @@
+package com.mindoo.domino.jna.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.mindoo.domino.jna.NotesSchedule;
+import com.mindoo.domino.jna.NotesScheduleContainer;
+import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.constants.ScheduleOptions;
+import com.mindoo.domino.jna.errors.NotesError;
+
+/**
+ * Cache for the busy times of many users and rooms to answer free time searches without
+ * a native roundtrip per query.<br>
+ * <br>
+ * The busy times of each owner are stored as sorted, non-overlapping intervals in two
+ * <code>long[]</code> arrays (epoch milliseconds) together with the time range they cover.
+ * Missing data is loaded with a single {@link NotesBusyTimeUtils#retrieveSchedules(String, EnumSet, NotesTimeDate, NotesTimeDate, List)}
+ * call for all owners that need the same range. When a query exceeds the covered range,
+ * only the missing part is loaded and merged; data older than the time to live is reloaded.<br>
+ * <br>
+ * Free time is computed in Java by merging the busy intervals of all attendees in start order
+ * and returning the gaps. Owners without schedule information or with schedule errors
+ * are treated as free, see {@link #getError(String)}.<br>
+ * <br>
+ * The class is thread-safe.
+ *
+ * @author Karsten Lehmann
+ */
+public class NotesBusyTimeCache {
+	private static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000;
+
+	private final ConcurrentHashMap<String,OwnerBusyTime> m_busyTimes = new ConcurrentHashMap<String,OwnerBusyTime>();
+	private final ReentrantLock m_loadLock = new ReentrantLock();
+	private final EnumSet<ScheduleOptions> m_options;
+	private volatile long m_ttlMillis = DEFAULT_TTL_MILLIS;
+
+	private final AtomicLong m_hits = new AtomicLong();
+	private final AtomicLong m_misses = new AtomicLong();
+	private final AtomicLong m_scheduleLookups = new AtomicLong();
+
+	/**
+	 * Creates a new cache
+	 */
+	public NotesBusyTimeCache() {
+		this(null);
+	}
+
+	/**
+	 * Creates a new cache
+	 *
+	 * @param options options to retrieve the schedules or null
+	 */
+	public NotesBusyTimeCache(EnumSet<ScheduleOptions> options) {
+		m_options = options==null ? EnumSet.noneOf(ScheduleOptions.class) : EnumSet.copyOf(options);
+	}
+
+	/**
+	 * Changes the time after which the busy times of an owner get reloaded (default: 5 minutes)
+	 *
+	 * @param ttlMillis time to live in milliseconds
+	 */
+	public void setTimeToLive(long ttlMillis) {
+		if (ttlMillis<0)
+			throw new IllegalArgumentException("Time to live cannot be negative: "+ttlMillis);
+		m_ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Returns the time after which the busy times of an owner get reloaded
+	 *
+	 * @return time to live in milliseconds
+	 */
+	public long getTimeToLive() {
+		return m_ttlMillis;
+	}
+
+	/**
+	 * Makes sure that the busy times of the specified owners are cached for a time range,
+	 * e.g. to load the data for a whole week in advance
+	 *
+	 * @param names names of users or rooms, either abbreviated or canonical
+	 * @param from start of the range in milliseconds
+	 * @param until end of the range in milliseconds
+	 */
+	public void refresh(Collection<String> names, long from, long until) {
+		if (from>=until)
+			throw new IllegalArgumentException("Start of range must be before the end: "+from+" >= "+until);
+
+		List<String> keys = new ArrayList<String>(names.size());
+		for (String currName : names) {
+			keys.add(toKey(currName));
+		}
+		ensureLoaded(keys, from, until);
+	}
+
+	/**
+	 * Returns the busy times of a user or room
+	 *
+	 * @param name name of user or room, either abbreviated or canonical
+	 * @param from start of the range in milliseconds
+	 * @param until end of the range in milliseconds
+	 * @return busy times as pairs of start and end in milliseconds (start0, end0, start1, end1, ...), sorted, not overlapping and clipped to the range
+	 */
+	public long[] getBusyTime(String name, long from, long until) {
+		if (from>=until)
+			throw new IllegalArgumentException("Start of range must be before the end: "+from+" >= "+until);
+
+		String key = toKey(name);
+		ensureLoaded(Arrays.asList(key), from, until);
+		OwnerBusyTime busyTime = m_busyTimes.get(key);
+		if (busyTime==null) {
+			return new long[0];
+		}
+
+		int firstIdx = busyTime.findFirstEndingAfter(from);
+		long[] ranges = new long[2 * (busyTime.m_starts.length - firstIdx)];
+		int count = 0;
+		for (int i=firstIdx; i<busyTime.m_starts.length && busyTime.m_starts[i]<until; i++) {
+			ranges[count++] = Math.max(from, busyTime.m_starts[i]);
+			ranges[count++] = Math.min(until, busyTime.m_ends[i]);
+		}
+		return Arrays.copyOf(ranges, count);
+	}
+
+	/**
+	 * Searches for time periods in which all specified users and rooms are free
+	 *
+	 * @param names names of users and rooms, either abbreviated or canonical
+	 * @param from start of the range in milliseconds
+	 * @param until end of the range in milliseconds
+	 * @param minDurationMillis minimum length of a free period in milliseconds
+	 * @param findFirstFit true to only return the first free period, shortened to <code>minDurationMillis</code>
+	 * @return free periods as pairs of start and end in milliseconds (start0, end0, start1, end1, ...)
+	 */
+	public long[] findFreeTime(Collection<String> names, long from, long until, long minDurationMillis, boolean findFirstFit) {
+		if (from>=until)
+			throw new IllegalArgumentException("Start of range must be before the end: "+from+" >= "+until);
+		if (minDurationMillis<0)
+			throw new IllegalArgumentException("Duration cannot be negative: "+minDurationMillis);
+
+		Set<String> keys = new LinkedHashSet<String>();
+		for (String currName : names) {
+			keys.add(toKey(currName));
+		}
+		ensureLoaded(keys, from, until);
+
+		//collect the busy times of all attendees with a cursor to the first relevant interval
+		final List<OwnerBusyTime> busyTimes = new ArrayList<OwnerBusyTime>(keys.size());
+		List<Integer> cursors = new ArrayList<Integer>(keys.size());
+		for (String currKey : keys) {
+			OwnerBusyTime currBusyTime = m_busyTimes.get(currKey);
+			if (currBusyTime!=null && currBusyTime.m_starts.length>0) {
+				int firstIdx = currBusyTime.findFirstEndingAfter(from);
+				if (firstIdx < currBusyTime.m_starts.length) {
+					busyTimes.add(currBusyTime);
+					cursors.add(firstIdx);
+				}
+			}
+		}
+		final int[] cursorArr = new int[cursors.size()];
+		for (int i=0; i<cursorArr.length; i++) {
+			cursorArr[i] = cursors.get(i).intValue();
+		}
+
+		//k-way merge of the sorted busy intervals by start time
+		PriorityQueue<Integer> queue = new PriorityQueue<Integer>(Math.max(1, busyTimes.size()), new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				long start1 = busyTimes.get(o1.intValue()).m_starts[cursorArr[o1.intValue()]];
+				long start2 = busyTimes.get(o2.intValue()).m_starts[cursorArr[o2.intValue()]];
+				return start1 < start2 ? -1 : (start1 == start2 ? 0 : 1);
+			}
+		});
+		for (int i=0; i<busyTimes.size(); i++) {
+			queue.add(i);
+		}
+
+		long[] freeRanges = new long[16];
+		int freeRangesCount = 0;
+		long freeStart = from;
+
+		while (!queue.isEmpty() && freeStart < until) {
+			int ownerIdx = queue.poll().intValue();
+			OwnerBusyTime currBusyTime = busyTimes.get(ownerIdx);
+			int idx = cursorArr[ownerIdx];
+			long busyStart = currBusyTime.m_starts[idx];
+			long busyEnd = currBusyTime.m_ends[idx];
+
+			if (busyStart >= until) {
+				break;
+			}
+
+			if (busyStart > freeStart && (busyStart - freeStart) >= minDurationMillis) {
+				if (findFirstFit) {
+					return new long[] {freeStart, freeStart + minDurationMillis};
+				}
+				if (freeRangesCount+2 > freeRanges.length) {
+					freeRanges = Arrays.copyOf(freeRanges, freeRanges.length * 2);
+				}
+				freeRanges[freeRangesCount++] = freeStart;
+				freeRanges[freeRangesCount++] = busyStart;
+			}
+			if (busyEnd > freeStart) {
+				freeStart = busyEnd;
+			}
+
+			if (idx+1 < currBusyTime.m_starts.length) {
+				cursorArr[ownerIdx] = idx+1;
+				queue.add(ownerIdx);
+			}
+		}
+
+		if (freeStart < until && (until - freeStart) >= minDurationMillis) {
+			if (findFirstFit) {
+				return new long[] {freeStart, freeStart + minDurationMillis};
+			}
+			freeRanges = Arrays.copyOf(freeRanges, freeRangesCount+2);
+			freeRanges[freeRangesCount++] = freeStart;
+			freeRanges[freeRangesCount++] = until;
+		}
+		return findFirstFit ? new long[0] : Arrays.copyOf(freeRanges, freeRangesCount);
+	}
+
+	/**
+	 * Searches for time periods in which all specified users and rooms are free, using
+	 * the same parameters and return format as {@link NotesBusyTimeUtils#freeTimeSearch(String, NotesTimeDate, boolean, NotesTimeDate, NotesTimeDate, int, List)}
+	 *
+	 * @param findFirstFit If this value is equal to TRUE then this routine will return just the first free time interval that fits the duration. The size of this interval will equal to duration.
+	 * @param from specifies the start of the range over which the free time search should be performed
+	 * @param until specifies the end of the range over which the free time search should be performed
+	 * @param duration How much free time you are looking for, in minutes
+	 * @param names list of distinguished names whose schedule should be searched, either in abbreviated or canonical format
+	 * @return timedate pairs indicating runs of free time
+	 */
+	public List<Calendar[]> freeTimeSearch(boolean findFirstFit, NotesTimeDate from, NotesTimeDate until, int duration, List<String> names) {
+		if (from==null)
+			throw new IllegalArgumentException("from date cannot be null");
+		if (until==null)
+			throw new IllegalArgumentException("until date cannot be null");
+
+		long[] freeRanges = findFreeTime(names, from.toDate().getTime(), until.toDate().getTime(), duration * 60L * 1000L, findFirstFit);
+
+		List<Calendar[]> result = new ArrayList<Calendar[]>(freeRanges.length / 2);
+		for (int i=0; i<freeRanges.length; i+=2) {
+			Calendar start = Calendar.getInstance();
+			start.setTimeInMillis(freeRanges[i]);
+			Calendar end = Calendar.getInstance();
+			end.setTimeInMillis(freeRanges[i+1]);
+			result.add(new Calendar[] {start, end});
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the error that occurred loading the schedule of a user or room
+	 *
+	 * @param name name of user or room, either abbreviated or canonical
+	 * @return error or null
+	 */
+	public NotesError getError(String name) {
+		OwnerBusyTime busyTime = m_busyTimes.get(toKey(name));
+		return busyTime==null ? null : busyTime.m_error;
+	}
+
+	/**
+	 * Removes the cached busy times of a user or room, e.g. after a booking
+	 *
+	 * @param name name of user or room, either abbreviated or canonical
+	 */
+	public void invalidate(String name) {
+		m_busyTimes.remove(toKey(name));
+	}
+
+	/**
+	 * Removes all cached busy times
+	 */
+	public void invalidateAll() {
+		m_busyTimes.clear();
+	}
+
+	/**
+	 * Returns the number of users and rooms in the cache
+	 *
+	 * @return count
+	 */
+	public int getOwnerCount() {
+		return m_busyTimes.size();
+	}
+
+	/**
+	 * Returns the number of owner lookups that could be answered from the cache
+	 *
+	 * @return hits
+	 */
+	public long getHits() {
+		return m_hits.get();
+	}
+
+	/**
+	 * Returns the number of owner lookups that required loading data
+	 *
+	 * @return misses
+	 */
+	public long getMisses() {
+		return m_misses.get();
+	}
+
+	/**
+	 * Returns the number of native schedule lookups
+	 *
+	 * @return lookups
+	 */
+	public long getScheduleLookups() {
+		return m_scheduleLookups.get();
+	}
+
+	private static String toKey(String name) {
+		return NotesNamingUtils.toCanonicalName(name).toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Checks if the cached data of an owner covers a range and is not expired
+	 */
+	private boolean isCovered(OwnerBusyTime busyTime, long from, long until, long now) {
+		return busyTime!=null && (now - busyTime.m_loadedAt) <= m_ttlMillis &&
+				busyTime.m_coveredFrom <= from && busyTime.m_coveredUntil >= until;
+	}
+
+	/**
+	 * Loads missing or expired busy times for the specified owners
+	 *
+	 * @param keys owner keys
+	 * @param from start of the range
+	 * @param until end of the range
+	 */
+	private void ensureLoaded(Collection<String> keys, long from, long until) {
+		long now = System.currentTimeMillis();
+		boolean allCovered = true;
+		for (String currKey : keys) {
+			if (!isCovered(m_busyTimes.get(currKey), from, until, now)) {
+				allCovered = false;
+				break;
+			}
+		}
+		if (allCovered) {
+			m_hits.addAndGet(keys.size());
+			return;
+		}
+
+		m_loadLock.lock();
+		try {
+			now = System.currentTimeMillis();
+
+			//group owners by the range we need to load, so that we need one lookup per range
+			Map<LoadRange,List<String>> keysByRange = new LinkedHashMap<LoadRange,List<String>>();
+			for (String currKey : keys) {
+				OwnerBusyTime busyTime = m_busyTimes.get(currKey);
+				if (isCovered(busyTime, from, until, now)) {
+					m_hits.incrementAndGet();
+					continue;
+				}
+				m_misses.incrementAndGet();
+
+				if (busyTime==null || (now - busyTime.m_loadedAt) > m_ttlMillis) {
+					addToRange(keysByRange, from, until, currKey);
+				}
+				else {
+					//load only the parts that are not covered yet
+					if (from < busyTime.m_coveredFrom) {
+						addToRange(keysByRange, from, busyTime.m_coveredFrom, currKey);
+					}
+					if (until > busyTime.m_coveredUntil) {
+						addToRange(keysByRange, busyTime.m_coveredUntil, until, currKey);
+					}
+				}
+			}
+
+			for (Map.Entry<LoadRange,List<String>> currEntry : keysByRange.entrySet()) {
+				long rangeFrom = currEntry.getKey().m_from;
+				long rangeUntil = currEntry.getKey().m_until;
+				List<String> rangeKeys = currEntry.getValue();
+
+				Map<String,LoadedBusyTime> loaded = loadBusyTimes(rangeKeys, rangeFrom, rangeUntil);
+				long loadedAt = System.currentTimeMillis();
+
+				for (String currKey : rangeKeys) {
+					LoadedBusyTime currLoaded = loaded.get(currKey);
+					long[] ranges = currLoaded==null ? new long[0] : currLoaded.m_ranges;
+					NotesError error = currLoaded==null ? null : currLoaded.m_error;
+
+					OwnerBusyTime oldBusyTime = m_busyTimes.get(currKey);
+					OwnerBusyTime newBusyTime;
+					if (oldBusyTime==null || (now - oldBusyTime.m_loadedAt) > m_ttlMillis ||
+							rangeUntil < oldBusyTime.m_coveredFrom || rangeFrom > oldBusyTime.m_coveredUntil) {
+						newBusyTime = OwnerBusyTime.create(ranges, rangeFrom, rangeUntil, loadedAt, error);
+					}
+					else {
+						//merge data of the missing part with the existing data
+						newBusyTime = oldBusyTime.extend(ranges, rangeFrom, rangeUntil, error);
+					}
+					m_busyTimes.put(currKey, newBusyTime);
+				}
+			}
+		}
+		finally {
+			m_loadLock.unlock();
+		}
+	}
+
+	private static void addToRange(Map<LoadRange,List<String>> keysByRange, long from, long until, String key) {
+		LoadRange rangeKey = new LoadRange(from, until);
+		List<String> keys = keysByRange.get(rangeKey);
+		if (keys==null) {
+			keys = new ArrayList<String>();
+			keysByRange.put(rangeKey, keys);
+		}
+		keys.add(key);
+	}
+
+	/**
+	 * Reads the busy times of several owners with a single schedule lookup
+	 *
+	 * @param keys owner keys (lowercase canonical names)
+	 * @param from start of the range
+	 * @param until end of the range
+	 * @return busy times by owner key
+	 */
+	protected Map<String,LoadedBusyTime> loadBusyTimes(List<String> keys, long from, long until) {
+		m_scheduleLookups.incrementAndGet();
+
+		NotesTimeDate fromTD = new NotesTimeDate(from);
+		NotesTimeDate untilTD = new NotesTimeDate(until);
+
+		Map<String,LoadedBusyTime> result = new HashMap<String,LoadedBusyTime>();
+		NotesScheduleContainer container = NotesBusyTimeUtils.retrieveSchedules(null, m_options, fromTD, untilTD, keys);
+		try {
+			NotesSchedule currSchedule = container.getFirstSchedule();
+			while (currSchedule!=null) {
+				String ownerKey = currSchedule.getOwner().toLowerCase(Locale.ENGLISH);
+				NotesError error = currSchedule.getError();
+				long[] ranges = error!=null ? new long[0] : currSchedule.extractBusyTimeRangeAsMillis(null, fromTD, untilTD);
+				result.put(ownerKey, new LoadedBusyTime(ranges, error));
+
+				currSchedule = container.getNextSchedule(currSchedule);
+			}
+		}
+		finally {
+			container.recycle();
+		}
+		return result;
+	}
+
+	/**
+	 * Time range that needs to be loaded for a group of owners
+	 */
+	private static class LoadRange {
+		private final long m_from;
+		private final long m_until;
+
+		public LoadRange(long from, long until) {
+			m_from = from;
+			m_until = until;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (int) (m_from ^ (m_from >>> 32)) + (int) (m_until ^ (m_until >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this==obj) {
+				return true;
+			}
+			if (!(obj instanceof LoadRange)) {
+				return false;
+			}
+			LoadRange other = (LoadRange) obj;
+			return m_from==other.m_from && m_until==other.m_until;
+		}
+	}
+
+	/**
+	 * Busy times of an owner read from a schedule
+	 */
+	protected static class LoadedBusyTime {
+		private long[] m_ranges;
+		private NotesError m_error;
+
+		/**
+		 * Creates a new instance
+		 *
+		 * @param ranges busy times as pairs of start and end in milliseconds
+		 * @param error error loading the schedule or null
+		 */
+		public LoadedBusyTime(long[] ranges, NotesError error) {
+			m_ranges = ranges;
+			m_error = error;
+		}
+	}
+
+	/**
+	 * Immutable busy times of an owner, sorted and merged
+	 */
+	private static class OwnerBusyTime {
+		private final long[] m_starts;
+		private final long[] m_ends;
+		private final long m_coveredFrom;
+		private final long m_coveredUntil;
+		private final long m_loadedAt;
+		private final NotesError m_error;
+
+		private OwnerBusyTime(long[] starts, long[] ends, long coveredFrom, long coveredUntil, long loadedAt, NotesError error) {
+			m_starts = starts;
+			m_ends = ends;
+			m_coveredFrom = coveredFrom;
+			m_coveredUntil = coveredUntil;
+			m_loadedAt = loadedAt;
+			m_error = error;
+		}
+
+		public static OwnerBusyTime create(long[] ranges, long from, long until, long loadedAt, NotesError error) {
+			long[][] merged = mergeRanges(ranges, ranges.length, from, until);
+			return new OwnerBusyTime(merged[0], merged[1], from, until, loadedAt, error);
+		}
+
+		/**
+		 * Adds busy times of a range adjacent to the covered range
+		 */
+		public OwnerBusyTime extend(long[] ranges, long from, long until, NotesError error) {
+			long[] allRanges = new long[2*m_starts.length + ranges.length];
+			for (int i=0; i<m_starts.length; i++) {
+				allRanges[2*i] = m_starts[i];
+				allRanges[2*i+1] = m_ends[i];
+			}
+			int count = 2*m_starts.length;
+			for (int i=0; i+1<ranges.length; i+=2) {
+				//only take the part of the new data that is not covered yet
+				long start = Math.max(ranges[i], from);
+				long end = Math.min(ranges[i+1], until);
+				if (start < end) {
+					allRanges[count++] = start;
+					allRanges[count++] = end;
+				}
+			}
+			long newFrom = Math.min(m_coveredFrom, from);
+			long newUntil = Math.max(m_coveredUntil, until);
+			long[][] merged = mergeRanges(allRanges, count, newFrom, newUntil);
+			//keep the older load time so that the whole range expires together
+			return new OwnerBusyTime(merged[0], merged[1], newFrom, newUntil, m_loadedAt, error!=null ? error : m_error);
+		}
+
+		/**
+		 * Returns the index of the first interval that ends after the specified time
+		 */
+		public int findFirstEndingAfter(long time) {
+			int low = 0;
+			int high = m_ends.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (m_ends[mid] <= time) {
+					low = mid + 1;
+				}
+				else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Sorts intervals by start, clips them to a range and merges overlapping or adjacent ones
+		 *
+		 * @param ranges pairs of start and end
+		 * @param length number of values in <code>ranges</code> to use
+		 * @param from start of range
+		 * @param until end of range
+		 * @return array with starts and array with ends
+		 */
+		private static long[][] mergeRanges(long[] ranges, int length, long from, long until) {
+			int numRanges = length / 2;
+			Integer[] order = new Integer[numRanges];
+			for (int i=0; i<numRanges; i++) {
+				order[i] = i;
+			}
+			final long[] fRanges = ranges;
+			Arrays.sort(order, new Comparator<Integer>() {
+
+				@Override
+				public int compare(Integer o1, Integer o2) {
+					long start1 = fRanges[2*o1.intValue()];
+					long start2 = fRanges[2*o2.intValue()];
+					return start1 < start2 ? -1 : (start1 == start2 ? 0 : 1);
+				}
+			});
+
+			long[] starts = new long[numRanges];
+			long[] ends = new long[numRanges];
+			int count = 0;
+			for (int i=0; i<numRanges; i++) {
+				long start = Math.max(from, ranges[2*order[i].intValue()]);
+				long end = Math.min(until, ranges[2*order[i].intValue()+1]);
+				if (start >= end) {
+					continue;
+				}
+				if (count>0 && start <= ends[count-1]) {
+					if (end > ends[count-1]) {
+						ends[count-1] = end;
+					}
+				}
+				else {
+					starts[count] = start;
+					ends[count] = end;
+					count++;
+				}
+			}
+			return new long[][] {Arrays.copyOf(starts, count), Arrays.copyOf(ends, count)};
+		}
+	}
+}
@@ -2,8 +2,17 @@ package com.mindoo.domino.jna.utils;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.mindoo.domino.jna.NotesDatabase;
 import com.mindoo.domino.jna.NotesNote;
@@ -44,6 +53,8 @@ import com.sun.jna.ptr.ShortByReference;
  * @author Karsten Lehmann
  */
 public class NotesCalendarUtils {
+	private static final int DEFAULT_RANGE_PAGE_SIZE = 500;
+	private static final int MAX_EMPTY_CONFLICT_READS = 10;
 
 	/**
 	 * Creates a calendar entry.<br>
@@ -697,4 +708,366 @@ public class NotesCalendarUtils {
 			retUIDs.addAll(uidAllData);
 		}
 	}
+	
+	/**
+	 * Callback to receive the calendar entries read by
+	 * {@link NotesCalendarUtils#readRange(NotesDatabase, NotesTimeDate, NotesTimeDate, int, int, int, EnumSet, boolean, boolean, CalendarRangeCallback)}
+	 * page by page
+	 * 
+	 * @author Karsten Lehmann
+	 */
+	public static abstract class CalendarRangeCallback {
+		public enum Action {Continue, Stop}
+		
+		/**
+		 * Method is called with the iCalendar summary of each page of calendar entries.
+		 * The default implementation does nothing.
+		 * 
+		 * @param iCal iCalendar data of the page
+		 * @return action to continue reading or stop
+		 * @throws IOException if writing iCalendar data fails
+		 */
+		public Action iCalendarRead(String iCal) throws IOException {
+			return Action.Continue;
+		}
+		
+		/**
+		 * Method is called for each UID as soon as it has been decoded from the native UID list.
+		 * The default implementation does nothing.
+		 * 
+		 * @param uid UID
+		 * @return action to continue reading or stop
+		 */
+		public Action uidRead(String uid) {
+			return Action.Continue;
+		}
+		
+		/**
+		 * Method is called when the calendar view has changed while reading. Reading continues
+		 * at the position that has been processed so far, so entries added or removed before
+		 * that position may be missing or returned twice. The default implementation does nothing.
+		 * 
+		 * @param position number of entries processed so far, counted from the start of the range
+		 */
+		public void viewChanged(int position) {
+		}
+	}
+	
+	/**
+	 * Factory for {@link CalendarRangeCallback} objects used by
+	 * {@link NotesCalendarUtils#readRangeInDatabases(String, Collection, NotesTimeDate, NotesTimeDate, EnumSet, boolean, boolean, int, ICalendarRangeCallbackFactory)}
+	 * 
+	 * @author Karsten Lehmann
+	 */
+	public static interface ICalendarRangeCallbackFactory {
+		
+		/**
+		 * Creates the callback for a database. The callback is invoked in the thread reading the database.
+		 * 
+		 * @param server server of the database
+		 * @param filePath filepath of the database
+		 * @return callback
+		 */
+		public CalendarRangeCallback createCallback(String server, String filePath);
+		
+	}
+	
+	/**
+	 * Reads a summary of calendar entries for a range of times page by page and passes the
+	 * data to a callback as it arrives, without collecting the whole result in memory.<br>
+	 * <br>
+	 * Unlike {@link #readRange(NotesDatabase, NotesTimeDate, NotesTimeDate, int, int, EnumSet, Appendable, List)},
+	 * a change of the calendar view during the read does not restart the whole lookup. Reading continues
+	 * at the last processed position and the callback gets notified via {@link CalendarRangeCallback#viewChanged(int)}.
+	 * 
+	 * @param dbMail The database from which entries are returned.
+	 * @param start the start time of the range
+	 * @param end the end time of the range. An exception occurs if the end time is not greater than the start time
+	 * @param skipCount the number of entries to skip from the beginning of the range
+	 * @param maxRead the maximum number of entries to read
+	 * @param pageSize the maximum number of entries to read per API call
+	 * @param readMask flags that control what properties about the calendar entries will be returned
+	 * @param readICal true to receive the iCalendar summary via {@link CalendarRangeCallback#iCalendarRead(String)}
+	 * @param readUIDs true to receive the UIDs via {@link CalendarRangeCallback#uidRead(String)}
+	 * @param callback callback
+	 * @return number of entries processed
+	 * @throws IOException if writing iCalendar data fails
+	 */
+	public static int readRange(NotesDatabase dbMail, NotesTimeDate start, NotesTimeDate end, int skipCount, int maxRead,
+			int pageSize, EnumSet<CalendarReadRange> readMask, boolean readICal, boolean readUIDs, CalendarRangeCallback callback) throws IOException {
+		
+		if (dbMail.isRecycled())
+			throw new NotesError(0, "Target database already recycled");
+		if (pageSize<1)
+			throw new IllegalArgumentException("Page size must be greater than 0: "+pageSize);
+		
+		NotesTimeDateStruct.ByValue startStruct = start==null ? null : NotesTimeDateStruct.ByValue.newInstance(start.getInnards());
+		NotesTimeDateStruct.ByValue endStruct = end==null ? null : NotesTimeDateStruct.ByValue.newInstance(end.getInnards());
+		
+		int dwReturnMask = CalendarReadRange.toBitMask(readMask);
+		int dwReturnMaskExt = CalendarReadRange.toBitMask2(readMask);
+		
+		int currSkipCount = skipCount;
+		int remainingToRead = maxRead;
+		int emptyConflictReads = 0;
+		
+		while (remainingToRead>0) {
+			RangePageResult pageResult = readRangePage(dbMail, startStruct, endStruct, currSkipCount,
+					Math.min(pageSize, remainingToRead), dwReturnMask, dwReturnMaskExt, readICal, readUIDs, callback);
+			
+			currSkipCount += pageResult.m_numEntriesProcessed;
+			remainingToRead -= pageResult.m_numEntriesProcessed;
+			
+			if (pageResult.m_stopped) {
+				break;
+			}
+			
+			if ((pageResult.m_signalFlags & NotesConstants.SIGNAL_ANY_CONFLICT) == NotesConstants.SIGNAL_ANY_CONFLICT) {
+				//view has changed, continue at the current position instead of starting over
+				if (pageResult.m_numEntriesProcessed==0 && ++emptyConflictReads > MAX_EMPTY_CONFLICT_READS) {
+					throw new NotesError(0, "Calendar view keeps changing while reading the range");
+				}
+				callback.viewChanged(currSkipCount - skipCount);
+				continue;
+			}
+			emptyConflictReads = 0;
+			
+			if ((pageResult.m_signalFlags & NotesConstants.SIGNAL_MORE_TO_DO) != NotesConstants.SIGNAL_MORE_TO_DO) {
+				break;
+			}
+		}
+		
+		return currSkipCount - skipCount;
+	}
+	
+	/**
+	 * Reads a summary of calendar entries for a range of times page by page and writes the
+	 * iCalendar data to <code>retICal</code> as it arrives
+	 * 
+	 * @param dbMail The database from which entries are returned.
+	 * @param start the start time of the range
+	 * @param end the end time of the range. An exception occurs if the end time is not greater than the start time
+	 * @param pageSize the maximum number of entries to read per API call
+	 * @param readMask flags that control what properties about the calendar entries will be returned
+	 * @param retICal receives the iCalendar summary of each page
+	 * @return number of entries processed
+	 * @throws IOException if writing iCalendar data fails
+	 */
+	public static int readRangePaged(NotesDatabase dbMail, NotesTimeDate start, NotesTimeDate end, int pageSize,
+			EnumSet<CalendarReadRange> readMask, final Appendable retICal) throws IOException {
+		return readRange(dbMail, start, end, 0, Integer.MAX_VALUE, pageSize, readMask, true, false, new CalendarRangeCallback() {
+			
+			@Override
+			public Action iCalendarRead(String iCal) throws IOException {
+				retICal.append(iCal);
+				return Action.Continue;
+			}
+		});
+	}
+	
+	/**
+	 * Reads the calendar entries for a range of times in many mail databases concurrently,
+	 * e.g. to collect the bookings of a set of resource calendars. Each database is opened and read
+	 * in a thread of a pool with <code>threadCount</code> threads via
+	 * {@link #readRange(NotesDatabase, NotesTimeDate, NotesTimeDate, int, int, int, EnumSet, boolean, boolean, CalendarRangeCallback)}.
+	 * An error reading one database does not stop reading the others.
+	 * 
+	 * @param server server of the databases
+	 * @param dbFilePaths filepaths of the databases
+	 * @param start the start time of the range
+	 * @param end the end time of the range
+	 * @param readMask flags that control what properties about the calendar entries will be returned
+	 * @param readICal true to receive the iCalendar summary via {@link CalendarRangeCallback#iCalendarRead(String)}
+	 * @param readUIDs true to receive the UIDs via {@link CalendarRangeCallback#uidRead(String)}
+	 * @param threadCount max number of databases read concurrently
+	 * @param callbackFactory creates a callback for each database
+	 * @return errors that occurred reading databases, with the database filepath as key; empty if all databases have been read
+	 */
+	public static Map<String,Throwable> readRangeInDatabases(final String server, Collection<String> dbFilePaths,
+			NotesTimeDate start, NotesTimeDate end, final EnumSet<CalendarReadRange> readMask, final boolean readICal,
+			final boolean readUIDs, int threadCount, final ICalendarRangeCallbackFactory callbackFactory) {
+		
+		if (threadCount<1)
+			throw new IllegalArgumentException("Thread count must be greater than 0: "+threadCount);
+		
+		final NotesTimeDate startCopy = start==null ? null : new NotesTimeDate(start.getInnards().clone());
+		final NotesTimeDate endCopy = end==null ? null : new NotesTimeDate(end.getInnards().clone());
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount, NotesInitUtils.createNotesThreadFactory("CalendarRangeReader"));
+		
+		Map<String,Future<Object>> futures = new LinkedHashMap<String,Future<Object>>();
+		try {
+			for (final String currFilePath : dbFilePaths) {
+				futures.put(currFilePath, executor.submit(new Callable<Object>() {
+					
+					@Override
+					public Object call() throws Exception {
+						return NotesGC.runWithAutoGC(new Callable<Object>() {
+							
+							@Override
+							public Object call() throws Exception {
+								CalendarRangeCallback callback = callbackFactory.createCallback(server, currFilePath);
+								NotesDatabase dbMail = new NotesDatabase(server, currFilePath, "");
+								try {
+									readRange(dbMail, startCopy, endCopy, 0, Integer.MAX_VALUE, DEFAULT_RANGE_PAGE_SIZE,
+											readMask, readICal, readUIDs, callback);
+								}
+								finally {
+									dbMail.recycle();
+								}
+								return null;
+							}
+						});
+					}
+				}));
+			}
+			
+			Map<String,Throwable> errors = new LinkedHashMap<String,Throwable>();
+			for (Entry<String,Future<Object>> currEntry : futures.entrySet()) {
+				try {
+					currEntry.getValue().get();
+				}
+				catch (ExecutionException e) {
+					errors.put(currEntry.getKey(), e.getCause());
+				}
+			}
+			return errors;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			for (Future<Object> currFuture : futures.values()) {
+				currFuture.cancel(true);
+			}
+			throw new NotesError(0, "Reading calendar ranges has been interrupted", e);
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+	
+	/**
+	 * Result of a single CalReadRange call
+	 */
+	private static class RangePageResult {
+		private int m_numEntriesProcessed;
+		private short m_signalFlags;
+		private boolean m_stopped;
+	}
+	
+	/**
+	 * Reads a page of calendar entries with a single CalReadRange call and passes the data to the callback
+	 */
+	private static RangePageResult readRangePage(NotesDatabase dbMail, NotesTimeDateStruct.ByValue startStruct,
+			NotesTimeDateStruct.ByValue endStruct, int skipCount, int maxRead, int dwReturnMask, int dwReturnMaskExt,
+			boolean readICal, boolean readUIDs, CalendarRangeCallback callback) throws IOException {
+		
+		ShortByReference retCalBufferLength = new ShortByReference();
+		ShortByReference retSignalFlags = new ShortByReference();
+		IntByReference retNumEntriesProcessed = new IntByReference();
+		
+		long hRetCalDataLong;
+		long hRetUIDDataLong;
+		short result;
+		
+		if (PlatformUtils.is64Bit()) {
+			LongByReference hRetCalData = readICal ? new LongByReference() : null;
+			LongByReference hRetUIDData = readUIDs ? new LongByReference() : null;
+			
+			result = NotesNativeAPI64.get().CalReadRange(dbMail.getHandle64(), startStruct, endStruct, skipCount,
+					maxRead, dwReturnMask, dwReturnMaskExt, null, hRetCalData,
+					retCalBufferLength, hRetUIDData, retNumEntriesProcessed, retSignalFlags, 0, null);
+			NotesErrorUtils.checkResult(result);
+			
+			hRetCalDataLong = hRetCalData==null ? 0 : hRetCalData.getValue();
+			hRetUIDDataLong = hRetUIDData==null ? 0 : hRetUIDData.getValue();
+		}
+		else {
+			IntByReference hRetCalData = readICal ? new IntByReference() : null;
+			IntByReference hRetUIDData = readUIDs ? new IntByReference() : null;
+			
+			result = NotesNativeAPI32.get().CalReadRange(dbMail.getHandle32(), startStruct, endStruct, skipCount,
+					maxRead, dwReturnMask, dwReturnMaskExt, null, hRetCalData,
+					retCalBufferLength, hRetUIDData, retNumEntriesProcessed, retSignalFlags, 0, null);
+			NotesErrorUtils.checkResult(result);
+			
+			hRetCalDataLong = hRetCalData==null ? 0 : hRetCalData.getValue();
+			hRetUIDDataLong = hRetUIDData==null ? 0 : hRetUIDData.getValue();
+		}
+		
+		RangePageResult pageResult = new RangePageResult();
+		pageResult.m_numEntriesProcessed = retNumEntriesProcessed.getValue();
+		pageResult.m_signalFlags = retSignalFlags.getValue();
+		
+		try {
+			int iCalBufLength = (int) (retCalBufferLength.getValue() & 0xffff);
+			if (hRetCalDataLong!=0 && iCalBufLength>0) {
+				//decode iCalendar
+				Pointer iCalPtr = lockMemory(hRetCalDataLong);
+				String currICal;
+				try {
+					currICal = NotesStringUtils.fromLMBCS(iCalPtr, iCalBufLength);
+				}
+				finally {
+					unlockMemory(hRetCalDataLong);
+				}
+				if (callback.iCalendarRead(currICal) == CalendarRangeCallback.Action.Stop) {
+					pageResult.m_stopped = true;
+				}
+			}
+			
+			if (hRetUIDDataLong!=0 && !pageResult.m_stopped) {
+				//decode UID list and report UIDs one by one
+				Pointer pUIDData = lockMemory(hRetUIDDataLong);
+				ShortByReference retTextLength = new ShortByReference();
+				Memory retTextPointer = new Memory(Pointer.SIZE);
+				try {
+					int numEntriesAsInt = (int) (NotesNativeAPI.get().ListGetNumEntries(pUIDData, 0) & 0xffff);
+					for (int i=0; i<numEntriesAsInt; i++) {
+						result = NotesNativeAPI.get().ListGetText(pUIDData, false, (short) (i & 0xffff), retTextPointer, retTextLength);
+						NotesErrorUtils.checkResult(result);
+						
+						String currUID = NotesStringUtils.fromLMBCS(retTextPointer.getPointer(0), retTextLength.getValue() & 0xffff);
+						if (callback.uidRead(currUID) == CalendarRangeCallback.Action.Stop) {
+							pageResult.m_stopped = true;
+							break;
+						}
+					}
+				}
+				finally {
+					unlockMemory(hRetUIDDataLong);
+				}
+			}
+		}
+		finally {
+			freeMemory(hRetCalDataLong);
+			freeMemory(hRetUIDDataLong);
+		}
+		
+		return pageResult;
+	}
+	
+	private static Pointer lockMemory(long hdl) {
+		return PlatformUtils.is64Bit() ? Mem64.OSMemoryLock(hdl) : Mem32.OSMemoryLock((int) hdl);
+	}
+	
+	private static void unlockMemory(long hdl) {
+		if (PlatformUtils.is64Bit()) {
+			Mem64.OSMemoryUnlock(hdl);
+		}
+		else {
+			Mem32.OSMemoryUnlock((int) hdl);
+		}
+	}
+	
+	private static void freeMemory(long hdl) {
+		if (hdl==0) {
+			return;
+		}
+		if (PlatformUtils.is64Bit()) {
+			Mem64.OSMemoryFree(hdl);
+		}
+		else {
+			Mem32.OSMemoryFree((int) hdl);
+		}
+	}
 }
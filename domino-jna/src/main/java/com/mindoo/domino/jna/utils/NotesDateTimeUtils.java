@@ -328,5 +328,34 @@ public class NotesDateTimeUtils {
 	public static Calendar innardsToCalendar(int[] innards) {
 		return InnardsConverter.decodeInnards(innards);
 	}
+	
+	/**
+	 * Converts C API innard values to the number of milliseconds since 1/1/1970 without
+	 * creating a {@link Calendar}. Date-only values are returned as midnight UTC.
+	 * 
+	 * @param innards array with 2 innard values
+	 * @return milliseconds since January 1, 1970, 00:00:00 GMT
+	 * @throws IllegalArgumentException if innards are invalid or have no date part
+	 */
+	public static long innardsToMillis(int[] innards) {
+		long timeMillis = InnardsConverter.decodeInnardsToMillis(innards[0], innards[1]);
+		if (timeMillis==InnardsConverter.NO_DATE)
+			throw new IllegalArgumentException("Innards have no date part: "+Arrays.toString(innards));
+		return timeMillis;
+	}
+	
+	/**
+	 * Converts a time in milliseconds since 1/1/1970 to innards with date and time part
+	 * without creating a {@link Calendar}
+	 * 
+	 * @param timeMillis milliseconds since January 1, 1970, 00:00:00 GMT
+	 * @param tz timezone to store in the innards
+	 * @return innard array
+	 */
+	public static int[] millisToInnards(long timeMillis, TimeZone tz) {
+		int[] innards = new int[2];
+		InnardsConverter.encodeInnards(timeMillis, tz, innards);
+		return innards;
+	}
 
 }
@@ -1,5 +1,8 @@
 package com.mindoo.domino.jna.utils;
 
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.mindoo.domino.jna.errors.NotesError;
 import com.mindoo.domino.jna.errors.NotesErrorUtils;
 import com.mindoo.domino.jna.internal.NotesNativeAPI;
@@ -91,4 +94,52 @@ public class NotesInitUtils {
 	public static void notesTermThread() {
 		NotesNativeAPI.get().NotesTermThread();
 	}
+
+	/**
+	 * Creates a daemon thread that calls {@link #notesInitThread()} before running
+	 * the specified {@link Runnable} and {@link #notesTermThread()} afterwards.<br>
+	 * <br>
+	 * If the thread initialization fails, the {@link Runnable} is not run and the error is
+	 * passed to the uncaught exception handler of the thread.
+	 * 
+	 * @param r code to run
+	 * @param name thread name
+	 * @return thread, not started yet
+	 */
+	public static Thread createNotesThread(final Runnable r, String name) {
+		Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				notesInitThread();
+				try {
+					r.run();
+				}
+				finally {
+					notesTermThread();
+				}
+			}
+		}, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	/**
+	 * Creates a {@link ThreadFactory} for executors that run C API calls, see
+	 * {@link #createNotesThread(Runnable, String)}
+	 * 
+	 * @param namePrefix prefix for the thread names, followed by "-" and a counter
+	 * @return factory
+	 */
+	public static ThreadFactory createNotesThreadFactory(final String namePrefix) {
+		final AtomicInteger threadIdx = new AtomicInteger();
+
+		return new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				return createNotesThread(r, namePrefix+"-"+threadIdx.incrementAndGet());
+			}
+		};
+	}
 }
@@ -3,11 +3,9 @@ package com.mindoo.domino.jna.utils;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.EnumSet;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.mindoo.domino.jna.NotesNamesList;
 import com.mindoo.domino.jna.errors.NotesError;
@@ -21,6 +19,7 @@ import com.mindoo.domino.jna.internal.NotesConstants;
 import com.mindoo.domino.jna.internal.NotesNativeAPI;
 import com.mindoo.domino.jna.internal.NotesNativeAPI32;
 import com.mindoo.domino.jna.internal.NotesNativeAPI64;
+import com.mindoo.domino.jna.internal.SizeLimitedLRUCache;
 import com.mindoo.domino.jna.internal.structs.LinuxNotesNamesListHeader64Struct;
 import com.mindoo.domino.jna.internal.structs.MacNotesNamesListHeader64Struct;
 import com.mindoo.domino.jna.internal.structs.NotesNamesListHeader32Struct;
@@ -40,34 +39,14 @@ import com.sun.jna.ptr.ShortByReference;
  * @author Karsten Lehmann
  */
 public class NotesNamingUtils {
-	private static final int MAX_STRINGCACHE_SIZE = 500;
+	/** default max size of each name conversion cache in bytes, we count two bytes per character of key and value */
+	private static final int DEFAULT_NAMECACHE_SIZE_BYTES = 2000000;
+	/** max number of name components of a name in abbreviated format that we canonicalize in Java (CN, 4xOU, O, C) */
+	private static final int MAX_NAME_COMPONENTS = 7;
 	
-	private static Map<String, String> m_nameAbbrCache = Collections.synchronizedMap(new LinkedHashMap<String, String>(16,0.75f, true) {
-		private static final long serialVersionUID = -5818239831757810895L;
-
-		@Override
-		protected boolean removeEldestEntry (Map.Entry<String,String> eldest) {
-			if (size() > MAX_STRINGCACHE_SIZE) {
-				return true;
-			}
-			else {
-				return false;
-			}
-		}
-	});
-	private static Map<String, String> m_nameCanonicalCache = Collections.synchronizedMap(new LinkedHashMap<String, String>(16,0.75f, true) {
-		private static final long serialVersionUID = -5818239831757810895L;
-
-		@Override
-		protected boolean removeEldestEntry (Map.Entry<String,String> eldest) {
-			if (size() > MAX_STRINGCACHE_SIZE) {
-				return true;
-			}
-			else {
-				return false;
-			}
-		}
-	});
+	private static final NameConversionCache m_nameAbbrCache = new NameConversionCache(DEFAULT_NAMECACHE_SIZE_BYTES);
+	private static final NameConversionCache m_nameCanonicalCache = new NameConversionCache(DEFAULT_NAMECACHE_SIZE_BYTES);
+	private static final AtomicLong m_nativeNameConversions = new AtomicLong();
 	
 	/**
 	 * This function converts a distinguished name in abbreviated format to canonical format.
@@ -91,31 +70,40 @@ public class NotesNamingUtils {
 	 * @return canonical name
 	 */
 	public static String toCanonicalName(String name, String templateName) {
-		if (name==null)
-			return null;
-		if (name.length()==0)
-			return name;
-
-		String cacheKey = name + ((templateName!=null && templateName.length()>0) ? ("|" + templateName) : "");
-		String abbrName = m_nameCanonicalCache.get(cacheKey);
-		if (abbrName!=null) {
-			return abbrName;
+		DisposableMemory[] outNameMem = new DisposableMemory[1];
+		try {
+			return convertName(true, name, templateName, outNameMem);
 		}
-
-		Memory templateNameMem = templateName==null ? null : NotesStringUtils.toLMBCS(templateName, true); //used when abbrName is only a common name
-		Memory inNameMem = NotesStringUtils.toLMBCS(name, true);
-		DisposableMemory outNameMem = new DisposableMemory(NotesConstants.MAXUSERNAME);
-		ShortByReference outLength = new ShortByReference();
-		
-		short result = NotesNativeAPI.get().DNCanonicalize(0, templateNameMem, inNameMem, outNameMem, NotesConstants.MAXUSERNAME, outLength);
-		NotesErrorUtils.checkResult(result);
-		
-		String sOutName = NotesStringUtils.fromLMBCS(outNameMem, (int) (outLength.getValue() & 0xffff));
-		outNameMem.dispose();
-		
-		m_nameCanonicalCache.put(cacheKey, sOutName);
-		
-		return sOutName;
+		finally {
+			if (outNameMem[0]!=null) {
+				outNameMem[0].dispose();
+			}
+		}
+	}
+	
+	/**
+	 * Converts a list of names in abbreviated format to canonical format. In contrast to calling
+	 * {@link #toCanonicalName(String)} for each name, one output buffer is shared for all
+	 * conversions that require a C API call.
+	 * 
+	 * @param names names to convert
+	 * @return canonical names in the same order
+	 */
+	public static List<String> toCanonicalNames(List<String> names) {
+		return toCanonicalNames(names, null);
+	}
+	
+	/**
+	 * Converts a list of names in abbreviated format to canonical format. In contrast to calling
+	 * {@link #toCanonicalName(String, String)} for each name, one output buffer is shared for all
+	 * conversions that require a C API call.
+	 * 
+	 * @param names names to convert
+	 * @param templateName name to be used when an input name is in common name format
+	 * @return canonical names in the same order
+	 */
+	public static List<String> toCanonicalNames(List<String> names, String templateName) {
+		return convertNames(true, names, templateName);
 	}
 	
 	/**
@@ -159,6 +147,304 @@ public class NotesNamingUtils {
 		return abbrName;
 	}
 
+	/**
+	 * Converts a list of names in canonical format to abbreviated format by calling
+	 * {@link #toAbbreviatedName(String)} for each name
+	 * 
+	 * @param names names to convert
+	 * @return abbreviated names in the same order
+	 */
+	public static List<String> toAbbreviatedNames(List<String> names) {
+		List<String> abbrNames = new ArrayList<String>(names.size());
+		for (String currName : names) {
+			abbrNames.add(toAbbreviatedName(currName));
+		}
+		return abbrNames;
+	}
+	
+	/**
+	 * Converts a list of names in canonical format to abbreviated format. In contrast to calling
+	 * {@link #toAbbreviatedName(String, String)} for each name, one output buffer is shared for all
+	 * conversions that require a C API call.
+	 * 
+	 * @param names names to convert
+	 * @param templateName name to be used when an input name is in common name format
+	 * @return abbreviated names in the same order
+	 */
+	public static List<String> toAbbreviatedNames(List<String> names, String templateName) {
+		return convertNames(false, names, templateName);
+	}
+	
+	/**
+	 * Converts a list of names, sharing one output buffer for all C API calls
+	 * 
+	 * @param canonicalize true to convert to canonical, false to convert to abbreviated format
+	 * @param names names to convert
+	 * @param templateName template name or null
+	 * @return converted names
+	 */
+	private static List<String> convertNames(boolean canonicalize, List<String> names, String templateName) {
+		List<String> convertedNames = new ArrayList<String>(names.size());
+		DisposableMemory[] outNameMem = new DisposableMemory[1];
+		try {
+			for (String currName : names) {
+				convertedNames.add(convertName(canonicalize, currName, templateName, outNameMem));
+			}
+		}
+		finally {
+			if (outNameMem[0]!=null) {
+				outNameMem[0].dispose();
+			}
+		}
+		return convertedNames;
+	}
+	
+	/**
+	 * Converts a name to canonical or abbreviated format. Checks the cache first, then tries
+	 * to convert the name in Java and finally calls DNCanonicalize/DNAbbreviate.
+	 * 
+	 * @param canonicalize true to convert to canonical, false to convert to abbreviated format
+	 * @param name name to convert
+	 * @param templateName template name or null
+	 * @param outNameMem array with one element holding the output buffer for the C API call; allocated on first use, disposed by the caller
+	 * @return converted name
+	 */
+	private static String convertName(boolean canonicalize, String name, String templateName, DisposableMemory[] outNameMem) {
+		if (name==null)
+			return null;
+		if (name.length()==0)
+			return name;
+		
+		boolean hasTemplate = templateName!=null && templateName.length()>0;
+		NameConversionCache cache = canonicalize ? m_nameCanonicalCache : m_nameAbbrCache;
+		
+		String cacheKey = hasTemplate ? (name + "|" + templateName) : name;
+		String convertedName = cache.get(cacheKey);
+		if (convertedName!=null) {
+			return convertedName;
+		}
+		
+		if (!hasTemplate) {
+			//the template name is only used for names without hierarchy, which we leave to the C API
+			convertedName = canonicalize ? toCanonicalNameInJava(name) : toAbbreviatedNameInJava(name);
+		}
+		
+		if (convertedName==null) {
+			Memory templateNameMem = hasTemplate ? NotesStringUtils.toLMBCS(templateName, true) : null; //used when name is only a common name
+			Memory inNameMem = NotesStringUtils.toLMBCS(name, true);
+			if (outNameMem[0]==null) {
+				outNameMem[0] = new DisposableMemory(NotesConstants.MAXUSERNAME);
+			}
+			ShortByReference outLength = new ShortByReference();
+			
+			short result;
+			if (canonicalize) {
+				result = NotesNativeAPI.get().DNCanonicalize(0, templateNameMem, inNameMem, outNameMem[0], NotesConstants.MAXUSERNAME, outLength);
+			}
+			else {
+				result = NotesNativeAPI.get().DNAbbreviate(0, templateNameMem, inNameMem, outNameMem[0], NotesConstants.MAXUSERNAME, outLength);
+			}
+			NotesErrorUtils.checkResult(result);
+			m_nativeNameConversions.incrementAndGet();
+			
+			convertedName = NotesStringUtils.fromLMBCS(outNameMem[0], (int) (outLength.getValue() & 0xffff));
+		}
+		
+		cache.put(cacheKey, convertedName);
+		return convertedName;
+	}
+	
+	/**
+	 * Splits a hierarchical name into its components if it only contains characters without
+	 * special meaning for the C API name conversion (no LDAP format, domains, wildcards etc.)
+	 * 
+	 * @param name name
+	 * @return components or null if the name should be converted by the C API
+	 */
+	private static String[] splitSimpleHierarchicalName(String name) {
+		int componentCount = 1;
+		for (int i=0; i<name.length(); i++) {
+			char c = name.charAt(i);
+			if (c=='/') {
+				componentCount++;
+			}
+			else if (c=='@' || c==',' || c=='\\' || c=='"' || c=='*' || c=='[' || c==']' || c=='<' || c=='>') {
+				return null;
+			}
+		}
+		if (componentCount<2 || componentCount>MAX_NAME_COMPONENTS) {
+			//flat names are left to the C API, because it might apply additional rules
+			return null;
+		}
+		
+		String[] components = name.split("/", -1);
+		for (String currComponent : components) {
+			if (currComponent.length()==0 ||
+					Character.isWhitespace(currComponent.charAt(0)) ||
+					Character.isWhitespace(currComponent.charAt(currComponent.length()-1))) {
+				return null;
+			}
+		}
+		return components;
+	}
+	
+	/**
+	 * Checks if the name components use the labels of a canonical name: CN for the first component,
+	 * optional OUs, O and optional C
+	 * 
+	 * @param components name components
+	 * @return true if canonical
+	 */
+	private static boolean isCanonicalFormat(String[] components) {
+		if (!hasLabel(components[0], "CN=")) {
+			return false;
+		}
+		int orgIdx = components.length-1;
+		if (hasLabel(components[orgIdx], "C=")) {
+			orgIdx--;
+		}
+		if (orgIdx<1 || !hasLabel(components[orgIdx], "O=")) {
+			return false;
+		}
+		for (int i=1; i<orgIdx; i++) {
+			if (!hasLabel(components[i], "OU=")) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static boolean hasLabel(String component, String label) {
+		return component.length()>label.length() && component.startsWith(label) &&
+				component.indexOf('=', label.length())==-1;
+	}
+	
+	/**
+	 * Converts the common name formats to canonical format without calling the C API:
+	 * names already in canonical format are returned unchanged, abbreviated names get
+	 * the labels CN, OU and O.
+	 * 
+	 * @param name name
+	 * @return canonical name or null if the name should be converted by the C API
+	 */
+	static String toCanonicalNameInJava(String name) {
+		String[] components = splitSimpleHierarchicalName(name);
+		if (components==null) {
+			return null;
+		}
+		
+		if (name.indexOf('=')!=-1) {
+			return isCanonicalFormat(components) ? name : null;
+		}
+		
+		if (components[components.length-1].length()==2) {
+			//might be a country code, the C API knows the rules
+			return null;
+		}
+		if (components.length>MAX_NAME_COMPONENTS-1) {
+			//only 4 OUs allowed
+			return null;
+		}
+		
+		StringBuilder sb = new StringBuilder(name.length() + 4*components.length);
+		sb.append("CN=").append(components[0]);
+		for (int i=1; i<components.length-1; i++) {
+			sb.append("/OU=").append(components[i]);
+		}
+		sb.append("/O=").append(components[components.length-1]);
+		return sb.toString();
+	}
+	
+	/**
+	 * Converts the common name formats to abbreviated format without calling the C API:
+	 * names in canonical format get their labels removed, names that are already in abbreviated
+	 * format are returned unchanged.
+	 * 
+	 * @param name name
+	 * @return abbreviated name or null if the name should be converted by the C API
+	 */
+	static String toAbbreviatedNameInJava(String name) {
+		String[] components = splitSimpleHierarchicalName(name);
+		if (components==null) {
+			return null;
+		}
+		
+		if (name.indexOf('=')==-1) {
+			return name;
+		}
+		if (!isCanonicalFormat(components)) {
+			return null;
+		}
+		
+		StringBuilder sb = new StringBuilder(name.length());
+		for (int i=0; i<components.length; i++) {
+			if (i>0) {
+				sb.append('/');
+			}
+			String currComponent = components[i];
+			sb.append(currComponent, currComponent.indexOf('=')+1, currComponent.length());
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Changes the max size of the caches for canonical and abbreviated names (default: 2.000.000 bytes each).
+	 * The size of a cache entry is computed as two bytes per character of the name and the conversion result.
+	 * 
+	 * @param maxSizeInBytes max size of each cache in bytes
+	 */
+	public static void setNameCacheMaxSize(long maxSizeInBytes) {
+		if (maxSizeInBytes<0)
+			throw new IllegalArgumentException("Max cache size cannot be negative: "+maxSizeInBytes);
+		
+		m_nameAbbrCache.setMaxSizeInUnits(maxSizeInBytes);
+		m_nameCanonicalCache.setMaxSizeInUnits(maxSizeInBytes);
+	}
+	
+	/**
+	 * Returns the current size of the caches for canonical and abbreviated names
+	 * 
+	 * @return size in bytes
+	 */
+	public static long getNameCacheSize() {
+		return m_nameAbbrCache.getCurrentCacheSizeInUnits() + m_nameCanonicalCache.getCurrentCacheSizeInUnits();
+	}
+	
+	/**
+	 * Returns the number of name conversions that could be answered from the caches
+	 * 
+	 * @return hits
+	 */
+	public static long getNameCacheHits() {
+		return m_nameAbbrCache.getHits() + m_nameCanonicalCache.getHits();
+	}
+	
+	/**
+	 * Returns the number of name conversions that were not found in the caches
+	 * 
+	 * @return misses
+	 */
+	public static long getNameCacheMisses() {
+		return m_nameAbbrCache.getMisses() + m_nameCanonicalCache.getMisses();
+	}
+	
+	/**
+	 * Returns the number of name conversions that required a C API call
+	 * 
+	 * @return number of calls
+	 */
+	public static long getNativeNameConversions() {
+		return m_nativeNameConversions.get();
+	}
+	
+	/**
+	 * Removes all entries from the caches for canonical and abbreviated names
+	 */
+	public static void clearNameCaches() {
+		m_nameAbbrCache.clear();
+		m_nameCanonicalCache.clear();
+	}
+	
 	/**
 	 * Method to compare two Notes names. We compare the abbreviated forms of both names
 	 * ignoring the case
@@ -247,31 +533,15 @@ public class NotesNamingUtils {
 	 * @return abbreviated name
 	 */
 	public static String toAbbreviatedName(String name, String templateName) {
-		if (name==null)
-			return null;
-		if (name.length()==0)
-			return name;
-		
-		String cacheKey = name + ((templateName!=null && templateName.length()>0) ? ("|" + templateName) : "");
-		String abbrName = m_nameAbbrCache.get(cacheKey);
-		if (abbrName!=null) {
-			return abbrName;
+		DisposableMemory[] outNameMem = new DisposableMemory[1];
+		try {
+			return convertName(false, name, templateName, outNameMem);
+		}
+		finally {
+			if (outNameMem[0]!=null) {
+				outNameMem[0].dispose();
+			}
 		}
-		
-		Memory templateNameMem = templateName==null || templateName.length()==0 ? null : NotesStringUtils.toLMBCS(templateName, true); //used when abbrName is only a common name
-		Memory inNameMem = NotesStringUtils.toLMBCS(name, true);
-		DisposableMemory outNameMem = new DisposableMemory(NotesConstants.MAXUSERNAME);
-		ShortByReference outLength = new ShortByReference();
-		
-		short result = NotesNativeAPI.get().DNAbbreviate(0, templateNameMem, inNameMem, outNameMem, NotesConstants.MAXUSERNAME, outLength);
-		NotesErrorUtils.checkResult(result);
-		
-		String sOutName = NotesStringUtils.fromLMBCS(outNameMem, (int) (outLength.getValue() & 0xffff));
-		outNameMem.dispose();
-		
-		m_nameAbbrCache.put(cacheKey, sOutName);
-		
-		return sOutName;
 	}
 
 	/**
@@ -282,10 +552,7 @@ public class NotesNamingUtils {
 	 */
 	private static void storeAsUserNamesList(List<String> names, ByteArrayOutputStream bOut) {
 		//convert to canonical format
-		List<String> namesCanonical = new ArrayList<String>(names.size());
-		for (int i=0; i<names.size(); i++) {
-			namesCanonical.add(toCanonicalName(names.get(i)));
-		}
+		List<String> namesCanonical = toCanonicalNames(names);
 		
 		for (int i=0; i<namesCanonical.size(); i++) {
 			String currName = namesCanonical.get(i);
@@ -830,4 +1097,41 @@ public class NotesNamingUtils {
 		}
 		return privileges;
 	}
+	/**
+	 * LRU cache for converted names that counts hits and misses
+	 */
+	private static class NameConversionCache extends SizeLimitedLRUCache<String, String> {
+		private final AtomicLong m_hits = new AtomicLong();
+		private final AtomicLong m_misses = new AtomicLong();
+		
+		public NameConversionCache(int maxSizeUnits) {
+			super(maxSizeUnits);
+		}
+		
+		@Override
+		public String get(String key) {
+			String value = super.get(key);
+			if (value==null) {
+				m_misses.incrementAndGet();
+			}
+			else {
+				m_hits.incrementAndGet();
+			}
+			return value;
+		}
+		
+		@Override
+		protected int computeSize(String key, String value) {
+			return (key.length() + value.length()) * 2;
+		}
+		
+		public long getHits() {
+			return m_hits.get();
+		}
+		
+		public long getMisses() {
+			return m_misses.get();
+		}
+	}
+	
 }
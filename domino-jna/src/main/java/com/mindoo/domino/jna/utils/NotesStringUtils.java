@@ -6,6 +6,8 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
@@ -175,6 +177,20 @@ public class NotesStringUtils {
 		return stringList;
 	}
 
+	/**
+	 * Creates a new decoder for LMBCS data, e.g. to decode large texts in chunks. The decoder
+	 * keeps incomplete multi-byte characters at the end of a chunk until the next chunk is decoded.
+	 * Like {@link #fromLMBCS(Pointer, int)}, malformed or unmappable input is decoded to
+	 * replacement characters instead of failing.
+	 * 
+	 * @return decoder
+	 */
+	public static CharsetDecoder newLMBCSDecoder() {
+		return LMBCSCharset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+	
 	/**
 	 * Converts an LMBCS string to a Java String
 	 * 
@@ -0,0 +1,179 @@
+package com.mindoo.domino.jna.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.utils.NotesBusyTimeCache;
+
+/**
+ * Tests cases for the free time search of {@link NotesBusyTimeCache}, using busy times
+ * from memory instead of schedule lookups
+ *
+ * @author Karsten Lehmann
+ */
+public class TestBusyTimeCache {
+	private static final long MINUTE = 60*1000;
+	private static final long HOUR = 60*MINUTE;
+
+	private static final String JOHN = "John Doe/Acme";
+	private static final String JANE = "CN=Jane Roe/O=Acme";
+	private static final String ROOM = "Room 1/Acme";
+
+	/**
+	 * Cache that returns the busy times from a map and records the loaded ranges
+	 */
+	private static class InMemoryBusyTimeCache extends NotesBusyTimeCache {
+		private Map<String,long[]> m_busyTimes = new HashMap<String,long[]>();
+		private List<String> m_loadedRanges = new ArrayList<String>();
+
+		public InMemoryBusyTimeCache() {
+			//unsorted, overlapping and adjacent intervals, intervals outside of the loaded range
+			m_busyTimes.put("cn=john doe/o=acme", new long[] {5*HOUR, 6*HOUR, 1*HOUR, 2*HOUR, 90*MINUTE, 3*HOUR,
+					6*HOUR, 7*HOUR, 570*MINUTE, 11*HOUR});
+			m_busyTimes.put("cn=jane roe/o=acme", new long[] {150*MINUTE, 4*HOUR, 8*HOUR, 9*HOUR});
+		}
+
+		@Override
+		protected Map<String,LoadedBusyTime> loadBusyTimes(List<String> keys, long from, long until) {
+			m_loadedRanges.add((from/MINUTE)+"-"+(until/MINUTE)+" "+keys);
+
+			Map<String,LoadedBusyTime> result = new HashMap<String,LoadedBusyTime>();
+			for (String currKey : keys) {
+				long[] ranges = m_busyTimes.get(currKey);
+				if (ranges==null) {
+					result.put(currKey, new LoadedBusyTime(new long[0], new NotesError(0, "No schedule for "+currKey)));
+				}
+				else {
+					//return all intervals that overlap the requested range, like the schedule API
+					List<Long> overlapping = new ArrayList<Long>();
+					for (int i=0; i<ranges.length; i+=2) {
+						if (ranges[i] < until && ranges[i+1] > from) {
+							overlapping.add(ranges[i]);
+							overlapping.add(ranges[i+1]);
+						}
+					}
+					long[] overlappingArr = new long[overlapping.size()];
+					for (int i=0; i<overlappingArr.length; i++) {
+						overlappingArr[i] = overlapping.get(i).longValue();
+					}
+					result.put(currKey, new LoadedBusyTime(overlappingArr, null));
+				}
+			}
+			return result;
+		}
+
+		public List<String> getLoadedRanges() {
+			return m_loadedRanges;
+		}
+	}
+
+	private static void assertRanges(long[] expectedRanges, long[] ranges) {
+		Assert.assertEquals("Ranges "+Arrays.toString(ranges), Arrays.toString(expectedRanges), Arrays.toString(ranges));
+	}
+
+	@Test
+	public void testBusyTimesAreMerged() {
+		InMemoryBusyTimeCache cache = new InMemoryBusyTimeCache();
+
+		assertRanges(new long[] {1*HOUR, 3*HOUR, 5*HOUR, 7*HOUR, 570*MINUTE, 10*HOUR}, cache.getBusyTime(JOHN, 0, 10*HOUR));
+		//clipped to the query range, read from the cache
+		assertRanges(new long[] {2*HOUR, 3*HOUR, 5*HOUR, 330*MINUTE}, cache.getBusyTime(JOHN, 2*HOUR, 330*MINUTE));
+		Assert.assertEquals(1, cache.getLoadedRanges().size());
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testExtendCoveredRange() {
+		InMemoryBusyTimeCache cache = new InMemoryBusyTimeCache();
+		cache.getBusyTime(JOHN, 0, 10*HOUR);
+
+		//only the missing part gets loaded, the interval crossing the old range end is merged
+		assertRanges(new long[] {570*MINUTE, 11*HOUR}, cache.getBusyTime(JOHN, 9*HOUR, 12*HOUR));
+		assertRanges(new long[] {5*HOUR, 7*HOUR, 570*MINUTE, 11*HOUR}, cache.getBusyTime(JOHN, 4*HOUR, 12*HOUR));
+		Assert.assertEquals(Arrays.asList("0-600 [cn=john doe/o=acme]", "600-720 [cn=john doe/o=acme]"), cache.getLoadedRanges());
+	}
+
+	@Test
+	public void testRangeBeforeEpoch() {
+		InMemoryBusyTimeCache cache = new InMemoryBusyTimeCache();
+
+		//negative milliseconds for dates before 1970
+		assertRanges(new long[] {1*HOUR, 3*HOUR}, cache.getBusyTime(JOHN, -2*HOUR, 4*HOUR));
+		assertRanges(new long[] {1*HOUR, 2*HOUR}, cache.getBusyTime(JOHN, -4*HOUR, 2*HOUR));
+		Assert.assertEquals(Arrays.asList("-120-240 [cn=john doe/o=acme]", "-240--120 [cn=john doe/o=acme]"), cache.getLoadedRanges());
+	}
+
+	@Test
+	public void testFindFreeTime() {
+		InMemoryBusyTimeCache cache = new InMemoryBusyTimeCache();
+		List<String> attendees = Arrays.asList(JOHN, JANE, ROOM);
+
+		//busy: 1-4 (John and Jane overlap), 5-7, 8-9, 9:30-10
+		assertRanges(new long[] {0, 1*HOUR, 4*HOUR, 5*HOUR, 7*HOUR, 8*HOUR, 9*HOUR, 570*MINUTE},
+				cache.findFreeTime(attendees, 0, 10*HOUR, 30*MINUTE, false));
+		//one schedule lookup for all attendees
+		Assert.assertEquals(Arrays.asList("0-600 [cn=john doe/o=acme, cn=jane roe/o=acme, cn=room 1/o=acme]"), cache.getLoadedRanges());
+		//owners with schedule errors are treated as free
+		Assert.assertNotNull(cache.getError(ROOM));
+		Assert.assertNull(cache.getError(JOHN));
+
+		//minimum duration
+		assertRanges(new long[] {0, 1*HOUR, 4*HOUR, 5*HOUR, 7*HOUR, 8*HOUR},
+				cache.findFreeTime(attendees, 0, 10*HOUR, 31*MINUTE, false));
+		assertRanges(new long[0], cache.findFreeTime(attendees, 0, 10*HOUR, 61*MINUTE, false));
+
+		//range starting in a busy interval
+		assertRanges(new long[] {4*HOUR, 5*HOUR, 7*HOUR, 8*HOUR},
+				cache.findFreeTime(attendees, 90*MINUTE, 9*HOUR, 30*MINUTE, false));
+
+		//range without busy times and range that is completely busy
+		assertRanges(new long[] {0, 1*HOUR}, cache.findFreeTime(attendees, 0, 1*HOUR, 30*MINUTE, false));
+		assertRanges(new long[0], cache.findFreeTime(Arrays.asList(JOHN), 1*HOUR, 3*HOUR, 1, false));
+		Assert.assertEquals(1, cache.getLoadedRanges().size());
+	}
+
+	@Test
+	public void testFindFirstFit() {
+		InMemoryBusyTimeCache cache = new InMemoryBusyTimeCache();
+		List<String> attendees = Arrays.asList(JOHN, JANE);
+
+		assertRanges(new long[] {0, 30*MINUTE}, cache.findFreeTime(attendees, 0, 10*HOUR, 30*MINUTE, true));
+		assertRanges(new long[] {4*HOUR, 270*MINUTE}, cache.findFreeTime(attendees, 1*HOUR, 10*HOUR, 30*MINUTE, true));
+		//free time at the end of the range
+		assertRanges(new long[] {11*HOUR, 12*HOUR}, cache.findFreeTime(attendees, 9*HOUR, 12*HOUR, 1*HOUR, true));
+		assertRanges(new long[0], cache.findFreeTime(attendees, 0, 10*HOUR, 2*HOUR, true));
+	}
+
+	@Test
+	public void testInvalidate() {
+		InMemoryBusyTimeCache cache = new InMemoryBusyTimeCache();
+		cache.findFreeTime(Arrays.asList(JOHN, JANE), 0, 10*HOUR, 30*MINUTE, false);
+		Assert.assertEquals(2, cache.getOwnerCount());
+
+		cache.invalidate(JOHN);
+		Assert.assertEquals(1, cache.getOwnerCount());
+		cache.findFreeTime(Arrays.asList(JOHN, JANE), 0, 10*HOUR, 30*MINUTE, false);
+		Assert.assertEquals("0-600 [cn=john doe/o=acme]", cache.getLoadedRanges().get(1));
+
+		cache.invalidateAll();
+		Assert.assertEquals(0, cache.getOwnerCount());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testEmptyRange() {
+		new InMemoryBusyTimeCache().findFreeTime(Arrays.asList(JOHN), 1*HOUR, 1*HOUR, 0, false);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNegativeDuration() {
+		new InMemoryBusyTimeCache().findFreeTime(Arrays.asList(JOHN), 0, 1*HOUR, -1, false);
+	}
+}
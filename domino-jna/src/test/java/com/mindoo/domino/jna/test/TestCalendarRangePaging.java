@@ -0,0 +1,313 @@
+package com.mindoo.domino.jna.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.NotesDatabase;
+import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.constants.CalendarReadRange;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.internal.NotesNativeAPI;
+import com.mindoo.domino.jna.simulation.SimulatedDatabase;
+import com.mindoo.domino.jna.simulation.SimulatedNotesBackend;
+import com.mindoo.domino.jna.utils.NotesCalendarUtils;
+import com.mindoo.domino.jna.utils.NotesCalendarUtils.CalendarRangeCallback;
+import com.mindoo.domino.jna.utils.NotesCalendarUtils.ICalendarRangeCallbackFactory;
+
+/**
+ * Tests cases for reading calendar ranges page by page with {@link NotesCalendarUtils},
+ * using the CalReadRange implementation of the simulated Domino backend
+ *
+ * @author Karsten Lehmann
+ */
+public class TestCalendarRangePaging {
+	private static final String DB_PATH = "mail/calendar.nsf";
+	private static final EnumSet<CalendarReadRange> READ_MASK = EnumSet.of(CalendarReadRange.DTSTART, CalendarReadRange.SUMMARY);
+
+	private SimulatedDatabase m_simDb;
+
+	@BeforeClass
+	public static void initSimulatedBackend() {
+		NotesNativeAPI.initialize(NotesNativeAPI.Mode.Simulated);
+	}
+
+	@Before
+	public void createDatabase() {
+		SimulatedNotesBackend.reset();
+		m_simDb = createCalendar(DB_PATH, "appt", 25);
+	}
+
+	private static Calendar getDay(int day) {
+		Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		cal.clear();
+		cal.set(2026, Calendar.MARCH, day, 10, 0, 0);
+		//all time fields must be set to convert the time part to a NotesTimeDate
+		cal.set(Calendar.MILLISECOND, 0);
+		return cal;
+	}
+
+	/**
+	 * Creates a database with appointments every 50 minutes from March 2nd 0:00 UTC on, one
+	 * appointment the day before and one on March 3rd
+	 */
+	private static SimulatedDatabase createCalendar(String filePath, String uidPrefix, int count) {
+		SimulatedDatabase simDb = SimulatedNotesBackend.createDatabase(filePath, "Calendar");
+		//created in reverse order to check the sort order of the range
+		for (int i=count-1; i>=0; i--) {
+			Calendar start = getDay(2);
+			start.set(Calendar.HOUR_OF_DAY, 0);
+			start.add(Calendar.MINUTE, i*50);
+			simDb.createNote(createAppointment(uidPrefix+i, start));
+		}
+		simDb.createNote(createAppointment(uidPrefix+"-before", getDay(1)));
+		simDb.createNote(createAppointment(uidPrefix+"-after", getDay(3)));
+		//not a calendar entry
+		simDb.createNote(Collections.<String,Object>singletonMap("Subject", "memo"));
+		return simDb;
+	}
+
+	private static Map<String,Object> createAppointment(String uid, Calendar start) {
+		Map<String,Object> items = new HashMap<String,Object>();
+		items.put("ApptUNID", uid);
+		items.put("Subject", "Subject of "+uid);
+		items.put("StartDateTime", start);
+		return items;
+	}
+
+	private static List<String> getUIDs(String uidPrefix, int from, int to) {
+		List<String> uids = new ArrayList<String>();
+		for (int i=from; i<to; i++) {
+			uids.add(uidPrefix+i);
+		}
+		return uids;
+	}
+
+	/**
+	 * Splits iCalendar data into lines, LMBCS line breaks are converted to the platform line delimiter
+	 */
+	private static List<String> getLines(String iCal) {
+		return Arrays.asList(iCal.split("\\r?\\n"));
+	}
+
+	private static NotesTimeDate getRangeStart() {
+		Calendar cal = getDay(2);
+		cal.set(Calendar.HOUR_OF_DAY, 0);
+		return new NotesTimeDate(cal);
+	}
+
+	private static NotesTimeDate getRangeEnd() {
+		Calendar cal = getDay(2);
+		cal.set(Calendar.HOUR_OF_DAY, 14);
+		return new NotesTimeDate(cal);
+	}
+
+	/**
+	 * Callback that records the received data
+	 */
+	private static class RecordingCallback extends CalendarRangeCallback {
+		protected List<String> m_iCalPages = new ArrayList<String>();
+		private List<String> m_uids = new ArrayList<String>();
+		private List<Integer> m_viewChangePositions = new ArrayList<Integer>();
+		private int m_maxUIDs = Integer.MAX_VALUE;
+
+		@Override
+		public Action iCalendarRead(String iCal) throws IOException {
+			m_iCalPages.add(iCal);
+			return Action.Continue;
+		}
+
+		@Override
+		public Action uidRead(String uid) {
+			m_uids.add(uid);
+			return m_uids.size() < m_maxUIDs ? Action.Continue : Action.Stop;
+		}
+
+		@Override
+		public void viewChanged(int position) {
+			m_viewChangePositions.add(position);
+		}
+	}
+
+	@Test
+	public void testPaging() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesDatabase db = new NotesDatabase("", DB_PATH, "");
+				RecordingCallback callback = new RecordingCallback();
+				int processed = NotesCalendarUtils.readRange(db, getRangeStart(), getRangeEnd(), 0, Integer.MAX_VALUE,
+						10, READ_MASK, true, true, callback);
+
+				Assert.assertEquals(17, processed);
+				Assert.assertEquals(getUIDs("appt", 0, 17), callback.m_uids);
+				//pages of 10 and 7 entries
+				Assert.assertEquals(2, callback.m_iCalPages.size());
+				Assert.assertTrue(getLines(callback.m_iCalPages.get(1)).contains("UID:appt16"));
+				Assert.assertFalse(getLines(callback.m_iCalPages.get(1)).contains("UID:appt9"));
+				Assert.assertTrue(callback.m_viewChangePositions.isEmpty());
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testSkipCountAndMaxRead() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesDatabase db = new NotesDatabase("", DB_PATH, "");
+				RecordingCallback callback = new RecordingCallback();
+				int processed = NotesCalendarUtils.readRange(db, getRangeStart(), getRangeEnd(), 3, 12,
+						5, READ_MASK, false, true, callback);
+
+				Assert.assertEquals(12, processed);
+				Assert.assertEquals(getUIDs("appt", 3, 15), callback.m_uids);
+				Assert.assertTrue(callback.m_iCalPages.isEmpty());
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testStopInCallback() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesDatabase db = new NotesDatabase("", DB_PATH, "");
+				RecordingCallback callback = new RecordingCallback();
+				callback.m_maxUIDs = 7;
+				int processed = NotesCalendarUtils.readRange(db, getRangeStart(), getRangeEnd(), 0, Integer.MAX_VALUE,
+						5, READ_MASK, false, true, callback);
+
+				//the whole second page has been read by the C API
+				Assert.assertEquals(10, processed);
+				Assert.assertEquals(getUIDs("appt", 0, 7), callback.m_uids);
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testViewChangeContinuesAtPosition() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesDatabase db = new NotesDatabase("", DB_PATH, "");
+				RecordingCallback callback = new RecordingCallback() {
+					@Override
+					public Action iCalendarRead(String iCal) throws IOException {
+						if (super.iCalendarRead(iCal)==Action.Continue && m_iCalPages.size()==1) {
+							//the view changes twice while the first page is processed
+							m_simDb.simulateCalendarViewChanges(2);
+						}
+						return Action.Continue;
+					}
+				};
+				int processed = NotesCalendarUtils.readRange(db, getRangeStart(), getRangeEnd(), 0, Integer.MAX_VALUE,
+						10, READ_MASK, true, true, callback);
+
+				//reading is not restarted, the remaining entries are read from the last position
+				Assert.assertEquals(17, processed);
+				Assert.assertEquals(getUIDs("appt", 0, 17), callback.m_uids);
+				Assert.assertEquals(Arrays.asList(10, 10), callback.m_viewChangePositions);
+				Assert.assertEquals(2, callback.m_iCalPages.size());
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testViewKeepsChanging() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesDatabase db = new NotesDatabase("", DB_PATH, "");
+				m_simDb.simulateCalendarViewChanges(100);
+				RecordingCallback callback = new RecordingCallback();
+				try {
+					NotesCalendarUtils.readRange(db, getRangeStart(), getRangeEnd(), 0, Integer.MAX_VALUE,
+							10, READ_MASK, true, true, callback);
+					Assert.fail("Endless conflicts have not been detected");
+				}
+				catch (NotesError e) {
+					//expected
+				}
+				Assert.assertTrue(callback.m_uids.isEmpty());
+				Assert.assertTrue(callback.m_viewChangePositions.size() > 1);
+				Assert.assertEquals(0, callback.m_viewChangePositions.get(0).intValue());
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testReadRangePaged() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesDatabase db = new NotesDatabase("", DB_PATH, "");
+				StringBuilder sbICal = new StringBuilder();
+				int processed = NotesCalendarUtils.readRangePaged(db, getRangeStart(), getRangeEnd(), 4, READ_MASK, sbICal);
+
+				Assert.assertEquals(17, processed);
+				String iCal = sbICal.toString();
+				List<String> iCalLines = getLines(iCal);
+				for (String currUID : getUIDs("appt", 0, 17)) {
+					Assert.assertTrue(iCalLines.contains("UID:"+currUID));
+				}
+				Assert.assertFalse(iCal.contains("appt-before"));
+				Assert.assertFalse(iCal.contains("appt-after"));
+				//one VCALENDAR per page
+				Assert.assertEquals(5, iCal.split("BEGIN:VCALENDAR").length - 1);
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testReadRangeInDatabases() throws Exception {
+		createCalendar("mail/resource1.nsf", "res1-", 3);
+		createCalendar("mail/resource2.nsf", "res2-", 20);
+		List<String> dbPaths = Arrays.asList(DB_PATH, "mail/resource1.nsf", "mail/missing.nsf", "mail/resource2.nsf");
+
+		final Map<String,RecordingCallback> callbacks = Collections.synchronizedMap(new HashMap<String,RecordingCallback>());
+		Map<String,Throwable> errors = NotesCalendarUtils.readRangeInDatabases("", dbPaths, getRangeStart(), getRangeEnd(),
+				READ_MASK, false, true, 2, new ICalendarRangeCallbackFactory() {
+
+			@Override
+			public CalendarRangeCallback createCallback(String server, String filePath) {
+				RecordingCallback callback = new RecordingCallback();
+				callbacks.put(filePath, callback);
+				return callback;
+			}
+		});
+
+		//an error reading one database does not stop reading the others
+		Assert.assertEquals(Collections.singleton("mail/missing.nsf"), errors.keySet());
+		Assert.assertTrue(errors.get("mail/missing.nsf") instanceof NotesError);
+		Assert.assertEquals(getUIDs("appt", 0, 17), callbacks.get(DB_PATH).m_uids);
+		Assert.assertEquals(getUIDs("res1-", 0, 3), callbacks.get("mail/resource1.nsf").m_uids);
+		Assert.assertEquals(getUIDs("res2-", 0, 17), callbacks.get("mail/resource2.nsf").m_uids);
+	}
+}
@@ -0,0 +1,160 @@
+package com.mindoo.domino.jna.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.CollectionDataCache;
+import com.mindoo.domino.jna.CollectionDataCache.IndexType;
+import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.NotesViewEntryData;
+import com.mindoo.domino.jna.constants.ReadMask;
+
+/**
+ * Tests cases for the maintenance of the secondary indexes of a {@link CollectionDataCache}
+ * when entries are added, changed and removed by differential collection reads
+ *
+ * @author Karsten Lehmann
+ */
+public class TestCollectionDataCacheIndex {
+	private static final EnumSet<ReadMask> READ_MASK = EnumSet.of(ReadMask.NOTEID, ReadMask.SUMMARY);
+	private static final NotesTimeDate DIFF_TIME = new NotesTimeDate(new int[] {1234, 5678});
+
+	/**
+	 * Column value without a defined collation order, like a date range
+	 */
+	private static class RangeValue implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public String toString() {
+			return "range";
+		}
+	}
+
+	private static NotesViewEntryData createEntry(int noteId, Object category) {
+		NotesViewEntryData entry = new NotesViewEntryData(null);
+		entry.setNoteId(noteId);
+		Map<String,Object> summaryData = new HashMap<String,Object>();
+		summaryData.put("category", category);
+		entry.setSummaryData(summaryData);
+		return entry;
+	}
+
+	/**
+	 * Simulates the cache update at the end of a collection read, which is only done by
+	 * the package private method called by NotesCollection
+	 */
+	private static void addCacheValues(CollectionDataCache cache, List<NotesViewEntryData> entries,
+			Collection<Integer> removedNoteIds) throws Exception {
+		Method method = CollectionDataCache.class.getDeclaredMethod("addCacheValues", EnumSet.class,
+				NotesTimeDate.class, List.class, Collection.class);
+		method.setAccessible(true);
+		method.invoke(cache, READ_MASK, DIFF_TIME, entries, removedNoteIds);
+	}
+
+	private static CollectionDataCache createCache(IndexType type) throws Exception {
+		CollectionDataCache cache = new CollectionDataCache();
+		cache.addIndex("category", type);
+		List<NotesViewEntryData> entries = new ArrayList<NotesViewEntryData>();
+		entries.add(createEntry(4, "Blue"));
+		entries.add(createEntry(8, "red"));
+		entries.add(createEntry(12, Arrays.asList("green", "Red")));
+		entries.add(createEntry(16, "yellow"));
+		addCacheValues(cache, entries, Collections.<Integer>emptySet());
+		return cache;
+	}
+
+	@Test
+	public void testHashIndexAddAndChange() throws Exception {
+		CollectionDataCache cache = createCache(IndexType.HASH);
+		Assert.assertEquals(4, cache.size());
+		Assert.assertEquals(new LinkedHashSet<Integer>(Arrays.asList(8, 12)), cache.findNoteIds("category", "RED"));
+		Assert.assertEquals(Collections.singleton(4), cache.findNoteIds("category", "blue"));
+
+		//a changed entry is moved to its new value
+		addCacheValues(cache, Collections.singletonList(createEntry(8, "blue")), Collections.<Integer>emptySet());
+		Assert.assertEquals(Collections.singleton(12), cache.findNoteIds("category", "red"));
+		Assert.assertEquals(new LinkedHashSet<Integer>(Arrays.asList(4, 8)), cache.findNoteIds("category", "blue"));
+		Assert.assertEquals("blue", cache.getIndexedValue("category", 8));
+	}
+
+	@Test
+	public void testRemovedEntries() throws Exception {
+		CollectionDataCache cache = createCache(IndexType.HASH);
+
+		//entries deleted or no longer in the view are removed from the cache and the index
+		addCacheValues(cache, Collections.<NotesViewEntryData>emptyList(), Arrays.asList(8, 12, 100));
+		Assert.assertEquals(2, cache.size());
+		Assert.assertTrue(cache.findNoteIds("category", "red").isEmpty());
+		Assert.assertTrue(cache.findNoteIds("category", "green").isEmpty());
+		Assert.assertNull(cache.getIndexedValue("category", 12));
+		Assert.assertEquals(Collections.singleton(16), cache.findNoteIds("category", "yellow"));
+	}
+
+	@Test
+	public void testSortedIndexRanges() throws Exception {
+		CollectionDataCache cache = createCache(IndexType.SORTED);
+		Assert.assertEquals(Arrays.asList(4, 12, 8, 16), new ArrayList<Integer>(cache.getNoteIdsSortedBy("category", false)));
+		Assert.assertEquals(Arrays.asList(12, 8), new ArrayList<Integer>(cache.findNoteIdsInRange("category", "green", true, "red", true, false)));
+		//entry 12 matches with its second value
+		Assert.assertEquals(Arrays.asList(8, 12), new ArrayList<Integer>(cache.findNoteIdsInRange("category", "green", false, "yellow", false, false)));
+
+		addCacheValues(cache, Collections.<NotesViewEntryData>emptyList(), Arrays.asList(4));
+		//the collation sorts "Red" after "red"
+		Assert.assertEquals(Arrays.asList(16, 12, 8), new ArrayList<Integer>(cache.getNoteIdsSortedBy("category", true)));
+	}
+
+	@Test
+	public void testRangeQueryOnHashIndex() throws Exception {
+		CollectionDataCache cache = createCache(IndexType.HASH);
+		try {
+			cache.getNoteIdsSortedBy("category", false);
+			Assert.fail("Range query on hash index");
+		}
+		catch (IllegalStateException e) {
+			//expected
+		}
+	}
+
+	@Test
+	public void testValuesWithoutOrderSurviveSerialization() throws Exception {
+		CollectionDataCache cache = new CollectionDataCache();
+		cache.addIndex("category", IndexType.SORTED);
+		List<NotesViewEntryData> entries = new ArrayList<NotesViewEntryData>();
+		entries.add(createEntry(20, new RangeValue()));
+		entries.add(createEntry(8, new RangeValue()));
+		entries.add(createEntry(12, "red"));
+		addCacheValues(cache, entries, Collections.<Integer>emptySet());
+		//different values without collation order are sorted by note id
+		Assert.assertEquals(Arrays.asList(12, 8, 20), new ArrayList<Integer>(cache.getNoteIdsSortedBy("category", false)));
+
+		ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+		ObjectOutputStream objOut = new ObjectOutputStream(bOut);
+		objOut.writeObject(cache);
+		objOut.close();
+		CollectionDataCache restoredCache = (CollectionDataCache) new ObjectInputStream(new ByteArrayInputStream(bOut.toByteArray())).readObject();
+		Assert.assertEquals(Arrays.asList(12, 8, 20), new ArrayList<Integer>(restoredCache.getNoteIdsSortedBy("category", false)));
+
+		//the order is stable, so the values can still be found and removed after deserialization
+		addCacheValues(restoredCache, Collections.<NotesViewEntryData>emptyList(), Arrays.asList(8));
+		Assert.assertEquals(Arrays.asList(12, 20), new ArrayList<Integer>(restoredCache.getNoteIdsSortedBy("category", false)));
+		addCacheValues(restoredCache, Collections.singletonList(createEntry(20, "blue")), Collections.<Integer>emptySet());
+		Assert.assertEquals(Arrays.asList(20, 12), new ArrayList<Integer>(restoredCache.getNoteIdsSortedBy("category", false)));
+	}
+}
@@ -0,0 +1,170 @@
+package com.mindoo.domino.jna.test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.sync.CompressedBitmap;
+
+/**
+ * Tests cases for {@link CompressedBitmap}, compared against a {@link BitSet} with
+ * the same content. Chunks with more than 4096 values are stored as bitset, smaller
+ * chunks as sorted array.
+ *
+ * @author Karsten Lehmann
+ */
+public class TestCompressedBitmap {
+	private static final int ARRAY_MAX_SIZE = 4096;
+	private static final int CHUNK_SIZE = 65536;
+
+	private static void assertSameContent(String msg, BitSet expected, CompressedBitmap bitmap) {
+		Assert.assertEquals(msg+": cardinality", expected.cardinality(), bitmap.cardinality());
+		Assert.assertEquals(msg+": empty", expected.isEmpty(), bitmap.isEmpty());
+
+		int[] values = bitmap.toArray();
+		int idx = 0;
+		for (int i=expected.nextSetBit(0); i>=0; i=expected.nextSetBit(i+1)) {
+			Assert.assertEquals(msg+": value at index "+idx, i, values[idx++]);
+		}
+		Assert.assertEquals(msg+": value count", idx, values.length);
+	}
+
+	/**
+	 * Creates a bitmap and the matching {@link BitSet} with <code>count</code> random values in
+	 * the chunk with index <code>chunk</code>
+	 */
+	private static void addRandomValues(Random rnd, int chunk, int count, CompressedBitmap bitmap, BitSet bitset) {
+		int added = 0;
+		while (added < count) {
+			int value = chunk*CHUNK_SIZE + rnd.nextInt(CHUNK_SIZE);
+			if (bitmap.add(value)) {
+				bitset.set(value);
+				added++;
+			}
+		}
+	}
+
+	@Test
+	public void testArrayToBitsetAndBack() {
+		CompressedBitmap bitmap = new CompressedBitmap();
+		BitSet expected = new BitSet();
+
+		//every third value, so the values are spread over the whole chunk
+		for (int i=0; i<ARRAY_MAX_SIZE; i++) {
+			int value = CHUNK_SIZE + 3*i;
+			Assert.assertTrue(bitmap.add(value));
+			expected.set(value);
+		}
+		assertSameContent("Full array container", expected, bitmap);
+		Assert.assertFalse("Duplicate value", bitmap.add(CHUNK_SIZE));
+
+		//value 4097 converts the container to a bitset
+		Assert.assertTrue(bitmap.add(CHUNK_SIZE + 1));
+		expected.set(CHUNK_SIZE + 1);
+		assertSameContent("Bitset container", expected, bitmap);
+		Assert.assertTrue(bitmap.contains(CHUNK_SIZE + 1));
+		Assert.assertFalse(bitmap.contains(CHUNK_SIZE + 2));
+		Assert.assertEquals(CHUNK_SIZE + 3, bitmap.nextValue(CHUNK_SIZE + 2));
+
+		//remove values until the bitset gets converted back to an array and then empty
+		for (int i=ARRAY_MAX_SIZE-1; i>=0; i--) {
+			int value = CHUNK_SIZE + 3*i;
+			Assert.assertTrue(bitmap.remove(value));
+			Assert.assertFalse(bitmap.remove(value));
+			expected.clear(value);
+			if (i % 512 == 0 || expected.cardinality() == ARRAY_MAX_SIZE/2 || expected.cardinality() == ARRAY_MAX_SIZE/2 + 1) {
+				assertSameContent("After removing "+value, expected, bitmap);
+			}
+		}
+		assertSameContent("Single value", expected, bitmap);
+
+		//the container that was converted back must still grow
+		for (int i=0; i<ARRAY_MAX_SIZE+10; i++) {
+			int value = CHUNK_SIZE + 5*i;
+			bitmap.add(value);
+			expected.set(value);
+		}
+		assertSameContent("Converted again", expected, bitmap);
+
+		Assert.assertTrue(bitmap.remove(CHUNK_SIZE + 1));
+		expected.clear(CHUNK_SIZE + 1);
+		for (int i=0; i<ARRAY_MAX_SIZE+10; i++) {
+			bitmap.remove(CHUNK_SIZE + 5*i);
+		}
+		Assert.assertTrue(bitmap.isEmpty());
+		Assert.assertEquals(-1, bitmap.nextValue(0));
+	}
+
+	@Test
+	public void testSetOperationsWithMixedContainers() {
+		Random rnd = new Random(42);
+		//array containers, a container at the array limit and bitset containers
+		int[] sizes = new int[] {0, 10, 2000, ARRAY_MAX_SIZE, ARRAY_MAX_SIZE+1, 6000, 40000};
+
+		for (int size1 : sizes) {
+			for (int size2 : sizes) {
+				CompressedBitmap bitmap1 = new CompressedBitmap();
+				BitSet bitset1 = new BitSet();
+				CompressedBitmap bitmap2 = new CompressedBitmap();
+				BitSet bitset2 = new BitSet();
+
+				//chunk 0 is shared, chunk 1 only in the first and chunk 2 only in the second bitmap
+				addRandomValues(rnd, 0, size1, bitmap1, bitset1);
+				addRandomValues(rnd, 0, size2, bitmap2, bitset2);
+				addRandomValues(rnd, 1, size2, bitmap1, bitset1);
+				addRandomValues(rnd, 2, size1, bitmap2, bitset2);
+
+				String msg = size1+"/"+size2;
+
+				CompressedBitmap or = bitmap1.clone();
+				or.or(bitmap2);
+				BitSet expectedOr = (BitSet) bitset1.clone();
+				expectedOr.or(bitset2);
+				assertSameContent("or "+msg, expectedOr, or);
+
+				CompressedBitmap and = bitmap1.clone();
+				and.and(bitmap2);
+				BitSet expectedAnd = (BitSet) bitset1.clone();
+				expectedAnd.and(bitset2);
+				assertSameContent("and "+msg, expectedAnd, and);
+
+				CompressedBitmap andNot = bitmap1.clone();
+				andNot.andNot(bitmap2);
+				BitSet expectedAndNot = (BitSet) bitset1.clone();
+				expectedAndNot.andNot(bitset2);
+				assertSameContent("andNot "+msg, expectedAndNot, andNot);
+
+				//operations must not modify the other bitmap or the original of the clone
+				assertSameContent("unchanged first bitmap "+msg, bitset1, bitmap1);
+				assertSameContent("unchanged second bitmap "+msg, bitset2, bitmap2);
+
+				//results must stay usable after the container type changed
+				addRandomValues(rnd, 0, 5000, and, expectedAnd);
+				assertSameContent("add after and "+msg, expectedAnd, and);
+				addRandomValues(rnd, 0, 100, andNot, expectedAndNot);
+				assertSameContent("add after andNot "+msg, expectedAndNot, andNot);
+			}
+		}
+	}
+
+	@Test
+	public void testNextValueAcrossChunks() {
+		CompressedBitmap bitmap = new CompressedBitmap();
+		bitmap.add(5);
+		bitmap.add(3*CHUNK_SIZE + 7);
+
+		Assert.assertEquals(5, bitmap.nextValue(-1));
+		Assert.assertEquals(5, bitmap.nextValue(5));
+		Assert.assertEquals(3*CHUNK_SIZE + 7, bitmap.nextValue(6));
+		Assert.assertEquals(-1, bitmap.nextValue(3*CHUNK_SIZE + 8));
+		Assert.assertFalse(bitmap.contains(-5));
+		Assert.assertFalse(bitmap.remove(-5));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNegativeValue() {
+		new CompressedBitmap().add(-1);
+	}
+}
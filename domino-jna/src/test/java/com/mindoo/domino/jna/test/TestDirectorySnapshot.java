@@ -0,0 +1,144 @@
+package com.mindoo.domino.jna.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.directory.DirectorySnapshot;
+import com.mindoo.domino.jna.directory.DirectorySnapshot.DatabaseEntry;
+
+/**
+ * Tests cases for the serialization of {@link DirectorySnapshot}
+ *
+ * @author Karsten Lehmann
+ */
+public class TestDirectorySnapshot {
+	private static final int[] SCAN_END_TOP = new int[] {4320000, 0x00258C64};
+	private static final int[] SCAN_END_MAIL = new int[] {100, 0x00258C65};
+
+	/**
+	 * Creates the serialized form of a snapshot in format version 1
+	 */
+	private static byte[] createSnapshotData() throws IOException {
+		ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+		DataOutputStream dataOut = new DataOutputStream(bOut);
+		dataOut.writeInt(1);
+		//scan count
+		dataOut.writeInt(3);
+
+		dataOut.writeInt(2);
+		dataOut.writeUTF("mail");
+		dataOut.writeUTF("mail/archive");
+
+		dataOut.writeInt(2);
+		dataOut.writeUTF("");
+		dataOut.writeInt(SCAN_END_TOP[0]);
+		dataOut.writeInt(SCAN_END_TOP[1]);
+		dataOut.writeUTF("mail");
+		dataOut.writeInt(SCAN_END_MAIL[0]);
+		dataOut.writeInt(SCAN_END_MAIL[1]);
+
+		dataOut.writeInt(3);
+		writeDatabase(dataOut, "names.nsf", "Domino Directory", 1000, 2000, 3000);
+		writeDatabase(dataOut, "mail\\jdoe.nsf", "John Döe", -5000, Long.MAX_VALUE, 0);
+		writeDatabase(dataOut, "mail/archive/a_jdoe.nsf", null, 0, 0, 0);
+		dataOut.flush();
+		return bOut.toByteArray();
+	}
+
+	private static void writeDatabase(DataOutputStream dataOut, String filePath, String title, long created,
+			long modified, long designModified) throws IOException {
+		dataOut.writeUTF(filePath);
+		dataOut.writeBoolean(title!=null);
+		if (title!=null) {
+			dataOut.writeUTF(title);
+		}
+		dataOut.writeLong(created);
+		dataOut.writeLong(modified);
+		dataOut.writeLong(designModified);
+	}
+
+	private static void assertExpectedContent(DirectorySnapshot snapshot) {
+		Assert.assertEquals(3, snapshot.getScanCount());
+		Assert.assertEquals(Arrays.asList("mail", "mail/archive"), snapshot.getFolders());
+		Assert.assertTrue(Arrays.equals(SCAN_END_TOP, snapshot.getFolderScanEndDate("").getInnards()));
+		//folder paths are compared case-insensitive
+		Assert.assertTrue(Arrays.equals(SCAN_END_MAIL, snapshot.getFolderScanEndDate("MAIL").getInnards()));
+		Assert.assertNull(snapshot.getFolderScanEndDate("mail/archive"));
+
+		Assert.assertEquals(3, snapshot.getDatabaseCount());
+		DatabaseEntry names = snapshot.getDatabase("Names.nsf");
+		Assert.assertEquals("names.nsf", names.getFilePath());
+		Assert.assertEquals("Domino Directory", names.getTitle());
+		Assert.assertEquals(1000, names.getCreated());
+		Assert.assertEquals(2000, names.getModified());
+		Assert.assertEquals(3000, names.getDesignModified());
+
+		//backslashes and slashes are equivalent
+		DatabaseEntry mail = snapshot.getDatabase("mail/jdoe.nsf");
+		Assert.assertEquals("mail\\jdoe.nsf", mail.getFilePath());
+		Assert.assertEquals("John Döe", mail.getTitle());
+		Assert.assertEquals(-5000, mail.getCreated());
+		Assert.assertEquals(Long.MAX_VALUE, mail.getModified());
+
+		DatabaseEntry archive = snapshot.getDatabase("mail\\archive\\a_jdoe.nsf");
+		Assert.assertNull(archive.getTitle());
+		Assert.assertFalse(archive.isChanged(archive));
+		Assert.assertTrue(archive.isChanged(names));
+	}
+
+	@Test
+	public void testRoundtrip() throws IOException {
+		DirectorySnapshot snapshot = DirectorySnapshot.read(new ByteArrayInputStream(createSnapshotData()));
+		assertExpectedContent(snapshot);
+
+		ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+		snapshot.write(bOut);
+		DirectorySnapshot restoredSnapshot = DirectorySnapshot.read(new ByteArrayInputStream(bOut.toByteArray()));
+		assertExpectedContent(restoredSnapshot);
+
+		//writing the restored snapshot produces the same data
+		ByteArrayOutputStream bOut2 = new ByteArrayOutputStream();
+		restoredSnapshot.write(bOut2);
+		Assert.assertEquals(bOut.size(), bOut2.size());
+	}
+
+	@Test
+	public void testEmptySnapshot() throws IOException {
+		ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+		new DirectorySnapshot().write(bOut);
+
+		DirectorySnapshot snapshot = DirectorySnapshot.read(new ByteArrayInputStream(bOut.toByteArray()));
+		Assert.assertEquals(0, snapshot.getScanCount());
+		Assert.assertEquals(0, snapshot.getDatabaseCount());
+		Assert.assertTrue(snapshot.getFolders().isEmpty());
+		Assert.assertNull(snapshot.getFolderScanEndDate(""));
+	}
+
+	@Test
+	public void testClear() throws IOException {
+		DirectorySnapshot snapshot = DirectorySnapshot.read(new ByteArrayInputStream(createSnapshotData()));
+		snapshot.clear();
+		Assert.assertEquals(0, snapshot.getScanCount());
+		Assert.assertEquals(0, snapshot.getDatabaseCount());
+		Assert.assertNull(snapshot.getFolderScanEndDate("mail"));
+	}
+
+	@Test(expected=IOException.class)
+	public void testUnsupportedVersion() throws IOException {
+		byte[] data = createSnapshotData();
+		data[3] = 2;
+		DirectorySnapshot.read(new ByteArrayInputStream(data));
+	}
+
+	@Test(expected=IOException.class)
+	public void testTruncatedData() throws IOException {
+		byte[] data = createSnapshotData();
+		DirectorySnapshot.read(new ByteArrayInputStream(Arrays.copyOf(data, data.length-4)));
+	}
+}
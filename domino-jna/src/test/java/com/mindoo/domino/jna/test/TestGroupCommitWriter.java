@@ -0,0 +1,165 @@
+package com.mindoo.domino.jna.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.NotesDatabase;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.internal.NotesNativeAPI;
+import com.mindoo.domino.jna.simulation.SimulatedDatabase;
+import com.mindoo.domino.jna.simulation.SimulatedNotesBackend;
+import com.mindoo.domino.jna.transactions.GroupCommitWriter;
+import com.mindoo.domino.jna.transactions.ITransactionCallable;
+import com.mindoo.domino.jna.transactions.RollbackException;
+
+/**
+ * Tests cases for batching, rollback and shutdown of the {@link GroupCommitWriter}, using
+ * the simulated Domino backend
+ *
+ * @author Karsten Lehmann
+ */
+public class TestGroupCommitWriter {
+	private static final String DB_PATH = "test/groupcommit.nsf";
+
+	private SimulatedDatabase m_simDb;
+
+	@BeforeClass
+	public static void initSimulatedBackend() {
+		NotesNativeAPI.initialize(NotesNativeAPI.Mode.Simulated);
+	}
+
+	@Before
+	public void createDatabase() {
+		SimulatedNotesBackend.reset();
+		m_simDb = SimulatedNotesBackend.createDatabase(DB_PATH, "Group commit database");
+	}
+
+	/**
+	 * Operation that creates a note in the simulated database
+	 */
+	private class CreateNoteOperation implements ITransactionCallable<Integer> {
+		private final String m_subject;
+		private final boolean m_fail;
+		private final CountDownLatch m_waitLatch;
+
+		public CreateNoteOperation(String subject, boolean fail, CountDownLatch waitLatch) {
+			m_subject = subject;
+			m_fail = fail;
+			m_waitLatch = waitLatch;
+		}
+
+		@Override
+		public Integer runInDbTransaction(NotesDatabase db) throws Exception {
+			if (m_waitLatch!=null) {
+				m_waitLatch.await(10, TimeUnit.SECONDS);
+			}
+			int noteId = m_simDb.createNote(Collections.<String,Object>singletonMap("Subject", m_subject)).getNoteId();
+			if (m_fail) {
+				throw new IllegalStateException("Operation failed: "+m_subject);
+			}
+			return noteId;
+		}
+	}
+
+	private GroupCommitWriter createWriter(int maxBatchSize, int maxDelayMillis) {
+		GroupCommitWriter writer = new GroupCommitWriter("", DB_PATH, "");
+		writer.setMaxBatchSize(maxBatchSize);
+		writer.setMaxDelayMillis(maxDelayMillis);
+		return writer;
+	}
+
+	@Test
+	public void testBatching() throws Exception {
+		GroupCommitWriter writer = createWriter(5, 1000);
+		writer.start();
+
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for (int i=0; i<12; i++) {
+			futures.add(writer.submit(new CreateNoteOperation("note"+i, false, null)));
+		}
+		for (Future<Integer> currFuture : futures) {
+			Assert.assertNotNull(currFuture.get(10, TimeUnit.SECONDS));
+		}
+		Assert.assertTrue(writer.stop(5000));
+
+		Assert.assertEquals(12, m_simDb.getNoteCount());
+		//batches of 5, 5 and 2 operations, each in one top level transaction
+		Assert.assertEquals(3, writer.getBatchesCommitted());
+		Assert.assertEquals(3, m_simDb.getTransactionsCommitted());
+		Assert.assertEquals(12, writer.getOperationsCommitted());
+		Assert.assertEquals(0, writer.getOperationsFailed());
+	}
+
+	@Test
+	public void testRollbackOfOneOperation() throws Exception {
+		GroupCommitWriter writer = createWriter(3, 1000);
+		writer.start();
+
+		Future<Integer> first = writer.submit(new CreateNoteOperation("first", false, null));
+		Future<Integer> failing = writer.submit(new CreateNoteOperation("failing", true, null));
+		Future<Integer> last = writer.submit(new CreateNoteOperation("last", false, null));
+
+		int firstNoteId = first.get(10, TimeUnit.SECONDS).intValue();
+		int lastNoteId = last.get(10, TimeUnit.SECONDS).intValue();
+		try {
+			failing.get(10, TimeUnit.SECONDS);
+			Assert.fail("Failing operation has been committed");
+		}
+		catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof RollbackException);
+		}
+		Assert.assertTrue(writer.stop(5000));
+
+		//only the note of the failing operation has been rolled back
+		Assert.assertEquals(2, m_simDb.getNoteCount());
+		Assert.assertEquals("first", m_simDb.getNoteById(firstNoteId).getItems().get("Subject"));
+		Assert.assertEquals("last", m_simDb.getNoteById(lastNoteId).getItems().get("Subject"));
+		Assert.assertEquals(1, writer.getBatchesCommitted());
+		Assert.assertEquals(2, writer.getOperationsCommitted());
+		Assert.assertEquals(1, writer.getOperationsFailed());
+	}
+
+	@Test
+	public void testStopWhileQueued() throws Exception {
+		GroupCommitWriter writer = createWriter(1, 0);
+		writer.start();
+
+		CountDownLatch releaseLatch = new CountDownLatch(1);
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		futures.add(writer.submit(new CreateNoteOperation("blocking", false, releaseLatch)));
+		for (int i=0; i<3; i++) {
+			futures.add(writer.submit(new CreateNoteOperation("queued"+i, false, null)));
+		}
+
+		//the writer is blocked by the first operation
+		Assert.assertFalse(writer.stop(50));
+		try {
+			writer.submit(new CreateNoteOperation("late", false, null));
+			Assert.fail("Operation accepted after stop");
+		}
+		catch (NotesError e) {
+			//expected
+		}
+
+		//queued operations are committed before the writer stops
+		releaseLatch.countDown();
+		Assert.assertTrue(writer.stop(5000));
+		for (Future<Integer> currFuture : futures) {
+			Assert.assertTrue(currFuture.isDone());
+			Assert.assertNotNull(currFuture.get());
+		}
+		Assert.assertEquals(4, m_simDb.getNoteCount());
+		Assert.assertEquals(0, writer.getQueueSize());
+		Assert.assertEquals(4, writer.getBatchesCommitted());
+	}
+}
@@ -0,0 +1,138 @@
+package com.mindoo.domino.jna.test;
+
+import java.util.EnumSet;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.NotesHtmlConverter;
+import com.mindoo.domino.jna.NotesNote.HtmlConvertOption;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.internal.NotesNativeAPI;
+import com.mindoo.domino.jna.simulation.SimulatedNotesBackend;
+
+/**
+ * Tests cases for the lifecycle and pooling of {@link NotesHtmlConverter} instances, using
+ * HTML converter handles of the simulated Domino backend
+ *
+ * @author Karsten Lehmann
+ */
+public class TestHtmlConverterPool {
+	private static final EnumSet<HtmlConvertOption> OPTIONS = EnumSet.of(HtmlConvertOption.ForceSectionExpand);
+
+	@BeforeClass
+	public static void initSimulatedBackend() {
+		NotesNativeAPI.initialize(NotesNativeAPI.Mode.Simulated);
+	}
+
+	@Before
+	public void resetBackend() {
+		SimulatedNotesBackend.reset();
+	}
+
+	@Test
+	public void testBorrowWithoutAutoGC() {
+		Assert.assertFalse(NotesGC.isAutoGCActive());
+
+		//the C API can only be called in auto GC blocks, so no native converter gets created
+		try {
+			NotesHtmlConverter.borrowConverter(OPTIONS);
+			Assert.fail("Converter created without auto GC");
+		}
+		catch (NotesError e) {
+			//expected
+		}
+		try {
+			new NotesHtmlConverter(OPTIONS);
+			Assert.fail("Converter created without auto GC");
+		}
+		catch (NotesError e) {
+			//expected
+		}
+		Assert.assertEquals(0, SimulatedNotesBackend.getHtmlConverterCount());
+	}
+
+	@Test
+	public void testReturnOutsideOfAutoGC() throws Exception {
+		//converter borrowed in an auto GC block that ended before the converter was returned
+		final NotesHtmlConverter[] converter = new NotesHtmlConverter[1];
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				converter[0] = NotesHtmlConverter.borrowConverter(OPTIONS);
+				Assert.assertTrue(converter[0].isInUse());
+				return null;
+			}
+		});
+		Assert.assertTrue(converter[0].isRecycled());
+		Assert.assertEquals(0, SimulatedNotesBackend.getHtmlConverterCount());
+
+		//does not touch the pool or destroy the native converter again
+		NotesHtmlConverter.returnConverter(converter[0]);
+		Assert.assertFalse(converter[0].isInUse());
+	}
+
+	@Test
+	public void testNestedBorrowWithAutoGC() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesHtmlConverter converter = NotesHtmlConverter.borrowConverter(OPTIONS);
+				Assert.assertFalse(converter.isNoRecycle());
+
+				//the first converter is not in the pool while it is in use
+				NotesHtmlConverter nestedConverter = NotesHtmlConverter.borrowConverter(OPTIONS);
+				Assert.assertNotSame(converter, nestedConverter);
+
+				NotesHtmlConverter.returnConverter(nestedConverter);
+				Assert.assertFalse(nestedConverter.isRecycled());
+				//the pool already holds a converter for the options
+				NotesHtmlConverter.returnConverter(converter);
+				Assert.assertTrue(converter.isRecycled());
+				Assert.assertEquals(1, SimulatedNotesBackend.getHtmlConverterCount());
+
+				//the pooled converter is reused
+				NotesHtmlConverter reusedConverter = NotesHtmlConverter.borrowConverter(OPTIONS);
+				Assert.assertSame(nestedConverter, reusedConverter);
+				NotesHtmlConverter.returnConverter(reusedConverter);
+				Assert.assertSame(reusedConverter, NotesHtmlConverter.getPooledConverter(OPTIONS));
+
+				//other options use another converter
+				NotesHtmlConverter otherConverter = NotesHtmlConverter.borrowConverter(null);
+				Assert.assertNotSame(reusedConverter, otherConverter);
+				NotesHtmlConverter.returnConverter(otherConverter);
+				Assert.assertEquals(2, SimulatedNotesBackend.getHtmlConverterCount());
+				return null;
+			}
+		});
+		//pooled converters are recycled at the end of the auto GC block
+		Assert.assertEquals(0, SimulatedNotesBackend.getHtmlConverterCount());
+	}
+
+	@Test
+	public void testPooledConverterInUse() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesHtmlConverter pooledConverter = NotesHtmlConverter.getPooledConverter(OPTIONS);
+				Assert.assertSame(pooledConverter, NotesHtmlConverter.getPooledConverter(OPTIONS));
+
+				//an idle pooled converter is taken out of the pool
+				NotesHtmlConverter converter = NotesHtmlConverter.borrowConverter(OPTIONS);
+				Assert.assertSame(pooledConverter, converter);
+				Assert.assertTrue(pooledConverter.isInUse());
+				Assert.assertNotSame(converter, NotesHtmlConverter.getPooledConverter(OPTIONS));
+				NotesHtmlConverter.returnConverter(converter);
+				Assert.assertFalse(converter.isInUse());
+				return null;
+			}
+		});
+	}
+}
@@ -0,0 +1,84 @@
+package com.mindoo.domino.jna.test;
+
+import java.util.TimeZone;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.internal.InnardsConverter;
+import com.mindoo.domino.jna.internal.NotesConstants;
+
+/**
+ * Tests cases for the pure Java conversion between milliseconds and innards
+ *
+ * @author Karsten Lehmann
+ */
+public class TestInnardsConverter {
+	private static final long MILLIS_PER_DAY = 24L*60*60*1000;
+	private static final int JULIAN_DAY_1970 = 2440588;
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+	@Test
+	public void testDecodeAroundEpoch() {
+		Assert.assertEquals(0, InnardsConverter.decodeInnardsToMillis(0, JULIAN_DAY_1970));
+		Assert.assertEquals(43200000, InnardsConverter.decodeInnardsToMillis(4320000, JULIAN_DAY_1970));
+		Assert.assertEquals(-43200000, InnardsConverter.decodeInnardsToMillis(4320000, JULIAN_DAY_1970-1));
+		Assert.assertEquals(-MILLIS_PER_DAY, InnardsConverter.decodeInnardsToMillis(0, JULIAN_DAY_1970-1));
+		Assert.assertEquals(-10, InnardsConverter.decodeInnardsToMillis(8639999, JULIAN_DAY_1970-1));
+	}
+
+	@Test
+	public void testDecodeDateOnly() {
+		Assert.assertEquals(-MILLIS_PER_DAY, InnardsConverter.decodeInnardsToMillis(NotesConstants.ALLDAY, JULIAN_DAY_1970-1));
+		Assert.assertEquals(MILLIS_PER_DAY, InnardsConverter.decodeInnardsToMillis(NotesConstants.ALLDAY, JULIAN_DAY_1970+1));
+		Assert.assertEquals(InnardsConverter.NO_DATE, InnardsConverter.decodeInnardsToMillis(4320000, NotesConstants.ANYDAY));
+	}
+
+	@Test
+	public void testEncodeNegativeMillis() {
+		int[] innards = new int[2];
+
+		InnardsConverter.encodeInnards(-43200000, UTC, innards);
+		Assert.assertEquals(4320000, innards[0]);
+		Assert.assertEquals(JULIAN_DAY_1970-1, innards[1] & 0xffffff);
+
+		InnardsConverter.encodeInnards(-10, UTC, innards);
+		Assert.assertEquals(8639999, innards[0]);
+		Assert.assertEquals(JULIAN_DAY_1970-1, innards[1] & 0xffffff);
+
+		InnardsConverter.encodeInnards(-MILLIS_PER_DAY, UTC, innards);
+		Assert.assertEquals(0, innards[0]);
+		Assert.assertEquals(JULIAN_DAY_1970-1, innards[1] & 0xffffff);
+
+		InnardsConverter.encodeInnards(0, UTC, innards);
+		Assert.assertEquals(0, innards[0]);
+		Assert.assertEquals(JULIAN_DAY_1970, innards[1] & 0xffffff);
+	}
+
+	@Test
+	public void testRoundtrip() {
+		long[] times = new long[] {
+				0, 10, -10, 43200000, -43200000, MILLIS_PER_DAY-10, -MILLIS_PER_DAY, -MILLIS_PER_DAY-10,
+				1500000000000L, -1500000000000L,
+				//September 1752 and January 1600
+				-6856502400000L, -11676096000000L
+		};
+
+		int[] innards = new int[2];
+		for (long currTime : times) {
+			InnardsConverter.encodeInnards(currTime, UTC, innards);
+			Assert.assertEquals("Roundtrip of "+currTime, currTime, InnardsConverter.decodeInnardsToMillis(innards[0], innards[1]));
+		}
+	}
+
+	@Test
+	public void testEncodeTruncatesToHundredths() {
+		int[] innards = new int[2];
+
+		InnardsConverter.encodeInnards(-1, UTC, innards);
+		Assert.assertEquals(-10, InnardsConverter.decodeInnardsToMillis(innards[0], innards[1]));
+
+		InnardsConverter.encodeInnards(15, UTC, innards);
+		Assert.assertEquals(10, InnardsConverter.decodeInnardsToMillis(innards[0], innards[1]));
+	}
+}
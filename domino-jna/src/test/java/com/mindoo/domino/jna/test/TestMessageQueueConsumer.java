@@ -0,0 +1,271 @@
+package com.mindoo.domino.jna.test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.errors.INotesErrorConstants;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.internal.NotesConstants;
+import com.mindoo.domino.jna.internal.NotesNativeAPI;
+import com.mindoo.domino.jna.mq.MessageQueue;
+import com.mindoo.domino.jna.mq.MessageQueueConsumer;
+import com.mindoo.domino.jna.simulation.SimulatedMessageQueue;
+import com.mindoo.domino.jna.simulation.SimulatedNotesBackend;
+import com.sun.jna.Memory;
+
+/**
+ * Tests cases for batched puts to a {@link MessageQueue} and the slot handling of
+ * {@link MessageQueueConsumer}, using message queues of the simulated Domino backend
+ *
+ * @author Karsten Lehmann
+ */
+public class TestMessageQueueConsumer {
+	private static final String QUEUE_NAME = "MQ$TESTCONSUMER";
+
+	@BeforeClass
+	public static void initSimulatedBackend() {
+		NotesNativeAPI.initialize(NotesNativeAPI.Mode.Simulated);
+	}
+
+	@Before
+	public void resetBackend() {
+		SimulatedNotesBackend.reset();
+	}
+
+	/**
+	 * Handler that records the received messages as strings
+	 */
+	private static class RecordingHandler implements MessageQueueConsumer.IMessageHandler {
+		private final List<String> m_messages = Collections.synchronizedList(new ArrayList<String>());
+
+		@Override
+		public void messageReceived(ByteBuffer buffer, int priority) {
+			byte[] data = new byte[buffer.remaining()];
+			buffer.get(data);
+			m_messages.add(new String(data));
+		}
+
+		public List<String> getMessages() {
+			return m_messages;
+		}
+	}
+
+	private static List<byte[]> createMessages(String prefix, int count, int padding) {
+		List<byte[]> messages = new ArrayList<byte[]>();
+		for (int i=0; i<count; i++) {
+			StringBuilder sb = new StringBuilder(prefix).append(i);
+			while (sb.length() < padding) {
+				sb.append('.');
+			}
+			messages.add(sb.toString().getBytes());
+		}
+		return messages;
+	}
+
+	private static void putString(MessageQueue queue, String msg, int priority) {
+		byte[] data = msg.getBytes();
+		Memory mem = new Memory(data.length);
+		mem.write(0, data, 0, data.length);
+		queue.put(mem, priority);
+	}
+
+	private static void waitFor(MessageQueueConsumer consumer, long handledCount) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (consumer.getHandledCount() + consumer.getFailedCount() < handledCount && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+	}
+
+	@Test
+	public void testBatchedPut() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				MessageQueue queue = MessageQueue.open(QUEUE_NAME, true);
+				List<byte[]> messages = createMessages("msg", 100, 0);
+				Assert.assertEquals(100, queue.put(messages, 1));
+
+				//all messages fit into one queue message
+				SimulatedMessageQueue simQueue = SimulatedNotesBackend.getMessageQueue(QUEUE_NAME);
+				Assert.assertEquals(1, simQueue.getCount());
+				List<ByteBuffer> unpacked = MessageQueue.unpackBatch(ByteBuffer.wrap(simQueue.getMessages().get(0)));
+				Assert.assertEquals(100, unpacked.size());
+				Assert.assertEquals("msg42", new String(toArray(unpacked.get(42))));
+
+				//large messages are split into several queue messages, a single one is written unchanged
+				List<byte[]> largeMessages = createMessages("large", 5, NotesConstants.MQ_MAX_MSGSIZE/2 - 10);
+				largeMessages.add(new byte[NotesConstants.MQ_MAX_MSGSIZE]);
+				Assert.assertEquals(6, queue.put(largeMessages, 1));
+				Assert.assertEquals(1+4, simQueue.getCount());
+				Assert.assertNull(MessageQueue.unpackBatch(ByteBuffer.wrap(simQueue.getMessages().get(3))));
+				return null;
+			}
+		});
+	}
+
+	private static byte[] toArray(ByteBuffer buffer) {
+		byte[] data = new byte[buffer.remaining()];
+		buffer.get(data);
+		return data;
+	}
+
+	@Test
+	public void testUnpackPlainMessage() {
+		Assert.assertNull(MessageQueue.unpackBatch(ByteBuffer.wrap("plain message".getBytes())));
+		Assert.assertNull(MessageQueue.unpackBatch(ByteBuffer.wrap(new byte[0])));
+		//marker with inconsistent lengths
+		ByteBuffer buf = ByteBuffer.allocate(12);
+		buf.putInt(0x4A4E4142).putShort((short) 1).putShort((short) 10).putInt(0);
+		buf.flip();
+		Assert.assertNull(MessageQueue.unpackBatch(buf));
+	}
+
+	@Test
+	public void testQuotaStopsBatchedPut() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				MessageQueue queue = MessageQueue.createAndOpen(QUEUE_NAME, 2, false);
+				List<byte[]> largeMessages = createMessages("large", 5, NotesConstants.MQ_MAX_MSGSIZE/2 - 10);
+				//two messages per queue message, the quota allows two queue messages
+				Assert.assertEquals(4, queue.put(largeMessages, 1));
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testConsumeInQueueOrder() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				MessageQueue queue = MessageQueue.open(QUEUE_NAME, true);
+				queue.put(createMessages("low", 3, 0), 1);
+				queue.put(createMessages("high", 2, 0), 5);
+				putString(queue, "single", 1);
+
+				RecordingHandler handler = new RecordingHandler();
+				MessageQueueConsumer consumer = new MessageQueueConsumer(queue, handler, null);
+				consumer.setMaxBatchSize(2);
+				consumer.setSlotCount(2);
+				consumer.start();
+				waitFor(consumer, 6);
+				queue.putQuitMsg();
+				Assert.assertTrue(consumer.stop(5000));
+
+				Assert.assertEquals(Arrays.asList("high0", "high1", "low0", "low1", "low2", "single"), handler.getMessages());
+				Assert.assertEquals(6, consumer.getReceivedCount());
+				Assert.assertEquals(6, consumer.getHandledCount());
+				Assert.assertEquals(0, consumer.getInFlightCount());
+				//three queue messages read with a batch size of 2
+				Assert.assertEquals(2, consumer.getBatchCount());
+				Assert.assertNull(consumer.getLastError());
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testSlotsLimitMessagesInFlight() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				MessageQueue queue = MessageQueue.open(QUEUE_NAME, true);
+				for (int i=0; i<10; i++) {
+					putString(queue, "msg"+i, 1);
+				}
+
+				final CountDownLatch releaseLatch = new CountDownLatch(1);
+				final RecordingHandler recordingHandler = new RecordingHandler();
+				ExecutorService executor = Executors.newFixedThreadPool(4);
+				try {
+					MessageQueueConsumer consumer = new MessageQueueConsumer(queue, new MessageQueueConsumer.IMessageHandler() {
+
+						@Override
+						public void messageReceived(ByteBuffer buffer, int priority) {
+							try {
+								releaseLatch.await(10, TimeUnit.SECONDS);
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+							recordingHandler.messageReceived(buffer, priority);
+						}
+					}, executor);
+					consumer.setSlotCount(2);
+					consumer.start();
+
+					long deadline = System.currentTimeMillis() + 5000;
+					while (consumer.getInFlightCount()<2 && System.currentTimeMillis() < deadline) {
+						Thread.sleep(1);
+					}
+					Thread.sleep(50);
+					//backpressure: only two messages have been read, the rest stays in the queue
+					Assert.assertEquals(2, consumer.getInFlightCount());
+					Assert.assertEquals(8, consumer.getQueueDepth());
+
+					releaseLatch.countDown();
+					waitFor(consumer, 10);
+					queue.putQuitMsg();
+					Assert.assertTrue(consumer.stop(5000));
+					Assert.assertEquals(10, consumer.getHandledCount());
+					Assert.assertEquals(10, recordingHandler.getMessages().size());
+				}
+				finally {
+					executor.shutdown();
+				}
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testScanErrorDispatchesCopiedMessages() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				MessageQueue queue = MessageQueue.open(QUEUE_NAME, true);
+				for (int i=0; i<3; i++) {
+					putString(queue, "msg"+i, 1);
+				}
+				//MQScan fails after the messages have been copied and deleted from the queue
+				SimulatedNotesBackend.getMessageQueue(QUEUE_NAME).setScanError(INotesErrorConstants.ERR_MQ_POOLFULL);
+
+				RecordingHandler handler = new RecordingHandler();
+				MessageQueueConsumer consumer = new MessageQueueConsumer(queue, handler, null);
+				consumer.start();
+				//the poller thread ends with the scan error
+				long deadline = System.currentTimeMillis() + 5000;
+				while (consumer.isRunning() && System.currentTimeMillis() < deadline) {
+					Thread.sleep(1);
+				}
+				Assert.assertFalse(consumer.isRunning());
+				Assert.assertTrue(consumer.stop(5000));
+
+				Assert.assertTrue(consumer.getLastError() instanceof NotesError);
+				Assert.assertEquals(Arrays.asList("msg0", "msg1", "msg2"), handler.getMessages());
+				Assert.assertEquals(0, consumer.getInFlightCount());
+				Assert.assertEquals(0, consumer.getQueueDepth());
+				return null;
+			}
+		});
+	}
+}
@@ -0,0 +1,156 @@
+package com.mindoo.domino.jna.test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.internal.NotesNativeAPI;
+import com.mindoo.domino.jna.utils.NotesNamingUtils;
+
+/**
+ * Tests cases for the name conversion in Java that avoids DNCanonicalize/DNAbbreviate
+ * calls. Runs against the simulated backend, which returns names unchanged, so that
+ * names left to the C API can be detected by the native conversion counter.
+ *
+ * @author Karsten Lehmann
+ */
+public class TestNameConversion {
+
+	@BeforeClass
+	public static void initSimulatedBackend() {
+		NotesNativeAPI.initialize(NotesNativeAPI.Mode.Simulated);
+	}
+
+	private void runWithAutoGC(final Runnable r) throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesNamingUtils.clearNameCaches();
+				r.run();
+				return null;
+			}
+		});
+	}
+
+	private static void assertCanonicalInJava(String name, String expectedCanonicalName) {
+		long nativeConversions = NotesNamingUtils.getNativeNameConversions();
+		Assert.assertEquals("Canonical name of "+name, expectedCanonicalName, NotesNamingUtils.toCanonicalName(name));
+		Assert.assertEquals("Converted in Java: "+name, nativeConversions, NotesNamingUtils.getNativeNameConversions());
+	}
+
+	private static void assertAbbreviatedInJava(String name, String expectedAbbreviatedName) {
+		long nativeConversions = NotesNamingUtils.getNativeNameConversions();
+		Assert.assertEquals("Abbreviated name of "+name, expectedAbbreviatedName, NotesNamingUtils.toAbbreviatedName(name, null));
+		Assert.assertEquals("Converted in Java: "+name, nativeConversions, NotesNamingUtils.getNativeNameConversions());
+	}
+
+	private static void assertCanonicalByCAPI(String name) {
+		long nativeConversions = NotesNamingUtils.getNativeNameConversions();
+		NotesNamingUtils.toCanonicalName(name);
+		Assert.assertEquals("Converted by C API: "+name, nativeConversions+1, NotesNamingUtils.getNativeNameConversions());
+	}
+
+	private static void assertAbbreviatedByCAPI(String name) {
+		long nativeConversions = NotesNamingUtils.getNativeNameConversions();
+		NotesNamingUtils.toAbbreviatedName(name, null);
+		Assert.assertEquals("Converted by C API: "+name, nativeConversions+1, NotesNamingUtils.getNativeNameConversions());
+	}
+
+	@Test
+	public void testCanonicalizeInJava() throws Exception {
+		runWithAutoGC(new Runnable() {
+
+			@Override
+			public void run() {
+				assertCanonicalInJava("John Doe/Acme", "CN=John Doe/O=Acme");
+				assertCanonicalInJava("John Doe/Sales/Acme", "CN=John Doe/OU=Sales/O=Acme");
+				assertCanonicalInJava("John Doe/Dev/Sales/Germany/Europe/Acme", "CN=John Doe/OU=Dev/OU=Sales/OU=Germany/OU=Europe/O=Acme");
+				assertCanonicalInJava("CN=John Doe/OU=Sales/O=Acme", "CN=John Doe/OU=Sales/O=Acme");
+				assertCanonicalInJava("CN=John Doe/O=Acme/C=DE", "CN=John Doe/O=Acme/C=DE");
+			}
+		});
+	}
+
+	@Test
+	public void testCanonicalizeByCAPI() throws Exception {
+		runWithAutoGC(new Runnable() {
+
+			@Override
+			public void run() {
+				//flat name, might need the template
+				assertCanonicalByCAPI("John Doe");
+				//last component might be a country code
+				assertCanonicalByCAPI("John Doe/Acme/DE");
+				//more than 4 OUs
+				assertCanonicalByCAPI("John Doe/A/B/C/D/E/Acme");
+				//special characters
+				assertCanonicalByCAPI("john@acme.com");
+				assertCanonicalByCAPI("*/Acme");
+				assertCanonicalByCAPI("cn=John Doe,o=Acme");
+				//empty component or whitespace around a component
+				assertCanonicalByCAPI("John Doe//Acme");
+				assertCanonicalByCAPI("John Doe/ Acme");
+				//labels, but not a valid canonical name
+				assertCanonicalByCAPI("CN=John Doe/OU=Sales");
+				assertCanonicalByCAPI("CN=John Doe/Acme");
+				assertCanonicalByCAPI("CN=John Doe/O=Sales/O=Acme");
+			}
+		});
+	}
+
+	@Test
+	public void testAbbreviateInJava() throws Exception {
+		runWithAutoGC(new Runnable() {
+
+			@Override
+			public void run() {
+				assertAbbreviatedInJava("CN=John Doe/O=Acme", "John Doe/Acme");
+				assertAbbreviatedInJava("CN=John Doe/OU=Dev/OU=Sales/O=Acme", "John Doe/Dev/Sales/Acme");
+				assertAbbreviatedInJava("CN=John Doe/OU=Sales/O=Acme/C=DE", "John Doe/Sales/Acme/DE");
+				assertAbbreviatedInJava("John Doe/Sales/Acme", "John Doe/Sales/Acme");
+			}
+		});
+	}
+
+	@Test
+	public void testAbbreviateByCAPI() throws Exception {
+		runWithAutoGC(new Runnable() {
+
+			@Override
+			public void run() {
+				assertAbbreviatedByCAPI("CN=John Doe");
+				assertAbbreviatedByCAPI("CN=John Doe/OU=Sales");
+				assertAbbreviatedByCAPI("CN=John Doe/OU=Sales/O=Acme=Corp");
+				assertAbbreviatedByCAPI("CN=John Doe/O=Acme/X=Y");
+				assertAbbreviatedByCAPI("cn=John Doe,o=Acme");
+			}
+		});
+	}
+
+	@Test
+	public void testBulkConversionUsesCache() throws Exception {
+		runWithAutoGC(new Runnable() {
+
+			@Override
+			public void run() {
+				List<String> names = Arrays.asList("John Doe/Acme", "Jane Roe/Sales/Acme", "John Doe/Acme", "LocalDomainServers", null, "");
+				long hits = NotesNamingUtils.getNameCacheHits();
+
+				List<String> canonicalNames = NotesNamingUtils.toCanonicalNames(names);
+				Assert.assertEquals(Arrays.asList("CN=John Doe/O=Acme", "CN=Jane Roe/OU=Sales/O=Acme", "CN=John Doe/O=Acme",
+						"LocalDomainServers", null, ""), canonicalNames);
+				Assert.assertEquals(hits+1, NotesNamingUtils.getNameCacheHits());
+
+				List<String> abbrNames = NotesNamingUtils.toAbbreviatedNames(canonicalNames);
+				Assert.assertEquals(Arrays.asList("John Doe/Acme", "Jane Roe/Sales/Acme", "John Doe/Acme",
+						"LocalDomainServers", null, ""), abbrNames);
+			}
+		});
+	}
+}
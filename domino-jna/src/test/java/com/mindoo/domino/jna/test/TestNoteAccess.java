@@ -9,9 +9,12 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -544,4 +547,36 @@ public class TestNoteAccess extends BaseJNATestClass {
 	
 	}
 
+	/**
+	 * Compares the values returned by {@link NotesNote#getItemValues(java.util.Set)} with
+	 * the values read item by item via {@link NotesNote#getItemValue(String)}
+	 */
+	@Test
+	public void testNoteAccess_readItemValuesInOnePass() {
+		runWithSession(new IDominoCallable<Object>() {
+
+			@Override
+			public Object call(Session session) throws Exception {
+				NotesDatabase dbData = getFakeNamesDb();
+				NotesCollection peopleView = dbData.openCollectionByName("People");
+				int noteId = peopleView.getAllIds(Navigate.NEXT_NONCATEGORY).iterator().next();
+				NotesNote note = dbData.openNoteById(noteId, EnumSet.noneOf(OpenNote.class));
+				
+				Map<String,List<Object>> allValues = note.getItemValues(null);
+				Assert.assertFalse("Item scan returned values", allValues.isEmpty());
+				
+				for (Entry<String,List<Object>> currEntry : allValues.entrySet()) {
+					Assert.assertEquals("Value of item "+currEntry.getKey()+" is equal",
+							note.getItemValue(currEntry.getKey()), currEntry.getValue());
+				}
+				
+				Set<String> filter = new HashSet<String>(Arrays.asList("Form", "LASTNAME", "ItemDoesNotExist"));
+				Map<String,List<Object>> filteredValues = note.getItemValues(filter);
+				Assert.assertEquals("Filtered scan returns the existing items", 2, filteredValues.size());
+				Assert.assertEquals("Form value is equal", note.getItemValue("Form"), filteredValues.get("form"));
+				Assert.assertEquals("LastName value is equal", note.getItemValue("LastName"), filteredValues.get("lastname"));
+				return null;
+			}
+		});
+	}
 }
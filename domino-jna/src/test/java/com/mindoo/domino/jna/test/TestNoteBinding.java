@@ -0,0 +1,186 @@
+package com.mindoo.domino.jna.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.IItemTableData;
+import com.mindoo.domino.jna.NotesDatabase;
+import com.mindoo.domino.jna.NotesNote;
+import com.mindoo.domino.jna.NotesSearch;
+import com.mindoo.domino.jna.NotesSearch.ISearchMatch;
+import com.mindoo.domino.jna.NotesSearch.SearchCallback;
+import com.mindoo.domino.jna.binding.NoteBinding;
+import com.mindoo.domino.jna.binding.NotesItemName;
+import com.mindoo.domino.jna.constants.NoteClass;
+import com.mindoo.domino.jna.constants.Search;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.internal.NotesNativeAPI;
+import com.mindoo.domino.jna.simulation.SimulatedDatabase;
+import com.mindoo.domino.jna.simulation.SimulatedNote;
+import com.mindoo.domino.jna.simulation.SimulatedNotesBackend;
+
+/**
+ * Tests cases for {@link NoteBinding}, reading summary buffers and notes of the
+ * simulated Domino backend
+ *
+ * @author Karsten Lehmann
+ */
+public class TestNoteBinding {
+	private static final String DB_PATH = "test/binding.nsf";
+
+	private SimulatedNote m_john;
+
+	/**
+	 * Bound test class
+	 */
+	public static class Person {
+		@NotesItemName("Lastname")
+		private String m_lastname;
+		@NotesItemName("firstname")
+		private String m_firstname;
+		@NotesItemName("Age")
+		private int m_age;
+		@NotesItemName("Tags")
+		private List<String> m_tags;
+		@NotesItemName("Aliases")
+		private Object m_aliases;
+		//not bound
+		private String m_comment;
+	}
+
+	@BeforeClass
+	public static void initSimulatedBackend() {
+		NotesNativeAPI.initialize(NotesNativeAPI.Mode.Simulated);
+	}
+
+	@Before
+	public void createDatabase() {
+		SimulatedNotesBackend.reset();
+		SimulatedDatabase simDb = SimulatedNotesBackend.createDatabase(DB_PATH, "Binding database");
+		Map<String,Object> items = new LinkedHashMap<String,Object>();
+		items.put("Form", "Person");
+		items.put("Lastname", "Doe");
+		items.put("Firstname", "John");
+		items.put("Age", 42);
+		items.put("Tags", Arrays.asList("sales", "marketing"));
+		items.put("Aliases", Arrays.asList("JD", "Johnny"));
+		m_john = simDb.createNote(items);
+	}
+
+	private static void assertJohn(Person person) {
+		Assert.assertEquals("Doe", person.m_lastname);
+		Assert.assertEquals("John", person.m_firstname);
+		Assert.assertEquals(42, person.m_age);
+		Assert.assertEquals(Arrays.asList("sales", "marketing"), person.m_tags);
+		//raw list values must not contain lazily decoded strings
+		Assert.assertEquals(Arrays.asList("JD", "Johnny"), person.m_aliases);
+		Assert.assertNull(person.m_comment);
+	}
+
+	@Test
+	public void testItemNames() {
+		NoteBinding<Person> binding = NoteBinding.forClass(Person.class);
+		Assert.assertSame(binding, NoteBinding.forClass(Person.class));
+		Assert.assertEquals(5, binding.getItemNames().size());
+		Assert.assertTrue(binding.getItemNames().contains("firstname"));
+	}
+
+	@Test
+	public void testBindSummaryBuffer() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesDatabase db = new NotesDatabase("", DB_PATH, "");
+				final NoteBinding<Person> binding = NoteBinding.forClass(Person.class);
+				final List<Person> persons = new ArrayList<Person>();
+
+				NotesSearch.search(db, null, "@All", "-", EnumSet.of(Search.SUMMARY), EnumSet.of(NoteClass.DOCUMENT), null,
+						new SearchCallback() {
+
+					@Override
+					public Action noteFound(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
+						persons.add(binding.read(summaryBufferData));
+						return Action.Continue;
+					}
+				});
+
+				Assert.assertEquals(1, persons.size());
+				assertJohn(persons.get(0));
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testBindNote() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesDatabase db = new NotesDatabase("", DB_PATH, "");
+				NotesNote note = db.openNoteById(m_john.getNoteId());
+				assertJohn(NoteBinding.forClass(Person.class).read(note));
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testSummaryBufferWithNoteFallback() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesDatabase db = new NotesDatabase("", DB_PATH, "");
+				final NoteBinding<Person> binding = NoteBinding.forClass(Person.class);
+				final List<Person> persons = new ArrayList<Person>();
+
+				//summary buffer only contains some of the bound items, the rest comes from the note
+				LinkedHashMap<String,String> columnFormulas = new LinkedHashMap<String,String>();
+				columnFormulas.put("lastname", "");
+				columnFormulas.put("aliases", "");
+
+				NotesSearch.search(db, null, "@All", columnFormulas, "-", EnumSet.noneOf(Search.class), EnumSet.of(NoteClass.DOCUMENT), null,
+						new SearchCallback() {
+
+					@Override
+					public Action noteFound(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
+						Person person = new Person();
+						//unbound fields are not touched
+						person.m_comment = "unchanged";
+						NotesNote note = parentDb.openNoteById(searchMatch.getNoteId());
+						binding.bind(summaryBufferData, note, person);
+						persons.add(person);
+						return Action.Continue;
+					}
+				});
+
+				Assert.assertEquals(1, persons.size());
+				Person person = persons.get(0);
+				Assert.assertEquals("Doe", person.m_lastname);
+				Assert.assertEquals("John", person.m_firstname);
+				Assert.assertEquals(42, person.m_age);
+				Assert.assertEquals(Arrays.asList("sales", "marketing"), person.m_tags);
+				Assert.assertEquals(Arrays.asList("JD", "Johnny"), person.m_aliases);
+				Assert.assertEquals("unchanged", person.m_comment);
+				return null;
+			}
+		});
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testReadWithoutData() {
+		NoteBinding.forClass(Person.class).read(null, null);
+	}
+}
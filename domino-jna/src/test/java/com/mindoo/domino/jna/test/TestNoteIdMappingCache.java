@@ -0,0 +1,195 @@
+package com.mindoo.domino.jna.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.NoteIdMappingCache;
+import com.mindoo.domino.jna.NotesDatabase;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.internal.NotesNativeAPI;
+import com.mindoo.domino.jna.simulation.SimulatedDatabase;
+import com.mindoo.domino.jna.simulation.SimulatedNote;
+import com.mindoo.domino.jna.simulation.SimulatedNotesBackend;
+
+/**
+ * Tests cases for inserting, looking up, resizing and removing mappings of the
+ * {@link NoteIdMappingCache}, using the simulated Domino backend
+ *
+ * @author Karsten Lehmann
+ */
+public class TestNoteIdMappingCache {
+	private static final String DB_PATH = "test/mappingcache.nsf";
+
+	private SimulatedDatabase m_simDb;
+	private List<SimulatedNote> m_notes;
+
+	@BeforeClass
+	public static void initSimulatedBackend() {
+		NotesNativeAPI.initialize(NotesNativeAPI.Mode.Simulated);
+	}
+
+	@Before
+	public void createDatabase() {
+		SimulatedNotesBackend.reset();
+		m_simDb = SimulatedNotesBackend.createDatabase(DB_PATH, "Mapping cache database");
+		m_notes = new ArrayList<SimulatedNote>();
+		for (int i=0; i<3000; i++) {
+			m_notes.add(m_simDb.createNote(Collections.<String,Object>singletonMap("Subject", "note"+i)));
+		}
+	}
+
+	private static NoteIdMappingCache createCache(int maxEntries) {
+		NoteIdMappingCache cache = new NoteIdMappingCache(maxEntries);
+		//updates are triggered by the tests
+		cache.setAutoUpdateInterval(-1);
+		return cache;
+	}
+
+	private int[] getNoteIds() {
+		int[] noteIds = new int[m_notes.size()];
+		for (int i=0; i<noteIds.length; i++) {
+			noteIds[i] = m_notes.get(i).getNoteId();
+		}
+		return noteIds;
+	}
+
+	@Test
+	public void testInsertAndLookup() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesDatabase db = new NotesDatabase("", DB_PATH, "");
+				NoteIdMappingCache cache = createCache(1000);
+				SimulatedNote note = m_notes.get(42);
+
+				Assert.assertEquals(note.getUNID(), cache.getUnid(db, note.getNoteId()));
+				Assert.assertEquals(1, cache.getMisses());
+				Assert.assertEquals(1, cache.size());
+
+				//the mapping has been inserted for both directions
+				Assert.assertEquals(note.getUNID(), cache.getUnid(db, note.getNoteId()));
+				Assert.assertEquals(note.getNoteId(), cache.getNoteId(db, note.getUNID().toLowerCase()));
+				Assert.assertEquals(2, cache.getHits());
+				Assert.assertEquals(1, cache.getMisses());
+
+				//unknown keys are not cached
+				Assert.assertEquals(0, cache.getNoteId(db, "0123456789ABCDEF0123456789ABCDEF"));
+				Assert.assertNull(cache.getUnid(db, 0x7ffffffc));
+				Assert.assertEquals(1, cache.size());
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testResize() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesDatabase db = new NotesDatabase("", DB_PATH, "");
+				NoteIdMappingCache cache = createCache(10000);
+
+				//more entries than the initial table capacity
+				Map<Integer,String> unidsByNoteId = new HashMap<Integer,String>();
+				Set<Integer> notFound = new HashSet<Integer>();
+				cache.toUnids(db, getNoteIds(), unidsByNoteId, notFound);
+				Assert.assertEquals(3000, unidsByNoteId.size());
+				Assert.assertTrue(notFound.isEmpty());
+				Assert.assertEquals(3000, cache.size());
+				Assert.assertEquals(3000, cache.getMisses());
+
+				String[] unids = new String[m_notes.size()];
+				for (int i=0; i<unids.length; i++) {
+					unids[i] = m_notes.get(i).getUNID();
+				}
+				Map<String,Integer> noteIdsByUnid = new HashMap<String,Integer>();
+				cache.toNoteIds(db, unids, noteIdsByUnid, null);
+				Assert.assertEquals(3000, cache.getHits());
+				for (SimulatedNote currNote : m_notes) {
+					Assert.assertEquals(Integer.valueOf(currNote.getNoteId()), noteIdsByUnid.get(currNote.getUNID()));
+					Assert.assertEquals(currNote.getUNID(), unidsByNoteId.get(currNote.getNoteId()));
+				}
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesDatabase db = new NotesDatabase("", DB_PATH, "");
+				NoteIdMappingCache cache = createCache(100);
+
+				for (int i=0; i<250; i++) {
+					cache.getUnid(db, m_notes.get(i).getNoteId());
+				}
+				Assert.assertEquals(2, cache.getEvictions());
+				Assert.assertEquals(50, cache.size());
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testRemove() throws Exception {
+		NotesGC.runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesDatabase db = new NotesDatabase("", DB_PATH, "");
+				NoteIdMappingCache cache = createCache(10000);
+				cache.toUnids(db, getNoteIds(), new HashMap<Integer,String>(), new HashSet<Integer>());
+
+				//remove every third note, the remaining entries of the probe sequences must stay reachable
+				Set<Integer> deletedNoteIds = new HashSet<Integer>();
+				for (int i=0; i<m_notes.size(); i+=3) {
+					int noteId = m_notes.get(i).getNoteId();
+					m_simDb.deleteNote(noteId);
+					deletedNoteIds.add(noteId);
+				}
+				cache.update(db);
+				Assert.assertEquals(deletedNoteIds.size(), cache.getInvalidations());
+				Assert.assertEquals(3000 - deletedNoteIds.size(), cache.size());
+
+				long missesBefore = cache.getMisses();
+				for (SimulatedNote currNote : m_notes) {
+					if (deletedNoteIds.contains(currNote.getNoteId())) {
+						//deletion stubs are returned like by NotesDatabase, but not cached
+						Assert.assertEquals(currNote.getUNID(), cache.getUnid(db, currNote.getNoteId()));
+						Assert.assertEquals(3000 - deletedNoteIds.size(), cache.size());
+					}
+					else {
+						Assert.assertEquals(currNote.getUNID(), cache.getUnid(db, currNote.getNoteId()));
+						Assert.assertEquals(currNote.getNoteId(), cache.getNoteId(db, currNote.getUNID()));
+					}
+				}
+				//only the deleted notes had to be looked up in the database
+				Assert.assertEquals(missesBefore + deletedNoteIds.size(), cache.getMisses());
+
+				//a second update does not find new deletions
+				cache.update(db);
+				Assert.assertEquals(deletedNoteIds.size(), cache.getInvalidations());
+
+				cache.clear();
+				Assert.assertEquals(0, cache.size());
+				return null;
+			}
+		});
+	}
+}
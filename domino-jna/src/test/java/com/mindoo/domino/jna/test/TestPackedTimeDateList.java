@@ -0,0 +1,118 @@
+package com.mindoo.domino.jna.test;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.NotesPackedTimeDateList;
+import com.mindoo.domino.jna.internal.InnardsConverter;
+import com.mindoo.domino.jna.internal.NotesConstants;
+
+/**
+ * Tests cases for the time based queries of {@link NotesPackedTimeDateList}
+ *
+ * @author Karsten Lehmann
+ */
+public class TestPackedTimeDateList {
+	private static final long HOUR = 60*60*1000;
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+	/**
+	 * Creates the innards array for single values
+	 */
+	private static int[] toInnards(long... timesMillis) {
+		int[] innards = new int[2*timesMillis.length];
+		int[] currInnards = new int[2];
+		for (int i=0; i<timesMillis.length; i++) {
+			InnardsConverter.encodeInnards(timesMillis[i], UTC, currInnards);
+			innards[2*i] = currInnards[0];
+			innards[2*i+1] = currInnards[1];
+		}
+		return innards;
+	}
+
+	@Test
+	public void testValueQueries() {
+		//unsorted, with a value before 1970 and a value without date part
+		int[] valueInnards = toInnards(5*HOUR, -2*HOUR, 1*HOUR, 3*HOUR, 0);
+		valueInnards[8] = 4320000;
+		valueInnards[9] = NotesConstants.ANYDAY;
+
+		NotesPackedTimeDateList list = NotesPackedTimeDateList.fromInnards(valueInnards, new int[0]);
+		Assert.assertEquals(5, list.getValueCount());
+		Assert.assertEquals(0, list.getRangeCount());
+		Assert.assertEquals(-2*HOUR, list.getValueMillis(1));
+		Assert.assertEquals(InnardsConverter.NO_DATE, list.getValueMillis(4));
+
+		Assert.assertTrue(list.containsValue(-2*HOUR));
+		Assert.assertTrue(list.containsValue(3*HOUR));
+		Assert.assertFalse(list.containsValue(2*HOUR));
+
+		//bounds are inclusive, result is sorted
+		Assert.assertTrue(Arrays.equals(new long[] {-2*HOUR, 1*HOUR, 3*HOUR}, list.getValueMillisBetween(-2*HOUR, 3*HOUR)));
+		Assert.assertTrue(Arrays.equals(new long[] {3*HOUR, 5*HOUR}, list.getValueMillisBetween(2*HOUR, 10*HOUR)));
+		Assert.assertEquals(0, list.getValueMillisBetween(6*HOUR, 10*HOUR).length);
+		Assert.assertEquals(0, list.getValueMillisBetween(4*HOUR, 2*HOUR).length);
+
+		Assert.assertTrue(list.overlaps(5*HOUR, 6*HOUR));
+		Assert.assertFalse(list.overlaps(6*HOUR, 7*HOUR));
+	}
+
+	@Test
+	public void testRangeQueries() {
+		int[] rangeInnards = new int[0];
+		//range 0: long range that contains range 2 and starts before range 1
+		rangeInnards = concat(rangeInnards, toInnards(0, 10*HOUR));
+		//range 1: short range
+		rangeInnards = concat(rangeInnards, toInnards(1*HOUR, 2*HOUR));
+		//range 2: range after range 1
+		rangeInnards = concat(rangeInnards, toInnards(6*HOUR, 7*HOUR));
+		//range 3: range before 1970
+		rangeInnards = concat(rangeInnards, toInnards(-5*HOUR, -4*HOUR));
+
+		NotesPackedTimeDateList list = NotesPackedTimeDateList.fromInnards(new int[0], rangeInnards);
+		Assert.assertEquals(4, list.getRangeCount());
+		Assert.assertEquals(-5*HOUR, list.getRangeStartMillis(3));
+		Assert.assertEquals(-4*HOUR, list.getRangeEndMillis(3));
+
+		//result is sorted by range start
+		Assert.assertTrue(Arrays.equals(new int[] {0, 2}, list.findOverlappingRanges(5*HOUR, 8*HOUR)));
+		Assert.assertTrue(Arrays.equals(new int[] {3, 0, 1}, list.findOverlappingRanges(-4*HOUR, 1*HOUR)));
+		//the long range overlaps even though the short ranges that start later do not
+		Assert.assertTrue(Arrays.equals(new int[] {0}, list.findOverlappingRanges(8*HOUR, 9*HOUR)));
+		//bounds are inclusive
+		Assert.assertTrue(Arrays.equals(new int[] {0}, list.findOverlappingRanges(10*HOUR, 11*HOUR)));
+		Assert.assertEquals(0, list.findOverlappingRanges(11*HOUR, 12*HOUR).length);
+		Assert.assertEquals(0, list.findOverlappingRanges(-10*HOUR, -6*HOUR).length);
+
+		Assert.assertTrue(list.overlaps(-6*HOUR, -5*HOUR));
+		Assert.assertFalse(list.overlaps(-3*HOUR, -1*HOUR));
+	}
+
+	@Test
+	public void testInvalidInnards() {
+		try {
+			NotesPackedTimeDateList.fromInnards(new int[3], new int[0]);
+			Assert.fail("Odd length of value innards accepted");
+		}
+		catch (IllegalArgumentException e) {
+			//expected
+		}
+
+		try {
+			NotesPackedTimeDateList.fromInnards(new int[0], new int[2]);
+			Assert.fail("Range innards without upper value accepted");
+		}
+		catch (IllegalArgumentException e) {
+			//expected
+		}
+	}
+
+	private static int[] concat(int[] arr1, int[] arr2) {
+		int[] result = Arrays.copyOf(arr1, arr1.length + arr2.length);
+		System.arraycopy(arr2, 0, result, arr1.length, arr2.length);
+		return result;
+	}
+}
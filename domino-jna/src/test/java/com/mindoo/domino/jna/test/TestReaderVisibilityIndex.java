@@ -0,0 +1,136 @@
+package com.mindoo.domino.jna.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.sync.CompressedBitmap;
+import com.mindoo.domino.jna.sync.ReaderVisibilityIndex;
+
+/**
+ * Tests cases for {@link ReaderVisibilityIndex}
+ *
+ * @author Karsten Lehmann
+ */
+public class TestReaderVisibilityIndex {
+	private static final String UNID_PUBLIC = "00000000000000000000000000000001";
+	private static final String UNID_SALES = "00000000000000000000000000000002";
+	private static final String UNID_JOHN = "00000000000000000000000000000003";
+	private static final String UNID_NEW = "00000000000000000000000000000004";
+
+	private static final List<String> JOHN = Arrays.asList("CN=John Doe/O=Acme", "*/O=Acme", "*", "Sales");
+	private static final List<String> JANE = Arrays.asList("CN=Jane Roe/O=Acme", "*/O=Acme", "*");
+
+	private static List<String> sorted(List<String> unids) {
+		List<String> sortedUnids = new ArrayList<String>(unids);
+		Collections.sort(sortedUnids);
+		return sortedUnids;
+	}
+
+	private static List<String> visibleUnids(ReaderVisibilityIndex index, List<String> userNamesList) {
+		return sorted(index.toUnids(index.getVisibleDocIds(userNamesList)));
+	}
+
+	private ReaderVisibilityIndex createIndex() {
+		ReaderVisibilityIndex index = new ReaderVisibilityIndex();
+		index.setReaders(UNID_PUBLIC, null);
+		index.setReaders(UNID_SALES, Arrays.asList("sales", "[Admin]"));
+		index.setReaders(UNID_JOHN, Arrays.asList("cn=john doe/o=acme"));
+		return index;
+	}
+
+	@Test
+	public void testVisibility() {
+		ReaderVisibilityIndex index = createIndex();
+		Assert.assertEquals(3, index.getDocumentCount());
+		Assert.assertEquals(3, index.getNameCount());
+
+		//names are compared case-insensitive
+		Assert.assertEquals(Arrays.asList(UNID_PUBLIC, UNID_SALES, UNID_JOHN), visibleUnids(index, JOHN));
+		Assert.assertEquals(Arrays.asList(UNID_PUBLIC), visibleUnids(index, JANE));
+		Assert.assertEquals(Arrays.asList(UNID_PUBLIC, UNID_SALES), visibleUnids(index, Arrays.asList("CN=Jane Roe/O=Acme", "[Admin]")));
+
+		Assert.assertTrue(index.isVisible(UNID_JOHN, JOHN));
+		Assert.assertFalse(index.isVisible(UNID_JOHN, JANE));
+		Assert.assertTrue(index.isVisible(UNID_PUBLIC.toLowerCase(), JANE));
+		Assert.assertFalse(index.isVisible(UNID_NEW, JOHN));
+	}
+
+	@Test
+	public void testChangeReaders() {
+		ReaderVisibilityIndex index = createIndex();
+
+		//restrict the public document, open the restricted one
+		index.setReaders(UNID_PUBLIC, Arrays.asList("CN=Jane Roe/O=Acme"));
+		index.setReaders(UNID_JOHN, Collections.<String>emptyList());
+
+		Assert.assertEquals(Arrays.asList(UNID_SALES, UNID_JOHN), visibleUnids(index, JOHN));
+		Assert.assertEquals(Arrays.asList(UNID_PUBLIC, UNID_JOHN), visibleUnids(index, JANE));
+		Assert.assertEquals(3, index.getDocumentCount());
+	}
+
+	@Test
+	public void testDocIdReuseAfterRemove() {
+		ReaderVisibilityIndex index = createIndex();
+		int johnDocId = index.getDocId(UNID_JOHN);
+		CompressedBitmap johnBefore = index.getVisibleDocIds(JOHN);
+
+		Assert.assertTrue(index.remove(UNID_JOHN));
+		Assert.assertFalse(index.remove(UNID_JOHN));
+		Assert.assertEquals(-1, index.getDocId(UNID_JOHN));
+		Assert.assertNull(index.getUnid(johnDocId));
+		Assert.assertEquals(2, index.getDocumentCount());
+		Assert.assertEquals(Arrays.asList(UNID_PUBLIC, UNID_SALES), visibleUnids(index, JOHN));
+
+		//the new document gets the doc id of the removed one, but not its readers
+		index.setReaders(UNID_NEW, Arrays.asList("CN=Jane Roe/O=Acme"));
+		Assert.assertEquals(johnDocId, index.getDocId(UNID_NEW));
+		Assert.assertEquals(UNID_NEW, index.getUnid(johnDocId));
+		Assert.assertEquals(Arrays.asList(UNID_PUBLIC, UNID_SALES), visibleUnids(index, JOHN));
+		Assert.assertEquals(Arrays.asList(UNID_PUBLIC, UNID_NEW), visibleUnids(index, JANE));
+		Assert.assertFalse(index.isVisible(UNID_NEW, JOHN));
+		Assert.assertTrue(index.isVisible(UNID_NEW, JANE));
+
+		//doc ids computed before the change now point to the new document
+		Assert.assertTrue(johnBefore.contains(johnDocId));
+		Assert.assertTrue(index.toUnids(johnBefore).contains(UNID_NEW));
+
+		//re-add the removed document without reader restrictions
+		index.setReaders(UNID_JOHN, null);
+		Assert.assertEquals(Arrays.asList(UNID_PUBLIC, UNID_SALES, UNID_JOHN), visibleUnids(index, JOHN));
+		Assert.assertEquals(Arrays.asList(UNID_PUBLIC, UNID_JOHN, UNID_NEW), visibleUnids(index, JANE));
+
+		//a removed public document must not stay visible when its doc id is reused
+		int publicDocId = index.getDocId(UNID_PUBLIC);
+		Assert.assertTrue(index.remove(UNID_PUBLIC));
+		index.setReaders(UNID_PUBLIC.replace('1', 'F'), Arrays.asList("Sales"));
+		Assert.assertEquals(publicDocId, index.getDocId(UNID_PUBLIC.replace('1', 'F')));
+		Assert.assertEquals(Arrays.asList(UNID_JOHN, UNID_NEW), visibleUnids(index, JANE));
+	}
+
+	@Test
+	public void testManyDocuments() {
+		ReaderVisibilityIndex index = new ReaderVisibilityIndex();
+		//enough documents per name to get bitset containers
+		for (int i=0; i<20000; i++) {
+			String unid = String.format("%032X", i);
+			index.setReaders(unid, (i % 2)==0 ? Arrays.asList("Sales") : Arrays.asList("CN=Jane Roe/O=Acme"));
+		}
+		Assert.assertEquals(10000, index.getVisibleDocIds(JOHN).cardinality());
+		Assert.assertEquals(10000, index.getVisibleDocIds(JANE).cardinality());
+
+		for (int i=0; i<20000; i+=4) {
+			index.remove(String.format("%032X", i));
+		}
+		Assert.assertEquals(5000, index.getVisibleDocIds(JOHN).cardinality());
+		Assert.assertEquals(10000, index.getVisibleDocIds(JANE).cardinality());
+
+		index.clear();
+		Assert.assertEquals(0, index.getDocumentCount());
+		Assert.assertTrue(index.getVisibleDocIds(JOHN).isEmpty());
+	}
+}
@@ -0,0 +1,440 @@
+package com.mindoo.domino.jna.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.NotesAttachment;
+import com.mindoo.domino.jna.NotesNote;
+import com.mindoo.domino.jna.constants.CDRecordType;
+import com.mindoo.domino.jna.richtext.CaptionPosition;
+import com.mindoo.domino.jna.richtext.FontStyle;
+import com.mindoo.domino.jna.richtext.ICompoundText;
+import com.mindoo.domino.jna.richtext.IRichTextNavigator;
+import com.mindoo.domino.jna.richtext.StandaloneRichText;
+import com.mindoo.domino.jna.richtext.TextStyle;
+import com.mindoo.domino.jna.richtext.conversion.IRichTextConversionOutput;
+import com.mindoo.domino.jna.richtext.conversion.IRichTextRecord;
+import com.mindoo.domino.jna.richtext.conversion.IStreamingRichTextConversion;
+import com.mindoo.domino.jna.richtext.conversion.RichTextConversionPipeline;
+import com.sun.jna.Memory;
+
+/**
+ * Tests cases for the change detection of {@link RichTextConversionPipeline}, using
+ * in-memory CD records
+ *
+ * @author Karsten Lehmann
+ */
+public class TestRichTextConversionPipeline {
+	private static final short SIG_TEXT = 1;
+	private static final short SIG_PARAGRAPH = 2;
+
+	/**
+	 * CD record with a WSIG header that writes itself to a {@link RecordingCompoundText}
+	 */
+	private static class TestRecord implements IRichTextRecord {
+		private final short m_type;
+		private final String m_text;
+
+		public TestRecord(short type, String text) {
+			m_type = type;
+			m_text = text;
+		}
+
+		@Override
+		public CDRecordType getType() {
+			return null;
+		}
+
+		@Override
+		public short getTypeAsShort() {
+			return m_type;
+		}
+
+		@Override
+		public Memory getData() {
+			Memory mem = new Memory(Math.max(1, m_text.length()));
+			mem.write(0, m_text.getBytes(), 0, m_text.length());
+			return mem;
+		}
+
+		@Override
+		public int getDataLength() {
+			return m_text.length();
+		}
+
+		@Override
+		public int getTotalLength() {
+			return 4 + m_text.length();
+		}
+
+		@Override
+		public void copyTo(ICompoundText target) {
+			((RecordingCompoundText) target).m_records.add(m_type+":"+m_text);
+		}
+
+		@Override
+		public IRichTextRecord copy() {
+			return new TestRecord(m_type, m_text);
+		}
+	}
+
+	private static String readText(IRichTextRecord record) {
+		return new String(record.getData().getByteArray(0, record.getDataLength()));
+	}
+
+	/**
+	 * Navigator over a list of records
+	 */
+	private static class TestNavigator implements IRichTextNavigator {
+		private final List<TestRecord> m_records;
+		private int m_index = -1;
+
+		public TestNavigator(TestRecord... records) {
+			m_records = Arrays.asList(records);
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return m_records.isEmpty();
+		}
+
+		@Override
+		public boolean gotoFirst() {
+			m_index = 0;
+			return !m_records.isEmpty();
+		}
+
+		@Override
+		public boolean gotoLast() {
+			m_index = m_records.size()-1;
+			return !m_records.isEmpty();
+		}
+
+		@Override
+		public boolean gotoNext() {
+			if (hasNext()) {
+				m_index++;
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public boolean gotoPrev() {
+			if (hasPrev()) {
+				m_index--;
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return m_index < m_records.size()-1;
+		}
+
+		@Override
+		public boolean hasPrev() {
+			return m_index > 0;
+		}
+
+		@Override
+		public CDRecordType getCurrentRecordType() {
+			return m_records.get(m_index).getType();
+		}
+
+		@Override
+		public Memory getCurrentRecordData() {
+			return m_records.get(m_index).getData();
+		}
+
+		@Override
+		public short getCurrentRecordTypeAsShort() {
+			return m_records.get(m_index).getTypeAsShort();
+		}
+
+		@Override
+		public int getCurrentRecordDataLength() {
+			return m_records.get(m_index).getDataLength();
+		}
+
+		@Override
+		public int getCurrentRecordTotalLength() {
+			return m_records.get(m_index).getTotalLength();
+		}
+
+		@Override
+		public RichTextNavPosition getCurrentRecordPosition() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void restoreCurrentRecordPosition(RichTextNavPosition pos) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void copyCurrentRecordTo(ICompoundText target) {
+			m_records.get(m_index).copyTo(target);
+		}
+	}
+
+	/**
+	 * Target that records the written records as "type:text" strings
+	 */
+	private static class RecordingCompoundText implements ICompoundText {
+		private final List<String> m_records = new ArrayList<String>();
+
+		@Override
+		public <T> T getAdapter(Class<T> clazz) {
+			return null;
+		}
+
+		@Override
+		public void addDocLink(NotesNote note, String comment) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addDocLink(String dbReplicaId, String viewUnid, String noteUNID, String comment) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addRenderedNote(NotesNote note) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addRenderedNote(NotesNote note, String form) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addText(String txt) {
+			m_records.add(SIG_TEXT+":"+txt);
+		}
+
+		@Override
+		public void addText(String txt, TextStyle textStyle, FontStyle fontStyle) {
+			addText(txt);
+		}
+
+		@Override
+		public void addText(String txt, TextStyle textStyle, FontStyle fontStyle, boolean createParagraphForLinebreak) {
+			addText(txt);
+		}
+
+		@Override
+		public void addRichTextItem(NotesNote otherNote, String itemName) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addImage(File f) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addImage(int resizeToWidth, int resizeToHeight, File f) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addImage(int fileSize, InputStream imageData) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addImage(int resizeToWidth, int resizeToHeight, int fileSize, InputStream imageData) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addFileHotspot(NotesAttachment attachment, String filenameToDisplay) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addFileHotspot(NotesAttachment attachment, String filenameToDisplay, String captionText, File image) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addFileHotspot(NotesAttachment attachment, String filenameToDisplay, String captionText, FontStyle captionStyle,
+				CaptionPosition captionPos, int captionColorRed, int captionColorGreen, int captionColorBlue,
+				int resizeToWidth, int resizeToHeight, int fileSize, InputStream imageData) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addClosedStandaloneRichText(StandaloneRichText rt) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean isRecycled() {
+			return false;
+		}
+	}
+
+	/**
+	 * Base class for the test conversions
+	 */
+	private static abstract class TestConversion implements IStreamingRichTextConversion {
+
+		@Override
+		public boolean isMatch(IRichTextNavigator nav) {
+			return true;
+		}
+
+		@Override
+		public void convert(IRichTextNavigator source, ICompoundText target) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void begin() {
+		}
+
+		@Override
+		public void end(IRichTextConversionOutput out) {
+		}
+	}
+
+	/**
+	 * Writes every record unchanged
+	 */
+	private static class PassThroughConversion extends TestConversion {
+
+		@Override
+		public void processRecord(IRichTextRecord record, IRichTextConversionOutput out) {
+			out.write(record);
+		}
+	}
+
+	/**
+	 * Replaces TEXT records one for one with an upper case copy
+	 */
+	private static class UpperCaseConversion extends TestConversion {
+
+		@Override
+		public void processRecord(IRichTextRecord record, IRichTextConversionOutput out) {
+			if (record.getTypeAsShort() == SIG_TEXT) {
+				out.write(new TestRecord(SIG_TEXT, readText(record).toUpperCase()));
+			}
+			else {
+				out.write(record);
+			}
+		}
+	}
+
+	/**
+	 * Drops paragraph records
+	 */
+	private static class DropParagraphsConversion extends TestConversion {
+
+		@Override
+		public void processRecord(IRichTextRecord record, IRichTextConversionOutput out) {
+			if (record.getTypeAsShort() != SIG_PARAGRAPH) {
+				out.write(record);
+			}
+		}
+	}
+
+	/**
+	 * Writes every record when the following record arrives, so the record count does not
+	 * change, but the records are copies
+	 */
+	private static class DelayingConversion extends TestConversion {
+		private TestRecord m_heldBack;
+
+		@Override
+		public void begin() {
+			m_heldBack = null;
+		}
+
+		@Override
+		public void processRecord(IRichTextRecord record, IRichTextConversionOutput out) {
+			if (m_heldBack!=null) {
+				out.write(m_heldBack);
+			}
+			//record.copy() would produce a record that needs a native compound text
+			m_heldBack = new TestRecord(record.getTypeAsShort(), readText(record));
+		}
+
+		@Override
+		public void end(IRichTextConversionOutput out) {
+			if (m_heldBack!=null) {
+				out.write(m_heldBack);
+				m_heldBack = null;
+			}
+		}
+	}
+
+	private static TestNavigator createSource() {
+		return new TestNavigator(new TestRecord(SIG_PARAGRAPH, ""), new TestRecord(SIG_TEXT, "hello"),
+				new TestRecord(SIG_PARAGRAPH, ""), new TestRecord(SIG_TEXT, "world"));
+	}
+
+	@Test
+	public void testPassThrough() {
+		RecordingCompoundText target = new RecordingCompoundText();
+		boolean modified = new RichTextConversionPipeline(new PassThroughConversion(), new PassThroughConversion()).run(createSource(), target);
+
+		Assert.assertFalse(modified);
+		Assert.assertEquals(Arrays.asList("2:", "1:hello", "2:", "1:world"), target.m_records);
+	}
+
+	@Test
+	public void testOneForOneRewrite() {
+		RecordingCompoundText target = new RecordingCompoundText();
+		//the record count does not change, but the records do
+		boolean modified = new RichTextConversionPipeline(new PassThroughConversion(), new UpperCaseConversion()).run(createSource(), target);
+
+		Assert.assertTrue(modified);
+		Assert.assertEquals(Arrays.asList("2:", "1:HELLO", "2:", "1:WORLD"), target.m_records);
+	}
+
+	@Test
+	public void testRewriteInFirstStage() {
+		RecordingCompoundText target = new RecordingCompoundText();
+		boolean modified = new RichTextConversionPipeline(new UpperCaseConversion(), new PassThroughConversion()).run(createSource(), target);
+
+		Assert.assertTrue(modified);
+		Assert.assertEquals(Arrays.asList("2:", "1:HELLO", "2:", "1:WORLD"), target.m_records);
+	}
+
+	@Test
+	public void testDroppedRecords() {
+		RecordingCompoundText target = new RecordingCompoundText();
+		boolean modified = new RichTextConversionPipeline(new DropParagraphsConversion()).run(createSource(), target);
+
+		Assert.assertTrue(modified);
+		Assert.assertEquals(Arrays.asList("1:hello", "1:world"), target.m_records);
+	}
+
+	@Test
+	public void testHeldBackRecords() {
+		RecordingCompoundText target = new RecordingCompoundText();
+		boolean modified = new RichTextConversionPipeline(new DelayingConversion(), new PassThroughConversion()).run(createSource(), target);
+
+		//copies are written, so the pipeline cannot tell that nothing has changed
+		Assert.assertTrue(modified);
+		Assert.assertEquals(Arrays.asList("2:", "1:hello", "2:", "1:world"), target.m_records);
+	}
+
+	@Test
+	public void testEmptySource() {
+		RecordingCompoundText target = new RecordingCompoundText();
+		Assert.assertFalse(new RichTextConversionPipeline(new UpperCaseConversion()).run(new TestNavigator(), target));
+		Assert.assertTrue(target.m_records.isEmpty());
+	}
+}
@@ -0,0 +1,384 @@
+package com.mindoo.domino.jna.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mindoo.domino.jna.IItemTableData;
+import com.mindoo.domino.jna.NotesDatabase;
+import com.mindoo.domino.jna.NotesIDTable;
+import com.mindoo.domino.jna.NotesItem;
+import com.mindoo.domino.jna.NotesNote;
+import com.mindoo.domino.jna.NotesSearch;
+import com.mindoo.domino.jna.NotesSearch.ISearchMatch;
+import com.mindoo.domino.jna.NotesSearch.SearchCallback;
+import com.mindoo.domino.jna.NotesTimeDate;
+import com.mindoo.domino.jna.constants.NoteClass;
+import com.mindoo.domino.jna.constants.Search;
+import com.mindoo.domino.jna.errors.INotesErrorConstants;
+import com.mindoo.domino.jna.errors.NotesError;
+import com.mindoo.domino.jna.gc.NotesGC;
+import com.mindoo.domino.jna.internal.NotesConstants;
+import com.mindoo.domino.jna.internal.NotesNativeAPI;
+import com.mindoo.domino.jna.simulation.SimulatedDatabase;
+import com.mindoo.domino.jna.simulation.SimulatedNote;
+import com.mindoo.domino.jna.simulation.SimulatedNotesBackend;
+
+/**
+ * Tests cases for NSFSearch, ID tables and note access against the simulated Domino backend,
+ * covering the calls made by an incremental sync
+ *
+ * @author Karsten Lehmann
+ */
+public class TestSimulatedBackend {
+	private static final String DB_PATH = "test/simulated.nsf";
+
+	private SimulatedDatabase m_simDb;
+	private SimulatedNote m_john;
+	private SimulatedNote m_jane;
+	private SimulatedNote m_acme;
+
+	@BeforeClass
+	public static void initSimulatedBackend() {
+		NotesNativeAPI.initialize(NotesNativeAPI.Mode.Simulated);
+	}
+
+	@Before
+	public void createDatabase() {
+		SimulatedNotesBackend.reset();
+		m_simDb = SimulatedNotesBackend.createDatabase(DB_PATH, "Simulated database");
+		m_john = m_simDb.createNote(createItems("Form", "Person", "Lastname", "Doe", "Firstname", "John", "Age", 42,
+				"Tags", Arrays.asList("sales", "marketing")));
+		m_jane = m_simDb.createNote(createItems("Form", "Person", "Lastname", "Roe", "Firstname", "Jane", "Age", 37));
+		m_acme = m_simDb.createNote(createItems("Form", "Company", "Name", "Acme"));
+	}
+
+	private static Map<String,Object> createItems(Object... namesAndValues) {
+		Map<String,Object> items = new LinkedHashMap<String,Object>();
+		for (int i=0; i<namesAndValues.length; i+=2) {
+			items.put((String) namesAndValues[i], namesAndValues[i+1]);
+		}
+		return items;
+	}
+
+	private static void runWithAutoGC(final Callable<Object> callable) throws Exception {
+		NotesGC.runWithAutoGC(callable);
+	}
+
+	private static NotesDatabase openDatabase() {
+		return new NotesDatabase("", DB_PATH, "");
+	}
+
+	/**
+	 * Search callback that copies the summary buffer data, because it gets freed after the callback
+	 */
+	private static class CollectingSearchCallback extends SearchCallback {
+		private Map<Integer,Map<String,Object>> m_summaryByNoteId = new TreeMap<Integer,Map<String,Object>>();
+		private Map<Integer,String> m_unidByNoteId = new TreeMap<Integer,String>();
+		private List<Integer> m_deletedNoteIds = new ArrayList<Integer>();
+
+		@Override
+		public Action noteFound(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
+			m_unidByNoteId.put(searchMatch.getNoteId(), searchMatch.getUNID());
+			m_summaryByNoteId.put(searchMatch.getNoteId(), summaryBufferData==null ? null : summaryBufferData.asMap());
+			return Action.Continue;
+		}
+
+		@Override
+		public Action deletionStubFound(NotesDatabase parentDb, ISearchMatch searchMatch) {
+			m_deletedNoteIds.add(searchMatch.getNoteId());
+			return Action.Continue;
+		}
+
+		public List<Integer> getFoundNoteIds() {
+			return new ArrayList<Integer>(m_summaryByNoteId.keySet());
+		}
+
+		public Map<String,Object> getSummary(int noteId) {
+			return m_summaryByNoteId.get(noteId);
+		}
+
+		public String getUNID(int noteId) {
+			return m_unidByNoteId.get(noteId);
+		}
+
+		public List<Integer> getDeletedNoteIds() {
+			return m_deletedNoteIds;
+		}
+	}
+
+	@Test
+	public void testSearchWithSummaryBuffer() throws Exception {
+		runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesDatabase db = openDatabase();
+				CollectingSearchCallback callback = new CollectingSearchCallback();
+				NotesSearch.search(db, null, "@All", "-", EnumSet.of(Search.SUMMARY), EnumSet.of(NoteClass.DOCUMENT), null, callback);
+
+				Assert.assertEquals(Arrays.asList(m_john.getNoteId(), m_jane.getNoteId(), m_acme.getNoteId()), callback.getFoundNoteIds());
+				Assert.assertEquals(m_john.getUNID(), callback.getUNID(m_john.getNoteId()));
+
+				//ITEM_TABLE with item names and values; item names in the map are lowercase
+				Map<String,Object> johnSummary = callback.getSummary(m_john.getNoteId());
+				Assert.assertEquals("Doe", johnSummary.get("lastname"));
+				Assert.assertEquals(Double.valueOf(42), johnSummary.get("age"));
+				Assert.assertEquals(Arrays.asList("sales", "marketing"), johnSummary.get("tags"));
+
+				Map<String,Object> acmeSummary = callback.getSummary(m_acme.getNoteId());
+				Assert.assertEquals("Acme", acmeSummary.get("name"));
+				Assert.assertFalse(acmeSummary.containsKey("lastname"));
+
+				//without SEARCH_SUMMARY, there is no summary buffer
+				CollectingSearchCallback callbackNoSummary = new CollectingSearchCallback();
+				NotesSearch.search(db, null, "@All", "-", EnumSet.noneOf(Search.class), EnumSet.of(NoteClass.DOCUMENT), null, callbackNoSummary);
+				Assert.assertEquals(3, callbackNoSummary.getFoundNoteIds().size());
+				Assert.assertNull(callbackNoSummary.getSummary(m_john.getNoteId()));
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testSearchWithColumnValues() throws Exception {
+		runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesDatabase db = openDatabase();
+
+				//column formulas produce an ITEM_VALUE_TABLE without item names (SEARCH_NOITEMNAMES)
+				LinkedHashMap<String,String> columnFormulas = new LinkedHashMap<String,String>();
+				columnFormulas.put("name", "Lastname");
+				columnFormulas.put("age", "");
+
+				final Map<Integer,List<String>> itemNamesByNoteId = new HashMap<Integer,List<String>>();
+				final Map<Integer,List<Object>> valuesByNoteId = new HashMap<Integer,List<Object>>();
+
+				NotesSearch.search(db, null, "@All", columnFormulas, "-", EnumSet.noneOf(Search.class), EnumSet.of(NoteClass.DOCUMENT), null,
+						new SearchCallback() {
+
+					@Override
+					public Action noteFound(NotesDatabase parentDb, ISearchMatch searchMatch, IItemTableData summaryBufferData) {
+						itemNamesByNoteId.put(searchMatch.getNoteId(), Arrays.asList(summaryBufferData.getItemNames()));
+						valuesByNoteId.put(searchMatch.getNoteId(), Arrays.asList((Object) summaryBufferData.getAsString("name", null),
+								summaryBufferData.getAsDouble("age", null)));
+						return Action.Continue;
+					}
+				});
+
+				Assert.assertEquals(3, valuesByNoteId.size());
+				//only the column values in column order, the column names are added by the decoder
+				Assert.assertEquals(Arrays.asList("name", "age"), itemNamesByNoteId.get(m_john.getNoteId()));
+				Assert.assertEquals(Arrays.asList("Doe", Double.valueOf(42)), valuesByNoteId.get(m_john.getNoteId()));
+				Assert.assertEquals(Arrays.asList("Roe", Double.valueOf(37)), valuesByNoteId.get(m_jane.getNoteId()));
+				//missing items produce empty values
+				Assert.assertEquals(Arrays.asList(null, null), valuesByNoteId.get(m_acme.getNoteId()));
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testIncrementalSearchWithDeletionStubs() throws Exception {
+		runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesDatabase db = openDatabase();
+				EnumSet<Search> searchFlags = EnumSet.of(Search.SUMMARY, Search.NOTIFYDELETIONS);
+
+				CollectingSearchCallback initialCallback = new CollectingSearchCallback();
+				NotesTimeDate until = NotesSearch.search(db, null, "@All", "-", searchFlags, EnumSet.of(NoteClass.DOCUMENT), null, initialCallback);
+				Assert.assertEquals(3, initialCallback.getFoundNoteIds().size());
+				Assert.assertTrue(initialCallback.getDeletedNoteIds().isEmpty());
+
+				SimulatedNote johnUpdated = m_simDb.updateNote(m_john.getNoteId(), createItems("Form", "Person", "Lastname", "Doe-Smith"));
+				m_simDb.deleteNote(m_jane.getNoteId());
+				SimulatedNote newNote = m_simDb.createNote(createItems("Form", "Company", "Name", "Globex"));
+				Assert.assertEquals(2, johnUpdated.getSequence());
+
+				//changes since the last search, including the deletion stub
+				CollectingSearchCallback changesCallback = new CollectingSearchCallback();
+				NotesTimeDate until2 = NotesSearch.search(db, null, "@All", "-", searchFlags, EnumSet.of(NoteClass.DOCUMENT), until, changesCallback);
+				Assert.assertEquals(Arrays.asList(m_john.getNoteId(), newNote.getNoteId()), changesCallback.getFoundNoteIds());
+				Assert.assertEquals("Doe-Smith", changesCallback.getSummary(m_john.getNoteId()).get("lastname"));
+				Assert.assertEquals(Arrays.asList(m_jane.getNoteId()), changesCallback.getDeletedNoteIds());
+
+				//without NOTIFYDELETIONS, deletion stubs are not reported
+				CollectingSearchCallback noDeletionsCallback = new CollectingSearchCallback();
+				NotesSearch.search(db, null, "@All", "-", EnumSet.of(Search.SUMMARY), EnumSet.of(NoteClass.DOCUMENT), until, noDeletionsCallback);
+				Assert.assertEquals(2, noDeletionsCallback.getFoundNoteIds().size());
+				Assert.assertTrue(noDeletionsCallback.getDeletedNoteIds().isEmpty());
+
+				//nothing changed since the second search
+				CollectingSearchCallback noChangesCallback = new CollectingSearchCallback();
+				NotesSearch.search(db, null, "@All", "-", searchFlags, EnumSet.of(NoteClass.DOCUMENT), until2, noChangesCallback);
+				Assert.assertTrue(noChangesCallback.getFoundNoteIds().isEmpty());
+				Assert.assertTrue(noChangesCallback.getDeletedNoteIds().isEmpty());
+
+				//modified note table flags deletion stubs with the high order bit
+				NotesIDTable modifiedTable = db.getModifiedNoteTable(EnumSet.of(NoteClass.DOCUMENT), until, null);
+				Assert.assertEquals(3, modifiedTable.getCount());
+				Assert.assertTrue(modifiedTable.contains(m_john.getNoteId()));
+				Assert.assertTrue(modifiedTable.contains((int) (m_jane.getNoteId() | NotesConstants.NOTEID_RESERVED)));
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testIDTableOperations() throws Exception {
+		runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesIDTable table = new NotesIDTable();
+				Assert.assertTrue(table.isEmpty());
+				Assert.assertTrue(table.addNote(12));
+				Assert.assertFalse(table.addNote(12));
+				table.addNotes(Arrays.asList(4, 20, 8));
+				Assert.assertEquals(4, table.getCount());
+				Assert.assertEquals(Arrays.asList(4, 8, 12, 20), table.toList());
+				Assert.assertEquals(4, table.getFirstId());
+				Assert.assertEquals(20, table.getLastId());
+				Assert.assertTrue(table.isModified());
+
+				Assert.assertTrue(table.removeNote(8));
+				Assert.assertFalse(table.removeNote(8));
+				Assert.assertFalse(table.contains(8));
+
+				NotesIDTable otherTable = new NotesIDTable(new int[] {12, 20, 24});
+				NotesIDTable intersection = table.intersect(otherTable);
+				Assert.assertEquals(Arrays.asList(12, 20), intersection.toList());
+
+				NotesIDTable.ComparisonResult differences = table.findDifferences(otherTable);
+				Assert.assertEquals(Arrays.asList(24), differences.getTableAdds().toList());
+				Assert.assertEquals(Arrays.asList(4), differences.getTableDeletes().toList());
+				Assert.assertEquals(Arrays.asList(12, 20), differences.getTableSame().toList());
+
+				NotesIDTable copy = (NotesIDTable) table.clone();
+				Assert.assertTrue(copy.equalsTable(table));
+				copy.addTable(otherTable);
+				Assert.assertEquals(Arrays.asList(4, 12, 20, 24), copy.toList());
+				copy.removeTable(table);
+				Assert.assertEquals(Arrays.asList(24), copy.toList());
+				Assert.assertFalse(copy.equalsTable(table));
+
+				NotesTimeDate time = new NotesTimeDate(new int[] {4320000, 0x00258C64});
+				table.setTime(time);
+				Assert.assertTrue(Arrays.equals(time.getInnards(), table.getTime().getInnards()));
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testSearchWithIDTableFilter() throws Exception {
+		runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesDatabase db = openDatabase();
+				NotesIDTable filter = new NotesIDTable(new int[] {m_john.getNoteId(), m_acme.getNoteId()});
+
+				CollectingSearchCallback callback = new CollectingSearchCallback();
+				NotesSearch.search(db, filter, "@All", "-", EnumSet.of(Search.SUMMARY), EnumSet.of(NoteClass.DOCUMENT), null, callback);
+				Assert.assertEquals(Arrays.asList(m_john.getNoteId(), m_acme.getNoteId()), callback.getFoundNoteIds());
+				Assert.assertEquals("Acme", callback.getSummary(m_acme.getNoteId()).get("name"));
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testOpenNoteAndReadItems() throws Exception {
+		runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesDatabase db = openDatabase();
+
+				NotesNote note = db.openNoteById(m_john.getNoteId());
+				Assert.assertEquals(m_john.getNoteId(), note.getNoteId());
+				Assert.assertEquals(m_john.getUNID(), note.getUNID());
+				Assert.assertTrue(note.hasItem("lastname"));
+				Assert.assertFalse(note.hasItem("Company"));
+
+				Assert.assertEquals(Arrays.asList((Object) "Doe"), note.getItemValue("Lastname"));
+				Assert.assertEquals(Arrays.asList((Object) Double.valueOf(42)), note.getItemValue("AGE"));
+				Assert.assertEquals(Arrays.asList((Object) "sales", "marketing"), note.getItemValue("Tags"));
+				Assert.assertTrue(note.getItemValue("Company").isEmpty());
+
+				final List<String> itemNames = new ArrayList<String>();
+				note.getItems(new NotesNote.IItemCallback() {
+
+					@Override
+					public void itemNotFound() {
+					}
+
+					@Override
+					public Action itemFound(NotesItem item) {
+						itemNames.add(item.getName());
+						return Action.Continue;
+					}
+				});
+				Assert.assertEquals(Arrays.asList("Form", "Lastname", "Firstname", "Age", "Tags"), itemNames);
+
+				//single pass over all items with NSFItemScan
+				Map<String,List<Object>> values = note.getItemValues(new HashSet<String>(Arrays.asList("firstname", "tags")));
+				Assert.assertEquals(Arrays.asList((Object) "John"), values.get("firstname"));
+				Assert.assertEquals(Arrays.asList((Object) "sales", "marketing"), values.get("tags"));
+				note.recycle();
+
+				NotesNote noteByUnid = db.openNoteByUnid(m_acme.getUNID().toLowerCase());
+				Assert.assertEquals(m_acme.getNoteId(), noteByUnid.getNoteId());
+				Assert.assertEquals(Arrays.asList((Object) "Acme"), noteByUnid.getItemValue("Name"));
+				noteByUnid.recycle();
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testOpenDeletedNote() throws Exception {
+		runWithAutoGC(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				NotesDatabase db = openDatabase();
+				m_simDb.deleteNote(m_jane.getNoteId());
+
+				try {
+					db.openNoteById(m_jane.getNoteId());
+					Assert.fail("Deleted note could be opened");
+				}
+				catch (NotesError e) {
+					Assert.assertEquals(INotesErrorConstants.ERR_NOTE_DELETED, e.getId() & NotesConstants.ERR_MASK);
+				}
+
+				try {
+					db.openNoteById(0x7ffffffc);
+					Assert.fail("Missing note could be opened");
+				}
+				catch (NotesError e) {
+					Assert.assertEquals(INotesErrorConstants.ERR_INVALID_NOTE, e.getId() & NotesConstants.ERR_MASK);
+				}
+				return null;
+			}
+		});
+	}
+}